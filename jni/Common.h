@@ -37,6 +37,7 @@
 static uint32_t neonMode;
 #endif
 #include "FixedFFT.h"
+#include "FloatFFT.h"
 //#include "FFTNR.h"
 #include <time.h>
 
@@ -171,6 +172,17 @@ void JNICALL commonUpdateMultiplier(JNIEnv* env, jclass clazz, jboolean isVoice,
 	}
 }
 
+void commonFft(uint8_t* waveform, uint8_t* fftI, int32_t opt) {
+	if ((opt & DATA_FFT_FLOAT)) {
+		floatFftPrepare(128 << ((opt & DATA_FFT_FLOAT) >> 16));
+		floatFft(waveform, fftI);
+	} else {
+		doFft(waveform, fftI, DATA_FFT);
+		//*** we are not drawing/analyzing the last bin (Nyquist) ;) ***
+		fftI[1] = 0;
+	}
+}
+
 int32_t JNICALL commonProcess(JNIEnv* env, jclass clazz, jbyteArray jwaveform, int32_t opt) {
 	const uint32_t deltaMillis = commonUptimeDeltaMillis(&commonLastTime);
 	beatDeltaMillis += deltaMillis;
@@ -204,9 +216,7 @@ int32_t JNICALL commonProcess(JNIEnv* env, jclass clazz, jbyteArray jwaveform, i
 					//*** we are not drawing/analyzing the last bin (Nyquist) ;) ***
 					fftData[1] = 0.0f;
 				} else {*/
-					doFft(waveform, fftI, DATA_FFT);
-					//*** we are not drawing/analyzing the last bin (Nyquist) ;) ***
-					fftI[1] = 0;
+					commonFft(waveform, fftI, opt);
 				//}
 			}
 		}
@@ -214,6 +224,14 @@ int32_t JNICALL commonProcess(JNIEnv* env, jclass clazz, jbyteArray jwaveform, i
 		waveform = 0;
 	}
 
+	if ((opt & DATA_FFT_GPU)) {
+		//the bars are mapped and smoothed by the spectrum shaders, straight from fftI
+		//(see glSmoothSpectrum() in OpenGLVisualizerJni.h)
+		if (waveform)
+			env->ReleasePrimitiveArrayCritical(jwaveform, waveform, JNI_ABORT);
+		return 0;
+	}
+
 	int32_t vuMeterI = 0;
 	if ((opt & DATA_VUMETER)) {
 		//vuMeterUnfiltered goes from 0 to over 1 (-40dB to over 6.5dB)
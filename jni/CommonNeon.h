@@ -66,3 +66,4 @@ extern float commonCoefNew;
 
 extern void commonProcessNeon(int32_t deltaMillis, int32_t opt);
 extern void doFftNeon(int32_t *workspace, uint8_t *outFft);
+extern void floatFftPassNeon(int32_t m, int32_t s, int32_t twStep, const float *twRe, const float *twIm, const float *xRe, const float *xIm, float *yRe, float *yIm);
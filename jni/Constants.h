@@ -58,6 +58,12 @@
 #define DATA_VUMETER         0x0200
 #define IGNORE_INPUT         0x0400
 
+#define DATA_FFT_FLOAT_256   0x10000
+#define DATA_FFT_FLOAT_512   0x20000
+#define DATA_FFT_FLOAT_1024  0x30000
+#define DATA_FFT_FLOAT       0x70000
+#define DATA_FFT_GPU         0x80000
+
 #define BEAT_DETECTION_1     0x1000
 #define BEAT_DETECTION_2     0x2000
 #define BEAT_DETECTION_3     0x3000
@@ -0,0 +1,189 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+
+//Float real FFT, with 256, 512 or 1024 points, used by commonProcess() and process()
+//when (opt & DATA_FFT_FLOAT) != 0 (FixedFFT.h's doFft() is still used otherwise).
+//
+//A real FFT of N points is computed as a complex FFT of N/2 points (even samples in the real
+//part, odd samples in the imaginary part), followed by the usual unpacking step. The complex FFT
+//is a radix-2 Stockham autosort FFT: there is no bit reversal pass, and, from the third pass on,
+//every butterfly of a pass shares the same twiddle factor across s >= 4 contiguous elements, which
+//is what floatFftPassNeon() (NeonFunctions.cpp) processes with NEON/SSE.
+//
+//The data is kept as split real/imaginary arrays, all twiddle factors and the Hann window are
+//precomputed by floatFftPrepare(), and the output is packed into fftI just like doFft() does (each
+//bar still covers one bin of a CAPTURE_SIZE-point FFT), so everything after the FFT stays the same:
+//- N < CAPTURE_SIZE: only the most recent N samples are analyzed, and the bars are interpolated
+//- N = CAPTURE_SIZE: one bin per bar
+//(there is no N > CAPTURE_SIZE: zero padding the capture would cost more without adding resolution)
+
+#define FLOAT_FFT_MAX_SIZE CAPTURE_SIZE
+
+static int32_t floatFftSize;
+static float floatFftOutputScale;
+static float floatFftWindow[CAPTURE_SIZE] __attribute__((aligned(16)));
+//e^(-2 pi i j / (N / 2)), for 0 <= j < N / 4
+static float floatFftTwRe[FLOAT_FFT_MAX_SIZE >> 2] __attribute__((aligned(16)));
+static float floatFftTwIm[FLOAT_FFT_MAX_SIZE >> 2] __attribute__((aligned(16)));
+//e^(-2 pi i k / N), for 0 <= k < N / 2 (used while unpacking the real FFT)
+static float floatFftUnpackRe[FLOAT_FFT_MAX_SIZE >> 1] __attribute__((aligned(16)));
+static float floatFftUnpackIm[FLOAT_FFT_MAX_SIZE >> 1] __attribute__((aligned(16)));
+static float floatFftBufRe[2][FLOAT_FFT_MAX_SIZE >> 1] __attribute__((aligned(16)));
+static float floatFftBufIm[2][FLOAT_FFT_MAX_SIZE >> 1] __attribute__((aligned(16)));
+static float floatFftMagnitude[(FLOAT_FFT_MAX_SIZE >> 1) + 1] __attribute__((aligned(16)));
+
+void floatFftPrepare(int32_t size) {
+	if (size == floatFftSize)
+		return;
+	if (size < 256)
+		size = 256;
+	else if (size > FLOAT_FFT_MAX_SIZE)
+		size = FLOAT_FFT_MAX_SIZE;
+	const int32_t halfSize = size >> 1;
+	const int32_t windowLength = size;
+
+	double windowSum = 0.0;
+	for (int32_t i = 0; i < windowLength; i++) {
+		const double w = 0.5 - (0.5 * cos(2.0 * 3.1415926535897932384626433832795 * (double)i / (double)(windowLength - 1)));
+		floatFftWindow[i] = (float)w;
+		windowSum += w;
+	}
+	for (int32_t j = 0; j < (halfSize >> 1); j++) {
+		const double a = -2.0 * 3.1415926535897932384626433832795 * (double)j / (double)halfSize;
+		floatFftTwRe[j] = (float)cos(a);
+		floatFftTwIm[j] = (float)sin(a);
+	}
+	for (int32_t k = 0; k < halfSize; k++) {
+		const double a = -2.0 * 3.1415926535897932384626433832795 * (double)k / (double)size;
+		floatFftUnpackRe[k] = (float)cos(a);
+		floatFftUnpackIm[k] = (float)sin(a);
+	}
+
+	//doFft() produces a bar of about (8 * A) for a sine with an amplitude of A (in 8-bit units),
+	//so the amplitudes are mapped the same way, compensating for the window's gain
+	floatFftOutputScale = (float)((2.0 / windowSum) * 8.0);
+	floatFftSize = size;
+}
+
+//scalar version of floatFftPassNeon(), used when s < 4 (or when NEON is not available)
+void floatFftPass(int32_t m, int32_t s, int32_t twStep, const float* xRe, const float* xIm, float* yRe, float* yIm) {
+	const int32_t ms = m * s;
+	for (int32_t p = 0; p < m; p++) {
+		const float wr = floatFftTwRe[p * twStep];
+		const float wi = floatFftTwIm[p * twStep];
+		const int32_t src = s * p;
+		const int32_t dst = src << 1;
+		for (int32_t q = 0; q < s; q++) {
+			const float ar = xRe[src + q], ai = xIm[src + q];
+			const float br = xRe[src + ms + q], bi = xIm[src + ms + q];
+			yRe[dst + q] = ar + br;
+			yIm[dst + q] = ai + bi;
+			const float dr = ar - br, di = ai - bi;
+			yRe[dst + s + q] = (dr * wr) - (di * wi);
+			yIm[dst + s + q] = (dr * wi) + (di * wr);
+		}
+	}
+}
+
+//waveform contains CAPTURE_SIZE unsigned 8-bit samples (just like doFft()'s)
+void floatFft(const uint8_t* waveform, uint8_t* outFft) {
+	const int32_t size = floatFftSize;
+	const int32_t halfSize = size >> 1;
+	const int32_t windowLength = size;
+	float* xRe = floatFftBufRe[0];
+	float* xIm = floatFftBufIm[0];
+	float* yRe = floatFftBufRe[1];
+	float* yIm = floatFftBufIm[1];
+
+	//pack the even samples into the real part, and the odd samples into the imaginary part
+	waveform += CAPTURE_SIZE - windowLength;
+	const float* const window = floatFftWindow;
+	int32_t i;
+	for (i = 0; i < halfSize; i++) {
+		xRe[i] = (float)((int32_t)waveform[i << 1] - 128) * window[i << 1];
+		xIm[i] = (float)((int32_t)waveform[(i << 1) + 1] - 128) * window[(i << 1) + 1];
+	}
+
+	//complex FFT (the result ends up in x)
+	int32_t s = 1;
+	for (int32_t n = halfSize; n > 1; n >>= 1, s <<= 1) {
+		const int32_t m = n >> 1;
+#ifdef FPLAY_ARM
+		if (s >= 4 && neonMode)
+#else
+		if (s >= 4)
+#endif
+			floatFftPassNeon(m, s, halfSize / n, floatFftTwRe, floatFftTwIm, xRe, xIm, yRe, yIm);
+		else
+			floatFftPass(m, s, halfSize / n, xRe, xIm, yRe, yIm);
+		float* t = xRe; xRe = yRe; yRe = t;
+		t = xIm; xIm = yIm; yIm = t;
+	}
+
+	//unpack only the bins that will actually be used
+	const int32_t binCount = (QUARTER_FFT_SIZE * size / CAPTURE_SIZE) + 1;
+	float* const magnitude = floatFftMagnitude;
+	const float scale = floatFftOutputScale;
+	magnitude[0] = fabsf(xRe[0] + xIm[0]) * scale;
+	for (int32_t k = 1; k < binCount; k++) {
+		const float zr = xRe[k], zi = xIm[k];
+		const float cr = xRe[halfSize - k], ci = -xIm[halfSize - k];
+		//even part = (z + c) / 2, odd part = -i (z - c) / 2
+		const float er = zr + cr, ei = zi + ci;
+		const float or_ = zi - ci, oi = cr - zr;
+		const float wr = floatFftUnpackRe[k], wi = floatFftUnpackIm[k];
+		const float re = er + (or_ * wr) - (oi * wi);
+		const float im = ei + (or_ * wi) + (oi * wr);
+		magnitude[k] = sqrtf((re * re) + (im * im)) * scale * 0.5f;
+	}
+
+	//doFft() outputs |re| and |im| and commonProcess() computes sqrt(re^2 + im^2) out of them,
+	//so we split the magnitude evenly between re and im (bar 0 has only re, because im is Nyquist)
+	outFft[0] = ((magnitude[0] >= 255.0f) ? 255 : (uint8_t)magnitude[0]);
+	outFft[1] = 0;
+	if (size == CAPTURE_SIZE) {
+		for (i = 1; i < QUARTER_FFT_SIZE; i++) {
+			const float m = magnitude[i] * 0.70710678f;
+			outFft[i << 1] = outFft[(i << 1) + 1] = ((m >= 255.0f) ? 255 : (uint8_t)m);
+		}
+	} else {
+		const int32_t ratio = CAPTURE_SIZE / size;
+		const float invRatio = 1.0f / (float)ratio;
+		for (i = 1; i < QUARTER_FFT_SIZE; i++) {
+			const int32_t k = i / ratio;
+			const float f = (float)(i - (k * ratio)) * invRatio;
+			const float m = (magnitude[k] + (f * (magnitude[k + 1] - magnitude[k]))) * 0.70710678f;
+			outFft[i << 1] = outFft[(i << 1) + 1] = ((m >= 255.0f) ? 255 : (uint8_t)m);
+		}
+	}
+}
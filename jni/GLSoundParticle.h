@@ -126,6 +126,9 @@ private:
 	uint32_t rotation, nextDiffusion;
 	float matrix[16], xScale, yScale;
 
+	uint32_t stateBuf[2], stateCurrent;
+	int32_t tfDelta, tfSeed, particlesByColumn;
+
 	HeadTracker* headTracker;
 	SimpleTracker* simpleTracker;
 
@@ -145,6 +148,13 @@ public:
 		//timeCoef = ((glType == TYPE_IMMERSIVE_PARTICLE_VR) ? 0.0017f : ((glType == TYPE_IMMERSIVE_PARTICLE) ? 0.0003f : 0.001f));
 		timeCoef = ((glType == TYPE_IMMERSIVE_PARTICLE_VR) ? 0.0017f : 0.001f);
 
+		stateBuf[0] = 0;
+		stateBuf[1] = 0;
+		stateCurrent = 0;
+		tfDelta = 0;
+		tfSeed = 0;
+		particlesByColumn = -1;
+
 		rotation = 0;
 		nextDiffusion = ((glType == TYPE_IMMERSIVE_PARTICLE_VR) ? 4 : 2);
 		yScale = 0.0f;
@@ -209,6 +219,80 @@ public:
 		}
 	}
 
+	int32_t setupInstanced() {
+		//the state of each particle is packed into a vec4 (x, y, color index + speed, theta),
+		//since the speed is always < 1
+		float* const state = new float[BG_COUNT * 4];
+		for (int32_t p = 0; p < BG_COUNT; p++) {
+			state[(p << 2)    ] = bgPos[(p << 1)    ];
+			state[(p << 2) + 1] = bgPos[(p << 1) + 1];
+			state[(p << 2) + 2] = (float)bgColor[p] + bgSpeedY[p];
+			state[(p << 2) + 3] = bgTheta[p];
+		}
+		glGenBuffers(2, stateBuf);
+		if (glGetError() || !stateBuf[0] || !stateBuf[1]) {
+			delete[] state;
+			return -1;
+		}
+		glBindBuffer(GL_ARRAY_BUFFER, stateBuf[0]);
+		glBufferData(GL_ARRAY_BUFFER, (BG_COUNT * 4) * sizeof(float), state, GL_DYNAMIC_DRAW);
+		glBindBuffer(GL_ARRAY_BUFFER, stateBuf[1]);
+		glBufferData(GL_ARRAY_BUFFER, (BG_COUNT * 4) * sizeof(float), state, GL_DYNAMIC_DRAW);
+		delete[] state;
+		if (glGetError()) return -2;
+		stateCurrent = 0;
+
+		//one instance per particle
+		gl3VertexAttribDivisor(2, 1);
+
+		glUseProgram(glProgram);
+		glUniform3fv(glGetUniformLocation(glProgram, "colorArr"), 16, COLORS);
+		particlesByColumn = glGetUniformLocation(glProgram, "particlesByColumn");
+		glUseProgram(glParticleTFProgram);
+		tfDelta = glGetUniformLocation(glParticleTFProgram, "delta");
+		tfSeed = glGetUniformLocation(glParticleTFProgram, "seed");
+		return (glGetError() ? -3 : 0);
+	}
+
+	void advanceInstanced(float delta) {
+		glUseProgram(glParticleTFProgram);
+		glUniform1f(tfDelta, delta);
+		glUniform1f(tfSeed, (float)(rand() & 1023));
+
+		//only attribute 5 must be fetched while advancing the particles (the quad
+		//buffers have less than BG_COUNT vertices)
+		glDisableVertexAttribArray(0);
+		glDisableVertexAttribArray(1);
+		if (glType == TYPE_IMMERSIVE_PARTICLE_VR) {
+			glDisableVertexAttribArray(3);
+			glDisableVertexAttribArray(4);
+		}
+		glEnableVertexAttribArray(5);
+		glBindBuffer(GL_ARRAY_BUFFER, stateBuf[stateCurrent]);
+		glVertexAttribPointer(5, 4, GL_FLOAT, false, 0, 0);
+
+		stateCurrent ^= 1;
+		gl3BindBufferBase(GL_TRANSFORM_FEEDBACK_BUFFER, 0, stateBuf[stateCurrent]);
+		glEnable(GL_RASTERIZER_DISCARD);
+		gl3BeginTransformFeedback(GL_POINTS);
+		glDrawArrays(GL_POINTS, 0, BG_COUNT);
+		gl3EndTransformFeedback();
+		glDisable(GL_RASTERIZER_DISCARD);
+		gl3BindBufferBase(GL_TRANSFORM_FEEDBACK_BUFFER, 0, 0);
+
+		glDisableVertexAttribArray(5);
+		glEnableVertexAttribArray(0);
+		glEnableVertexAttribArray(1);
+		if (glType == TYPE_IMMERSIVE_PARTICLE_VR) {
+			glEnableVertexAttribArray(3);
+			glEnableVertexAttribArray(4);
+		}
+		glBindBuffer(GL_ARRAY_BUFFER, stateBuf[stateCurrent]);
+		glVertexAttribPointer(2, 4, GL_FLOAT, false, 0, 0);
+
+		glUseProgram(glProgram);
+	}
+
 	static void fillTexture() {
 #define TEXTURE_SIZE 64
 		uint8_t *tex = new uint8_t[TEXTURE_SIZE * TEXTURE_SIZE];
@@ -298,10 +382,13 @@ public:
 		float delta = (float)(commonTime - lastTime) * timeCoef;
 		lastTime = commonTime;
 
-		float a;
+		float a, amplitudeArr[BG_COLUMNS];
 		int32_t p = 0, c, ic, i = 2, last = 44, last2 = 116;
 		uint8_t avg, *processedData = _processedData;
 
+		if (glParticleInstanced)
+			advanceInstanced(delta);
+
 		if (glType != TYPE_PARTICLE) {
 			if (nextDiffusion) {
 				//not perfect... but good enough ;)
@@ -511,6 +598,11 @@ public:
 				last2 += 16;
 			}
 
+			if (glParticleInstanced) {
+				amplitudeArr[c] = ((a >= 1.0f) ? 1.0f : a);
+				continue;
+			}
+
 			glUniform1f(glAmplitude, (a >= 1.0f) ? 1.0f : a);
 			//the 31 columns spread from -0.9 to 0.9, and they are evenly spaced
 			glUniform1f(glBaseX, -0.9f + (0.06206897f * (float)c));
@@ -535,7 +627,15 @@ public:
 			glUniform3fv(glColor, BG_PARTICLES_BY_COLUMN, colorArr);
 			glUniform2fv(glPos, BG_PARTICLES_BY_COLUMN, posArr);
 			glUniform1fv(glTheta, BG_PARTICLES_BY_COLUMN, thetaArr);
-			glDrawArrays(GL_TRIANGLES, 0, BG_PARTICLES_BY_COLUMN * (3 * 2));
+			//all the particles are advanced, but only the first glParticlesByColumn ones are drawn
+			glDrawArrays(GL_TRIANGLES, 0, glParticlesByColumn * (3 * 2));
+		}
+
+		if (glParticleInstanced) {
+			//all the particles at once, using the first copy of the rectangle
+			glUniform1fv(glAmplitude, BG_COLUMNS, amplitudeArr);
+			glUniform1i(particlesByColumn, glParticlesByColumn);
+			gl3DrawArraysInstanced(GL_TRIANGLES, 0, 3 * 2, BG_COUNT);
 		}
 	}
 
@@ -84,6 +84,47 @@ void doFftNeon(int32_t *workspace, uint8_t *outFft) {
 #endif
 }
 
+//One pass of FloatFFT.h's Stockham FFT, for s >= 4 (s is always a power of 2): all s butterflies
+//of each group share the same twiddle factor, and their inputs/outputs are contiguous and aligned
+void floatFftPassNeon(int32_t m, int32_t s, int32_t twStep, const float *twRe, const float *twIm, const float *xRe, const float *xIm, float *yRe, float *yIm) {
+	const int32_t ms = m * s;
+	for (int32_t p = 0; p < m; p++) {
+		const int32_t src = s * p;
+		const int32_t dst = src << 1;
+		const float *aRe = xRe + src, *aIm = xIm + src;
+		const float *bRe = aRe + ms, *bIm = aIm + ms;
+		float *sumRe = yRe + dst, *sumIm = yIm + dst;
+		float *difRe = sumRe + s, *difIm = sumIm + s;
+#ifdef FPLAY_ARM
+		const float32x4_t wr = vdupq_n_f32(twRe[p * twStep]);
+		const float32x4_t wi = vdupq_n_f32(twIm[p * twStep]);
+		for (int32_t q = 0; q < s; q += 4) {
+			const float32x4_t ar = vld1q_f32(aRe + q), ai = vld1q_f32(aIm + q);
+			const float32x4_t br = vld1q_f32(bRe + q), bi = vld1q_f32(bIm + q);
+			vst1q_f32(sumRe + q, vaddq_f32(ar, br));
+			vst1q_f32(sumIm + q, vaddq_f32(ai, bi));
+			const float32x4_t dr = vsubq_f32(ar, br), di = vsubq_f32(ai, bi);
+			//(dr * wr) - (di * wi) and (dr * wi) + (di * wr)
+			vst1q_f32(difRe + q, vmlsq_f32(vmulq_f32(dr, wr), di, wi));
+			vst1q_f32(difIm + q, vmlaq_f32(vmulq_f32(dr, wi), di, wr));
+		}
+#else
+		const __m128 wr = _mm_set1_ps(twRe[p * twStep]);
+		const __m128 wi = _mm_set1_ps(twIm[p * twStep]);
+		for (int32_t q = 0; q < s; q += 4) {
+			const __m128 ar = _mm_load_ps(aRe + q), ai = _mm_load_ps(aIm + q);
+			const __m128 br = _mm_load_ps(bRe + q), bi = _mm_load_ps(bIm + q);
+			_mm_store_ps(sumRe + q, _mm_add_ps(ar, br));
+			_mm_store_ps(sumIm + q, _mm_add_ps(ai, bi));
+			const __m128 dr = _mm_sub_ps(ar, br), di = _mm_sub_ps(ai, bi);
+			//(dr * wr) - (di * wi) and (dr * wi) + (di * wr)
+			_mm_store_ps(difRe + q, _mm_sub_ps(_mm_mul_ps(dr, wr), _mm_mul_ps(di, wi)));
+			_mm_store_ps(difIm + q, _mm_add_ps(_mm_mul_ps(dr, wi), _mm_mul_ps(di, wr)));
+		}
+#endif
+	}
+}
+
 void commonProcessNeon(int32_t deltaMillis, int32_t opt) {
 	float *fft = _fft;
 	const float *multiplier = _multiplier;
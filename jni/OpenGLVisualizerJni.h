@@ -39,9 +39,23 @@
 //https://www.khronos.org/opengles/sdk/docs/man31/html/glUniform.xhtml
 
 #include <android/bitmap.h>
+#include <dlfcn.h>
 #include <GLES2/gl2.h>
 #include <GLES2/gl2ext.h>
 
+//we are building against android-10, whose headers do not include GLES3/gl3.h, so the few
+//ES 3.0 entry points used by the instanced particles are loaded from libGLESv3.so at runtime
+#define GL_RASTERIZER_DISCARD 0x8C89
+#define GL_INTERLEAVED_ATTRIBS 0x8C8C
+#define GL_TRANSFORM_FEEDBACK_BUFFER 0x8C8E
+static void* libGLESv3;
+static void (GL_APIENTRY *gl3TransformFeedbackVaryings)(GLuint program, GLsizei count, const GLchar* const* varyings, GLenum bufferMode);
+static void (GL_APIENTRY *gl3BindBufferBase)(GLenum target, GLuint index, GLuint buffer);
+static void (GL_APIENTRY *gl3BeginTransformFeedback)(GLenum primitiveMode);
+static void (GL_APIENTRY *gl3EndTransformFeedback)();
+static void (GL_APIENTRY *gl3VertexAttribDivisor)(GLuint index, GLuint divisor);
+static void (GL_APIENTRY *gl3DrawArraysInstanced)(GLenum mode, GLint first, GLsizei count, GLsizei instanceCount);
+
 //These constants must be kept synchronized with the ones in Java
 #define ERR_INFO -1
 #define ERR_FORMAT -2
@@ -95,9 +109,52 @@ static const char* const rectangleVShader = "attribute vec4 inPosition; attribut
 static const char* const textureFShader = "precision mediump float; varying vec2 vTexCoord; uniform sampler2D texColor; void main() { gl_FragColor = texture2D(texColor, vTexCoord); }";
 static const char* const textureFShaderOES = "#extension GL_OES_EGL_image_external : require\nprecision mediump float; varying vec2 vTexCoord; uniform samplerExternalOES texColorOES; void main() { gl_FragColor = texture2D(texColorOES, vTexCoord); }";
 
-static const char* const immersiveParticleVShader = "attribute vec2 inPosition; attribute vec2 inTexCoord; attribute float inIndex; varying vec2 vTexCoord; varying vec3 vColor; uniform float amplitude; uniform float diffusion; uniform float baseX; uniform vec2 posArr[16]; uniform vec2 aspect; uniform vec3 colorArr[16]; uniform float thetaArr[16]; uniform mat4 mvpMat; void main() {" \
+//the bodies of the particle vertex shaders are shared between the ES 2.0 version (one draw call
+//per column, with the particles' state coming from uniform arrays) and the ES 3.0 version (one
+//instanced draw call, with the particles' state coming from a buffer advanced by transform feedback),
+//and they expect pos, theta, color, amplitude and baseX to have been declared by the header
+#define PARTICLE_VSHADER_HEADER_ES2 "attribute vec4 inPosition; attribute vec2 inTexCoord; attribute float inIndex; varying vec2 vTexCoord; varying vec3 vColor; uniform float amplitude; uniform float baseX; uniform vec2 posArr[16]; uniform vec2 aspect; uniform vec3 colorArr[16]; uniform float thetaArr[16]; void main() {" \
+"int idx = int(inIndex);" \
+"vec2 pos = posArr[idx];" \
+"float theta = thetaArr[idx];" \
+"vec3 color = colorArr[idx];"
+
+//inState = (x, y, color index + speed, theta), and there are BG_PARTICLES_BY_COLUMN (16) particles per column
+//(those beyond particlesByColumn are thrown outside the clip volume, before reaching the rasterizer)
+#define PARTICLE_VSHADER_HEADER_ES3 "#version 300 es\n" \
+"in vec4 inPosition; in vec2 inTexCoord; in vec4 inState; out vec2 vTexCoord; out vec3 vColor; uniform float amplitudeArr[31]; uniform int particlesByColumn; uniform vec2 aspect; uniform vec3 colorArr[16]; void main() {" \
+"if ((gl_InstanceID & 15) >= particlesByColumn) { gl_Position = vec4(0.0, 0.0, 2.0, 1.0); vTexCoord = vec2(0.0); vColor = vec3(0.0); return; }" \
+"float amplitude = amplitudeArr[gl_InstanceID >> 4];" \
+"float baseX = -0.9 + (0.06206897 * float(gl_InstanceID >> 4));" \
+"vec2 pos = inState.xy;" \
+"float theta = inState.w;" \
+"vec3 color = colorArr[int(inState.z)];"
+
+#define PARTICLE_VSHADER_BODY "float a = mix(0.0625, 0.34375, amplitude);" \
+"float bottom = 1.0 - clamp(pos.y, -1.0, 1.0);" \
+"bottom = bottom * bottom * bottom * 0.125;" \
+"a = (0.75 * a) + (0.25 * bottom);" \
+"gl_Position = vec4(baseX + pos.x + (5.0 * (pos.y + 1.0) * pos.x * sin((2.0 * pos.y) + theta)) + (inPosition.x * aspect.x * a), pos.y + (inPosition.y * aspect.y * a), 0.0, 1.0);" \
+"vTexCoord = inTexCoord;" \
+"vColor = color + bottom + (0.25 * amplitude);" \
+"}"
+
+#define IMMERSIVE_PARTICLE_VSHADER_HEADER_ES2 "attribute vec2 inPosition; attribute vec2 inTexCoord; attribute float inIndex; varying vec2 vTexCoord; varying vec3 vColor; uniform float amplitude; uniform float diffusion; uniform float baseX; uniform vec2 posArr[16]; uniform vec2 aspect; uniform vec3 colorArr[16]; uniform float thetaArr[16]; uniform mat4 mvpMat; void main() {" \
 "int idx = int(inIndex);" \
 "vec2 pos = posArr[idx];" \
+"float theta = thetaArr[idx];" \
+"vec3 color = colorArr[idx];"
+
+#define IMMERSIVE_PARTICLE_VSHADER_HEADER_ES3 "#version 300 es\n" \
+"in vec2 inPosition; in vec2 inTexCoord; in vec4 inState; out vec2 vTexCoord; out vec3 vColor; uniform float amplitudeArr[31]; uniform int particlesByColumn; uniform float diffusion; uniform vec2 aspect; uniform vec3 colorArr[16]; uniform mat4 mvpMat; void main() {" \
+"if ((gl_InstanceID & 15) >= particlesByColumn) { gl_Position = vec4(0.0, 0.0, 2.0, 1.0); vTexCoord = vec2(0.0); vColor = vec3(0.0); return; }" \
+"float amplitude = amplitudeArr[gl_InstanceID >> 4];" \
+"float baseX = -0.9 + (0.06206897 * float(gl_InstanceID >> 4));" \
+"vec2 pos = inState.xy;" \
+"float theta = inState.w;" \
+"vec3 color = colorArr[int(inState.z)];"
+
+#define IMMERSIVE_PARTICLE_VSHADER_BODY \
 /*start with the original computation*/ \
 "float a = mix(0.0625, 0.484375, amplitude)," \
 	"bottom = 1.0 - clamp(pos.y, -1.0, 1.0);" \
@@ -106,8 +163,7 @@ static const char* const immersiveParticleVShader = "attribute vec2 inPosition;
 /*to increase their size by 50% (I also moved the "* 5" here) */ \
 /*"a = (0.75 * a) + (0.25 * bottom);"*/ \
 "a = (4.125 * a) + (1.375 * bottom);" \
-
-"vec3 smoothedColor = colorArr[idx] + bottom + (0.25 * amplitude);" \
+"vec3 smoothedColor = color + bottom + (0.25 * amplitude);" \
 /*make the particles smoothly appear at the bottom and diminish at the top*/ \
 /*(from here on, bottom will store the particle's distance from the center - the radius)*/ \
 "if (pos.y > 0.0) {" \
@@ -128,30 +184,69 @@ static const char* const immersiveParticleVShader = "attribute vec2 inPosition;
 "}" \
 "vTexCoord = inTexCoord;" \
 "vColor = smoothedColor;" \
-
 /*baseX goes from -0.9 / 0.9, which we will map to a full circle */ \
 /*(using 1.7 instead of 3.14 maps to pi / 0)*/ \
-"smoothedColor.x = -3.14 * (baseX + pos.x + (diffusion * (pos.y + 1.0) * pos.x * sin((2.0 * pos.y) + thetaArr[idx])));" \
+"smoothedColor.x = -3.14 * (baseX + pos.x + (diffusion * (pos.y + 1.0) * pos.x * sin((2.0 * pos.y) + theta)));" \
 /*spread the particles in a semicylinder with a radius of 3 and height of 12*/ \
 "vec4 p = mvpMat * vec4(bottom * cos(smoothedColor.x), bottom * sin(smoothedColor.x), 6.0 * pos.y, 1.0);" \
 /*"vec4 p = mvpMat * vec4(bottom * cos(smoothedColor.x) + (inPosition.x * a * 5.0), bottom * sin(smoothedColor.x) + (inPosition.y * a * 5.0), 6.0 * pos.y, 1.0);"*/ \
-
 /*gl_Position is different from p, because we want the particles to be always facing the camera*/ \
 "gl_Position = vec4(p.x + (inPosition.x * aspect.x * a), p.y + (inPosition.y * aspect.y * a), p.z, p.w);" \
-"}";
+"}"
 
 static const char* const particleFShader = "precision mediump float; varying vec2 vTexCoord; varying vec3 vColor; uniform sampler2D texColor; void main() {" \
 "float a = texture2D(texColor, vTexCoord).a;"
 "gl_FragColor = vec4(vColor.r * a, vColor.g * a, vColor.b * a, 1.0);" \
 "}";
 
+static const char* const particleFShaderES3 = "#version 300 es\nprecision mediump float; in vec2 vTexCoord; in vec3 vColor; uniform sampler2D texColor; out vec4 fragColor; void main() {" \
+"float a = texture(texColor, vTexCoord).a;"
+"fragColor = vec4(vColor.r * a, vColor.g * a, vColor.b * a, 1.0);" \
+"}";
+
+//advances every particle at once (the same thing GLSoundParticle::draw() does on the CPU for ES 2.0),
+//respawning at the bottom the ones that have gone past the top, using a hash instead of rand()
+static const char* const particleTFVShader = "#version 300 es\nin vec4 inState; out vec4 outState; uniform float delta; uniform float seed;" \
+"float rnd(float n) { return fract(sin(n) * 43758.5453); }" \
+"void main() {" \
+	"if (inState.y > 1.2) {" \
+		"float n = float(gl_VertexID) + seed;" \
+		"outState = vec4(0.0078125 * (floor(8.0 * rnd(n)) - 4.0), -1.2, floor(16.0 * rnd(n + 1.7)) + 0.125 + (0.00390625 * floor(16.0 * rnd(n + 3.1))), 0.03125 * floor(64.0 * rnd(n + 5.3)));" \
+	"} else {" \
+		"outState = vec4(inState.x, inState.y + (fract(inState.z) * delta), inState.zw);" \
+	"}" \
+"}";
+
+static const char* const particleTFFShader = "#version 300 es\nprecision mediump float; out vec4 fragColor; void main() { fragColor = vec4(0.0); }";
+
+static const char* const spectrumSmoothFShader = "#ifdef GL_FRAGMENT_PRECISION_HIGH\nprecision highp float;\n#else\nprecision mediump float;\n#endif\nvarying vec2 vTexCoord; uniform sampler2D texState; uniform sampler2D texRaw; uniform float coefNew; void main() {" \
+	/*texRaw holds fftI as it is (re in luminance and im in alpha), and texState holds the bars of the*/ \
+	/*previous frame as 16-bit values split between r and g, so that small values can still decay*/ \
+	"vec4 raw = texture2D(texRaw, vTexCoord);" \
+	"vec4 state = texture2D(texState, vTexCoord);" \
+	"float old = state.r + (state.g * 0.00392156862745098);" \
+	"float i = floor(vTexCoord.x * 256.0);" \
+	"float amplSq = (raw.r * raw.r) + (raw.a * raw.a);" \
+	/*the same multiplier computed by commonUpdateMultiplier() for the regular bars, already divided by 128*/ \
+	/*(amplSq <= 8 / (255 * 255) is the same threshold used by commonProcess())*/ \
+	"float m = ((amplSq <= 0.000123) ? 0.0 : min(1.0, max(1.0, (400.0 - exp(1.0 / ((i / 3700.0) + 0.165))) * 0.01953125) * sqrt(amplSq)));" \
+	"if (m < old) m = mix(old, m, coefNew);" \
+	"m *= 255.0;" \
+	"gl_FragColor = vec4(floor(m) * 0.00392156862745098, fract(m), 0.0, 1.0);" \
+"}";
+
 static DRAWPROC glDrawProc;
-static uint32_t glProgram, glProgram2, glType, glBuf[5];
-static int32_t glTime, glAmplitude, glVerticesPerRow, glRows, glMatrix, glPos, glColor, glBaseX, glTheta, glOESTexture, glUpDown;
+static uint32_t glProgram, glProgram2, glParticleTFProgram, glParticleInstanced, glType, glVersion, glBuf[5], glSmoothProgram, glSmoothTex[3], glSmoothFbo[2], glSmoothCurrent, glSmoothLastTime;
+//glParticlesByColumn is controlled by the quality governor, and must survive the surface's recreation
+static int32_t glParticlesByColumn = 16;
+static int32_t glFrameTime, glTime, glAmplitude, glVerticesPerRow, glRows, glMatrix, glPos, glColor, glBaseX, glTheta, glOESTexture, glUpDown, glSmoothCoefNew, glViewWidth, glViewHeight;
 
 #define glResetState() glDrawProc = glDrawNothing; \
 glProgram = 0; \
 glProgram2 = 0; \
+glParticleTFProgram = 0; \
+glParticleInstanced = 0; \
+glFrameTime = 0; \
 glBuf[0] = 0; \
 glBuf[1] = 0; \
 glBuf[2] = 0; \
@@ -167,6 +262,16 @@ glColor = 0; \
 glBaseX = 0; \
 glTheta = 0; \
 glUpDown = 0; \
+glSmoothProgram = 0; \
+glSmoothTex[0] = 0; \
+glSmoothTex[1] = 0; \
+glSmoothTex[2] = 0; \
+glSmoothFbo[0] = 0; \
+glSmoothFbo[1] = 0; \
+glSmoothCurrent = 0; \
+glSmoothCoefNew = 0; \
+glViewWidth = 0; \
+glViewHeight = 0; \
 glOESTexture = 0
 
 float glSmoothStep(float edge0, float edge1, float x) {
@@ -180,6 +285,120 @@ float glSmoothStep(float edge0, float edge1, float x) {
 
 #include "GLSoundParticle.h"
 
+void glReleaseSpectrumSmoothing() {
+	if (glSmoothFbo[0] || glSmoothFbo[1])
+		glDeleteFramebuffers(2, glSmoothFbo);
+	if (glSmoothTex[0] || glSmoothTex[1] || glSmoothTex[2])
+		glDeleteTextures(3, glSmoothTex);
+	if (glSmoothProgram)
+		glDeleteProgram(glSmoothProgram);
+	glSmoothProgram = 0;
+	glSmoothTex[0] = 0;
+	glSmoothTex[1] = 0;
+	glSmoothTex[2] = 0;
+	glSmoothFbo[0] = 0;
+	glSmoothFbo[1] = 0;
+	glGetError(); //clear any eventual error flags
+}
+
+int32_t glCreateSpectrumSmoothing(int32_t wrapS) {
+	//the bars are mapped and smoothed by rendering a 256x1 quad into one of two textures
+	//(ping-ponging between them every frame), which the spectrum's vertex shader then
+	//samples, leaving to the CPU only the FFT and the upload of fftI
+	int32_t l;
+
+	if ((l = glCreateProgramAndShaders(rectangleVShader, spectrumSmoothFShader, &glSmoothProgram)))
+		return l;
+
+	glBindAttribLocation(glSmoothProgram, 1, "inPosition");
+	if (glGetError()) return -200;
+	glBindAttribLocation(glSmoothProgram, 2, "inTexCoord");
+	if (glGetError()) return -201;
+	glLinkProgram(glSmoothProgram);
+	l = 0;
+	glGetProgramiv(glSmoothProgram, GL_LINK_STATUS, &l);
+	if (glGetError() || !l) return -202;
+
+	glGenBuffers(2, glBuf + 1);
+	if (glGetError() || !glBuf[1] || !glBuf[2]) return -203;
+	glBindBuffer(GL_ARRAY_BUFFER, glBuf[1]);
+	glBufferData(GL_ARRAY_BUFFER, (4 * 4) * sizeof(float), glVerticesRect, GL_STATIC_DRAW);
+	glBindBuffer(GL_ARRAY_BUFFER, glBuf[2]);
+	glBufferData(GL_ARRAY_BUFFER, (4 * 2) * sizeof(float), glTexCoordsRect, GL_STATIC_DRAW);
+	if (glGetError()) return -204;
+
+	glGenTextures(3, glSmoothTex);
+	if (glGetError() || !glSmoothTex[0] || !glSmoothTex[1] || !glSmoothTex[2]) return -205;
+
+	memset(floatBuffer, 0, 256 * 4);
+
+	//raw texture (fftI)
+	glActiveTexture(GL_TEXTURE2);
+	glBindTexture(GL_TEXTURE_2D, glSmoothTex[2]);
+	glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+	glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+	glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+	glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+	glTexImage2D(GL_TEXTURE_2D, 0, GL_LUMINANCE_ALPHA, 256, 1, 0, GL_LUMINANCE_ALPHA, GL_UNSIGNED_BYTE, (uint8_t*)floatBuffer);
+	if (glGetError()) return -206;
+
+	//state textures (also used as the amplitude texture by the spectrum)
+	glActiveTexture(GL_TEXTURE0);
+	glGenFramebuffers(2, glSmoothFbo);
+	if (glGetError() || !glSmoothFbo[0] || !glSmoothFbo[1]) return -207;
+	for (int32_t i = 1; i >= 0; i--) {
+		glBindTexture(GL_TEXTURE_2D, glSmoothTex[i]);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, wrapS);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, 256, 1, 0, GL_RGBA, GL_UNSIGNED_BYTE, (uint8_t*)floatBuffer);
+		if (glGetError()) return -208;
+		glBindFramebuffer(GL_FRAMEBUFFER, glSmoothFbo[i]);
+		glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, glSmoothTex[i], 0);
+		//RGBA/UNSIGNED_BYTE is not among the formats every ES 2.0 device must be able to render to
+		l = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+		if (glGetError() || l != GL_FRAMEBUFFER_COMPLETE) return -209;
+	}
+	//glSmoothTex[0] is left bound to texture unit 0
+
+	glUseProgram(glSmoothProgram);
+	glUniform1i(glGetUniformLocation(glSmoothProgram, "texState"), 0);
+	glUniform1i(glGetUniformLocation(glSmoothProgram, "texRaw"), 2);
+	glSmoothCoefNew = glGetUniformLocation(glSmoothProgram, "coefNew");
+	if (glGetError()) return -210;
+
+	glEnableVertexAttribArray(1);
+	glBindBuffer(GL_ARRAY_BUFFER, glBuf[1]);
+	glVertexAttribPointer(1, 4, GL_FLOAT, false, 0, 0);
+	glEnableVertexAttribArray(2);
+	glBindBuffer(GL_ARRAY_BUFFER, glBuf[2]);
+	glVertexAttribPointer(2, 2, GL_FLOAT, false, 0, 0);
+	if (glGetError()) return -211;
+
+	glSmoothCurrent = 0;
+	glSmoothLastTime = 0;
+	commonUptimeDeltaMillis(&glSmoothLastTime);
+
+	return 0;
+}
+
+int32_t glTrySpectrumSmoothing(int32_t wrapS) {
+	if (!glCreateSpectrumSmoothing(wrapS))
+		return 1;
+	//fall back to computing the bars on the CPU
+	glDisableVertexAttribArray(1);
+	glDisableVertexAttribArray(2);
+	if (glBuf[1] || glBuf[2])
+		glDeleteBuffers(2, glBuf + 1);
+	glBuf[1] = 0;
+	glBuf[2] = 0;
+	glReleaseSpectrumSmoothing();
+	glActiveTexture(GL_TEXTURE0);
+	return 0;
+}
+
 int32_t glCreateProgramAndShaders(const char* vertexShaderSource, const char* fragmentShaderSource, uint32_t* program) {
 	int32_t l;
 	uint32_t p, vertexShader, fragmentShader;
@@ -281,6 +500,90 @@ void glUpdateSpectrumColorTexture() {
 	glActiveTexture(GL_TEXTURE0);
 }
 
+int32_t glLoadES3() {
+	if (libGLESv3)
+		return 1;
+	//the context must have actually been created as an ES 3.0+ context, which is not
+	//implied by GLVersion (when it comes from ro.opengles.version)
+	const char* const version = (const char*)glGetString(GL_VERSION);
+	if (!version || strncmp(version, "OpenGL ES ", 10) || version[10] < '3' || version[10] > '9')
+		return 0;
+	void* const lib = dlopen("libGLESv3.so", RTLD_NOW | RTLD_LOCAL);
+	if (!lib)
+		return 0;
+	if (!(*((void**)&gl3TransformFeedbackVaryings) = dlsym(lib, "glTransformFeedbackVaryings")) ||
+		!(*((void**)&gl3BindBufferBase) = dlsym(lib, "glBindBufferBase")) ||
+		!(*((void**)&gl3BeginTransformFeedback) = dlsym(lib, "glBeginTransformFeedback")) ||
+		!(*((void**)&gl3EndTransformFeedback) = dlsym(lib, "glEndTransformFeedback")) ||
+		!(*((void**)&gl3VertexAttribDivisor) = dlsym(lib, "glVertexAttribDivisor")) ||
+		!(*((void**)&gl3DrawArraysInstanced) = dlsym(lib, "glDrawArraysInstanced"))) {
+		dlclose(lib);
+		return 0;
+	}
+	libGLESv3 = lib;
+	return 1;
+}
+
+int32_t glCreateParticleProgramES3(const char* vertexShaderSource) {
+	int32_t l;
+
+	if (glCreateProgramAndShaders(vertexShaderSource, particleFShaderES3, &glProgram))
+		return -1;
+	glBindAttribLocation(glProgram, 0, "inPosition");
+	glBindAttribLocation(glProgram, 1, "inTexCoord");
+	glBindAttribLocation(glProgram, 2, "inState");
+	glLinkProgram(glProgram);
+	l = 0;
+	glGetProgramiv(glProgram, GL_LINK_STATUS, &l);
+	if (glGetError() || !l) return -2;
+
+	if (glCreateProgramAndShaders(particleTFVShader, particleTFFShader, &glParticleTFProgram))
+		return -3;
+	//attribute 5 is not used by any of the other programs, so it can be left disabled
+	//while drawing, and enabled only during the transform feedback pass
+	glBindAttribLocation(glParticleTFProgram, 5, "inState");
+	const char* const varyings[] = { "outState" };
+	gl3TransformFeedbackVaryings(glParticleTFProgram, 1, varyings, GL_INTERLEAVED_ATTRIBS);
+	glLinkProgram(glParticleTFProgram);
+	l = 0;
+	glGetProgramiv(glParticleTFProgram, GL_LINK_STATUS, &l);
+	if (glGetError() || !l) return -4;
+
+	return 0;
+}
+
+int32_t glCreateParticleProgram(const char* vertexShaderSourceES2, const char* vertexShaderSourceES3) {
+	int32_t l;
+
+	glParticleInstanced = 0;
+	if (glVersion >= 0x00030000 && glLoadES3()) {
+		if (!glCreateParticleProgramES3(vertexShaderSourceES3)) {
+			glParticleInstanced = 1;
+			return 0;
+		}
+		//fall back to ES 2.0
+		if (glProgram)
+			glDeleteProgram(glProgram);
+		if (glParticleTFProgram)
+			glDeleteProgram(glParticleTFProgram);
+		glProgram = 0;
+		glParticleTFProgram = 0;
+		glGetError(); //clear any eventual error flags
+	}
+
+	if ((l = glCreateProgramAndShaders(vertexShaderSourceES2, particleFShader, &glProgram)))
+		return l;
+
+	glBindAttribLocation(glProgram, 0, "inPosition");
+	if (glGetError()) return -100;
+	glBindAttribLocation(glProgram, 1, "inTexCoord");
+	if (glGetError()) return -101;
+	glLinkProgram(glProgram);
+	if (glGetError()) return -102;
+
+	return 0;
+}
+
 int32_t glParticleSetup(int32_t hasGyro) {
 	glBindAttribLocation(glProgram, 2, "inIndex");
 	if (glGetError()) return -201;
@@ -320,6 +623,8 @@ int32_t glParticleSetup(int32_t hasGyro) {
 	if (glSoundParticle)
 		delete glSoundParticle;
 	glSoundParticle = new GLSoundParticle(hasGyro);
+	if (glParticleInstanced && glSoundParticle->setupInstanced())
+		return -209;
 
 	//create a rectangle for the particles, cropping a 10-pixel border, to improve speed
 #define left (-(32.0f - 10.0f) / 32.0f)
@@ -456,6 +761,41 @@ void glDrawImmersiveParticleVR() {
 		glSoundParticle->draw();
 }
 
+void glSmoothSpectrum() {
+	float coefNew = commonCoefNew * (float)commonUptimeDeltaMillis(&glSmoothLastTime);
+	if (coefNew > 1.0f)
+		coefNew = 1.0f;
+
+	//texture unit 0 holds the bars of the previous frame, which are combined with the new
+	//fftI in order to produce the bars of this frame, which are rendered into the other texture
+	glSmoothCurrent ^= 1;
+	glActiveTexture(GL_TEXTURE2);
+	glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, 256, 1, GL_LUMINANCE_ALPHA, GL_UNSIGNED_BYTE, _fftI);
+	glActiveTexture(GL_TEXTURE0);
+	glBindFramebuffer(GL_FRAMEBUFFER, glSmoothFbo[glSmoothCurrent]);
+	glViewport(0, 0, 256, 1);
+	glUseProgram(glSmoothProgram);
+	glUniform1f(glSmoothCoefNew, coefNew);
+	glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+	glBindFramebuffer(GL_FRAMEBUFFER, 0);
+	glViewport(0, 0, glViewWidth, glViewHeight);
+	glBindTexture(GL_TEXTURE_2D, glSmoothTex[glSmoothCurrent]);
+	glUseProgram(glProgram);
+}
+
+void glDrawSpectrum2SmoothedOnGpu() {
+	if (commonColorIndexApplied != commonColorIndex)
+		glUpdateSpectrumColorTexture();
+
+	glSmoothSpectrum();
+
+	glClear(GL_COLOR_BUFFER_BIT);
+	glUniform1f(glUpDown, 1.0f);
+	glDrawArrays(GL_TRIANGLE_STRIP, 0, 512 * 2); //twice as many vertices as the regular spectrum
+	glUniform1f(glUpDown, -1.0f);
+	glDrawArrays(GL_TRIANGLE_STRIP, 0, 512 * 2); //twice as many vertices as the regular spectrum
+}
+
 void glDrawSpectrum2() {
 	if (commonColorIndexApplied != commonColorIndex)
 		glUpdateSpectrumColorTexture();
@@ -493,6 +833,16 @@ void glDrawSpectrum2WithoutAmplitudeTexture() {
 	glDrawArrays(GL_TRIANGLE_STRIP, 0, 256 * 2); //twice as many vertices as the regular spectrum
 }
 
+void glDrawSpectrumSmoothedOnGpu() {
+	if (commonColorIndexApplied != commonColorIndex)
+		glUpdateSpectrumColorTexture();
+
+	glSmoothSpectrum();
+
+	glClear(GL_COLOR_BUFFER_BIT);
+	glDrawArrays(GL_TRIANGLE_STRIP, 0, 256 * 2);
+}
+
 void glDrawSpectrum() {
 	if (commonColorIndexApplied != commonColorIndex)
 		glUpdateSpectrumColorTexture();
@@ -818,33 +1168,11 @@ int32_t glCreateParticle(int32_t hasGyro) {
 
 	int32_t l;
 
-	if ((l = glCreateProgramAndShaders(
-		//vertex shader
-		"attribute vec4 inPosition; attribute vec2 inTexCoord; attribute float inIndex; varying vec2 vTexCoord; varying vec3 vColor; uniform float amplitude; uniform float baseX; uniform vec2 posArr[16]; uniform vec2 aspect; uniform vec3 colorArr[16]; uniform float thetaArr[16]; void main() {" \
-		"int idx = int(inIndex);" \
-		"vec2 pos = posArr[idx];" \
-		"float a = mix(0.0625, 0.34375, amplitude);" \
-		"float bottom = 1.0 - clamp(pos.y, -1.0, 1.0);" \
-		"bottom = bottom * bottom * bottom * 0.125;" \
-		"a = (0.75 * a) + (0.25 * bottom);" \
-		"gl_Position = vec4(baseX + pos.x + (5.0 * (pos.y + 1.0) * pos.x * sin((2.0 * pos.y) + thetaArr[idx])) + (inPosition.x * aspect.x * a), pos.y + (inPosition.y * aspect.y * a), 0.0, 1.0);" \
-		"vTexCoord = inTexCoord;" \
-		"vColor = colorArr[idx] + bottom + (0.25 * amplitude);" \
-		"}",
-		
-		//fragment shader
-		particleFShader,
-		
-		&glProgram)))
+	if ((l = glCreateParticleProgram(
+		PARTICLE_VSHADER_HEADER_ES2 PARTICLE_VSHADER_BODY,
+		PARTICLE_VSHADER_HEADER_ES3 PARTICLE_VSHADER_BODY)))
 		return l;
 
-	glBindAttribLocation(glProgram, 0, "inPosition");
-	if (glGetError()) return -100;
-	glBindAttribLocation(glProgram, 1, "inTexCoord");
-	if (glGetError()) return -101;
-	glLinkProgram(glProgram);
-	if (glGetError()) return -102;
-
 	if ((l = glParticleSetup(hasGyro))) return l;
 
 	uint32_t glTex = 0;
@@ -868,7 +1196,7 @@ int32_t glCreateParticle(int32_t hasGyro) {
 	glUseProgram(glProgram);
 	if (glGetError()) return -106;
 
-	glAmplitude = glGetUniformLocation(glProgram, "amplitude");
+	glAmplitude = glGetUniformLocation(glProgram, glParticleInstanced ? "amplitudeArr" : "amplitude");
 	glPos = glGetUniformLocation(glProgram, "posArr");
 	glColor = glGetUniformLocation(glProgram, "colorArr");
 	glBaseX = glGetUniformLocation(glProgram, "baseX");
@@ -899,23 +1227,11 @@ int32_t glCreateImmersiveParticle(int32_t hasGyro) {
 
 	int32_t l;
 
-	if ((l = glCreateProgramAndShaders(
-		//vertex shader
-		immersiveParticleVShader,
-
-		//fragment shader
-		particleFShader,
-
-		&glProgram)))
+	if ((l = glCreateParticleProgram(
+		IMMERSIVE_PARTICLE_VSHADER_HEADER_ES2 IMMERSIVE_PARTICLE_VSHADER_BODY,
+		IMMERSIVE_PARTICLE_VSHADER_HEADER_ES3 IMMERSIVE_PARTICLE_VSHADER_BODY)))
 		return l;
 
-	glBindAttribLocation(glProgram, 0, "inPosition");
-	if (glGetError()) return -100;
-	glBindAttribLocation(glProgram, 1, "inTexCoord");
-	if (glGetError()) return -101;
-	glLinkProgram(glProgram);
-	if (glGetError()) return -102;
-
 	if ((l = glParticleSetup(hasGyro))) return l;
 
 	uint32_t glTex[2] = { 0, 0 };
@@ -955,7 +1271,7 @@ int32_t glCreateImmersiveParticle(int32_t hasGyro) {
 	if (glGetError()) return -107;
 
 	glMatrix = glGetUniformLocation(glProgram, "mvpMat");
-	glAmplitude = glGetUniformLocation(glProgram, "amplitude");
+	glAmplitude = glGetUniformLocation(glProgram, glParticleInstanced ? "amplitudeArr" : "amplitude");
 	glPos = glGetUniformLocation(glProgram, "posArr");
 	glColor = glGetUniformLocation(glProgram, "colorArr");
 	glBaseX = glGetUniformLocation(glProgram, "baseX");
@@ -999,10 +1315,27 @@ int32_t glCreateSpectrum2() {
 	if (spectrumUsesTexture < 2)
 		spectrumUsesTexture = 0;
 
+	const int32_t spectrumSmoothedOnGpu = (spectrumUsesTexture ? glTrySpectrumSmoothing(GL_MIRRORED_REPEAT) : 0);
+
 	int32_t l;
 
 	if ((l = glCreateProgramAndShaders(
 		//vertex shader
+		spectrumSmoothedOnGpu ? "attribute float inPosition; varying vec4 vColor; uniform sampler2D texAmplitude; uniform sampler2D texColor; uniform float upDown; void main() {" \
+			"float absx = abs(inPosition);" \
+			"if (inPosition > 0.0) {" \
+				/*top/bottom points*/ \
+				"gl_Position = vec4(absx - 2.0, upDown, 0.0, 1.0);" \
+				"vColor = vec4(1.0, 1.0, 1.0, 1.0);" \
+			"} else {" \
+				/*middle points (the amplitude is stored as a 16-bit value split between r and g)*/ \
+				"vec4 state = texture2D(texAmplitude, vec2(absx, 0.0));" \
+				"float ampl = state.r + (state.g * 0.00392156862745098);" \
+				"gl_Position = vec4(absx - 2.0, upDown * (1.0 - ampl), 0.0, 1.0);" \
+				"vColor = texture2D(texColor, vec2(ampl, 0.0));" \
+			"}" \
+		"}"
+		:
 		spectrumUsesTexture ? "attribute float inPosition; varying vec4 vColor; uniform sampler2D texAmplitude; uniform sampler2D texColor; uniform float upDown; void main() {" \
 			"float absx = abs(inPosition);" \
 			"if (inPosition > 0.0) {" \
@@ -1047,7 +1380,7 @@ int32_t glCreateSpectrum2() {
 		"}",
 
 		//fragment shader
-		spectrumUsesTexture ? "precision mediump float; varying vec4 vColor; void main() {" \
+		(spectrumSmoothedOnGpu || spectrumUsesTexture) ? "precision mediump float; varying vec4 vColor; void main() {" \
 			"gl_FragColor = vColor;" \
 		"}"
 		:
@@ -1138,6 +1471,8 @@ int32_t glCreateSpectrum2() {
 
 	//leave everything prepared for fast drawing :)
 	glActiveTexture(GL_TEXTURE0);
+	if (spectrumSmoothedOnGpu)
+		glBindTexture(GL_TEXTURE_2D, glSmoothTex[0]);
 
 	glUseProgram(glProgram);
 	if (glGetError()) return -109;
@@ -1155,7 +1490,7 @@ int32_t glCreateSpectrum2() {
 	glVertexAttribPointer(0, 1, GL_FLOAT, false, 0, 0);
 	if (glGetError()) return -111;
 
-	glDrawProc = (spectrumUsesTexture ? glDrawSpectrum2 : glDrawSpectrum2WithoutAmplitudeTexture);
+	glDrawProc = (spectrumSmoothedOnGpu ? glDrawSpectrum2SmoothedOnGpu : (spectrumUsesTexture ? glDrawSpectrum2 : glDrawSpectrum2WithoutAmplitudeTexture));
 
 	return 0;
 }
@@ -1168,10 +1503,21 @@ int32_t glCreateSpectrum() {
 	if (spectrumUsesTexture < 2)
 		spectrumUsesTexture = 0;
 
+	const int32_t spectrumSmoothedOnGpu = (spectrumUsesTexture ? glTrySpectrumSmoothing(GL_CLAMP_TO_EDGE) : 0);
+
 	int32_t l;
 
 	if ((l = glCreateProgramAndShaders(
 		//vertex shader
+		spectrumSmoothedOnGpu ? "attribute float inPosition; varying vec4 vColor; uniform sampler2D texAmplitude; uniform sampler2D texColor; void main() {" \
+			"float absx = abs(inPosition);" \
+			/*the amplitude is stored as a 16-bit value split between r and g*/ \
+			"vec4 state = texture2D(texAmplitude, vec2(0.5 * (absx - 1.0), 0.0));" \
+			"float ampl = state.r + (state.g * 0.00392156862745098);" \
+			"gl_Position = vec4(absx - 2.0, sign(inPosition) * ampl, 0.0, 1.0);" \
+			"vColor = texture2D(texColor, vec2(ampl, 0.0));" \
+		"}"
+		:
 		spectrumUsesTexture ? "attribute float inPosition; varying vec4 vColor; uniform sampler2D texAmplitude; uniform sampler2D texColor; void main() {" \
 			"float absx = abs(inPosition);" \
 			"vec4 ampl = texture2D(texAmplitude, vec2(0.5 * (absx - 1.0), 0.0));" \
@@ -1191,7 +1537,7 @@ int32_t glCreateSpectrum() {
 		"}",
 
 		//fragment shader
-		spectrumUsesTexture ? "precision mediump float; varying vec4 vColor; void main() {" \
+		(spectrumSmoothedOnGpu || spectrumUsesTexture) ? "precision mediump float; varying vec4 vColor; void main() {" \
 			"gl_FragColor = vColor;" \
 		"}"
 		:
@@ -1276,6 +1622,8 @@ int32_t glCreateSpectrum() {
 
 	//leave everything prepared for fast drawing :)
 	glActiveTexture(GL_TEXTURE0);
+	if (spectrumSmoothedOnGpu)
+		glBindTexture(GL_TEXTURE_2D, glSmoothTex[0]);
 
 	glUseProgram(glProgram);
 	if (glGetError()) return -109;
@@ -1292,7 +1640,7 @@ int32_t glCreateSpectrum() {
 	glVertexAttribPointer(0, 1, GL_FLOAT, false, 0, 0);
 	if (glGetError()) return -111;
 
-	glDrawProc = (spectrumUsesTexture ? glDrawSpectrum : glDrawSpectrumWithoutAmplitudeTexture);
+	glDrawProc = (spectrumSmoothedOnGpu ? glDrawSpectrumSmoothedOnGpu : (spectrumUsesTexture ? glDrawSpectrum : glDrawSpectrumWithoutAmplitudeTexture));
 
 	return 0;
 }
@@ -1301,9 +1649,14 @@ int32_t JNICALL glGetOESTexture(JNIEnv* env, jclass clazz) {
 	return glOESTexture;
 }
 
-int32_t JNICALL glOnSurfaceCreated(JNIEnv* env, jclass clazz, int32_t bgColor, int32_t type, int32_t estimatedWidth, int32_t estimatedHeight, int32_t dp1OrLess, int32_t hasGyro) {
+int32_t JNICALL glGetSpectrumDataType(JNIEnv* env, jclass clazz) {
+	return (glSmoothProgram ? DATA_FFT_GPU : 0);
+}
+
+int32_t JNICALL glOnSurfaceCreated(JNIEnv* env, jclass clazz, int32_t bgColor, int32_t type, int32_t estimatedWidth, int32_t estimatedHeight, int32_t dp1OrLess, int32_t hasGyro, int32_t version) {
 	commonSRand();
 	glType = type;
+	glVersion = version;
 	glResetState();
 
 	//settings common to all OpenGL visualizations
@@ -1365,6 +1718,8 @@ int32_t JNICALL glOnSurfaceCreated(JNIEnv* env, jclass clazz, int32_t bgColor, i
 
 void JNICALL glOnSurfaceChanged(JNIEnv* env, jclass clazz, int32_t width, int32_t height, int32_t rotation, int32_t cameraPreviewW, int32_t cameraPreviewH, int32_t dp1OrLess) {
 	glViewport(0, 0, width, height);
+	glViewWidth = width;
+	glViewHeight = height;
 	if (glProgram && glBuf[0] && glBuf[1] && width > 0 && height > 0) {
 		if (glType == TYPE_SPIN) {
 			int32_t size = glComputeSpinSize(width, height, dp1OrLess);
@@ -1512,7 +1867,18 @@ int32_t JNICALL glLoadBitmapFromJava(JNIEnv* env, jclass clazz, jobject bitmap)
 }
 
 void JNICALL glDrawFrame(JNIEnv* env, jclass clazz) {
+	//this only measures how long it takes to submit the frame (the GPU runs asynchronously),
+	//which is what the CPU-side work of each visualizer costs
+	struct timespec t0, t1;
+	clock_gettime(CLOCK_MONOTONIC, &t0);
 	glDrawProc();
+	clock_gettime(CLOCK_MONOTONIC, &t1);
+	const int32_t frameTime = (int32_t)(((t1.tv_sec - t0.tv_sec) * 1000000) + ((t1.tv_nsec - t0.tv_nsec) / 1000));
+	glFrameTime = ((glFrameTime * 15) + frameTime) >> 4;
+}
+
+int32_t JNICALL glGetFrameTime(JNIEnv* env, jclass clazz) {
+	return glFrameTime;
 }
 
 void JNICALL glOnSensorReset(JNIEnv* env, jclass clazz) {
@@ -1535,6 +1901,10 @@ void JNICALL glSetImmersiveCfg(JNIEnv* env, jclass clazz, int32_t diffusion, int
 	glSoundParticle->setImmersiveCfg(diffusion, riseSpeed);
 }
 
+void JNICALL glSetParticlesByColumn(JNIEnv* env, jclass clazz, int32_t particlesByColumn) {
+	glParticlesByColumn = ((particlesByColumn < 1) ? 1 : ((particlesByColumn > 16) ? 16 : particlesByColumn));
+}
+
 void JNICALL glReleaseView(JNIEnv* env, jclass clazz) {
 	if (glSoundParticle) {
 		delete glSoundParticle;
@@ -134,9 +134,7 @@ void JNICALL process(JNIEnv* env, jclass clazz, jbyteArray jwaveform, jobject su
 		}
 
 		fftI = _fftI;
-		doFft(waveform, fftI, DATA_FFT);
-		//*** we are not drawing/analyzing the last bin (Nyquist) ;) ***
-		fftI[1] = 0;
+		commonFft(waveform, fftI, opt);
 
 		env->ReleasePrimitiveArrayCritical(jwaveform, waveform, JNI_ABORT);
 	} else {
@@ -371,9 +369,7 @@ void JNICALL processVoice(JNIEnv* env, jclass clazz, jbyteArray jwaveform, jobje
 		}
 
 		fftI = _fftI;
-		doFft(waveform, fftI, DATA_FFT);
-		//*** we are not drawing/analyzing the last bin (Nyquist) ;) ***
-		fftI[1] = 0;
+		commonFft(waveform, fftI, opt);
 
 		env->ReleasePrimitiveArrayCritical(jwaveform, waveform, JNI_ABORT);
 	} else {
@@ -504,13 +500,16 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* reserved) {
 		{"processVoice", "([BLandroid/view/Surface;I)V", (void*)processVoice},
 
 		{"glGetOESTexture", "()I", (void*)glGetOESTexture},
-		{"glOnSurfaceCreated", "(IIIIII)I", (void*)glOnSurfaceCreated},
+		{"glGetSpectrumDataType", "()I", (void*)glGetSpectrumDataType},
+		{"glOnSurfaceCreated", "(IIIIIII)I", (void*)glOnSurfaceCreated},
 		{"glOnSurfaceChanged", "(IIIIII)V", (void*)glOnSurfaceChanged},
 		{"glLoadBitmapFromJava", "(Landroid/graphics/Bitmap;)I", (void*)glLoadBitmapFromJava},
 		{"glDrawFrame", "()V", (void*)glDrawFrame},
+		{"glGetFrameTime", "()I", (void*)glGetFrameTime},
 		{"glOnSensorReset", "()V", (void*)glOnSensorReset},
 		{"glOnSensorData", "(JI[F)V", (void*)glOnSensorData},
 		{"glSetImmersiveCfg", "(II)V", (void*)glSetImmersiveCfg},
+		{"glSetParticlesByColumn", "(I)V", (void*)glSetParticlesByColumn},
 		{"glReleaseView", "()V", (void*)glReleaseView}
 	};
 	JNIEnv* env;
@@ -0,0 +1,146 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+
+//Micro-benchmark comparing FloatFFT.h (256/512/1024/2048 points, NEON/SSE passes) with the two
+//existing FFTs: FixedFFT.h's doFft() (CAPTURE_SIZE points, fixed point) and FFTNR.h (FFT_SIZE
+//points, float, Numerical Recipes). It also checks FloatFFT.h's magnitudes against FFTNR.h's.
+//
+//Build and run on x86 Linux (from the jni/bench folder, NeonFunctions.cpp includes jni.h):
+//g++ -O2 -mssse3 -I$JAVA_HOME/include -I$JAVA_HOME/include/linux -o FFTBench FFTBench.cpp ../NeonFunctions.cpp -lm && ./FFTBench
+
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+
+#include "../CommonNeon.h"
+
+float floatBuffer[(QUARTER_FFT_SIZE * 3) + (QUARTER_FFT_SIZE / 4) + ((QUARTER_FFT_SIZE / 4) * 2)] __attribute__((aligned(16)));
+float commonCoefNew;
+#ifdef FPLAY_ARM
+static uint32_t neonMode = 1;
+#endif
+
+#include "../FixedFFT.h"
+#include "../FloatFFT.h"
+#include "../FFTNR.h"
+
+#define ITERATIONS 20000
+
+static uint8_t waveform[CAPTURE_SIZE] __attribute__((aligned(16)));
+static uint8_t outFft[CAPTURE_SIZE] __attribute__((aligned(16)));
+static float fftData[FFT_SIZE] __attribute__((aligned(16)));
+
+static double now() {
+	struct timespec t;
+	clock_gettime(CLOCK_MONOTONIC, &t);
+	return (double)t.tv_sec + ((double)t.tv_nsec * 1e-9);
+}
+
+static void fixedFft() {
+	doFft(waveform, outFft, DATA_FFT);
+}
+
+static void nrFft() {
+	for (int32_t i = 0; i < FFT_SIZE; i++)
+		fftData[i] = (float)((int32_t)waveform[i] - 128);
+	FFTNR::Forward(fftData);
+}
+
+static void floatFftOnly() {
+	floatFft(waveform, outFft);
+}
+
+static double run(void (*proc)()) {
+	const double start = now();
+	for (int32_t i = 0; i < ITERATIONS; i++)
+		proc();
+	return ((now() - start) * 1e9) / (double)ITERATIONS;
+}
+
+int main(int argc, char** argv) {
+	srand(1);
+	//a few sines + noise
+	for (int32_t i = 0; i < CAPTURE_SIZE; i++) {
+		const double t = (double)i;
+		const double v = (40.0 * sin(t * 2.0 * 3.1415926535897932384626433832795 * 20.0 / (double)CAPTURE_SIZE)) +
+			(25.0 * sin(t * 2.0 * 3.1415926535897932384626433832795 * 100.5 / (double)CAPTURE_SIZE)) +
+			(10.0 * sin(t * 2.0 * 3.1415926535897932384626433832795 * 230.0 / (double)CAPTURE_SIZE)) +
+			(double)((rand() & 15) - 8);
+		waveform[i] = (uint8_t)(128 + (int32_t)v);
+	}
+
+	FFTNR::Initialize();
+
+	//FloatFFT.h (1024 points, no window) must match FFTNR.h's magnitudes
+	floatFftPrepare(CAPTURE_SIZE);
+	for (int32_t i = 0; i < CAPTURE_SIZE; i++)
+		floatFftWindow[i] = 1.0f;
+	floatFft(waveform, outFft);
+	nrFft();
+	double maxRelDiff = 0.0;
+	for (int32_t k = 1; k < QUARTER_FFT_SIZE; k++) {
+		const double nr = sqrt(((double)fftData[k << 1] * (double)fftData[k << 1]) + ((double)fftData[(k << 1) + 1] * (double)fftData[(k << 1) + 1]));
+		const double fl = (double)floatFftMagnitude[k] / (double)floatFftOutputScale;
+		const double d = fabs(nr - fl) / ((nr > 1.0) ? nr : 1.0);
+		if (maxRelDiff < d)
+			maxRelDiff = d;
+	}
+	printf("max relative difference FloatFFT x FFTNR: %g\n", maxRelDiff);
+
+	//with the window, a sine must produce roughly the same bars as doFft() (bar 230 = 10 * sin())
+	floatFftSize = 0;
+	floatFftPrepare(CAPTURE_SIZE);
+	floatFft(waveform, outFft);
+	printf("bar 230 (FloatFFT 1024): %d\n", (int32_t)sqrtf((float)((outFft[460] * outFft[460]) + (outFft[461] * outFft[461]))));
+	doFft(waveform, outFft, DATA_FFT);
+	printf("bar 230 (FixedFFT):      %d\n", (int32_t)sqrtf((float)((outFft[460] * outFft[460]) + (outFft[461] * outFft[461]))));
+
+	//warm up
+	run(fixedFft);
+	run(nrFft);
+	const double fixed = run(fixedFft);
+	const double nr = run(nrFft);
+	printf("FixedFFT %4d: %8.1f ns/frame\n", CAPTURE_SIZE, fixed);
+	printf("FFTNR    %4d: %8.1f ns/frame\n", FFT_SIZE, nr);
+	for (int32_t size = 256; size <= FLOAT_FFT_MAX_SIZE; size <<= 1) {
+		floatFftPrepare(size);
+		run(floatFftOnly);
+		const double fl = run(floatFftOnly);
+		printf("FloatFFT %4d: %8.1f ns/frame (%.2fx FixedFFT, %.2fx FFTNR)\n", size, fl, fixed / fl, nr / fl);
+	}
+
+	return 0;
+}
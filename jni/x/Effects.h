@@ -32,6 +32,7 @@
 //
 
 #include "EffectsImplMacros.h"
+#include "EqualizerCascade.h"
 
 //https://en.wikipedia.org/wiki/Dynamic_range_compression
 //https://en.wikipedia.org/wiki/Dynamic_range_compression#Limiting
@@ -42,9 +43,11 @@
 static uint32_t bassBoostStrength, virtualizerStrength;
 static int32_t equalizerGainInMillibels[BAND_COUNT];
 static EFFECTPROC effectProc;
+static EFFECTPROCFLOAT effectProcFloat;
 static float* effectsFloatSamplesOriginal;
 
-uint32_t effectsEnabled, equalizerMaxBandCount, effectsGainEnabled;
+uint32_t effectsEnabled, equalizerMaxBandCount, effectsGainEnabled, equalizerActiveBandCount,
+	equalizerActiveBands[BAND_COUNT - 2];
 int32_t effectsFramesBeforeRecoveringGain,
 	effectsMinimumAmountOfFramesToReduce,
 	effectsTemp[4] __attribute__((aligned(16))),
@@ -53,7 +56,8 @@ float effectsGainRecoveryOne[4] __attribute__((aligned(16))) = { 1.0f, 1.0f, 0.0
 	effectsGainReductionPerFrame[4] __attribute__((aligned(16))),
 	effectsGainRecoveryPerFrame[4] __attribute__((aligned(16))),
 	effectsGainClip[4] __attribute__((aligned(16))),
-	equalizerLastBandGain[4] __attribute__((aligned(16)));
+	equalizerLastBandGain[4] __attribute__((aligned(16))),
+	effectsPreGain[4] __attribute__((aligned(16))) = { 1.0f, 1.0f, 0.0f, 0.0f };
 EqualizerCoefs equalizerCoefs[BAND_COUNT - 2] __attribute__((aligned(16)));
 EqualizerState equalizerStates[BAND_COUNT - 2] __attribute__((aligned(16)));
 float *effectsFloatSamples;
@@ -98,6 +102,15 @@ uint32_t JNICALL isAutomaticEffectsGainEnabled(JNIEnv* env, jclass clazz) {
 	return effectsGainEnabled;
 }
 
+void JNICALL setPreGainInMillibels(JNIEnv* env, jclass clazz, int32_t gainInMillibels) {
+	//static gain applied to the entire track (computed ahead of time by LoudnessAnalyzer.java),
+	//so that the automatic gain rarely has to step in when a loud track follows a quiet one
+	gainInMillibels = ((gainInMillibels <= -DB_RANGE) ? -DB_RANGE : ((gainInMillibels >= DB_RANGE) ? DB_RANGE : gainInMillibels));
+	effectsPreGain[0] = (gainInMillibels ? (float)pow(10.0, (double)gainInMillibels / 2000.0) : 1.0f);
+	effectsPreGain[1] = effectsPreGain[0];
+	updateEffectProc();
+}
+
 void updateEqualizerGains(int32_t bandToReset) {
 	if (!(effectsEnabled & (EQUALIZER_ENABLED | BASSBOOST_ENABLED)))
 		return;
@@ -127,6 +140,13 @@ void updateEqualizerGains(int32_t bandToReset) {
 		computeFilter(lastBand);
 	}
 
+	//only the bands that actually have a gain take part in the cascade (band 0 = pre, and the last band is just a gain)
+	equalizerActiveBandCount = 0;
+	for (int32_t band = equalizerMaxBandCount - 2; band >= 1; band--) {
+		if (equalizerActuallyUsedGainInMillibels[band])
+			equalizerActiveBands[equalizerActiveBandCount++] = band - 1;
+	}
+
 	//Apparently, resetting only a few bands puts the entire equalizer in an
 	//unstable state some times... :/
 	//if (bandToReset < 1) //reset all bands
@@ -194,6 +214,7 @@ void initializeEffects() {
 	effectsFloatSamplesOriginal = 0;
 	effectsFloatSamples = 0;
 	effectsGainEnabled = 1;
+	equalizerActiveBandCount = 0;
 	effectsGainReductionPerFrame[0] = 1.0f;
 	effectsGainReductionPerFrame[1] = 1.0f;
 	effectsGainReductionPerFrame[2] = 0.0f;
@@ -206,6 +227,10 @@ void initializeEffects() {
 	equalizerLastBandGain[1] = 1.0f;
 	equalizerLastBandGain[2] = 0.0f;
 	equalizerLastBandGain[3] = 0.0f;
+	effectsPreGain[0] = 1.0f;
+	effectsPreGain[1] = 1.0f;
+	effectsPreGain[2] = 0.0f;
+	effectsPreGain[3] = 0.0f;
 
 	memset(equalizerGainInMillibels, 0, BAND_COUNT * sizeof(int32_t));
 	memset(equalizerActuallyUsedGainInMillibels, 0, BAND_COUNT * sizeof(int32_t));
@@ -241,97 +266,131 @@ void processEffects(int16_t* buffer, uint32_t sizeInFrames) {
 	else
 		effectsMinimumAmountOfFramesToReduce -= sizeInFrames;
 
-	if (!(effectsEnabled & (EQUALIZER_ENABLED | BASSBOOST_ENABLED)) || !equalizerActuallyUsedGainInMillibels[BAND_COUNT - 1]) {
-		for (int32_t i = ((sizeInFrames << 1) - 1); i >= 0; i--)
-			effectsFloatSamples[i] = (float)buffer[i];
-	}
-
-	if ((effectsEnabled & (EQUALIZER_ENABLED | BASSBOOST_ENABLED))) {
-		if (equalizerActuallyUsedGainInMillibels[equalizerMaxBandCount - 1]) {
-			const float lastBandGain = equalizerLastBandGain[0];
-			for (int32_t i = ((sizeInFrames << 1) - 1); i >= 0; i--)
-				effectsFloatSamples[i] = (float)buffer[i] * lastBandGain;
-		}
+	//the last band (pre amp included) and the track pre-gain are a simple gain, applied while converting the samples
+	const uint32_t equalizerEnabled = (effectsEnabled & (EQUALIZER_ENABLED | BASSBOOST_ENABLED));
+	const uint32_t bandCount = (equalizerEnabled ? equalizerActiveBandCount : 0);
+	const float lastBandGain = (equalizerEnabled ? equalizerLastBandGain[0] : 1.0f) * effectsPreGain[0];
+	float gainClip = effectsGainClip[0];
+	float maxAbsSample = 0.0f;
 
-		//apply each filter in all samples before moving on to the next filter (band 0 = pre)
-		for (int32_t band = equalizerMaxBandCount - 2; band >= 1; band--) {
-			//if this band has no gain at all, we can skip it completely (there is no need to worry about
-			//equalizerStates[band - 1] because when any gain is changed, all states are zeroed out in updateEqualizerGains())
-			if (!equalizerActuallyUsedGainInMillibels[band])
-				continue;
-
-			//we will work with local copies, not with the original pointers
-			const EqualizerCoefs* const equalizerCoef = &(equalizerCoefs[band - 1]);
-			const float b0 = equalizerCoef->b0L;
-			const float b1 = equalizerCoef->b1L;
-			const float _a1 = equalizerCoef->_a1L;
-			const float b2 = equalizerCoef->b2L;
-			const float _a2 = equalizerCoef->_a2L;
-			EqualizerState equalizerState = equalizerStates[band - 1];
-
-			float* samples = effectsFloatSamples;
-
-			for (int32_t i = sizeInFrames - 1; i >= 0; i--) {
-				const float inL = samples[0];
-				const float inR = samples[1];
-
-				const float outL = (b0 * inL) + (b1 * equalizerState.x_n1_L) + (_a1 * equalizerState.y_n1_L) + (b2 * equalizerState.x_n2_L) + (_a2 * equalizerState.y_n2_L);
-				const float outR = (b0 * inR) + (b1 * equalizerState.x_n1_R) + (_a1 * equalizerState.y_n1_R) + (b2 * equalizerState.x_n2_R) + (_a2 * equalizerState.y_n2_R);
-
-				equalizerState.x_n2_L = equalizerState.x_n1_L;
-				equalizerState.x_n2_R = equalizerState.x_n1_R;
-				equalizerState.y_n2_L = equalizerState.y_n1_L;
-				equalizerState.y_n2_R = equalizerState.y_n1_R;
-
-				equalizerState.x_n1_L = inL;
-				equalizerState.x_n1_R = inR;
-				equalizerState.y_n1_L = outL;
-				equalizerState.y_n1_R = outR;
-
-				samples[0] = outL;
-				samples[1] = outR;
-
-				samples += 2;
+	//all the steps are applied to one tile before moving on to the next one, which keeps the
+	//float samples in the L1 cache, instead of going through the entire buffer once per step
+	while (sizeInFrames) {
+		const uint32_t tileSizeInFrames = ((sizeInFrames > EQUALIZER_TILE_FRAMES) ? EQUALIZER_TILE_FRAMES : sizeInFrames);
+		sizeInFrames -= tileSizeInFrames;
+
+		float* floatSamples = effectsFloatSamples;
+		for (int32_t i = ((tileSizeInFrames << 1) - 1); i >= 0; i--)
+			floatSamples[i] = (float)buffer[i] * lastBandGain;
+
+		if (bandCount)
+			equalizerProcessTile(floatSamples, tileSizeInFrames, equalizerCoefs, equalizerStates, equalizerActiveBands, bandCount);
+
+		//if ((effectsEnabled & VIRTUALIZER_ENABLED)) {
+		//}
+
+		for (int32_t i = tileSizeInFrames; i > 0; i--) {
+			float inL = floatSamples[0] * gainClip;
+			float inR = floatSamples[1] * gainClip;
+			floatSamples += 2;
+
+			if (effectsMinimumAmountOfFramesToReduce > 0) {
+				gainClip *= effectsGainReductionPerFrame[0];
+			} else if (effectsFramesBeforeRecoveringGain <= 0) {
+				gainClip *= effectsGainRecoveryPerFrame[0];
+				if (gainClip > 1.0f)
+					gainClip = 1.0f;
 			}
 
-			equalizerStates[band - 1] = equalizerState;
+			//abs
+			const uint32_t tmpAbsL = *((uint32_t*)&inL) & 0x7FFFFFFF;
+			if (maxAbsSample < *((float*)&tmpAbsL))
+				maxAbsSample = *((float*)&tmpAbsL);
+			const uint32_t tmpAbsR = *((uint32_t*)&inR) & 0x7FFFFFFF;
+			if (maxAbsSample < *((float*)&tmpAbsR))
+				maxAbsSample = *((float*)&tmpAbsR);
+
+			const int32_t iL = (int32_t)inL;
+			const int32_t iR = (int32_t)inR;
+			buffer[0] = (iL >= 32767 ? 32767 : (iL <= -32768 ? -32768 : (int16_t)iL));
+			buffer[1] = (iR >= 32767 ? 32767 : (iR <= -32768 ? -32768 : (int16_t)iR));
+
+			buffer += 2;
 		}
 	}
 
-	//if ((effectsEnabled & VIRTUALIZER_ENABLED)) {
-	//}
+	if (!effectsGainEnabled) {
+		effectsFramesBeforeRecoveringGain = 0x7FFFFFFF;
+		effectsMinimumAmountOfFramesToReduce = 0;
+		return;
+	}
+
+	effectsGainClip[0] = gainClip;
+	if (maxAbsSample > MAX_ALLOWED_SAMPLE_VALUE) {
+		effectsFramesBeforeRecoveringGain = dstSampleRate << 2; //wait some time before starting to recover the gain
+		effectsMinimumAmountOfFramesToReduce = (MAXIMUM_BUFFER_SIZE_IN_FRAMES_FOR_PROCESSING * 3) >> 1;
+	} else if (effectsMinimumAmountOfFramesToReduce <= 0) {
+		if (effectsGainClip[0] >= 1.0f)
+			effectsFramesBeforeRecoveringGain = 0x7FFFFFFF;
+	}
+}
+
+void processNullFloat(float* buffer, uint32_t sizeInFrames) {
+	//the samples only need to be kept inside [-1, 1] (the resampler may overshoot a little)
+	for (int32_t i = ((sizeInFrames << 1) - 1); i >= 0; i--)
+		buffer[i] = ((buffer[i] >= 1.0f) ? 1.0f : ((buffer[i] <= -1.0f) ? -1.0f : buffer[i]));
+}
 
+void processEffectsFloat(float* buffer, uint32_t sizeInFrames) {
+	//same as processEffects(), but the samples are processed in place, and are never quantized
+	if (effectsMinimumAmountOfFramesToReduce <= 0)
+		effectsFramesBeforeRecoveringGain -= sizeInFrames;
+	else
+		effectsMinimumAmountOfFramesToReduce -= sizeInFrames;
+
+	const uint32_t equalizerEnabled = (effectsEnabled & (EQUALIZER_ENABLED | BASSBOOST_ENABLED));
+	const uint32_t bandCount = (equalizerEnabled ? equalizerActiveBandCount : 0);
+	const float lastBandGain = (equalizerEnabled ? equalizerLastBandGain[0] : 1.0f) * effectsPreGain[0];
 	float gainClip = effectsGainClip[0];
 	float maxAbsSample = 0.0f;
-	float* floatSamples = effectsFloatSamples;
-
-	while ((sizeInFrames--)) {
-		float inL = floatSamples[0] * gainClip;
-		float inR = floatSamples[1] * gainClip;
-		floatSamples += 2;
-
-		if (effectsMinimumAmountOfFramesToReduce > 0) {
-			gainClip *= effectsGainReductionPerFrame[0];
-		} else if (effectsFramesBeforeRecoveringGain <= 0) {
-			gainClip *= effectsGainRecoveryPerFrame[0];
-			if (gainClip > 1.0f)
-				gainClip = 1.0f;
+
+	while (sizeInFrames) {
+		const uint32_t tileSizeInFrames = ((sizeInFrames > EQUALIZER_TILE_FRAMES) ? EQUALIZER_TILE_FRAMES : sizeInFrames);
+		sizeInFrames -= tileSizeInFrames;
+
+		if (lastBandGain != 1.0f) {
+			for (int32_t i = ((tileSizeInFrames << 1) - 1); i >= 0; i--)
+				buffer[i] *= lastBandGain;
 		}
 
-		//abs
-		const uint32_t tmpAbsL = *((uint32_t*)&inL) & 0x7FFFFFFF;
-		if (maxAbsSample < *((float*)&tmpAbsL))
-			maxAbsSample = *((float*)&tmpAbsL);
-		const uint32_t tmpAbsR = *((uint32_t*)&inL) & 0x7FFFFFFF;;
-		if (maxAbsSample < *((float*)&tmpAbsR))
-			maxAbsSample = *((float*)&tmpAbsR);
+		if (bandCount)
+			equalizerProcessTile(buffer, tileSizeInFrames, equalizerCoefs, equalizerStates, equalizerActiveBands, bandCount);
+
+		for (int32_t i = tileSizeInFrames; i > 0; i--) {
+			float inL = buffer[0] * gainClip;
+			float inR = buffer[1] * gainClip;
 
-		const int32_t iL = (int32_t)inL;
-		const int32_t iR = (int32_t)inR;
-		buffer[0] = (iL >= 32767 ? 32767 : (iL <= -32768 ? -32768 : (int16_t)iL));
-		buffer[1] = (iR >= 32767 ? 32767 : (iR <= -32768 ? -32768 : (int16_t)iR));
+			if (effectsMinimumAmountOfFramesToReduce > 0) {
+				gainClip *= effectsGainReductionPerFrame[0];
+			} else if (effectsFramesBeforeRecoveringGain <= 0) {
+				gainClip *= effectsGainRecoveryPerFrame[0];
+				if (gainClip > 1.0f)
+					gainClip = 1.0f;
+			}
+
+			//abs
+			const uint32_t tmpAbsL = *((uint32_t*)&inL) & 0x7FFFFFFF;
+			if (maxAbsSample < *((float*)&tmpAbsL))
+				maxAbsSample = *((float*)&tmpAbsL);
+			const uint32_t tmpAbsR = *((uint32_t*)&inR) & 0x7FFFFFFF;
+			if (maxAbsSample < *((float*)&tmpAbsR))
+				maxAbsSample = *((float*)&tmpAbsR);
+
+			buffer[0] = ((inL >= 1.0f) ? 1.0f : ((inL <= -1.0f) ? -1.0f : inL));
+			buffer[1] = ((inR >= 1.0f) ? 1.0f : ((inR <= -1.0f) ? -1.0f : inR));
 
-		buffer += 2;
+			buffer += 2;
+		}
 	}
 
 	if (!effectsGainEnabled) {
@@ -341,7 +400,7 @@ void processEffects(int16_t* buffer, uint32_t sizeInFrames) {
 	}
 
 	effectsGainClip[0] = gainClip;
-	if (maxAbsSample > MAX_ALLOWED_SAMPLE_VALUE) {
+	if (maxAbsSample > MAX_ALLOWED_SAMPLE_VALUE_FLOAT) {
 		effectsFramesBeforeRecoveringGain = dstSampleRate << 2; //wait some time before starting to recover the gain
 		effectsMinimumAmountOfFramesToReduce = (MAXIMUM_BUFFER_SIZE_IN_FRAMES_FOR_PROCESSING * 3) >> 1;
 	} else if (effectsMinimumAmountOfFramesToReduce <= 0) {
@@ -457,12 +516,14 @@ int32_t JNICALL getVirtualizerRoundedStrength(JNIEnv* env, jclass clazz) {
 }
 
 void updateEffectProc() {
-	if ((effectsEnabled & (EQUALIZER_ENABLED | BASSBOOST_ENABLED | VIRTUALIZER_ENABLED))) {
+	//a pre-gain other than 0 dB also requires the samples to be processed, even without any effects
+	if ((effectsEnabled & (EQUALIZER_ENABLED | BASSBOOST_ENABLED | VIRTUALIZER_ENABLED)) || effectsPreGain[0] != 1.0f) {
 #ifdef FPLAY_X86
 		effectProc = processEffects;
 #else
 		effectProc = (neonMode ? processEffectsNeon : processEffects);
 #endif
+		effectProcFloat = processEffectsFloat;
 		if (!effectsFloatSamplesOriginal) {
 			//MAXIMUM_BUFFER_SIZE_IN_FRAMES_FOR_PROCESSING * 2, because audioTrack allows up to MAXIMUM_BUFFER_SIZE_IN_FRAMES_FOR_PROCESSING * 2 frames
 			effectsFloatSamplesOriginal = new float[4 + (MAXIMUM_BUFFER_SIZE_IN_FRAMES_FOR_PROCESSING * 2 * 2)];
@@ -474,6 +535,7 @@ void updateEffectProc() {
 		}
 	} else {
 		effectProc = processNull;
+		effectProcFloat = processNullFloat;
 		if (effectsFloatSamplesOriginal) {
 			delete effectsFloatSamplesOriginal;
 			effectsFloatSamplesOriginal = 0;
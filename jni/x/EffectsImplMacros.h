@@ -32,10 +32,12 @@
 //
 
 typedef void (*EFFECTPROC)(int16_t* buffer, uint32_t sizeInFrames);
+typedef void (*EFFECTPROCFLOAT)(float* buffer, uint32_t sizeInFrames);
 
 #define MAXIMUM_BUFFER_SIZE_IN_FRAMES_FOR_PROCESSING 1152
 
 #define MAX_ALLOWED_SAMPLE_VALUE 31000.0f //31000/32768 = 0.946 = -0.48dB
+#define MAX_ALLOWED_SAMPLE_VALUE_FLOAT (MAX_ALLOWED_SAMPLE_VALUE / 32768.0f)
 
 #define DB_RANGE 1500 //+-15dB (in millibels)
 #define BAND_COUNT 7 //Pre 31/62 125 250 500/1k 2k/4k 8k/16k
@@ -50,7 +52,7 @@ struct EqualizerCoefs {
 	float b2L, b2R, _a2L, _a2R;
 };
 
+//transposed direct form II (z1 and z2 are the two delay elements of each channel)
 struct EqualizerState {
-	float x_n1_L, x_n1_R, y_n1_L, y_n1_R;
-	float x_n2_L, x_n2_R, y_n2_L, y_n2_R;
+	float z1L, z1R, z2L, z2R;
 };
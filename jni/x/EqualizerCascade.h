@@ -0,0 +1,269 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+
+//The equalizer is a cascade of biquads (one lowshelf per band, see Filter.h). Instead of
+//running one band over the entire buffer before moving on to the next one (which touches
+//the whole buffer once per band), the buffer is processed in tiles small enough to stay in
+//the L1 data cache, and the whole cascade is applied to one tile before moving on.
+//
+//Each biquad uses the transposed direct form II:
+//y = b0 * x + z1
+//z1 = b1 * x + _a1 * y + z2
+//z2 = b2 * x + _a2 * y
+//(_a1 and _a2 are already negated, just like in Filter.h)
+//
+//EffectsImplMacros.h must be included before this file.
+
+#define EQUALIZER_TILE_FRAMES 256 //256 stereo frames = 2 KiB of floats
+
+#if defined(__ARM_NEON__) || defined(__ARM_NEON)
+
+#include <arm_neon.h>
+
+static inline void equalizerProcessTileSingle(float* samples, uint32_t sizeInFrames, const EqualizerCoefs* coef, EqualizerState* state) {
+	const float32x2_t b0 = vld1_f32(&(coef->b0L));
+	const float32x4_t b1_a1 = vld1q_f32(&(coef->b1L));
+	const float32x4_t b2_a2 = vld1q_f32(&(coef->b2L));
+	// { b1 L, b1 R, b2 L, b2 R }
+	const float32x4_t b1_b2 = vcombine_f32(vget_low_f32(b1_a1), vget_low_f32(b2_a2));
+	// { _a1 L, _a1 R, _a2 L, _a2 R }
+	const float32x4_t a1_a2 = vcombine_f32(vget_high_f32(b1_a1), vget_high_f32(b2_a2));
+	const float32x2_t zero = vdup_n_f32(0.0f);
+	// { z1 L, z1 R, z2 L, z2 R }
+	float32x4_t z = vld1q_f32(&(state->z1L));
+
+	for (uint32_t i = sizeInFrames; i; i--) {
+		const float32x2_t x = vld1_f32(samples);
+		const float32x2_t y = vmla_f32(vget_low_f32(z), b0, x);
+		z = vmlaq_f32(vmlaq_f32(vcombine_f32(vget_high_f32(z), zero), b1_b2, vcombine_f32(x, x)), a1_a2, vcombine_f32(y, y));
+		vst1_f32(samples, y);
+		samples += 2;
+	}
+
+	vst1q_f32(&(state->z1L), z);
+}
+
+//Two consecutive bands (A, then B) are processed together: the lower half of each vector
+//belongs to band A and the upper half to band B, which lags one frame behind, consuming
+//the output A has just produced. This way, each step carries two independent biquads,
+//instead of waiting for the latency of a single one.
+static inline void equalizerProcessTilePair(float* samples, uint32_t sizeInFrames, const EqualizerCoefs* coefA, EqualizerState* stateA, const EqualizerCoefs* coefB, EqualizerState* stateB) {
+	const float32x2_t zero = vdup_n_f32(0.0f);
+	const float32x4_t b1_a1A = vld1q_f32(&(coefA->b1L));
+	const float32x4_t b2_a2A = vld1q_f32(&(coefA->b2L));
+	const float32x4_t b1_a1B = vld1q_f32(&(coefB->b1L));
+	const float32x4_t b2_a2B = vld1q_f32(&(coefB->b2L));
+	// { b0 A L, b0 A R, b0 B L, b0 B R }
+	const float32x4_t b0 = vcombine_f32(vld1_f32(&(coefA->b0L)), vld1_f32(&(coefB->b0L)));
+	const float32x4_t b1 = vcombine_f32(vget_low_f32(b1_a1A), vget_low_f32(b1_a1B));
+	const float32x4_t a1 = vcombine_f32(vget_high_f32(b1_a1A), vget_high_f32(b1_a1B));
+	const float32x4_t b2 = vcombine_f32(vget_low_f32(b2_a2A), vget_low_f32(b2_a2B));
+	const float32x4_t a2 = vcombine_f32(vget_high_f32(b2_a2A), vget_high_f32(b2_a2B));
+	const float32x4_t zA = vld1q_f32(&(stateA->z1L));
+	const float32x4_t zB = vld1q_f32(&(stateB->z1L));
+	// { z1 A L, z1 A R, z1 B L, z1 B R }
+	float32x4_t z1 = vcombine_f32(vget_low_f32(zA), vget_low_f32(zB));
+	// { z2 A L, z2 A R, z2 B L, z2 B R }
+	float32x4_t z2 = vcombine_f32(vget_high_f32(zA), vget_high_f32(zB));
+
+	//first frame: only A advances (B's half of the state is kept)
+	float32x4_t x = vcombine_f32(vld1_f32(samples), zero);
+	float32x4_t y = vmlaq_f32(z1, b0, x);
+	float32x4_t tmp = vmlaq_f32(vmlaq_f32(z2, b1, x), a1, y);
+	z2 = vcombine_f32(vget_low_f32(vmlaq_f32(vmulq_f32(b2, x), a2, y)), vget_high_f32(z2));
+	z1 = vcombine_f32(vget_low_f32(tmp), vget_high_f32(z1));
+
+	for (uint32_t i = sizeInFrames - 1; i; i--) {
+		// { x[n] L, x[n] R, y A[n - 1] L, y A[n - 1] R }
+		x = vcombine_f32(vld1_f32(samples + 2), vget_low_f32(y));
+		// { y A[n] L, y A[n] R, y B[n - 1] L, y B[n - 1] R }
+		y = vmlaq_f32(z1, b0, x);
+		z1 = vmlaq_f32(vmlaq_f32(z2, b1, x), a1, y);
+		z2 = vmlaq_f32(vmulq_f32(b2, x), a2, y);
+		vst1_f32(samples, vget_high_f32(y));
+		samples += 2;
+	}
+
+	//last frame: only B advances (A's half of the state is kept)
+	x = vcombine_f32(zero, vget_low_f32(y));
+	y = vmlaq_f32(z1, b0, x);
+	tmp = vmlaq_f32(vmlaq_f32(z2, b1, x), a1, y);
+	z2 = vcombine_f32(vget_low_f32(z2), vget_high_f32(vmlaq_f32(vmulq_f32(b2, x), a2, y)));
+	z1 = vcombine_f32(vget_low_f32(z1), vget_high_f32(tmp));
+	vst1_f32(samples, vget_high_f32(y));
+
+	vst1q_f32(&(stateA->z1L), vcombine_f32(vget_low_f32(z1), vget_low_f32(z2)));
+	vst1q_f32(&(stateB->z1L), vcombine_f32(vget_high_f32(z1), vget_high_f32(z2)));
+}
+
+static inline void equalizerProcessTile(float* samples, uint32_t sizeInFrames, const EqualizerCoefs* coefs, EqualizerState* states, const uint32_t* bands, uint32_t bandCount) {
+	if (!sizeInFrames)
+		return;
+	uint32_t b = 0;
+	for (; (b + 1) < bandCount; b += 2)
+		equalizerProcessTilePair(samples, sizeInFrames, coefs + bands[b], states + bands[b], coefs + bands[b + 1], states + bands[b + 1]);
+	if (b < bandCount)
+		equalizerProcessTileSingle(samples, sizeInFrames, coefs + bands[b], states + bands[b]);
+}
+
+#elif defined(__SSE__) || defined(_M_X64) || defined(_M_IX86)
+
+#include <xmmintrin.h>
+
+static inline void equalizerProcessTileSingle(float* samples, uint32_t sizeInFrames, const EqualizerCoefs* coef, EqualizerState* state) {
+	// { b0 L, b0 R, 0, 0 }
+	const __m128 b0 = _mm_load_ps(&(coef->b0L));
+	const __m128 b1_a1 = _mm_load_ps(&(coef->b1L));
+	const __m128 b2_a2 = _mm_load_ps(&(coef->b2L));
+	// { b1 L, b1 R, b2 L, b2 R }
+	const __m128 b1_b2 = _mm_movelh_ps(b1_a1, b2_a2);
+	// { _a1 L, _a1 R, _a2 L, _a2 R }
+	const __m128 a1_a2 = _mm_movehl_ps(b2_a2, b1_a1);
+	const __m128 zero = _mm_setzero_ps();
+	// { z1 L, z1 R, z2 L, z2 R }
+	__m128 z = _mm_load_ps(&(state->z1L));
+
+	for (uint32_t i = sizeInFrames; i; i--) {
+		// { x L, x R, x L, x R }
+		__m128 x = _mm_loadl_pi(zero, (const __m64*)samples);
+		x = _mm_movelh_ps(x, x);
+		// { y L, y R, (garbage), (garbage) }
+		const __m128 y = _mm_add_ps(_mm_mul_ps(b0, x), z);
+		z = _mm_add_ps(_mm_add_ps(_mm_mul_ps(b1_b2, x), _mm_mul_ps(a1_a2, _mm_movelh_ps(y, y))), _mm_movehl_ps(zero, z));
+		_mm_storel_pi((__m64*)samples, y);
+		samples += 2;
+	}
+
+	_mm_store_ps(&(state->z1L), z);
+}
+
+//Two consecutive bands (A, then B) are processed together: the lower half of each vector
+//belongs to band A and the upper half to band B, which lags one frame behind, consuming
+//the output A has just produced. This way, each step carries two independent biquads,
+//instead of waiting for the latency of a single one.
+static inline void equalizerProcessTilePair(float* samples, uint32_t sizeInFrames, const EqualizerCoefs* coefA, EqualizerState* stateA, const EqualizerCoefs* coefB, EqualizerState* stateB) {
+	const __m128 zero = _mm_setzero_ps();
+	const __m128 b1_a1A = _mm_load_ps(&(coefA->b1L));
+	const __m128 b2_a2A = _mm_load_ps(&(coefA->b2L));
+	const __m128 b1_a1B = _mm_load_ps(&(coefB->b1L));
+	const __m128 b2_a2B = _mm_load_ps(&(coefB->b2L));
+	// { b0 A L, b0 A R, b0 B L, b0 B R }
+	const __m128 b0 = _mm_movelh_ps(_mm_load_ps(&(coefA->b0L)), _mm_load_ps(&(coefB->b0L)));
+	const __m128 b1 = _mm_movelh_ps(b1_a1A, b1_a1B);
+	const __m128 a1 = _mm_movehl_ps(b1_a1B, b1_a1A);
+	const __m128 b2 = _mm_movelh_ps(b2_a2A, b2_a2B);
+	const __m128 a2 = _mm_movehl_ps(b2_a2B, b2_a2A);
+	const __m128 zA = _mm_load_ps(&(stateA->z1L));
+	const __m128 zB = _mm_load_ps(&(stateB->z1L));
+	// { z1 A L, z1 A R, z1 B L, z1 B R }
+	__m128 z1 = _mm_movelh_ps(zA, zB);
+	// { z2 A L, z2 A R, z2 B L, z2 B R }
+	__m128 z2 = _mm_movehl_ps(zB, zA);
+
+	//first frame: only A advances (B's half of the state is kept)
+	__m128 x = _mm_loadl_pi(zero, (const __m64*)samples);
+	__m128 y = _mm_add_ps(_mm_mul_ps(b0, x), z1);
+	__m128 tmp = _mm_add_ps(_mm_add_ps(_mm_mul_ps(b1, x), _mm_mul_ps(a1, y)), z2);
+	z2 = _mm_shuffle_ps(_mm_add_ps(_mm_mul_ps(b2, x), _mm_mul_ps(a2, y)), z2, _MM_SHUFFLE(3, 2, 1, 0));
+	z1 = _mm_shuffle_ps(tmp, z1, _MM_SHUFFLE(3, 2, 1, 0));
+
+	for (uint32_t i = sizeInFrames - 1; i; i--) {
+		// { x[n] L, x[n] R, y A[n - 1] L, y A[n - 1] R }
+		x = _mm_movelh_ps(_mm_loadl_pi(zero, (const __m64*)(samples + 2)), y);
+		// { y A[n] L, y A[n] R, y B[n - 1] L, y B[n - 1] R }
+		y = _mm_add_ps(_mm_mul_ps(b0, x), z1);
+		z1 = _mm_add_ps(_mm_add_ps(_mm_mul_ps(b1, x), _mm_mul_ps(a1, y)), z2);
+		z2 = _mm_add_ps(_mm_mul_ps(b2, x), _mm_mul_ps(a2, y));
+		_mm_storeh_pi((__m64*)samples, y);
+		samples += 2;
+	}
+
+	//last frame: only B advances (A's half of the state is kept)
+	x = _mm_movelh_ps(zero, y);
+	y = _mm_add_ps(_mm_mul_ps(b0, x), z1);
+	tmp = _mm_add_ps(_mm_add_ps(_mm_mul_ps(b1, x), _mm_mul_ps(a1, y)), z2);
+	z2 = _mm_shuffle_ps(z2, _mm_add_ps(_mm_mul_ps(b2, x), _mm_mul_ps(a2, y)), _MM_SHUFFLE(3, 2, 1, 0));
+	z1 = _mm_shuffle_ps(z1, tmp, _MM_SHUFFLE(3, 2, 1, 0));
+	_mm_storeh_pi((__m64*)samples, y);
+
+	_mm_store_ps(&(stateA->z1L), _mm_movelh_ps(z1, z2));
+	_mm_store_ps(&(stateB->z1L), _mm_movehl_ps(z2, z1));
+}
+
+static inline void equalizerProcessTile(float* samples, uint32_t sizeInFrames, const EqualizerCoefs* coefs, EqualizerState* states, const uint32_t* bands, uint32_t bandCount) {
+	if (!sizeInFrames)
+		return;
+	uint32_t b = 0;
+	for (; (b + 1) < bandCount; b += 2)
+		equalizerProcessTilePair(samples, sizeInFrames, coefs + bands[b], states + bands[b], coefs + bands[b + 1], states + bands[b + 1]);
+	if (b < bandCount)
+		equalizerProcessTileSingle(samples, sizeInFrames, coefs + bands[b], states + bands[b]);
+}
+
+#else
+
+static inline void equalizerProcessTile(float* samples, uint32_t sizeInFrames, const EqualizerCoefs* coefs, EqualizerState* states, const uint32_t* bands, uint32_t bandCount) {
+	for (uint32_t b = 0; b < bandCount; b++) {
+		//we will work with local copies, not with the original pointers
+		const EqualizerCoefs* const coef = coefs + bands[b];
+		const float b0 = coef->b0L;
+		const float b1 = coef->b1L;
+		const float _a1 = coef->_a1L;
+		const float b2 = coef->b2L;
+		const float _a2 = coef->_a2L;
+		EqualizerState state = states[bands[b]];
+
+		float* s = samples;
+		for (uint32_t i = sizeInFrames; i; i--) {
+			const float inL = s[0];
+			const float inR = s[1];
+
+			const float outL = (b0 * inL) + state.z1L;
+			const float outR = (b0 * inR) + state.z1R;
+
+			state.z1L = (b1 * inL) + (_a1 * outL) + state.z2L;
+			state.z1R = (b1 * inR) + (_a1 * outR) + state.z2R;
+			state.z2L = (b2 * inL) + (_a2 * outL);
+			state.z2R = (b2 * inR) + (_a2 * outR);
+
+			s[0] = outL;
+			s[1] = outR;
+
+			s += 2;
+		}
+
+		states[bands[b]] = state;
+	}
+}
+
+#endif
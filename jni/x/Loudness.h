@@ -0,0 +1,269 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+
+//Integrated loudness (EBU R128 / ITU-R BS.1770, as used by ReplayGain 2)
+//
+//The samples go through the K-weighting filter (a high shelf followed by a high pass, both
+//computed for the actual sample rate, just like libebur128 does), then the mean square of
+//every 400 ms block (with 75% overlap, so a new block is produced every 100 ms) is stored in
+//a histogram, instead of storing every block, keeping the memory usage constant no matter
+//how long the track is. The gates (absolute at -70 LUFS, and relative at -10 LU) are applied
+//over that histogram when the result is requested.
+//
+//This is only used to analyze tracks in background (LoudnessAnalyzer.java), it is never used
+//during playback.
+//
+//MediaCodec.h and Resampler.h must be included before this file.
+
+#define LOUDNESS_HISTOGRAM_BINS 1000
+#define LOUDNESS_MIN_LUFS -70.0
+#define LOUDNESS_MAX_LUFS 5.0
+#define LOUDNESS_BIN_WIDTH ((LOUDNESS_MAX_LUFS - LOUDNESS_MIN_LUFS) / (double)LOUDNESS_HISTOGRAM_BINS)
+//the analysis is not in a hurry: instead of polling the decoder, wait for its output
+//(this also keeps a slow decoder from burning a whole core while it warms up)
+#define LOUDNESS_OUTPUT_TIMEOUT_IN_US 10000
+
+class LoudnessMeter {
+private:
+	//b0, b1, b2, a1, a2 of both stages
+	double shelf[5], highPass[5];
+	//transposed direct form II state of both stages, for both channels
+	double state[2][4];
+	double subBlockEnergy[4], currentEnergy;
+	uint32_t channelCount, frameStride, sampleRate, floatSamples, subBlockFrames, currentFrames, subBlockCount;
+	uint32_t histogram[LOUDNESS_HISTOGRAM_BINS];
+	float peak;
+
+	void computeFilters() {
+		//https://github.com/jiixyj/libebur128 (ebur128_init_filter)
+		double f0 = 1681.974450955533;
+		const double G = 3.999843853973347;
+		double Q = 0.7071752369554196;
+		double K = tan(M_PI * f0 / (double)sampleRate);
+		const double Vh = pow(10.0, G / 20.0);
+		const double Vb = pow(Vh, 0.4996667741545416);
+		double a0 = 1.0 + (K / Q) + (K * K);
+		shelf[0] = (Vh + (Vb * K / Q) + (K * K)) / a0;
+		shelf[1] = 2.0 * ((K * K) - Vh) / a0;
+		shelf[2] = (Vh - (Vb * K / Q) + (K * K)) / a0;
+		shelf[3] = 2.0 * ((K * K) - 1.0) / a0;
+		shelf[4] = (1.0 - (K / Q) + (K * K)) / a0;
+
+		f0 = 38.13547087602444;
+		Q = 0.5003270373238773;
+		K = tan(M_PI * f0 / (double)sampleRate);
+		a0 = 1.0 + (K / Q) + (K * K);
+		highPass[0] = 1.0;
+		highPass[1] = -2.0;
+		highPass[2] = 1.0;
+		highPass[3] = 2.0 * ((K * K) - 1.0) / a0;
+		highPass[4] = (1.0 - (K / Q) + (K * K)) / a0;
+	}
+
+	inline double filter(double x, double* z) {
+		const double y1 = (shelf[0] * x) + z[0];
+		z[0] = (shelf[1] * x) - (shelf[3] * y1) + z[1];
+		z[1] = (shelf[2] * x) - (shelf[4] * y1);
+		const double y2 = (highPass[0] * y1) + z[2];
+		z[2] = (highPass[1] * y1) - (highPass[3] * y2) + z[3];
+		z[3] = (highPass[2] * y1) - (highPass[4] * y2);
+		return y2;
+	}
+
+	void subBlockDone() {
+		subBlockEnergy[subBlockCount & 3] = currentEnergy;
+		subBlockCount++;
+		currentEnergy = 0.0;
+		currentFrames = 0;
+		if (subBlockCount < 4)
+			return;
+		const double energy = (subBlockEnergy[0] + subBlockEnergy[1] + subBlockEnergy[2] + subBlockEnergy[3]) / (double)(subBlockFrames << 2);
+		if (energy <= 0.0)
+			return;
+		const double loudness = -0.691 + (10.0 * log10(energy));
+		if (loudness < LOUDNESS_MIN_LUFS)
+			return;
+		int32_t bin = (int32_t)((loudness - LOUDNESS_MIN_LUFS) / LOUDNESS_BIN_WIDTH);
+		if (bin >= LOUDNESS_HISTOGRAM_BINS)
+			bin = LOUDNESS_HISTOGRAM_BINS - 1;
+		histogram[bin]++;
+	}
+
+	static inline double binEnergy(uint32_t bin) {
+		return pow(10.0, (LOUDNESS_MIN_LUFS + (((double)bin + 0.5) * LOUDNESS_BIN_WIDTH) + 0.691) / 10.0);
+	}
+
+	template <typename S>
+	void process(const S* samples, uint32_t sizeInFrames) {
+		while (sizeInFrames--) {
+			const float l = resampleSampleToFloat<S>(samples[0]);
+			const float r = resampleSampleToFloat<S>(samples[channelCount - 1]);
+			samples += frameStride;
+
+			if (peak < fabsf(l))
+				peak = fabsf(l);
+
+			const double yL = filter((double)l, state[0]);
+			currentEnergy += yL * yL;
+			if (channelCount == 2) {
+				if (peak < fabsf(r))
+					peak = fabsf(r);
+				const double yR = filter((double)r, state[1]);
+				currentEnergy += yR * yR;
+			}
+
+			currentFrames++;
+			if (currentFrames >= subBlockFrames)
+				subBlockDone();
+		}
+	}
+
+public:
+	LoudnessMeter(uint32_t channelCount, uint32_t sampleRate) {
+		memset(histogram, 0, sizeof(uint32_t) * LOUDNESS_HISTOGRAM_BINS);
+		memset(subBlockEnergy, 0, sizeof(double) * 4);
+		peak = 0.0f;
+		currentEnergy = 0.0;
+		currentFrames = 0;
+		subBlockCount = 0;
+		this->sampleRate = 0;
+		configure(channelCount, sampleRate, 0);
+	}
+
+	void configure(uint32_t channelCount, uint32_t sampleRate, uint32_t floatSamples) {
+		//only the first two channels are measured (the weights of the surround channels
+		//are not known here), but the frames still must be walked using all of them
+		this->channelCount = ((channelCount >= 2) ? 2 : 1);
+		frameStride = ((channelCount >= 1) ? channelCount : 1);
+		this->floatSamples = floatSamples;
+		if (this->sampleRate != sampleRate) {
+			this->sampleRate = sampleRate;
+			subBlockFrames = ((sampleRate < 10) ? 1 : (sampleRate / 10));
+			computeFilters();
+			memset(state, 0, sizeof(double) * 2 * 4);
+			currentEnergy = 0.0;
+			currentFrames = 0;
+			subBlockCount = 0;
+		}
+	}
+
+	void processBuffer(const uint8_t* buffer, uint32_t sizeInBytes) {
+		if (floatSamples)
+			process<float>((const float*)buffer, sizeInBytes / (frameStride << 2));
+		else
+			process<int16_t>((const int16_t*)buffer, sizeInBytes / (frameStride << 1));
+	}
+
+	double integratedLoudness() {
+		double energy = 0.0;
+		uint32_t count = 0;
+		for (uint32_t i = 0; i < LOUDNESS_HISTOGRAM_BINS; i++) {
+			if (histogram[i]) {
+				energy += (double)histogram[i] * binEnergy(i);
+				count += histogram[i];
+			}
+		}
+		if (!count)
+			return LOUDNESS_MIN_LUFS;
+
+		//relative gate
+		const double gate = -0.691 + (10.0 * log10(energy / (double)count)) - 10.0;
+		int32_t firstBin = (int32_t)ceil(((gate - LOUDNESS_MIN_LUFS) / LOUDNESS_BIN_WIDTH) - 0.5);
+		if (firstBin < 0)
+			firstBin = 0;
+		energy = 0.0;
+		count = 0;
+		for (uint32_t i = firstBin; i < LOUDNESS_HISTOGRAM_BINS; i++) {
+			if (histogram[i]) {
+				energy += (double)histogram[i] * binEnergy(i);
+				count += histogram[i];
+			}
+		}
+		return (count ? (-0.691 + (10.0 * log10(energy / (double)count))) : LOUDNESS_MIN_LUFS);
+	}
+
+	float samplePeak() {
+		return peak;
+	}
+};
+
+uint64_t JNICALL loudnessCreate(JNIEnv* env, jclass clazz, uint32_t channelCount, uint32_t sampleRate) {
+	return (uint64_t)(new LoudnessMeter(channelCount, sampleRate));
+}
+
+int32_t JNICALL loudnessProcessNextOutputBuffer(JNIEnv* env, jclass clazz, uint64_t nativeMeter, uint64_t nativeObj) {
+	//0: no output yet (try again later)
+	//1: one buffer has been processed
+	//2: the stream is over
+	//negative: error
+	if (!nativeMeter || !nativeObj)
+		return -1;
+
+	LoudnessMeter* const meter = (LoudnessMeter*)nativeMeter;
+	MediaCodec* const mediaCodec = (MediaCodec*)nativeObj;
+
+	const int32_t ret = mediaCodec->nextOutputBuffer(LOUDNESS_OUTPUT_TIMEOUT_IN_US);
+	if (ret < 0)
+		return ret;
+
+	if (ret > 0x10000000) {
+		if (ret < 0x7FFFFFFE) {
+			//output format changed
+			meter->configure((uint32_t)ret >> 28, ret & 0x07FFFFFF, ((ret & OUTPUT_FORMAT_FLOAT_FLAG) ? 1 : 0));
+			return 0;
+		}
+		return ((ret & 1) ? 2 : 0);
+	}
+
+	if (mediaCodec->buffer && ret > 1)
+		meter->processBuffer(mediaCodec->buffer, (uint32_t)ret >> 1);
+	mediaCodec->releaseOutputBuffer();
+
+	return ((ret & 1) ? 2 : 1);
+}
+
+void JNICALL loudnessGetResults(JNIEnv* env, jclass clazz, uint64_t nativeMeter, jfloatArray jresults) {
+	if (!nativeMeter || !jresults || env->GetArrayLength(jresults) < 2)
+		return;
+
+	LoudnessMeter* const meter = (LoudnessMeter*)nativeMeter;
+	float results[2];
+	results[0] = (float)meter->integratedLoudness();
+	results[1] = meter->samplePeak();
+	env->SetFloatArrayRegion(jresults, 0, 2, results);
+}
+
+void JNICALL loudnessRelease(JNIEnv* env, jclass clazz, uint64_t nativeMeter) {
+	if (nativeMeter)
+		delete ((LoudnessMeter*)nativeMeter);
+}
@@ -46,6 +46,10 @@ static void* libmediandk;
 #define AMEDIACODEC_INFO_OUTPUT_BUFFERS_CHANGED -3
 #define AMEDIACODEC_INFO_OUTPUT_FORMAT_CHANGED -2
 #define AMEDIACODEC_INFO_TRY_AGAIN_LATER -1
+//android.media.AudioFormat.ENCODING_PCM_FLOAT (honored by the decoders starting at API 24)
+#define PCM_ENCODING_FLOAT 4
+//set in the value returned by nextOutputBuffer() when the output format changes to float
+#define OUTPUT_FORMAT_FLOAT_FLAG 0x08000000
 #define media_status_t int32_t
 #define AMediaCodec void
 #define AMediaExtractor void
@@ -92,6 +96,8 @@ static media_status_t (*AMediaExtractor_setDataSourceFd)(AMediaExtractor*, int32
 static bool (*AMediaFormat_getInt32)(AMediaFormat*, const char *name, int32_t *out);
 static bool (*AMediaFormat_getInt64)(AMediaFormat*, const char *name, int64_t *out);
 static bool (*AMediaFormat_getString)(AMediaFormat*, const char *name, const char **out);
+//optional (the float pipeline is simply not requested from the decoder without it)
+static void (*AMediaFormat_setInt32)(AMediaFormat*, const char* name, int32_t value);
 
 #define INPUT_BUFFER_TIMEOUT_IN_US 0
 #define OUTPUT_BUFFER_TIMEOUT_IN_US 0
@@ -101,7 +107,7 @@ public:
 	unsigned char* buffer;
 
 private:
-	int32_t inputOver;
+	int32_t inputOver, floatOutput;
 	ssize_t bufferIndex;
 	AMediaExtractor* mediaExtractor;
 	AMediaCodec* mediaCodec;
@@ -118,6 +124,7 @@ private:
 
 public:
 	MediaCodec() {
+		floatOutput = false;
 		inputOver = false;
 		bufferIndex = AMEDIACODEC_INFO_TRY_AGAIN_LATER;
 		buffer = 0;
@@ -185,6 +192,10 @@ public:
 		if (!mediaCodec)
 			return -1;
 
+		//ask for float samples (older decoders just ignore this key, and keep producing 16-bit samples)
+		if (floatPipeline && AMediaFormat_setInt32)
+			AMediaFormat_setInt32(format, "pcm-encoding", PCM_ENCODING_FLOAT);
+
 		if ((ret = AMediaCodec_configure(mediaCodec, format, 0, 0, 0)))
 			return ret;
 
@@ -258,7 +269,7 @@ public:
 		return 0;
 	}
 
-	int32_t nextOutputBuffer() {
+	int32_t nextOutputBuffer(int64_t outputTimeoutInUs = OUTPUT_BUFFER_TIMEOUT_IN_US) {
 		//positive: ok (odd means input over)
 		//negative: error
 		int32_t ret;
@@ -268,17 +279,18 @@ public:
 
 		AMediaCodecBufferInfo bufferInfo;
 		bufferInfo.flags = 0;
-		bufferIndex = AMediaCodec_dequeueOutputBuffer(mediaCodec, &bufferInfo, OUTPUT_BUFFER_TIMEOUT_IN_US);
+		bufferIndex = AMediaCodec_dequeueOutputBuffer(mediaCodec, &bufferInfo, outputTimeoutInUs);
 
 		if (bufferIndex < 0) {
 			if (bufferIndex == AMEDIACODEC_INFO_OUTPUT_FORMAT_CHANGED) {
 				bufferIndex = AMEDIACODEC_INFO_TRY_AGAIN_LATER;
 				AMediaFormat* format = AMediaCodec_getOutputFormat(mediaCodec);
 				if (format) {
-					int32_t newChannelCount, newSampleRate;
+					int32_t newChannelCount, newSampleRate, pcmEncoding;
+					floatOutput = (AMediaFormat_getInt32(format, "pcm-encoding", &pcmEncoding) && pcmEncoding == PCM_ENCODING_FLOAT);
 					if (AMediaFormat_getInt32(format, "channel-count", &newChannelCount) &&
 						AMediaFormat_getInt32(format, "sample-rate", &newSampleRate))
-						return ((newChannelCount << 28) | newSampleRate);
+						return ((newChannelCount << 28) | (floatOutput ? OUTPUT_FORMAT_FLOAT_FLAG : 0) | newSampleRate);
 				}
 			}
 
@@ -348,6 +360,25 @@ int64_t JNICALL mediaCodecSeek(JNIEnv* env, jclass clazz, uint64_t nativeObj, in
 	return ((MediaCodec*)nativeObj)->doSeek(msec, totalMsec);
 }
 
+int32_t JNICALL mediaCodecCopyOutputBuffer(JNIEnv* env, jclass clazz, uint64_t nativeObj, uint32_t offsetInBytes, uint32_t sizeInBytes, jobject jdstBuffer, uint32_t dstOffsetInBytes) {
+	//used by the decode-ahead stage to move the samples out of the decoder, so that the
+	//decoder's buffer can be released before the samples are actually written to the engine
+	if (!nativeObj || !jdstBuffer)
+		return -1;
+
+	MediaCodec* const mediaCodec = (MediaCodec*)nativeObj;
+	if (!mediaCodec->buffer)
+		return -1;
+
+	uint8_t* const dstBuffer = (uint8_t*)env->GetDirectBufferAddress(jdstBuffer);
+	if (!dstBuffer || (uint64_t)(dstOffsetInBytes + sizeInBytes) > (uint64_t)env->GetDirectBufferCapacity(jdstBuffer))
+		return -1;
+
+	memcpy(dstBuffer + dstOffsetInBytes, mediaCodec->buffer + offsetInBytes, sizeInBytes);
+
+	return 0;
+}
+
 void JNICALL mediaCodecReleaseOutputBuffer(JNIEnv* env, jclass clazz, uint64_t nativeObj) {
 	if (nativeObj)
 		((MediaCodec*)nativeObj)->releaseOutputBuffer();
@@ -414,6 +445,7 @@ int32_t JNICALL mediaCodecLoadExternalLibrary(JNIEnv* env, jclass clazz) {
 		return -25;
 	if (!(*((void**)&AMediaFormat_getString) = dlsym(libmediandk, "AMediaFormat_getString")))
 		return -26;
+	*((void**)&AMediaFormat_setInt32) = dlsym(libmediandk, "AMediaFormat_setInt32");
 
 	return 0;
 }
@@ -90,8 +90,12 @@ static uint32_t neonMode;
 //therefore:
 //frames = bytes >> channelCount
 //bytes = frames << channelCount;
-static uint32_t srcSampleRate, srcChannelCount;
+static uint32_t srcSampleRate, srcChannelCount, srcFloat;
 uint32_t dstSampleRate;
+//when floatPipeline is set, the samples go from the resampler to the engine as floats
+//(in the range [-1, 1]), and srcFloat tells whether the source samples are floats as well
+//(when srcFloat is set, frames = bytes >> (channelCount + 1))
+uint32_t floatPipeline;
 static int16_t *tmpSwapBufferForAudioTrack;
 
 union int64_3232 {
@@ -139,6 +143,7 @@ void swapShorts(int16_t* srcBuffer, uint32_t sizeInShorts, int16_t* dstBuffer) {
 #include "Effects.h"
 #include "Resampler.h"
 #include "MediaCodec.h"
+#include "Loudness.h"
 #include "OpenSL.h"
 
 uint32_t JNICALL getProcessorFeatures(JNIEnv* env, jclass clazz) {
@@ -160,10 +165,11 @@ uint32_t JNICALL getProcessorFeatures(JNIEnv* env, jclass clazz) {
 #endif
 }
 
-void JNICALL updateSrcParams(JNIEnv* env, jclass clazz, uint32_t srcSampleRate, uint32_t srcChannelCount, uint32_t resetFiltersAndWritePosition) {
-	if (::srcSampleRate != srcSampleRate || ::srcChannelCount != srcChannelCount) {
+void JNICALL updateSrcParams(JNIEnv* env, jclass clazz, uint32_t srcSampleRate, uint32_t srcChannelCount, uint32_t srcFloat, uint32_t resetFiltersAndWritePosition) {
+	if (::srcSampleRate != srcSampleRate || ::srcChannelCount != srcChannelCount || ::srcFloat != srcFloat) {
 		::srcSampleRate = srcSampleRate;
 		::srcChannelCount = srcChannelCount;
+		::srcFloat = srcFloat;
 		resetResampler();
 	}
 
@@ -176,7 +182,20 @@ void JNICALL updateSrcParams(JNIEnv* env, jclass clazz, uint32_t srcSampleRate,
 	}
 }
 
+void JNICALL setResampleQuality(JNIEnv* env, jclass clazz, uint32_t quality) {
+	if (resampleQuality != quality) {
+		resampleQuality = quality;
+		resetResampler();
+	}
+}
+
 void JNICALL audioTrackInitialize(JNIEnv* env, jclass clazz) {
+	//AudioTrack is always fed with 16-bit samples
+	if (floatPipeline) {
+		floatPipeline = 0;
+		resetResampler();
+	}
+
 	equalizerConfigChanged();
 	virtualizerConfigChanged();
 }
@@ -300,6 +319,9 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* reserved) {
 #ifdef FPLAY_ARM
 	checkNeonMode();
 #endif
+	srcFloat = 0;
+	floatPipeline = 0;
+	resampleQuality = RESAMPLE_QUALITY_LAGRANGE;
 	initializeOpenSL();
 	initializeEffects();
 	initializeMediaCodec();
@@ -309,10 +331,12 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* reserved) {
 
 	JNINativeMethod methodTable[] = {
 		{"getProcessorFeatures", "()I", (void*)getProcessorFeatures},
-		{"updateSrcParams", "(III)V", (void*)updateSrcParams},
+		{"updateSrcParams", "(IIII)V", (void*)updateSrcParams},
+		{"setResampleQuality", "(I)V", (void*)setResampleQuality},
 		{"getCurrentAutomaticEffectsGainInMB", "()I", (void*)getCurrentAutomaticEffectsGainInMB},
 		{"enableAutomaticEffectsGain", "(I)V", (void*)enableAutomaticEffectsGain},
 		{"isAutomaticEffectsGainEnabled", "()I", (void*)isAutomaticEffectsGainEnabled},
+		{"setPreGainInMillibels", "(I)V", (void*)setPreGainInMillibels},
 		{"enableEqualizer", "(I)V", (void*)enableEqualizer},
 		{"isEqualizerEnabled", "()I", (void*)isEqualizerEnabled},
 		{"setEqualizerBandLevel", "(II)V", (void*)setEqualizerBandLevel},
@@ -329,14 +353,19 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* reserved) {
 		{"mediaCodecFillInputBuffers", "(J)I", (void*)mediaCodecFillInputBuffers},
 		{"mediaCodecNextOutputBuffer", "(J)I", (void*)mediaCodecNextOutputBuffer},
 		{"mediaCodecSeek", "(JII)J", (void*)mediaCodecSeek},
+		{"mediaCodecCopyOutputBuffer", "(JIILjava/nio/ByteBuffer;I)I", (void*)mediaCodecCopyOutputBuffer},
 		{"mediaCodecReleaseOutputBuffer", "(J)V", (void*)mediaCodecReleaseOutputBuffer},
 		{"mediaCodecRelease", "(J)V", (void*)mediaCodecRelease},
 		{"mediaCodecLoadExternalLibrary", "()I", (void*)mediaCodecLoadExternalLibrary},
+		{"loudnessCreate", "(II)J", (void*)loudnessCreate},
+		{"loudnessProcessNextOutputBuffer", "(JJ)I", (void*)loudnessProcessNextOutputBuffer},
+		{"loudnessGetResults", "(J[F)V", (void*)loudnessGetResults},
+		{"loudnessRelease", "(J)V", (void*)loudnessRelease},
 		{"audioTrackInitialize", "()V", (void*)audioTrackInitialize},
 		{"audioTrackCreate", "(I)V", (void*)audioTrackCreate},
 		{"audioTrackProcessNativeEffects", "(JIILjava/nio/ByteBuffer;)J", (void*)audioTrackProcessNativeEffects},
 		{"audioTrackProcessEffects", "([BLjava/nio/ByteBuffer;III[BLjava/nio/ByteBuffer;)J", (void*)audioTrackProcessEffects},
-		{"openSLInitialize", "()I", (void*)openSLInitialize},
+		{"openSLInitialize", "(I)I", (void*)openSLInitialize},
 		{"openSLCreate", "(III)I", (void*)openSLCreate},
 		{"openSLPlay", "()I", (void*)openSLPlay},
 		{"openSLPause", "()I", (void*)openSLPause},
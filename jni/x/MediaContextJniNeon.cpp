@@ -35,8 +35,10 @@
 #include <arm_neon.h>
 
 #include "EffectsImplMacros.h"
+#include "EqualizerCascade.h"
 
-extern uint32_t effectsEnabled, equalizerMaxBandCount, effectsGainEnabled, dstSampleRate;
+extern uint32_t effectsEnabled, equalizerMaxBandCount, effectsGainEnabled, dstSampleRate, equalizerActiveBandCount,
+	equalizerActiveBands[];
 extern int32_t effectsFramesBeforeRecoveringGain,
 	effectsMinimumAmountOfFramesToReduce,
 	effectsTemp[] __attribute__((aligned(16))),
@@ -45,7 +47,8 @@ extern float effectsGainRecoveryOne[] __attribute__((aligned(16))),
 	effectsGainReductionPerFrame[] __attribute__((aligned(16))),
 	effectsGainRecoveryPerFrame[] __attribute__((aligned(16))),
 	effectsGainClip[] __attribute__((aligned(16))),
-	equalizerLastBandGain[] __attribute__((aligned(16)));
+	equalizerLastBandGain[] __attribute__((aligned(16))),
+	effectsPreGain[] __attribute__((aligned(16)));
 extern EqualizerCoefs equalizerCoefs[] __attribute__((aligned(16)));
 extern EqualizerState equalizerStates[] __attribute__((aligned(16)));
 extern float *effectsFloatSamples;
@@ -63,113 +66,66 @@ void processEffectsNeon(int16_t* buffer, uint32_t sizeInFrames) {
 	else
 		effectsMinimumAmountOfFramesToReduce -= sizeInFrames;
 
-	if (!(effectsEnabled & (EQUALIZER_ENABLED | BASSBOOST_ENABLED)) || !equalizerActuallyUsedGainInMillibels[BAND_COUNT - 1]) {
-		const uint32_t sizeInShortsEven = (sizeInFrames & ~1) << 1; //each frame has 2 shorts!
+	//the last band (pre amp included) and the track pre-gain are a simple gain, applied while converting the samples
+	const uint32_t equalizerEnabled = (effectsEnabled & (EQUALIZER_ENABLED | BASSBOOST_ENABLED));
+	const uint32_t bandCount = (equalizerEnabled ? equalizerActiveBandCount : 0);
+	const float32x4_t lastBandGain = vdupq_n_f32((equalizerEnabled ? equalizerLastBandGain[0] : 1.0f) * effectsPreGain[0]);
+
+	float32x2_t gainClip = vld1_f32(effectsGainClip);
+	float32x2_t maxAbsSample = vdup_n_f32(0.0f);
+	const float32x2_t one = vld1_f32(effectsGainRecoveryOne);
+	const float32x2_t gainClipMul = vld1_f32((effectsMinimumAmountOfFramesToReduce > 0) ? effectsGainReductionPerFrame : ((effectsFramesBeforeRecoveringGain <= 0) ? effectsGainRecoveryPerFrame : effectsGainRecoveryOne));
+
+	//all the steps are applied to one tile before moving on to the next one, which keeps the
+	//float samples in the L1 cache, instead of going through the entire buffer once per step
+	while (sizeInFrames) {
+		const uint32_t tileSizeInFrames = ((sizeInFrames > EQUALIZER_TILE_FRAMES) ? EQUALIZER_TILE_FRAMES : sizeInFrames);
+		sizeInFrames -= tileSizeInFrames;
+
+		float* floatSamples = effectsFloatSamples;
+		const uint32_t sizeInShortsEven = (tileSizeInFrames & ~1) << 1; //each frame has 2 shorts!
 		for (int32_t i = 0; i < sizeInShortsEven; i += 4) { //this loop processes 4 shorts (or 2 stereo frames - L R L R) at a time
 			const int16x4_t bufferLRLRs16 = vld1_s16(buffer + i);
 			const int32x4_t bufferLRLRs32 = vmovl_s16(bufferLRLRs16);
-			vst1q_f32(effectsFloatSamples + i, vcvtq_f32_s32(bufferLRLRs32));
+			vst1q_f32(floatSamples + i, vmulq_f32(vcvtq_f32_s32(bufferLRLRs32), lastBandGain));
 		}
-		if ((sizeInFrames & 1)) {
+		if ((tileSizeInFrames & 1)) {
 			//last frame (there was an odd number of frames)
-			effectsFloatSamples[(sizeInFrames << 1) - 2] = (float)buffer[(sizeInFrames << 1) - 2];
-			effectsFloatSamples[(sizeInFrames << 1) - 1] = (float)buffer[(sizeInFrames << 1) - 1];
-		}
-	}
-
-	if ((effectsEnabled & (EQUALIZER_ENABLED | BASSBOOST_ENABLED))) {
-		if (equalizerActuallyUsedGainInMillibels[BAND_COUNT - 1]) {
-			const float32x4_t lastBandGain = vdupq_n_f32(equalizerLastBandGain[0]);
-			const uint32_t sizeInShortsEven = (sizeInFrames & ~1) << 1; //each frame has 2 shorts!
-			for (int32_t i = 0; i < sizeInShortsEven; i += 4) { //this loop processes 4 shorts (or 2 stereo frames - L R L R) at a time
-				const int16x4_t bufferLRLRs16 = vld1_s16(buffer + i);
-				const int32x4_t bufferLRLRs32 = vmovl_s16(bufferLRLRs16);
-				vst1q_f32(effectsFloatSamples + i, vmulq_f32(vcvtq_f32_s32(bufferLRLRs32), lastBandGain));
-			}
-			if ((sizeInFrames & 1)) {
-				//last frame (there was an odd number of frames)
-				effectsFloatSamples[(sizeInFrames << 1) - 2] = (float)buffer[(sizeInFrames << 1) - 2] * equalizerLastBandGain[0];
-				effectsFloatSamples[(sizeInFrames << 1) - 1] = (float)buffer[(sizeInFrames << 1) - 1] * equalizerLastBandGain[0];
-			}
+			floatSamples[(tileSizeInFrames << 1) - 2] = (float)buffer[(tileSizeInFrames << 1) - 2] * vgetq_lane_f32(lastBandGain, 0);
+			floatSamples[(tileSizeInFrames << 1) - 1] = (float)buffer[(tileSizeInFrames << 1) - 1] * vgetq_lane_f32(lastBandGain, 0);
 		}
 
-		//apply each filter in all samples before moving on to the next filter (band 0 = pre)
-		for (int32_t band = equalizerMaxBandCount - 2; band >= 1; band--) {
-			//if this band has no gain at all, we can skip it completely (there is no need to worry about
-			//equalizerStates[band - 1] because when any gain is changed, all states are zeroed out in updateGains())
-			if (!equalizerActuallyUsedGainInMillibels[band])
-				continue;
-
-			//we will work with local copies, not with the original pointers
-			const EqualizerCoefs* const equalizerCoef = &(equalizerCoefs[band - 1]);
-			const float32x2_t b0 = vld1_f32(&(equalizerCoef->b0L));
-			const float32x4_t b1_a1 = vld1q_f32(&(equalizerCoef->b1L));
-			const float32x4_t b2_a2 = vld1q_f32(&(equalizerCoef->b2L));
-
-			EqualizerState* const equalizerState = &(equalizerStates[band - 1]);
-			float32x4_t x_n1_y_n1 = vld1q_f32(&(equalizerState->x_n1_L));
-			float32x4_t x_n2_y_n2 = vld1q_f32(&(equalizerState->x_n2_L));
-
-			float* samples = effectsFloatSamples;
+		if (bandCount)
+			equalizerProcessTile(floatSamples, tileSizeInFrames, equalizerCoefs, equalizerStates, equalizerActiveBands, bandCount);
 
-			for (int32_t i = sizeInFrames - 1; i >= 0; i--) {
-				// { samples[0], samples[1] }
-				const float32x2_t inLR = vld1_f32(samples);
+		//if ((effectsEnabled & VIRTUALIZER_ENABLED)) {
+		//}
 
-				// { b1 + b2 L, b1 + b2 R, _a1 + _a2 L, _a1 + _a2 R }
-				const float32x4_t tmp = vmlaq_f32(vmulq_f32(x_n1_y_n1, b1_a1), x_n2_y_n2, b2_a2);
+		for (int32_t i = tileSizeInFrames; i > 0; i--) {
+			const float32x2_t inLR = vmul_f32(vld1_f32(floatSamples), gainClip);
+			floatSamples += 2;
 
-				x_n2_y_n2 = x_n1_y_n1;
+			//gainClip *= effectsGainReductionPerFrame or effectsGainRecoveryPerFrame or 1.0f;
+			//if (gainClip > 1.0f)
+			//	gainClip = 1.0f;
+			gainClip = vmul_f32(gainClip, gainClipMul);
+			gainClip = vmin_f32(gainClip, one);
 
-				// { b0 + b1 + b2 + _a1 + _a2 L, b0 + b1 + b2 + _a1 + _a2 R }
-				const float32x2_t outLR = vadd_f32(vmla_f32(vget_low_f32(tmp), inLR, b0), vget_high_f32(tmp));
+			maxAbsSample = vmax_f32(maxAbsSample, vabs_f32(inLR));
 
-				// { samples[0], samples[1], outL, outR }
-				x_n1_y_n1 = vcombine_f32(inLR, outLR);
+			//const int32_t iL = (int32_t)inL;
+			//const int32_t iR = (int32_t)inR;
+			const int32x2_t iLR = vcvt_s32_f32(inLR);
 
-				vst1_f32(samples, outLR);
+			//buffer[0] = (iL >= 32767 ? 32767 : (iL <= -32768 ? -32768 : (int16_t)iL));
+			//buffer[1] = (iR >= 32767 ? 32767 : (iR <= -32768 ? -32768 : (int16_t)iR));
+			const int16x4_t iLRshort = vqmovn_s32(vcombine_s32(iLR, iLR));
+			vst1_lane_s32((int32_t*)buffer, vreinterpret_s32_s16(iLRshort), 0);
 
-				samples += 2;
-			}
-
-			vst1q_f32(&(equalizerState->x_n1_L), x_n1_y_n1);
-			vst1q_f32(&(equalizerState->x_n2_L), x_n2_y_n2);
+			buffer += 2;
 		}
 	}
 
-	//if ((effectsEnabled & VIRTUALIZER_ENABLED)) {
-	//}
-
-	float32x2_t gainClip = vld1_f32(effectsGainClip);
-	float32x2_t maxAbsSample = vdup_n_f32(0.0f);
-	const float32x2_t one = vld1_f32(effectsGainRecoveryOne);
-	const float32x2_t gainClipMul = vld1_f32((effectsMinimumAmountOfFramesToReduce > 0) ? effectsGainReductionPerFrame : ((effectsFramesBeforeRecoveringGain <= 0) ? effectsGainRecoveryPerFrame : effectsGainRecoveryOne));		
-	float* floatSamples = effectsFloatSamples;
-
-	while ((sizeInFrames--)) {
-		const float32x2_t inLR = vmul_f32(vld1_f32(floatSamples), gainClip);
-		floatSamples += 2;
-
-		//gainClip *= effectsGainReductionPerFrame or effectsGainRecoveryPerFrame or 1.0f;
-		//if (gainClip > 1.0f)
-		//	gainClip = 1.0f;
-		gainClip = vmul_f32(gainClip, gainClipMul);
-		gainClip = vmin_f32(gainClip, one);
-
-		maxAbsSample = vmax_f32(maxAbsSample, vabs_f32(inLR));
-
-		//const int32_t iL = (int32_t)inL;
-		//const int32_t iR = (int32_t)inR;
-		const int32x2_t iLR = vcvt_s32_f32(inLR);
-
-		//buffer[0] = (iL >= 32767 ? 32767 : (iL <= -32768 ? -32768 : (int16_t)iL));
-		//buffer[1] = (iR >= 32767 ? 32767 : (iR <= -32768 ? -32768 : (int16_t)iR));
-		const int16x4_t iLRshort = vqmovn_s32(vcombine_s32(iLR, iLR));
-		vst1_lane_s32((int32_t*)buffer, vreinterpret_s32_s16(iLRshort), 0);
-
-		buffer += 2;
-	}
-
 	if (!effectsGainEnabled) {
 		effectsFramesBeforeRecoveringGain = 0x7FFFFFFF;
 		effectsMinimumAmountOfFramesToReduce = 0;
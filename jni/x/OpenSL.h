@@ -37,6 +37,24 @@
 //https://www.khronos.org/registry/sles/specs/OpenSL_ES_Specification_1.0.1.pdf
 //https://gcc.gnu.org/onlinedocs/gcc-4.4.3/gcc/Atomic-Builtins.html
 //https://android.googlesource.com/platform/system/media/+/gingerbread/opensles/libopensles/IBufferQueue.c
+//https://developer.android.com/ndk/guides/audio/opensl/android-extensions.html#floating-point-data
+
+//the extended PCM format is only declared by the headers of API 21+ (older versions
+//simply fail to create the player with it, and we fall back to 16-bit samples)
+#ifndef SL_ANDROID_DATAFORMAT_PCM_EX
+#define SL_ANDROID_DATAFORMAT_PCM_EX ((SLuint32)0x00000004)
+#define SL_ANDROID_PCM_REPRESENTATION_FLOAT ((SLuint32)0x00000003)
+typedef struct SLAndroidDataFormat_PCM_EX_ {
+	SLuint32 formatType;
+	SLuint32 numChannels;
+	SLuint32 sampleRate;
+	SLuint32 bitsPerSample;
+	SLuint32 containerSize;
+	SLuint32 channelMask;
+	SLuint32 endianness;
+	SLuint32 representation;
+} SLAndroidDataFormat_PCM_EX;
+#endif
 
 //engine interfaces
 static SLObjectItf engineObject;
@@ -52,7 +70,10 @@ static SLAndroidSimpleBufferQueueItf bqPlayerBufferQueue;
 static SLVolumeItf bqPlayerVolume;
 
 static uint8_t* fullBuffer;
-static uint32_t currentlyCommittedFrames, headPositionInFrames, bufferSizeInFrames, singleBufferSizeInFrames, singleBufferSizeInBytes, processingBufferCount, processingBufferSizeInFrames, finalProcessingBufferSizeInFrames, bufferCount, bufferWriteIndex, bufferReadIndex, writtenBufferCount, playedBufferCount;
+//when floatPipeline is set, but the engine does not accept floats, the samples are
+//processed in openSLFloatSamples and only converted to 16 bits right before being enqueued
+static float* openSLFloatSamples;
+static uint32_t openSLFloatOutput, currentlyCommittedFrames, headPositionInFrames, bufferSizeInFrames, singleBufferSizeInFrames, singleBufferSizeInBytes, processingBufferCount, processingBufferSizeInFrames, finalProcessingBufferSizeInFrames, bufferCount, bufferWriteIndex, bufferReadIndex, writtenBufferCount, playedBufferCount;
 static size_t contextVersion;
 
 void resetOpenSL() {
@@ -75,6 +96,8 @@ void initializeOpenSL() {
 	bqPlayerVolume = 0;
 
 	fullBuffer = 0;
+	openSLFloatSamples = 0;
+	openSLFloatOutput = 0;
 	contextVersion = 0;
 	srcSampleRate = 44100;
 	dstSampleRate = 44100;
@@ -142,6 +165,12 @@ void JNICALL openSLTerminate(JNIEnv* env, jclass clazz) {
 		fullBuffer = 0;
 	}
 
+	if (openSLFloatSamples) {
+		delete openSLFloatSamples;
+		openSLFloatSamples = 0;
+	}
+
+	openSLFloatOutput = 0;
 	bufferSizeInFrames = 0;
 	singleBufferSizeInFrames = 0;
 	singleBufferSizeInBytes = 0;
@@ -151,9 +180,16 @@ void JNICALL openSLTerminate(JNIEnv* env, jclass clazz) {
 	bufferCount = 0;
 }
 
-int32_t JNICALL openSLInitialize(JNIEnv* env, jclass clazz) {
+int32_t JNICALL openSLInitialize(JNIEnv* env, jclass clazz, uint32_t useFloatPipeline) {
 	openSLTerminate(env, clazz);
 
+	//this mode is kept until the engine is initialized again, and since it must be known
+	//before the first decoder is prepared, it cannot wait until openSLCreate()
+	if (floatPipeline != useFloatPipeline) {
+		floatPipeline = useFloatPipeline;
+		resetResampler();
+	}
+
 	equalizerConfigChanged();
 	virtualizerConfigChanged();
 
@@ -189,6 +225,27 @@ int32_t JNICALL openSLInitialize(JNIEnv* env, jclass clazz) {
 	return 0;
 }
 
+SLresult openSLCreateAudioPlayer(SLDataSource* audioSrc, SLDataSink* audioSink) {
+	//create audio player
+	const SLInterfaceID ids[2] = { SL_IID_BUFFERQUEUE,  SL_IID_VOLUME };
+	const SLboolean req[2] = { SL_BOOLEAN_TRUE, SL_BOOLEAN_TRUE };
+	SLresult result = (*engineEngine)->CreateAudioPlayer(engineEngine, &bqPlayerObject, audioSrc, audioSink, 2, ids, req);
+	if (result != SL_RESULT_SUCCESS) {
+		bqPlayerObject = 0;
+		return result;
+	}
+
+	//realize the player
+	result = (*bqPlayerObject)->Realize(bqPlayerObject, SL_BOOLEAN_FALSE);
+	if (result != SL_RESULT_SUCCESS) {
+		//destroy it here, so the caller can try again with another format
+		(*bqPlayerObject)->Destroy(bqPlayerObject);
+		bqPlayerObject = 0;
+	}
+
+	return result;
+}
+
 int32_t JNICALL openSLCreate(JNIEnv* env, jclass clazz, uint32_t dstSampleRate, uint32_t bufferCount, uint32_t singleBufferSizeInFrames) {
 	openSLRelease(env, clazz);
 
@@ -202,7 +259,6 @@ int32_t JNICALL openSLCreate(JNIEnv* env, jclass clazz, uint32_t dstSampleRate,
 	if (::bufferCount != bufferCount || ::singleBufferSizeInFrames != singleBufferSizeInFrames) {
 		::bufferCount = bufferCount;
 		::singleBufferSizeInFrames = singleBufferSizeInFrames;
-		singleBufferSizeInBytes = singleBufferSizeInFrames << 2;
 		bufferSizeInFrames = bufferCount * singleBufferSizeInFrames;
 
 		processingBufferSizeInFrames = singleBufferSizeInFrames;
@@ -217,9 +273,21 @@ int32_t JNICALL openSLCreate(JNIEnv* env, jclass clazz, uint32_t dstSampleRate,
 			fullBuffer = 0;
 		}
 
-		fullBuffer = new uint8_t[bufferSizeInFrames << 2];
+		if (openSLFloatSamples) {
+			delete openSLFloatSamples;
+			openSLFloatSamples = 0;
+		}
+
+		//the size of the buffers is only known after creating the player (floats take 8 bytes per frame)
+		fullBuffer = new uint8_t[bufferSizeInFrames << (floatPipeline ? 3 : 2)];
 		if (!fullBuffer)
 			return SL_RESULT_MEMORY_FAILURE;
+
+		if (floatPipeline) {
+			openSLFloatSamples = new float[singleBufferSizeInFrames << 1];
+			if (!openSLFloatSamples)
+				return SL_RESULT_MEMORY_FAILURE;
+		}
 	}
 
 	resetOpenSL();
@@ -253,17 +321,31 @@ int32_t JNICALL openSLCreate(JNIEnv* env, jclass clazz, uint32_t dstSampleRate,
 	audioSink.pLocator = &outputMixLocator;
 	audioSink.pFormat = 0;
 
-	//create audio player
-	const SLInterfaceID ids[2] = { SL_IID_BUFFERQUEUE,  SL_IID_VOLUME };
-	const SLboolean req[2] = { SL_BOOLEAN_TRUE, SL_BOOLEAN_TRUE };
-	result = (*engineEngine)->CreateAudioPlayer(engineEngine, &bqPlayerObject, &audioSrc, &audioSink, 2, ids, req);
-	if (result != SL_RESULT_SUCCESS)
-		return result;
+	openSLFloatOutput = 0;
+	if (floatPipeline) {
+		SLAndroidDataFormat_PCM_EX fmtFloat;
+		fmtFloat.formatType = SL_ANDROID_DATAFORMAT_PCM_EX;
+		fmtFloat.numChannels = 2;
+		fmtFloat.sampleRate = dstSampleRate * 1000;
+		fmtFloat.bitsPerSample = SL_PCMSAMPLEFORMAT_FIXED_32;
+		fmtFloat.containerSize = SL_PCMSAMPLEFORMAT_FIXED_32;
+		fmtFloat.channelMask = SL_SPEAKER_FRONT_LEFT | SL_SPEAKER_FRONT_RIGHT;
+		fmtFloat.endianness = SL_BYTEORDER_LITTLEENDIAN;
+		fmtFloat.representation = SL_ANDROID_PCM_REPRESENTATION_FLOAT;
+
+		audioSrc.pFormat = &fmtFloat;
+		if (openSLCreateAudioPlayer(&audioSrc, &audioSink) == SL_RESULT_SUCCESS)
+			openSLFloatOutput = 1;
+		audioSrc.pFormat = &fmt;
+	}
 
-	//realize the player
-	result = (*bqPlayerObject)->Realize(bqPlayerObject, SL_BOOLEAN_FALSE);
-	if (result != SL_RESULT_SUCCESS)
-		return result;
+	if (!openSLFloatOutput) {
+		result = openSLCreateAudioPlayer(&audioSrc, &audioSink);
+		if (result != SL_RESULT_SUCCESS)
+			return result;
+	}
+
+	singleBufferSizeInBytes = singleBufferSizeInFrames << (openSLFloatOutput ? 3 : 2);
 
 	//get the play interface
 	result = (*bqPlayerObject)->GetInterface(bqPlayerObject, SL_IID_PLAY, &bqPlayerPlay);
@@ -330,6 +412,69 @@ uint32_t JNICALL openSLGetHeadPositionInFrames(JNIEnv* env, jclass clazz) {
 	return headPositionInFrames;
 }
 
+int64_t openSLWriteFloat(const void* srcBuffer, uint32_t sizeInFrames) {
+	//the caller has already checked whether there is an empty buffer available
+	int16_t* const dstBuffer = (int16_t*)(fullBuffer + (bufferWriteIndex * singleBufferSizeInBytes));
+	//when the engine accepts floats, the samples are produced directly inside the buffer that will be enqueued
+	float* const floatBuffer = (openSLFloatOutput ? (float*)dstBuffer : openSLFloatSamples);
+
+	WriteRet ret;
+	ret.srcFramesUsed = 0;
+
+	//fill current buffer with singleBufferSizeInFrames samples, only then commit the buffer
+	//we will also commit the buffer if srcBuffer is 0, and we already had a few samples in the buffer
+	if (srcBuffer) {
+		//floatBuffer must always be filled with stereo frames
+		ret.dstFramesUsed = resampleProcFloat(srcBuffer, sizeInFrames, floatBuffer + (currentlyCommittedFrames << 1), singleBufferSizeInFrames - currentlyCommittedFrames, ret.srcFramesUsed);
+
+		currentlyCommittedFrames += ret.dstFramesUsed;
+
+		//if the buffer is not full enough, do not commit the buffer
+		if (currentlyCommittedFrames < singleBufferSizeInFrames)
+			return ret.val;
+
+		//assertion
+		if (currentlyCommittedFrames > singleBufferSizeInFrames)
+			return -SL_RESULT_PRECONDITIONS_VIOLATED;
+	} else {
+		if (!currentlyCommittedFrames)
+			return 0;
+		ret.dstFramesUsed = currentlyCommittedFrames;
+
+		//fill the rest of the buffer with 0's because we will commit this entire buffer
+		memset(floatBuffer + (currentlyCommittedFrames << 1), 0, (singleBufferSizeInFrames - currentlyCommittedFrames) << 3);
+	}
+
+	currentlyCommittedFrames = 0;
+
+	advanceVisualizerFloat(floatBuffer, singleBufferSizeInFrames);
+
+	//we must not process too many samples at once, because the AGC algorithm expects at most ~1k samples
+	float* procBuffer = floatBuffer;
+	for (uint32_t i = 0; i < processingBufferCount; i++, procBuffer += (processingBufferSizeInFrames << 1))
+		effectProcFloat(procBuffer, processingBufferSizeInFrames);
+	if (finalProcessingBufferSizeInFrames)
+		effectProcFloat(procBuffer, finalProcessingBufferSizeInFrames);
+
+	//this is the only conversion performed along the way when the engine does not accept floats
+	if (!openSLFloatOutput) {
+		for (int32_t i = ((singleBufferSizeInFrames << 1) - 1); i >= 0; i--) {
+			const int32_t sample = (int32_t)(floatBuffer[i] * 32768.0f);
+			dstBuffer[i] = (sample >= 32767 ? 32767 : (sample <= -32768 ? -32768 : (int16_t)sample));
+		}
+	}
+
+	if ((++bufferWriteIndex) >= bufferCount)
+		bufferWriteIndex = 0;
+	writtenBufferCount++;
+
+	const SLresult result = (*bqPlayerBufferQueue)->Enqueue(bqPlayerBufferQueue, dstBuffer, singleBufferSizeInBytes);
+	if (result != SL_RESULT_SUCCESS)
+		return -(abs((int32_t)result));
+
+	return ret.val;
+}
+
 int64_t JNICALL openSLWriteNative(JNIEnv* env, jclass clazz, uint64_t nativeObj, uint32_t offsetInBytes, uint32_t sizeInFrames) {
 	if (!fullBuffer || !bqPlayerBufferQueue || (nativeObj && !((MediaCodec*)nativeObj)->buffer))
 		return -SL_RESULT_PRECONDITIONS_VIOLATED;
@@ -341,6 +486,9 @@ int64_t JNICALL openSLWriteNative(JNIEnv* env, jclass clazz, uint64_t nativeObj,
 	if (emptyBuffers > bufferCount)
 		return -SL_RESULT_PRECONDITIONS_VIOLATED;
 
+	if (floatPipeline)
+		return openSLWriteFloat(nativeObj ? (((MediaCodec*)nativeObj)->buffer + offsetInBytes) : 0, sizeInFrames);
+
 	//we always output stereo audio, regardless of the input config
 	int16_t* const dstBuffer = (int16_t*)(fullBuffer + (bufferWriteIndex * singleBufferSizeInBytes));
 
@@ -424,6 +572,9 @@ int64_t JNICALL openSLWrite(JNIEnv* env, jclass clazz, jbyteArray jarray, jobjec
 		if (needsSwap)
 			swapShortsInplace((int16_t*)((uint8_t*)srcBuffer + offsetInBytes), (((singleBufferSizeInFrames - currentlyCommittedFrames) << (srcChannelCount - 1)) * srcSampleRate) / dstSampleRate);
 
+		if (floatPipeline)
+			return openSLWriteFloat((uint8_t*)srcBuffer + offsetInBytes, sizeInFrames);
+
 		//dstBuffer must always be filled with stereo frames
 		ret.dstFramesUsed = resampleProc((int16_t*)((uint8_t*)srcBuffer + offsetInBytes), sizeInFrames, (int16_t*)((uint8_t*)dstBuffer + (currentlyCommittedFrames << 2)), singleBufferSizeInFrames - currentlyCommittedFrames, ret.srcFramesUsed);
 	} else {
@@ -435,6 +586,13 @@ int64_t JNICALL openSLWrite(JNIEnv* env, jclass clazz, jbyteArray jarray, jobjec
 		if (needsSwap)
 			swapShortsInplace((int16_t*)((uint8_t*)srcBuffer + offsetInBytes), (((singleBufferSizeInFrames - currentlyCommittedFrames) << (srcChannelCount - 1)) * srcSampleRate) / dstSampleRate);
 
+		if (floatPipeline) {
+			//no JNI calls are made by openSLWriteFloat(), so it is safe to call it inside the critical region
+			const int64_t floatRet = openSLWriteFloat((uint8_t*)srcBuffer + offsetInBytes, sizeInFrames);
+			env->ReleasePrimitiveArrayCritical(jarray, srcBuffer, JNI_ABORT);
+			return floatRet;
+		}
+
 		//dstBuffer must always be filled with stereo frames
 		ret.dstFramesUsed = resampleProc((int16_t*)((uint8_t*)srcBuffer + offsetInBytes), sizeInFrames, (int16_t*)((uint8_t*)dstBuffer + (currentlyCommittedFrames << 2)), singleBufferSizeInFrames - currentlyCommittedFrames, ret.srcFramesUsed);
 
@@ -32,6 +32,8 @@
 //
 
 typedef uint32_t (*RESAMPLEPROC)(int16_t* srcBuffer, uint32_t srcSizeInFrames, int16_t* dstBuffer, uint32_t dstSizeInFrames, uint32_t& srcFramesUsed);
+//used when floatPipeline is set (srcBuffer points to int16_t's or to float's, depending on srcFloat)
+typedef uint32_t (*RESAMPLEPROCFLOAT)(const void* srcBuffer, uint32_t srcSizeInFrames, float* dstBuffer, uint32_t dstSizeInFrames, uint32_t& srcFramesUsed);
 
 #ifdef FPLAY_ARM
 //extern uint32_t resampleLagrangeNeon(int16_t* srcBuffer, uint32_t srcSizeInFrames, int16_t* dstBuffer, uint32_t dstSizeInFrames, uint32_t& srcFramesUsed);
@@ -42,20 +44,20 @@ uint32_t resamplePendingAdvances, resampleCoeffLen, resampleCoeffIdx, resampleAd
 //I gave up trying to optimize the integer version under x86 architecture...
 //up to SSE4.2 it lacks SEVERAL integer-related features present in NEON
 //(that's why I fell back to the float point version)
-#ifdef FPLAY_X86
+//(the float point coefficients are also used by the float pipeline under ARM)
 float *resampleCoeff;
-#else
+#ifdef FPLAY_ARM
 int32_t *resampleCoeffINT;
 #endif
 uint32_t *resampleAdvance;
-#ifdef FPLAY_X86
 float resampleY[20] __attribute__((aligned(16)));
 static float *resampleCoeffOriginal;
-#else
+#ifdef FPLAY_ARM
 int32_t resampleYINT[20] __attribute__((aligned(16)));
 static int32_t *resampleCoeffOriginalINT;
 #endif
 static RESAMPLEPROC resampleProc;
+static RESAMPLEPROCFLOAT resampleProcFloat;
 
 uint32_t resampleNull(int16_t* srcBuffer, uint32_t srcSizeInFrames, int16_t* dstBuffer, uint32_t dstSizeInFrames, uint32_t& srcFramesUsed) {
 	//nothing to be done but copying from source to destination
@@ -80,6 +82,36 @@ uint32_t resampleNullMono(int16_t* srcBuffer, uint32_t srcSizeInFrames, int16_t*
 	return srcSizeInFrames;
 }
 
+//int16_t samples are scaled down to [-1, 1) when entering the float pipeline
+template <typename S> inline float resampleSampleToFloat(S sample);
+template <> inline float resampleSampleToFloat<int16_t>(int16_t sample) { return (float)sample * (1.0f / 32768.0f); }
+template <> inline float resampleSampleToFloat<float>(float sample) { return sample; }
+
+template <typename S>
+uint32_t resampleNullFloat(const void* srcBuffer, uint32_t srcSizeInFrames, float* dstBuffer, uint32_t dstSizeInFrames, uint32_t& srcFramesUsed) {
+	const S* src = (const S*)srcBuffer;
+	if (srcSizeInFrames > dstSizeInFrames)
+		srcSizeInFrames = dstSizeInFrames;
+	for (uint32_t i = (srcSizeInFrames << 1); i; i--)
+		*dstBuffer++ = resampleSampleToFloat<S>(*src++);
+	srcFramesUsed = srcSizeInFrames;
+	return srcSizeInFrames;
+}
+
+template <typename S>
+uint32_t resampleNullMonoFloat(const void* srcBuffer, uint32_t srcSizeInFrames, float* dstBuffer, uint32_t dstSizeInFrames, uint32_t& srcFramesUsed) {
+	const S* src = (const S*)srcBuffer;
+	if (srcSizeInFrames > dstSizeInFrames)
+		srcSizeInFrames = dstSizeInFrames;
+	for (uint32_t i = srcSizeInFrames; i; i--) {
+		const float f = resampleSampleToFloat<S>(*src++);
+		*dstBuffer++ = f;
+		*dstBuffer++ = f;
+	}
+	srcFramesUsed = srcSizeInFrames;
+	return srcSizeInFrames;
+}
+
 //------------------------------------------------------------------------
 //the idea behind all this:
 //
@@ -444,7 +476,132 @@ uint32_t resampleLagrangeMonoINT(int16_t* srcBuffer, uint32_t srcSizeInFrames, i
 }
 #endif
 
-#ifdef FPLAY_X86
+//the same Lagrange interpolation used by the integer versions, but without the
+//quantization to 16 bits (resampleY holds samples in the range [-1, 1])
+template <typename S>
+uint32_t resampleLagrangeFloat(const void* srcBuffer, uint32_t srcSizeInFrames, float* dstBuffer, uint32_t dstSizeInFrames, uint32_t& srcFramesUsed) {
+	const S* src = (const S*)srcBuffer;
+	uint32_t usedSrc = 0, usedDst = 0;
+
+	while (resamplePendingAdvances) {
+		resamplePendingAdvances--;
+
+		for (int32_t i = 0; i < 18; i++)
+			resampleY[i] = resampleY[i + 2];
+		resampleY[18] = resampleSampleToFloat<S>(src[0]);
+		resampleY[19] = resampleSampleToFloat<S>(src[1]);
+
+		usedSrc++;
+		src += 2;
+
+		if (usedSrc >= srcSizeInFrames) {
+			srcFramesUsed = usedSrc;
+			return usedDst;
+		}
+	}
+
+	while (usedDst < dstSizeInFrames) {
+		const float* const coeff = resampleCoeff + resampleCoeffIdx;
+		float outL = 0.0f, outR = 0.0f;
+		for (int32_t i = 0; i < 20; i += 2) {
+			outL += resampleY[i] * coeff[i];
+			outR += resampleY[i + 1] * coeff[i + 1];
+		}
+		dstBuffer[0] = outL;
+		dstBuffer[1] = outR;
+		dstBuffer += 2;
+		usedDst++;
+
+		resampleCoeffIdx += 20;
+		resampleAdvanceIdx++;
+		if (resampleCoeffIdx >= resampleCoeffLen) {
+			resampleCoeffIdx = 0;
+			resampleAdvanceIdx = 0;
+		}
+		resamplePendingAdvances = resampleAdvance[resampleAdvanceIdx];
+
+		while (resamplePendingAdvances) {
+			resamplePendingAdvances--;
+
+			for (int32_t i = 0; i < 18; i++)
+				resampleY[i] = resampleY[i + 2];
+			resampleY[18] = resampleSampleToFloat<S>(src[0]);
+			resampleY[19] = resampleSampleToFloat<S>(src[1]);
+
+			usedSrc++;
+			src += 2;
+
+			if (usedSrc >= srcSizeInFrames) {
+				srcFramesUsed = usedSrc;
+				return usedDst;
+			}
+		}
+	}
+
+	srcFramesUsed = usedSrc;
+	return usedDst;
+}
+
+template <typename S>
+uint32_t resampleLagrangeMonoFloat(const void* srcBuffer, uint32_t srcSizeInFrames, float* dstBuffer, uint32_t dstSizeInFrames, uint32_t& srcFramesUsed) {
+	const S* src = (const S*)srcBuffer;
+	uint32_t usedSrc = 0, usedDst = 0;
+
+	while (resamplePendingAdvances) {
+		resamplePendingAdvances--;
+
+		for (int32_t i = 0; i < 9; i++)
+			resampleY[i] = resampleY[i + 1];
+		resampleY[9] = resampleSampleToFloat<S>(src[0]);
+
+		usedSrc++;
+		src++;
+
+		if (usedSrc >= srcSizeInFrames) {
+			srcFramesUsed = usedSrc;
+			return usedDst;
+		}
+	}
+
+	while (usedDst < dstSizeInFrames) {
+		const float* const coeff = resampleCoeff + resampleCoeffIdx;
+		float out = 0.0f;
+		for (int32_t i = 0; i < 10; i++)
+			out += resampleY[i] * coeff[i << 1];
+		dstBuffer[0] = out;
+		dstBuffer[1] = out;
+		dstBuffer += 2;
+		usedDst++;
+
+		resampleCoeffIdx += 20;
+		resampleAdvanceIdx++;
+		if (resampleCoeffIdx >= resampleCoeffLen) {
+			resampleCoeffIdx = 0;
+			resampleAdvanceIdx = 0;
+		}
+		resamplePendingAdvances = resampleAdvance[resampleAdvanceIdx];
+
+		while (resamplePendingAdvances) {
+			resamplePendingAdvances--;
+
+			for (int32_t i = 0; i < 9; i++)
+				resampleY[i] = resampleY[i + 1];
+			resampleY[9] = resampleSampleToFloat<S>(src[0]);
+
+			usedSrc++;
+			src++;
+
+			if (usedSrc >= srcSizeInFrames) {
+				srcFramesUsed = usedSrc;
+				return usedDst;
+			}
+		}
+	}
+
+	srcFramesUsed = usedSrc;
+	return usedDst;
+}
+
 void resampleComputeCoeffs() {
 	static const uint32_t resampleFirstPrimes[8] = { 2, 3, 5, 7, 11, 13, 17, 19 };
 	uint32_t factSrc = srcSampleRate, factDst = dstSampleRate;
@@ -534,7 +691,8 @@ void resampleComputeCoeffs() {
 		coeff += 20;
 	}
 }
-#else
+
+#ifdef FPLAY_ARM
 void resampleComputeCoeffsINT() {
 	static const uint32_t resampleFirstPrimes[8] = { 2, 3, 5, 7, 11, 13, 17, 19 };
 	uint32_t factSrc = srcSampleRate, factDst = dstSampleRate;
@@ -623,63 +781,360 @@ void resampleComputeCoeffsINT() {
 }
 #endif
 
+//------------------------------------------------------------------------
+//polyphase windowed-sinc resampler (used when resampleQuality is
+//RESAMPLE_QUALITY_SINC, or when the Lagrange version cannot be used)
+//
+//the phases are the same ones used by the Lagrange version (factDst
+//phases, sharing resampleAdvance), but each phase holds
+//resampleSincTaps coefficients of a Kaiser-windowed sinc
+//
+//when downsampling, the cutoff frequency is lowered and the amount of
+//taps is increased proportionally, so the frequencies above the new
+//Nyquist frequency are removed before they get a chance to alias (that
+//is what makes 88200/96000 -> 44100/48000 possible)
+//
+//the last resampleSincTaps frames are stored twice in
+//resampleSincHistory, so the window used by any output frame is always
+//contiguous in memory (those frames are kept in the 16-bit scale, even
+//when the source is float, in order to share the same table between
+//both pipelines)
+//
+//past                                            future
+//  h[pos] ... h[pos + (taps / 2) - 1]  present  h[pos + (taps / 2)] ... h[pos + taps - 1]
+//------------------------------------------------------------------------
+#define RESAMPLE_QUALITY_LAGRANGE 0
+#define RESAMPLE_QUALITY_SINC 1
+
+#define RESAMPLE_SINC_TAPS 32 //when upsampling (must be a multiple of 4)
+#define RESAMPLE_SINC_MAX_TAPS 96
+#define RESAMPLE_SINC_CUTOFF 0.92 //relative to the lowest Nyquist frequency
+#define RESAMPLE_SINC_KAISER_BETA 8.0
+
+static uint32_t resampleQuality;
+uint32_t resampleSincTaps, resampleSincPos, resampleSincFactSrc, resampleSincFactDst;
+float *resampleSincCoeff, *resampleSincHistory;
+static float *resampleSincCoeffOriginal, *resampleSincHistoryOriginal;
+
+uint32_t resampleSincSupported() {
+	return (srcSampleRate >= 8000 && srcSampleRate <= 96000 && srcSampleRate <= (dstSampleRate * 3));
+}
+
+static double resampleBesselI0(double x) {
+	//power series of the modified Bessel function of the first kind (order 0)
+	const double x2 = x * x * 0.25;
+	double term = 1.0, sum = 1.0;
+	for (uint32_t k = 1; k < 64; k++) {
+		term *= x2 / (double)(k * k);
+		sum += term;
+		if (term < (sum * 1e-12))
+			break;
+	}
+	return sum;
+}
+
+void resampleComputeSincCoeffs() {
+	static const uint32_t resampleFirstPrimes[8] = { 2, 3, 5, 7, 11, 13, 17, 19 };
+	uint32_t factSrc = srcSampleRate, factDst = dstSampleRate;
+
+	for (uint32_t i = 0; i < 8; i++) {
+		const uint32_t prime = resampleFirstPrimes[i];
+		while (!(factSrc % prime) && !(factDst % prime)) {
+			factSrc /= prime;
+			factDst /= prime;
+		}
+	}
+
+	uint32_t taps = RESAMPLE_SINC_TAPS;
+	double cutoff = RESAMPLE_SINC_CUTOFF;
+	if (factSrc > factDst) {
+		taps = ((((RESAMPLE_SINC_TAPS * factSrc) + factDst - 1) / factDst) + 3) & ~3;
+		if (taps > RESAMPLE_SINC_MAX_TAPS)
+			taps = RESAMPLE_SINC_MAX_TAPS;
+		cutoff = (cutoff * (double)factDst) / (double)factSrc;
+	}
+
+	//each row has taps * 2 coefficients (they are duplicated, to be used on both channels at once)
+	resampleCoeffLen = factDst * (taps << 1);
+
+	if (resampleAdvance)
+		delete resampleAdvance;
+	resampleAdvance = new uint32_t[factDst];
+
+	if (!resampleSincHistoryOriginal) {
+		resampleSincHistoryOriginal = new float[(RESAMPLE_SINC_MAX_TAPS << 2) + 4];
+		resampleSincHistory = (float*)((size_t)resampleSincHistoryOriginal + 16 - ((size_t)resampleSincHistoryOriginal & 15));
+	}
+
+	//the table does not depend on anything else, so there is no need to compute it again
+	const uint32_t computeTable = (!resampleSincCoeff || factSrc != resampleSincFactSrc || factDst != resampleSincFactDst || taps != resampleSincTaps);
+	if (computeTable) {
+		if (resampleSincCoeffOriginal)
+			delete resampleSincCoeffOriginal;
+		resampleSincCoeffOriginal = new float[resampleCoeffLen + 4];
+		//align memory on a 16-byte boundary (taps is a multiple of 4, so every row is also aligned)
+		resampleSincCoeff = (float*)((size_t)resampleSincCoeffOriginal + 16 - ((size_t)resampleSincCoeffOriginal & 15));
+		resampleSincFactSrc = factSrc;
+		resampleSincFactDst = factDst;
+		resampleSincTaps = taps;
+	}
+
+	const double halfTaps = (double)(taps >> 1);
+	const double i0Beta = resampleBesselI0(RESAMPLE_SINC_KAISER_BETA);
+	uint32_t lastPhaseI = 0;
+	float *coeff = resampleSincCoeff + (taps << 1);
+
+	for (uint32_t i = 1; i <= factDst; i++) {
+		const uint32_t phaseI = (i * factSrc) / factDst;
+		if (i == factDst) {
+			coeff = resampleSincCoeff;
+			resampleAdvance[0] = phaseI - lastPhaseI;
+		} else {
+			resampleAdvance[i] = phaseI - lastPhaseI;
+		}
+		lastPhaseI = phaseI;
+
+		if (!computeTable)
+			continue;
+
+		const double phaseFrac = (double)((i * factSrc) % factDst) / (double)factDst;
+		double sum = 0.0;
+		for (uint32_t m = 0; m < taps; m++) {
+			//distance between the output frame and the input frame m
+			const double t = phaseFrac + halfTaps - 1.0 - (double)m;
+			const double x = t / halfTaps;
+			double c = ((x <= -1.0 || x >= 1.0) ? 0.0 : (resampleBesselI0(RESAMPLE_SINC_KAISER_BETA * sqrt(1.0 - (x * x))) / i0Beta));
+			if (t != 0.0)
+				c *= sin(M_PI * cutoff * t) / (M_PI * t);
+			else
+				c *= cutoff;
+			coeff[m << 1] = (float)c;
+			sum += c;
+		}
+		//normalize each phase so that all of them have unity gain at DC
+		for (uint32_t m = 0; m < taps; m++) {
+			coeff[m << 1] = (float)((double)coeff[m << 1] / sum);
+			coeff[(m << 1) + 1] = coeff[m << 1];
+		}
+
+		coeff += (taps << 1);
+	}
+}
+
+template <typename S> inline float resampleSincIn(S sample);
+template <> inline float resampleSincIn<int16_t>(int16_t sample) { return (float)sample; }
+template <> inline float resampleSincIn<float>(float sample) { return sample * 32768.0f; }
+
+template <typename D> inline D resampleSincOut(float sample);
+template <> inline int16_t resampleSincOut<int16_t>(float sample) {
+	const int32_t i = (int32_t)(sample + ((sample >= 0.0f) ? 0.5f : -0.5f));
+	return ((i >= 32767) ? 32767 : ((i <= -32768) ? -32768 : (int16_t)i));
+}
+template <> inline float resampleSincOut<float>(float sample) { return sample * (1.0f / 32768.0f); }
+
+static inline void resampleSincPush(float l, float r) {
+	float* const h = resampleSincHistory + (resampleSincPos << 1);
+	h[0] = l;
+	h[1] = r;
+	h[resampleSincTaps << 1] = l;
+	h[(resampleSincTaps << 1) + 1] = r;
+	resampleSincPos++;
+	if (resampleSincPos >= resampleSincTaps)
+		resampleSincPos = 0;
+}
+
+static inline void resampleSincDot(const float* window, const float* coeff, uint32_t rowLength, float& outL, float& outR) {
+#if defined(FPLAY_X86)
+	__m128 acc0 = _mm_setzero_ps(), acc1 = _mm_setzero_ps();
+	for (uint32_t m = 0; m < rowLength; m += 8) {
+		acc0 = _mm_add_ps(acc0, _mm_mul_ps(_mm_loadu_ps(window + m), _mm_load_ps(coeff + m)));
+		acc1 = _mm_add_ps(acc1, _mm_mul_ps(_mm_loadu_ps(window + m + 4), _mm_load_ps(coeff + m + 4)));
+	}
+	acc0 = _mm_add_ps(acc0, acc1);
+	//{ L, R, L, R } -> { L + L, R + R, ... }
+	acc0 = _mm_add_ps(acc0, _mm_movehl_ps(acc0, acc0));
+	outL = _mm_cvtss_f32(acc0);
+	outR = _mm_cvtss_f32(_mm_shuffle_ps(acc0, acc0, _MM_SHUFFLE(1, 1, 1, 1)));
+#elif defined(__ARM_NEON__) || defined(__ARM_NEON)
+	float32x4_t acc0 = vdupq_n_f32(0.0f), acc1 = vdupq_n_f32(0.0f);
+	for (uint32_t m = 0; m < rowLength; m += 8) {
+		acc0 = vmlaq_f32(acc0, vld1q_f32(window + m), vld1q_f32(coeff + m));
+		acc1 = vmlaq_f32(acc1, vld1q_f32(window + m + 4), vld1q_f32(coeff + m + 4));
+	}
+	acc0 = vaddq_f32(acc0, acc1);
+	const float32x2_t sum = vadd_f32(vget_low_f32(acc0), vget_high_f32(acc0));
+	outL = vget_lane_f32(sum, 0);
+	outR = vget_lane_f32(sum, 1);
+#else
+	float l0 = 0.0f, r0 = 0.0f, l1 = 0.0f, r1 = 0.0f;
+	for (uint32_t m = 0; m < rowLength; m += 4) {
+		l0 += window[m] * coeff[m];
+		r0 += window[m + 1] * coeff[m + 1];
+		l1 += window[m + 2] * coeff[m + 2];
+		r1 += window[m + 3] * coeff[m + 3];
+	}
+	outL = l0 + l1;
+	outR = r0 + r1;
+#endif
+}
+
+//mono sources are pushed into both channels of the history, so there is only one kernel
+template <typename S, typename D, uint32_t CHANNELS>
+uint32_t resampleSincT(const void* srcBuffer, uint32_t srcSizeInFrames, D* dstBuffer, uint32_t dstSizeInFrames, uint32_t& srcFramesUsed) {
+	const S* src = (const S*)srcBuffer;
+	const uint32_t rowLength = resampleSincTaps << 1;
+	uint32_t usedSrc = 0, usedDst = 0;
+
+	while (resamplePendingAdvances) {
+		resampleSincPush(resampleSincIn<S>(src[0]), resampleSincIn<S>(src[CHANNELS - 1]));
+		resamplePendingAdvances--;
+		src += CHANNELS;
+		usedSrc++;
+		if (usedSrc >= srcSizeInFrames) {
+			srcFramesUsed = usedSrc;
+			return usedDst;
+		}
+	}
+
+	while (usedDst < dstSizeInFrames) {
+		float l, r;
+		resampleSincDot(resampleSincHistory + (resampleSincPos << 1), resampleSincCoeff + resampleCoeffIdx, rowLength, l, r);
+		dstBuffer[0] = resampleSincOut<D>(l);
+		dstBuffer[1] = resampleSincOut<D>(r);
+		dstBuffer += 2;
+		usedDst++;
+
+		resampleCoeffIdx += rowLength;
+		resampleAdvanceIdx++;
+		if (resampleCoeffIdx >= resampleCoeffLen) {
+			resampleCoeffIdx = 0;
+			resampleAdvanceIdx = 0;
+		}
+
+		resamplePendingAdvances = resampleAdvance[resampleAdvanceIdx];
+		while (resamplePendingAdvances) {
+			resampleSincPush(resampleSincIn<S>(src[0]), resampleSincIn<S>(src[CHANNELS - 1]));
+			resamplePendingAdvances--;
+			src += CHANNELS;
+			usedSrc++;
+			if (usedSrc >= srcSizeInFrames) {
+				srcFramesUsed = usedSrc;
+				return usedDst;
+			}
+		}
+	}
+
+	srcFramesUsed = usedSrc;
+	return usedDst;
+}
+
+uint32_t resampleSinc(int16_t* srcBuffer, uint32_t srcSizeInFrames, int16_t* dstBuffer, uint32_t dstSizeInFrames, uint32_t& srcFramesUsed) {
+	return resampleSincT<int16_t, int16_t, 2>(srcBuffer, srcSizeInFrames, dstBuffer, dstSizeInFrames, srcFramesUsed);
+}
+
+uint32_t resampleSincMono(int16_t* srcBuffer, uint32_t srcSizeInFrames, int16_t* dstBuffer, uint32_t dstSizeInFrames, uint32_t& srcFramesUsed) {
+	return resampleSincT<int16_t, int16_t, 1>(srcBuffer, srcSizeInFrames, dstBuffer, dstSizeInFrames, srcFramesUsed);
+}
+
+template <typename S>
+uint32_t resampleSincFloat(const void* srcBuffer, uint32_t srcSizeInFrames, float* dstBuffer, uint32_t dstSizeInFrames, uint32_t& srcFramesUsed) {
+	return resampleSincT<S, float, 2>(srcBuffer, srcSizeInFrames, dstBuffer, dstSizeInFrames, srcFramesUsed);
+}
+
+template <typename S>
+uint32_t resampleSincMonoFloat(const void* srcBuffer, uint32_t srcSizeInFrames, float* dstBuffer, uint32_t dstSizeInFrames, uint32_t& srcFramesUsed) {
+	return resampleSincT<S, float, 1>(srcBuffer, srcSizeInFrames, dstBuffer, dstSizeInFrames, srcFramesUsed);
+}
+
 void resetResamplerState() {
 	resamplePendingAdvances = 0;
 	resampleCoeffIdx = 0;
 	resampleAdvanceIdx = 0;
-#ifdef FPLAY_X86
 	memset(resampleY, 0, sizeof(float) * 20);
-#else
+#ifdef FPLAY_ARM
 	memset(resampleYINT, 0, sizeof(int32_t) * 20);
 #endif
+	resampleSincPos = 0;
+	if (resampleSincHistory)
+		memset(resampleSincHistory, 0, sizeof(float) * (RESAMPLE_SINC_MAX_TAPS << 2));
 }
 
 void resetResampler() {
 	resetResamplerState();
 
 	if (srcSampleRate != dstSampleRate) {
+		//downsampling is only performed from 48000 Hz to 44100 Hz by the Lagrange version,
+		//because it does not apply any filters (the windowed-sinc version handles all other cases)
+		const uint32_t lagrangeSupported = ((srcSampleRate == 48000 && dstSampleRate == 44100) ||
+			(srcSampleRate >= 8000 && dstSampleRate > srcSampleRate));
+
+		if (resampleSincSupported() && (resampleQuality == RESAMPLE_QUALITY_SINC || !lagrangeSupported)) {
+			//resampleAdvance and resampleCoeffLen are shared by all tables, so only the one that is going to be used is computed
+			resampleComputeSincCoeffs();
+			//the same table is used by both pipelines
+			resampleProc = ((srcChannelCount == 2) ? resampleSinc : resampleSincMono);
+			resampleProcFloat = ((srcChannelCount == 2) ?
+				(srcFloat ? resampleSincFloat<float> : resampleSincFloat<int16_t>) :
+				(srcFloat ? resampleSincMonoFloat<float> : resampleSincMonoFloat<int16_t>));
+			return;
+		}
+
+		if (lagrangeSupported) {
 #ifdef FPLAY_X86
-		resampleComputeCoeffs();
+			resampleComputeCoeffs();
 #else
-		resampleComputeCoeffsINT();
+			if (floatPipeline)
+				resampleComputeCoeffs();
+			else
+				resampleComputeCoeffsINT();
 #endif
-
-		//downsampling is only performed from 48000 Hz to 44100 Hz because we are not
-		//applying any filters
-		if ((srcSampleRate == 48000 && dstSampleRate == 44100) ||
-			(srcSampleRate >= 8000 && dstSampleRate > srcSampleRate)) {
+			if (floatPipeline) {
+				//the 16-bit path is not used while floatPipeline is set (under ARM its table is not even computed)
+				resampleProc = ((srcChannelCount == 2) ? resampleNull : resampleNullMono);
+				resampleProcFloat = ((srcChannelCount == 2) ?
+					(srcFloat ? resampleLagrangeFloat<float> : resampleLagrangeFloat<int16_t>) :
+					(srcFloat ? resampleLagrangeMonoFloat<float> : resampleLagrangeMonoFloat<int16_t>));
+				return;
+			}
 #ifdef FPLAY_X86
 			resampleProc = ((srcChannelCount == 2) ? resampleLagrange : resampleLagrangeMono);
 #else
 			resampleProc = ((srcChannelCount == 2) ? (neonMode ? resampleLagrangeNeonINT : resampleLagrangeINT) : resampleLagrangeMonoINT);
 #endif
+			resampleProcFloat = ((srcChannelCount == 2) ? resampleNullFloat<int16_t> : resampleNullMonoFloat<int16_t>);
 			return;
 		}
 	}
 
 	resampleProc = ((srcChannelCount == 2) ? resampleNull : resampleNullMono);
+	resampleProcFloat = ((srcChannelCount == 2) ?
+		(srcFloat ? resampleNullFloat<float> : resampleNullFloat<int16_t>) :
+		(srcFloat ? resampleNullMonoFloat<float> : resampleNullMonoFloat<int16_t>));
 }
 
 void initializeResampler() {
-#ifdef FPLAY_X86
 	resampleCoeff = 0;
 	resampleCoeffOriginal = 0;
-#else
+#ifdef FPLAY_ARM
 	resampleCoeffINT = 0;
 	resampleCoeffOriginalINT = 0;
 #endif
 	resampleAdvance = 0;
+	resampleSincCoeff = 0;
+	resampleSincCoeffOriginal = 0;
+	resampleSincHistory = 0;
+	resampleSincHistoryOriginal = 0;
+	resampleSincTaps = 0;
 	resetResampler();
 }
 
 void terminateResampler() {
-#ifdef FPLAY_X86
 	resampleCoeff = 0;
 	if (resampleCoeffOriginal) {
 		delete resampleCoeffOriginal;
 		resampleCoeffOriginal = 0;
 	}
-#else
+#ifdef FPLAY_ARM
 	resampleCoeffINT = 0;
 	if (resampleCoeffOriginalINT) {
 		delete resampleCoeffOriginalINT;
@@ -690,4 +1145,15 @@ void terminateResampler() {
 		delete resampleAdvance;
 		resampleAdvance = 0;
 	}
+	resampleSincCoeff = 0;
+	if (resampleSincCoeffOriginal) {
+		delete resampleSincCoeffOriginal;
+		resampleSincCoeffOriginal = 0;
+	}
+	resampleSincHistory = 0;
+	if (resampleSincHistoryOriginal) {
+		delete resampleSincHistoryOriginal;
+		resampleSincHistoryOriginal = 0;
+	}
+	resampleSincTaps = 0;
 }
@@ -46,6 +46,7 @@ static VISUALIZERPROC visualizerWriteProc;
 
 #define resetVisualizer() visualizerWriteOffsetInFrames = 0
 #define advanceVisualizer(A, B) if (visualizerBuffer) visualizerWriteProc(A, B); visualizerWriteOffsetInFrames += B; while (visualizerWriteOffsetInFrames >= visualizerBufferSizeInFrames) visualizerWriteOffsetInFrames -= visualizerBufferSizeInFrames
+#define advanceVisualizerFloat(A, B) if (visualizerBuffer) visualizerWriteFloat(A, B); visualizerWriteOffsetInFrames += B; while (visualizerWriteOffsetInFrames >= visualizerBufferSizeInFrames) visualizerWriteOffsetInFrames -= visualizerBufferSizeInFrames
 
 void visualizerWrite(const int16_t* srcBuffer, uint32_t bufferSizeInFrames) {
 	const uint32_t frameCountAtTheEnd = visualizerBufferSizeInFrames - visualizerWriteOffsetInFrames;
@@ -106,6 +107,24 @@ void visualizerWrite(const int16_t* srcBuffer, uint32_t bufferSizeInFrames) {
 	} while (bufferSizeInFrames);
 }
 
+void visualizerWriteFloat(const float* srcBuffer, uint32_t bufferSizeInFrames) {
+	const uint32_t frameCountAtTheEnd = visualizerBufferSizeInFrames - visualizerWriteOffsetInFrames;
+	uint8_t* dstBuffer = visualizerBuffer + visualizerWriteOffsetInFrames;
+	uint32_t count = ((bufferSizeInFrames <= frameCountAtTheEnd) ? bufferSizeInFrames : frameCountAtTheEnd);
+	do {
+		uint32_t i = count;
+		while (i--) {
+			//(L + R) * 64 = ((L + R) * 32768) >> 9, the same scale used by visualizerWrite()
+			const int32_t s = (int32_t)((srcBuffer[0] + srcBuffer[1]) * 64.0f);
+			*dstBuffer++ = (uint8_t)(((s >= 127) ? 127 : ((s <= -128) ? -128 : s)) ^ 0x80);
+			srcBuffer += 2;
+		}
+		bufferSizeInFrames -= count;
+		count = bufferSizeInFrames;
+		dstBuffer = visualizerBuffer;
+	} while (bufferSizeInFrames);
+}
+
 int32_t JNICALL visualizerStart(JNIEnv* env, jclass clazz, uint32_t bufferSizeInFrames, uint32_t createIfNotCreated) {
 	if (!createIfNotCreated) {
 		visualizerWriteOffsetInFrames = 0;
@@ -0,0 +1,237 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+
+//Micro-benchmark comparing the fused/tiled equalizer cascade (EqualizerCascade.h) with the
+//previous approach (one full pass over the buffer per band, direct form I).
+//
+//Build and run on x86 Linux (from the jni/x/bench folder):
+//g++ -O2 -o EqualizerBench EqualizerBench.cpp -lm && ./EqualizerBench
+
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+
+#include "../EffectsImplMacros.h"
+#include "../EqualizerCascade.h"
+
+#define SAMPLE_RATE 44100.0
+#define ITERATIONS 20000
+
+//direct form I state, as used before the fused cascade
+struct EqualizerStateDF1 {
+	float x_n1_L, x_n1_R, y_n1_L, y_n1_R;
+	float x_n2_L, x_n2_R, y_n2_L, y_n2_R;
+};
+
+static EqualizerCoefs coefs[BAND_COUNT - 2] __attribute__((aligned(16)));
+static EqualizerState states[BAND_COUNT - 2] __attribute__((aligned(16)));
+static EqualizerStateDF1 statesDF1[BAND_COUNT - 2] __attribute__((aligned(16)));
+static uint32_t bands[BAND_COUNT - 2], bandCount;
+
+//same as computeFilter() in Filter.h
+static void computeLowShelf(EqualizerCoefs* coef, int32_t gainInMillibels, double f0) {
+	const double A = pow(10.0, (double)gainInMillibels / 4000.0);
+	const double w0 = 2.0 * 3.1415926535897932384626433832795 * f0 / SAMPLE_RATE;
+	const double cosw0 = cos(w0);
+	const double alpha = sin(w0) * 0.70710678118654752440084436210485;
+	const double two_sqrtA_alpha = 2.0 * sqrt(A) * alpha;
+	const double b0 =     A*( (A+1.0) - ((A-1.0)*cosw0) + two_sqrtA_alpha );
+	const double b1 = 2.0*A*( (A-1.0) - ((A+1.0)*cosw0)                   );
+	const double b2 =     A*( (A+1.0) - ((A-1.0)*cosw0) - two_sqrtA_alpha );
+	const double a0 =         (A+1.0) + ((A-1.0)*cosw0) + two_sqrtA_alpha;
+	const double a1 =  -2.0*( (A-1.0) + ((A+1.0)*cosw0)                   );
+	const double a2 =         (A+1.0) + ((A-1.0)*cosw0) - two_sqrtA_alpha;
+	memset(coef, 0, sizeof(EqualizerCoefs));
+	coef->b0L = coef->b0R = (float)(b0 / a0);
+	coef->b1L = coef->b1R = (float)(b1 / a0);
+	coef->_a1L = coef->_a1R = (float)(-a1 / a0);
+	coef->b2L = coef->b2R = (float)(b2 / a0);
+	coef->_a2L = coef->_a2R = (float)(-a2 / a0);
+}
+
+static void processPerBand(float* samples, uint32_t sizeInFrames) {
+	for (uint32_t b = 0; b < bandCount; b++) {
+		const EqualizerCoefs* const equalizerCoef = &(coefs[bands[b]]);
+		const float b0 = equalizerCoef->b0L;
+		const float b1 = equalizerCoef->b1L;
+		const float _a1 = equalizerCoef->_a1L;
+		const float b2 = equalizerCoef->b2L;
+		const float _a2 = equalizerCoef->_a2L;
+		EqualizerStateDF1 equalizerState = statesDF1[bands[b]];
+
+		float* s = samples;
+
+		for (int32_t i = sizeInFrames - 1; i >= 0; i--) {
+			const float inL = s[0];
+			const float inR = s[1];
+
+			const float outL = (b0 * inL) + (b1 * equalizerState.x_n1_L) + (_a1 * equalizerState.y_n1_L) + (b2 * equalizerState.x_n2_L) + (_a2 * equalizerState.y_n2_L);
+			const float outR = (b0 * inR) + (b1 * equalizerState.x_n1_R) + (_a1 * equalizerState.y_n1_R) + (b2 * equalizerState.x_n2_R) + (_a2 * equalizerState.y_n2_R);
+
+			equalizerState.x_n2_L = equalizerState.x_n1_L;
+			equalizerState.x_n2_R = equalizerState.x_n1_R;
+			equalizerState.y_n2_L = equalizerState.y_n1_L;
+			equalizerState.y_n2_R = equalizerState.y_n1_R;
+
+			equalizerState.x_n1_L = inL;
+			equalizerState.x_n1_R = inR;
+			equalizerState.y_n1_L = outL;
+			equalizerState.y_n1_R = outR;
+
+			s[0] = outL;
+			s[1] = outR;
+
+			s += 2;
+		}
+
+		statesDF1[bands[b]] = equalizerState;
+	}
+}
+
+//double-precision reference (same float coefficients, only the arithmetic is more precise),
+//used to tell how far each float version actually is from the exact result
+static double stateRef[BAND_COUNT - 2][8];
+
+static void processReference(const float* input, double* output, uint32_t sizeInFrames) {
+	for (uint32_t i = 0; i < (sizeInFrames << 1); i++)
+		output[i] = (double)input[i];
+	for (uint32_t b = 0; b < bandCount; b++) {
+		const EqualizerCoefs* const c = &(coefs[bands[b]]);
+		double* const st = stateRef[bands[b]];
+		double* s = output;
+		for (uint32_t i = 0; i < sizeInFrames; i++, s += 2) {
+			for (uint32_t ch = 0; ch < 2; ch++) {
+				//x[n-1], x[n-2], y[n-1], y[n-2]
+				double* const z = st + (ch << 2);
+				const double in = s[ch];
+				const double out = ((double)c->b0L * in) + ((double)c->b1L * z[0]) + ((double)c->b2L * z[1]) + ((double)c->_a1L * z[2]) + ((double)c->_a2L * z[3]);
+				z[1] = z[0];
+				z[0] = in;
+				z[3] = z[2];
+				z[2] = out;
+				s[ch] = out;
+			}
+		}
+	}
+}
+
+static void processFused(float* samples, uint32_t sizeInFrames) {
+	while (sizeInFrames) {
+		const uint32_t tileSizeInFrames = ((sizeInFrames > EQUALIZER_TILE_FRAMES) ? EQUALIZER_TILE_FRAMES : sizeInFrames);
+		equalizerProcessTile(samples, tileSizeInFrames, coefs, states, bands, bandCount);
+		samples += (tileSizeInFrames << 1);
+		sizeInFrames -= tileSizeInFrames;
+	}
+}
+
+static double now() {
+	struct timespec t;
+	clock_gettime(CLOCK_MONOTONIC, &t);
+	return (double)t.tv_sec + ((double)t.tv_nsec * 1e-9);
+}
+
+static double run(void (*proc)(float*, uint32_t), const float* input, float* samples, uint32_t sizeInFrames) {
+	const double start = now();
+	for (int32_t i = 0; i < ITERATIONS; i++) {
+		memcpy(samples, input, (sizeInFrames << 1) * sizeof(float));
+		proc(samples, sizeInFrames);
+	}
+	return ((now() - start) * 1e9) / ((double)ITERATIONS * (double)sizeInFrames);
+}
+
+int main(int argc, char** argv) {
+	const uint32_t sizeInFrames = MAXIMUM_BUFFER_SIZE_IN_FRAMES_FOR_PROCESSING;
+	const double f0[BAND_COUNT - 2] = { 92.75, 187.5, 375.0, 1500.0, 6000.0 };
+	const int32_t gain[BAND_COUNT - 2] = { 600, -300, 450, -900, 1200 };
+	float* const input = (float*)aligned_alloc(16, (sizeInFrames << 1) * sizeof(float));
+	float* const a = (float*)aligned_alloc(16, (sizeInFrames << 1) * sizeof(float));
+	float* const b = (float*)aligned_alloc(16, (sizeInFrames << 1) * sizeof(float));
+	double* const ref = (double*)malloc((sizeInFrames << 1) * sizeof(double));
+
+	srand(1);
+	for (uint32_t i = 0; i < (sizeInFrames << 1); i++)
+		input[i] = (float)((rand() & 0xFFFF) - 32768) * 0.25f;
+
+	bandCount = 0;
+	for (int32_t band = BAND_COUNT - 3; band >= 0; band--) {
+		computeLowShelf(&(coefs[band]), gain[band], f0[band]);
+		bands[bandCount++] = band;
+	}
+
+	//both float versions are compared with each other and with the double-precision reference
+	//(the samples are in 16-bit units, so an error of 1.0 is one LSB of the 16-bit output)
+	double maxDiff = 0.0, maxErrPerBand = 0.0, maxErrFused = 0.0, maxAbs = 0.0;
+	for (int32_t i = 0; i < 16; i++) {
+		memcpy(a, input, (sizeInFrames << 1) * sizeof(float));
+		memcpy(b, input, (sizeInFrames << 1) * sizeof(float));
+		processPerBand(a, sizeInFrames);
+		processFused(b, sizeInFrames);
+		processReference(input, ref, sizeInFrames);
+		for (uint32_t j = 0; j < (sizeInFrames << 1); j++) {
+			const double d = fabs((double)a[j] - (double)b[j]);
+			const double ea = fabs((double)a[j] - ref[j]);
+			const double eb = fabs((double)b[j] - ref[j]);
+			if (maxDiff < d)
+				maxDiff = d;
+			if (maxErrPerBand < ea)
+				maxErrPerBand = ea;
+			if (maxErrFused < eb)
+				maxErrFused = eb;
+			if (maxAbs < fabs(ref[j]))
+				maxAbs = fabs(ref[j]);
+		}
+	}
+	printf("%u bands, %u frames per buffer, tile = %u frames\n", bandCount, sizeInFrames, EQUALIZER_TILE_FRAMES);
+	printf("max sample: %g\n", maxAbs);
+	printf("max difference per band x fused: %g\n", maxDiff);
+	printf("max error vs double: per band %g, fused %g\n", maxErrPerBand, maxErrFused);
+
+	memset(states, 0, sizeof(states));
+	memset(statesDF1, 0, sizeof(statesDF1));
+	//warm up
+	run(processPerBand, input, a, sizeInFrames);
+	run(processFused, input, b, sizeInFrames);
+	const double perBand = run(processPerBand, input, a, sizeInFrames);
+	const double fused = run(processFused, input, b, sizeInFrames);
+	printf("per band: %.2f ns/frame\n", perBand);
+	printf("fused:    %.2f ns/frame (%.2fx)\n", fused, perBand / fused);
+
+	free(input);
+	free(a);
+	free(b);
+	free(ref);
+	return 0;
+}
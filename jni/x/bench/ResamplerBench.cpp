@@ -0,0 +1,203 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+
+//Micro-benchmark and quality test comparing the Lagrange resampler with the polyphase
+//windowed-sinc resampler (both in Resampler.h), using the 16-bit (AudioTrack) path.
+//
+//For every ratio it reports how many output frames per second each version produces, and:
+//- the passband level of a 1 kHz tone (should be 0 dB)
+//- the spurious level (everything that is not the expected tone, relative to it) of a tone
+//  close to the lowest Nyquist frequency (images/aliasing + interpolation errors)
+//- when downsampling, the level of a tone above the new Nyquist frequency, which should be
+//  filtered out instead of aliasing back into the audible range
+//
+//Build and run on x86 Linux (from the jni/x/bench folder):
+//g++ -O2 -msse4.1 -o ResamplerBench ResamplerBench.cpp -lm && ./ResamplerBench
+
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+#include <xmmintrin.h>
+#include <emmintrin.h>
+#include <pmmintrin.h>
+#include <tmmintrin.h>
+
+#define FPLAY_X86
+
+//globals used by Resampler.h (they live in MediaContextJni.cpp and Effects.h)
+static uint32_t srcSampleRate, dstSampleRate, srcChannelCount, srcFloat, floatPipeline;
+static int32_t effectsTemp[4] __attribute__((aligned(16)));
+
+#include "../Resampler.h"
+
+#define CHUNK_FRAMES 1024
+#define TEST_SECONDS 4
+#define BENCH_SECONDS 30
+
+static int16_t* generateTone(uint32_t sampleRate, double frequency, uint32_t frames) {
+	int16_t* const buffer = new int16_t[frames << 1];
+	const double w = 2.0 * M_PI * frequency / (double)sampleRate;
+	for (uint32_t i = 0; i < frames; i++) {
+		const int16_t s = (int16_t)floor((16384.0 * sin(w * (double)i)) + 0.5);
+		buffer[i << 1] = s;
+		buffer[(i << 1) + 1] = s;
+	}
+	return buffer;
+}
+
+//feeds src to resampleProc in chunks, just like the engines do
+static uint32_t resampleAll(const int16_t* src, uint32_t srcFrames, int16_t* dst, uint32_t dstCapacity) {
+	uint32_t dstFrames = 0;
+	while (srcFrames && dstFrames < dstCapacity) {
+		uint32_t chunk = ((srcFrames > CHUNK_FRAMES) ? CHUNK_FRAMES : srcFrames), used = 0;
+		dstFrames += resampleProc((int16_t*)src, chunk, dst + (dstFrames << 1), dstCapacity - dstFrames, used);
+		src += (used << 1);
+		srcFrames -= used;
+	}
+	return dstFrames;
+}
+
+static uint32_t configure(uint32_t src, uint32_t dst, uint32_t quality) {
+	srcSampleRate = src;
+	dstSampleRate = dst;
+	resampleQuality = quality;
+	resetResampler();
+	return (resampleProc != resampleNull);
+}
+
+//level (in dB, relative to the input amplitude) of the best fit sinusoid with the given frequency,
+//and level of everything else (the residual), skipping the first frames (filter latency)
+static void analyze(const int16_t* dst, uint32_t frames, uint32_t sampleRate, double frequency, double& toneDB, double& residualDB) {
+	const uint32_t skip = sampleRate / 10;
+	const double w = 2.0 * M_PI * frequency / (double)sampleRate;
+	double ss = 0.0, sc = 0.0, cc = 0.0, ys = 0.0, yc = 0.0, yy = 0.0;
+	for (uint32_t i = skip; i < frames; i++) {
+		const double s = sin(w * (double)i), c = cos(w * (double)i), y = (double)dst[i << 1] / 16384.0;
+		ss += s * s;
+		sc += s * c;
+		cc += c * c;
+		ys += y * s;
+		yc += y * c;
+		yy += y * y;
+	}
+	//least squares: y ~ a.sin + b.cos
+	const double det = (ss * cc) - (sc * sc);
+	const double a = ((ys * cc) - (yc * sc)) / det;
+	const double b = ((yc * ss) - (ys * sc)) / det;
+	const double n = (double)(frames - skip);
+	const double tonePower = ((a * a * ss) + (2.0 * a * b * sc) + (b * b * cc)) / n;
+	const double residualPower = (yy / n) - tonePower;
+	//the input tone has a power of 0.5 (amplitude 1 in this scale)
+	toneDB = 10.0 * log10((tonePower > 1e-12 ? tonePower : 1e-12) / 0.5);
+	residualDB = 10.0 * log10((residualPower > 1e-12 ? residualPower : 1e-12) / 0.5);
+}
+
+static double benchmark(const int16_t* src, uint32_t srcFrames, int16_t* dst, uint32_t dstCapacity) {
+	timespec start, end;
+	uint64_t totalFrames = 0;
+	resetResamplerState();
+	clock_gettime(CLOCK_MONOTONIC, &start);
+	for (uint32_t i = 0; i < BENCH_SECONDS / TEST_SECONDS; i++) {
+		totalFrames += resampleAll(src, srcFrames, dst, dstCapacity);
+	}
+	clock_gettime(CLOCK_MONOTONIC, &end);
+	const double seconds = (double)(end.tv_sec - start.tv_sec) + ((double)(end.tv_nsec - start.tv_nsec) / 1000000000.0);
+	return (double)totalFrames / seconds;
+}
+
+static void test(uint32_t src, uint32_t dst) {
+	static const char* const names[2] = { "Lagrange", "sinc    " };
+	const uint32_t srcFrames = src * TEST_SECONDS;
+	const uint32_t dstCapacity = (dst * TEST_SECONDS) + CHUNK_FRAMES;
+	const uint32_t nyquist = (((src < dst) ? src : dst) >> 1);
+	const double highFrequency = (double)nyquist * 0.82;
+	//halfway between both Nyquist frequencies
+	const double outOfBandFrequency = (double)((src >> 1) + (dst >> 1)) * 0.5;
+	int16_t* const lowTone = generateTone(src, 1000.0, srcFrames);
+	int16_t* const highTone = generateTone(src, highFrequency, srcFrames);
+	int16_t* const outOfBandTone = ((src > dst) ? generateTone(src, outOfBandFrequency, srcFrames) : 0);
+	int16_t* const out = new int16_t[dstCapacity << 1];
+
+	printf("%6u -> %6u Hz\n", src, dst);
+	for (uint32_t quality = RESAMPLE_QUALITY_LAGRANGE; quality <= RESAMPLE_QUALITY_SINC; quality++) {
+		if (!configure(src, dst, quality) || (quality == RESAMPLE_QUALITY_LAGRANGE && resampleProc == resampleSinc)) {
+			printf("  %s  not supported\n", names[quality]);
+			continue;
+		}
+		double toneDB, residualDB, highToneDB, highResidualDB, outOfBandDB = 0.0, unused;
+		resetResamplerState();
+		uint32_t frames = resampleAll(lowTone, srcFrames, out, dstCapacity);
+		analyze(out, frames, dst, 1000.0, toneDB, residualDB);
+		resetResamplerState();
+		frames = resampleAll(highTone, srcFrames, out, dstCapacity);
+		analyze(out, frames, dst, highFrequency, highToneDB, highResidualDB);
+		if (outOfBandTone) {
+			//there is no expected tone, so everything that comes out is aliasing
+			resetResamplerState();
+			frames = resampleAll(outOfBandTone, srcFrames, out, dstCapacity);
+			analyze(out, frames, dst, 1000.0, unused, outOfBandDB);
+		}
+		const double fps = benchmark(lowTone, srcFrames, out, dstCapacity);
+		printf("  %s  %7.1f Mframes/s  1 kHz: %+6.2f dB (spurious %7.1f dB)  %5.0f Hz: %+6.2f dB (spurious %7.1f dB)", names[quality], fps / 1000000.0, toneDB, residualDB, highFrequency, highToneDB, highResidualDB);
+		if (outOfBandTone)
+			printf("  %5.0f Hz aliasing: %7.1f dB", outOfBandFrequency, outOfBandDB);
+		printf("\n");
+	}
+
+	delete lowTone;
+	delete highTone;
+	if (outOfBandTone)
+		delete outOfBandTone;
+	delete out;
+}
+
+int main() {
+	srcChannelCount = 2;
+	srcFloat = 0;
+	floatPipeline = 0;
+	initializeResampler();
+
+	test(44100, 48000);
+	test(48000, 44100);
+	test(22050, 48000);
+	test(22050, 44100);
+	test(88200, 48000);
+	test(96000, 48000);
+	test(96000, 44100);
+
+	terminateResampler();
+	return 0;
+}
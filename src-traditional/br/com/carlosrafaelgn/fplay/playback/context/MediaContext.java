@@ -33,7 +33,7 @@
 package br.com.carlosrafaelgn.fplay.playback.context;
 
 public final class MediaContext {
-	public static boolean useOpenSLEngine;
+	public static boolean useOpenSLEngine, useFloatPipeline;
 
 	public static void _initialize() {
 	}
@@ -41,6 +41,9 @@ public final class MediaContext {
 	public static void _release() {
 	}
 
+	public static void prefetchHeads(String[] paths) {
+	}
+
 	public static MediaPlayerBase createMediaPlayer() {
 		return new MediaPlayerWrapper();
 	}
@@ -77,4 +80,11 @@ public final class MediaContext {
 
 	public static void _enableResampling(boolean enabled) {
 	}
+
+	public static boolean isHighQualityResamplingEnabled() {
+		return false;
+	}
+
+	public static void _enableHighQualityResampling(boolean enabled) {
+	}
 }
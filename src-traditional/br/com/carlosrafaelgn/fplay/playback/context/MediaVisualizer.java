@@ -38,6 +38,7 @@ import br.com.carlosrafaelgn.fplay.activity.MainHandler;
 import br.com.carlosrafaelgn.fplay.playback.Player;
 import br.com.carlosrafaelgn.fplay.util.Timer;
 import br.com.carlosrafaelgn.fplay.visualizer.Visualizer;
+import br.com.carlosrafaelgn.fplay.visualizer.VisualizerQualityGovernor;
 
 public final class MediaVisualizer implements Runnable, Timer.TimerHandler {
 	public interface Handler {
@@ -52,6 +53,7 @@ public final class MediaVisualizer implements Runnable, Timer.TimerHandler {
 	private int audioSessionId;
 	private byte[] waveform;
 	private Timer timer;
+	private final VisualizerQualityGovernor governor;
 
 	public MediaVisualizer(Visualizer visualizer, Handler handler) {
 		this.visualizer = visualizer;
@@ -61,8 +63,13 @@ public final class MediaVisualizer implements Runnable, Timer.TimerHandler {
 		reset = true;
 		playing = Player.localPlaying;
 		waveform = new byte[Visualizer.CAPTURE_SIZE];
+		governor = new VisualizerQualityGovernor(visualizer);
 		timer = new Timer(this, "Visualizer Thread", false, false, true);
-		timer.start(16);
+		timer.start(VisualizerQualityGovernor.getFrameInterval(VisualizerQualityGovernor.QUALITY_FULL));
+	}
+
+	public VisualizerQualityGovernor getQualityGovernor() {
+		return governor;
 	}
 
 	public void playingChanged() {
@@ -201,7 +208,12 @@ public final class MediaVisualizer implements Runnable, Timer.TimerHandler {
 				//while the player is not actually playing
 				if (playing)
 					fxVisualizer.getWaveForm(waveform);
+				//the underruns of MediaPlayer cannot be observed from here
+				final long start = System.nanoTime();
 				visualizer.processFrame(playing, waveform);
+				final int interval = governor.frameFinished((int)((System.nanoTime() - start) / 1000L), 0);
+				if (interval != 0)
+					timer.setInterval(interval);
 			}
 		}
 		if (!alive) {
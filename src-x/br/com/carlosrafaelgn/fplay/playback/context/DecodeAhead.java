@@ -0,0 +1,345 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.playback.context;
+
+import android.media.MediaCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+//Decoder stage of the playback pipeline: the "MediaContext Decoder Thread" pulls the output
+//buffers from the source player, copies them into a ring of PCM blocks and runs ahead of the
+//playback by up to aheadInMS, while MediaContext.run() only processes the effects and writes
+//the blocks into the engine (a slow decoder call no longer stalls engine.write()).
+//
+//The ring is lock-free, with a single producer (the decoder thread) and a single consumer
+//(MediaContext.run()). readIndex and writeIndex only grow, and one slot is always kept free, so
+//the consumer can go on using the last block it has popped until it pops the next one.
+//
+//FORMAT, OVER and ERROR markers travel through the ring, in order with the samples, and the
+//decoder stops itself right after pushing one of them, because MediaContext.run() must handle
+//them (updating the source params, switching players...) before the decoder goes on.
+//
+//Every method, but run(), MUST be called from the playback thread: MediaContext.run(). The source
+//player is only touched by the decoder thread while it is running, and by the playback thread
+//while it is paused (pause() only returns after the decoder thread has become idle).
+final class DecodeAhead implements Runnable {
+	private static final int BLOCK_SIZE_IN_BYTES = 16384;
+	//48000 Hz, stereo, float (sources above 48000 Hz are not decoded ahead beyond this amount)
+	private static final int MAX_BYTES_PER_SECOND = 48000 * 8;
+	private static final int IDLE_TIME_IN_NS = 50000000;
+	private static final int DECODER_WAIT_TIME_IN_NS = 5000000;
+
+	private static final int TYPE_DATA = 0;
+	private static final int TYPE_FORMAT_CHANGED = 1;
+	private static final int TYPE_STREAM_OVER = 2;
+	private static final int TYPE_ERROR = 3;
+
+	private static final class Block {
+		public final ByteBuffer buffer;
+		public int type, sizeInBytes, needsSwap;
+		public Throwable exception;
+
+		public Block() {
+			buffer = ByteBuffer.allocateDirect(BLOCK_SIZE_IN_BYTES);
+		}
+	}
+
+	private final MediaCodecPlayer.OutputBuffer pending;
+	private final Thread thread;
+	private Block[] ring;
+	private MediaCodecPlayer source;
+	private int aheadInMS;
+	//only the decoder thread writes to writeIndex and producedBytes, and only the playback thread
+	//writes to readIndex and consumedBytes
+	private volatile int readIndex, writeIndex;
+	private volatile long producedBytes, consumedBytes;
+	private volatile boolean alive, running, busy, sourceHalted, markerPending;
+	private boolean sourceOver;
+
+	public DecodeAhead() {
+		pending = new MediaCodecPlayer.OutputBuffer();
+		pending.index = MediaCodec.INFO_TRY_AGAIN_LATER;
+		alive = true;
+		setAheadInMS(500);
+		thread = new Thread(this, "MediaContext Decoder Thread");
+		//a bit below MediaContext's thread, which must never starve
+		thread.setPriority(Thread.MAX_PRIORITY - 2);
+		thread.start();
+	}
+
+	public void setAheadInMS(int aheadInMS) {
+		if (this.aheadInMS == aheadInMS)
+			return;
+		flush();
+		this.aheadInMS = aheadInMS;
+		//+2: the free slot and the block being used by the consumer
+		final Block[] ring = new Block[(int)(((long)aheadInMS * MAX_BYTES_PER_SECOND / 1000L + BLOCK_SIZE_IN_BYTES - 1) / BLOCK_SIZE_IN_BYTES) + 2];
+		for (int i = ring.length - 1; i >= 0; i--)
+			ring[i] = new Block();
+		this.ring = ring;
+	}
+
+	public int getAheadInMS() {
+		return aheadInMS;
+	}
+
+	public int getFilledBlockCount() {
+		return writeIndex - readIndex;
+	}
+
+	//Returns true after the OVER marker of the current source has been consumed
+	public boolean isSourceOver() {
+		return sourceOver;
+	}
+
+	public void setSource(MediaCodecPlayer player) {
+		if (source == player)
+			return;
+		flush();
+		source = player;
+	}
+
+	public void pause() {
+		running = false;
+		//Dekker-style handshake: the decoder thread sets busy before checking running
+		while (busy)
+			LockSupport.parkNanos(100000);
+	}
+
+	public void resume() {
+		if (running || source == null || sourceHalted || markerPending)
+			return;
+		running = true;
+		//the decoder thread may have published a marker between the check and the assignment
+		//above (it sets markerPending before clearing running, so checking it again is enough)
+		if (markerPending) {
+			running = false;
+			return;
+		}
+		LockSupport.unpark(thread);
+	}
+
+	//Discards all decoded samples, releasing the decoder's buffer still held by the decoder thread
+	//(this must be done before seeking, resetting or releasing the source player)
+	public void flush() {
+		pause();
+		try {
+			pending.release();
+		} catch (Throwable ex) {
+			//just ignore
+		}
+		pending.index = MediaCodec.INFO_TRY_AGAIN_LATER;
+		pending.streamOver = false;
+		if (ring != null) {
+			for (int i = ring.length - 1; i >= 0; i--)
+				ring[i].exception = null;
+		}
+		readIndex = 0;
+		writeIndex = 0;
+		producedBytes = 0;
+		consumedBytes = 0;
+		sourceHalted = false;
+		markerPending = false;
+		sourceOver = false;
+	}
+
+	public void terminate() {
+		alive = false;
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (Throwable ex) {
+			//just ignore
+		}
+		source = null;
+		ring = null;
+	}
+
+	//Behaves just like MediaCodecPlayer.nextOutputBuffer(), but the samples are detached from the
+	//player's decoder (outputBuffer.release() does not touch the decoder)
+	public void nextOutputBuffer(MediaCodecPlayer.OutputBuffer outputBuffer) throws IOException {
+		outputBuffer.player = source;
+		outputBuffer.remainingBytes = 0;
+		outputBuffer.index = MediaCodec.INFO_TRY_AGAIN_LATER;
+		outputBuffer.streamOver = sourceOver;
+
+		final int readIndex = this.readIndex;
+		if (readIndex == writeIndex)
+			return;
+
+		final Block block = ring[readIndex % ring.length];
+		switch (block.type) {
+		case TYPE_DATA:
+			outputBuffer.detached = true;
+			outputBuffer.index = 0;
+			outputBuffer.byteArray = null;
+			outputBuffer.byteBuffer = block.buffer;
+			outputBuffer.offsetInBytes = 0;
+			outputBuffer.remainingBytes = block.sizeInBytes;
+			outputBuffer.needsSwap = block.needsSwap;
+			consumedBytes += block.sizeInBytes;
+			break;
+		case TYPE_FORMAT_CHANGED:
+			outputBuffer.index = MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+			markerPending = false;
+			break;
+		case TYPE_STREAM_OVER:
+			sourceOver = true;
+			outputBuffer.streamOver = true;
+			markerPending = false;
+			break;
+		default:
+			final Throwable exception = block.exception;
+			block.exception = null;
+			this.readIndex = readIndex + 1;
+			if (exception instanceof IOException)
+				throw (IOException)exception;
+			if (exception instanceof RuntimeException)
+				throw (RuntimeException)exception;
+			if (exception instanceof Error)
+				throw (Error)exception;
+			throw new IOException(exception);
+		}
+
+		this.readIndex = readIndex + 1;
+		LockSupport.unpark(thread);
+	}
+
+	//Runs on the decoder thread
+	private void publishMarker(Block block, int type) {
+		//the decoder thread stops itself, until the playback thread handles the marker (markerPending
+		//must be set before running is cleared, see resume(), and both before the marker is visible)
+		block.type = type;
+		block.sizeInBytes = 0;
+		markerPending = true;
+		running = false;
+		writeIndex++;
+	}
+
+	//Runs on the decoder thread
+	//Returns false when there was nothing to be done
+	private boolean decodeStep() {
+		final MediaCodecPlayer source = this.source;
+		final Block[] ring = this.ring;
+		final int writeIndex = this.writeIndex;
+		if ((writeIndex - readIndex) >= (ring.length - 1))
+			return false;
+
+		int srcSampleRate = source.getSrcSampleRate();
+		if (srcSampleRate <= 0)
+			srcSampleRate = 44100;
+		final long aheadInBytes = (((long)aheadInMS * srcSampleRate) / 1000L) << (source.getChannelCount() + (source.isFloatOutput() ? 1 : 0));
+		if ((producedBytes - consumedBytes) >= aheadInBytes)
+			return false;
+
+		final Block block = ring[writeIndex % ring.length];
+		try {
+			if (pending.remainingBytes <= 0) {
+				pending.release();
+				source.nextOutputBuffer(pending);
+				if (pending.index < 0) {
+					if (pending.index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+						publishMarker(block, TYPE_FORMAT_CHANGED);
+						return true;
+					}
+					if (pending.streamOver) {
+						sourceHalted = true;
+						publishMarker(block, TYPE_STREAM_OVER);
+						return true;
+					}
+					//the decoder has nothing for us right now
+					return false;
+				}
+			}
+
+			//BLOCK_SIZE_IN_BYTES is a multiple of every possible frame size
+			final int sizeInBytes = Math.min(pending.remainingBytes, BLOCK_SIZE_IN_BYTES);
+			if (source.isNativeMediaCodec()) {
+				if (MediaContext.mediaCodecCopyOutputBuffer(source.getNativeObj(), pending.offsetInBytes, sizeInBytes, block.buffer, 0) < 0)
+					throw new IOException("mediaCodecCopyOutputBuffer() failed");
+				block.needsSwap = 0;
+			} else {
+				block.buffer.clear();
+				if (pending.byteBuffer != null) {
+					final ByteBuffer src = pending.byteBuffer;
+					src.limit(pending.offsetInBytes + sizeInBytes);
+					src.position(pending.offsetInBytes);
+					block.buffer.put(src);
+				} else {
+					block.buffer.put(pending.byteArray, pending.offsetInBytes, sizeInBytes);
+				}
+				block.needsSwap = MediaCodecPlayer.needsSwap;
+			}
+			pending.offsetInBytes += sizeInBytes;
+			pending.remainingBytes -= sizeInBytes;
+			if (pending.remainingBytes <= 0)
+				pending.release();
+
+			block.type = TYPE_DATA;
+			block.sizeInBytes = sizeInBytes;
+			producedBytes += sizeInBytes;
+			this.writeIndex = writeIndex + 1;
+		} catch (Throwable ex) {
+			try {
+				pending.release();
+			} catch (Throwable ex2) {
+				//just ignore
+			}
+			sourceHalted = true;
+			block.exception = ex;
+			publishMarker(block, TYPE_ERROR);
+		}
+		return true;
+	}
+
+	@Override
+	public void run() {
+		while (alive) {
+			busy = true;
+			//markerPending and sourceHalted are also checked here, so the decoder never goes past
+			//a marker, even if running is briefly set again by resume()
+			if (running && !markerPending && !sourceHalted && decodeStep()) {
+				busy = false;
+				continue;
+			}
+			final boolean wasRunning = running;
+			busy = false;
+			//when running, the decoder had nothing for us, or the ring is full (in which case the
+			//playback thread unparks us as soon as it pops a block)
+			LockSupport.parkNanos(this, wasRunning ? DECODER_WAIT_TIME_IN_NS : IDLE_TIME_IN_NS);
+		}
+	}
+}
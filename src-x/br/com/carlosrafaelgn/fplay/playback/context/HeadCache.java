@@ -0,0 +1,319 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.playback.context;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Process;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import br.com.carlosrafaelgn.fplay.playback.LoudnessIndex;
+
+//Keeps the first HEAD_LENGTH_IN_MS of decoded PCM (16-bit, native order) of the songs most
+//likely to be played next, so that ACTION_PLAY can hand them to the engine right away, while
+//the actual decoder is still warming up (its first getFrameCount() frames are then skipped).
+//
+//The songs are decoded by the "Head Cache Thread", with a low priority, using the Java
+//MediaCodec (the same codecs used by the native one, so the samples match). Entries are keyed
+//by path + stamp (see LoudnessIndex.stampOf()), and evicted in LRU order, once the total
+//amount of bytes goes above MAX_TOTAL_BYTES.
+final class HeadCache implements Runnable {
+	private static final int HEAD_LENGTH_IN_MS = 500;
+	private static final int MAX_TOTAL_BYTES = 2 * 1024 * 1024;
+	private static final int MAX_PENDING = 4;
+	private static final int TIMEOUT_IN_US = 10000;
+	private static final int MAX_ATTEMPTS = 500;
+
+	static final class Entry {
+		public final long stamp;
+		public final int channelCount, sampleRate;
+		public final byte[] pcm;
+
+		public Entry(long stamp, int channelCount, int sampleRate, byte[] pcm) {
+			this.stamp = stamp;
+			this.channelCount = channelCount;
+			this.sampleRate = sampleRate;
+			this.pcm = pcm;
+		}
+
+		public int getFrameCount() {
+			return pcm.length / (channelCount << 1);
+		}
+	}
+
+	private static final HeadCache cache = new HeadCache();
+
+	private final Object sync;
+	private final LinkedHashMap<String, Entry> entries;
+	private final ArrayDeque<String> pending;
+	private int totalBytes;
+	private boolean threadAlive;
+
+	//metrics
+	private volatile int hitCount, missCount;
+
+	private HeadCache() {
+		sync = new Object();
+		//access order, so that the eldest entry is the least recently used one
+		entries = new LinkedHashMap<>(16, 0.75f, true);
+		pending = new ArrayDeque<>(MAX_PENDING);
+	}
+
+	//Runs on ANY thread
+	//The paths must be ordered by their likelihood of being played next
+	public static void prefetch(String[] paths) {
+		cache.enqueue(paths);
+	}
+
+	//Runs on ANY thread
+	public static Entry get(String path) {
+		return cache.lookup(path);
+	}
+
+	public static void clear() {
+		cache.removeAll();
+	}
+
+	public static int getHitCount() {
+		return cache.hitCount;
+	}
+
+	public static int getMissCount() {
+		return cache.missCount;
+	}
+
+	private void enqueue(String[] paths) {
+		synchronized (sync) {
+			//older requests are no longer relevant
+			pending.clear();
+			for (String path : paths) {
+				if (path == null || path.length() == 0 || pending.size() >= MAX_PENDING || pending.contains(path))
+					continue;
+				final Entry entry = entries.get(path);
+				if (entry == null || entry.stamp != LoudnessIndex.stampOf(path))
+					pending.addLast(path);
+			}
+			if (!threadAlive && !pending.isEmpty()) {
+				threadAlive = true;
+				final Thread thread = new Thread(this, "Head Cache Thread");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+	}
+
+	private Entry lookup(String path) {
+		if (path == null)
+			return null;
+		final long stamp = LoudnessIndex.stampOf(path);
+		synchronized (sync) {
+			final Entry entry = entries.get(path);
+			if (entry == null || entry.stamp != stamp) {
+				missCount++;
+				return null;
+			}
+			hitCount++;
+			return entry;
+		}
+	}
+
+	private void removeAll() {
+		synchronized (sync) {
+			pending.clear();
+			entries.clear();
+			totalBytes = 0;
+		}
+	}
+
+	private void put(String path, Entry entry) {
+		synchronized (sync) {
+			final Entry old = entries.put(path, entry);
+			if (old != null)
+				totalBytes -= old.pcm.length;
+			totalBytes += entry.pcm.length;
+			final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+			while (totalBytes > MAX_TOTAL_BYTES && it.hasNext()) {
+				final Entry e = it.next().getValue();
+				if (e == entry)
+					break;
+				totalBytes -= e.pcm.length;
+				it.remove();
+			}
+		}
+	}
+
+	private static void copy(ByteBuffer src, int offset, int size, byte[] dst, int dstOffset) {
+		src.limit(offset + size);
+		src.position(offset);
+		src.get(dst, dstOffset, size);
+		if (src.order() != ByteOrder.nativeOrder()) {
+			for (int i = dstOffset + size - 2; i >= dstOffset; i -= 2) {
+				final byte b = dst[i];
+				dst[i] = dst[i + 1];
+				dst[i + 1] = b;
+			}
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private static Entry decode(String path, long stamp) {
+		MediaExtractor mediaExtractor = null;
+		MediaCodec mediaCodec = null;
+		try {
+			mediaExtractor = new MediaExtractor();
+			mediaExtractor.setDataSource(path);
+			MediaFormat format = null;
+			final int numTracks = mediaExtractor.getTrackCount();
+			for (int i = 0; i < numTracks; i++) {
+				final MediaFormat f = mediaExtractor.getTrackFormat(i);
+				if (f.getString(MediaFormat.KEY_MIME).startsWith("audio/")) {
+					mediaExtractor.selectTrack(i);
+					format = f;
+					break;
+				}
+			}
+			if (format == null)
+				return null;
+			int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+			int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+			mediaCodec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+			mediaCodec.configure(format, null, null, 0);
+			mediaCodec.start();
+
+			final ByteBuffer[] inputBuffers = mediaCodec.getInputBuffers();
+			ByteBuffer[] outputBuffers = mediaCodec.getOutputBuffers();
+			final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+			byte[] pcm = null;
+			int pcmLength = 0;
+			boolean inputOver = false;
+			for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+				if (!inputOver) {
+					final int index = mediaCodec.dequeueInputBuffer(TIMEOUT_IN_US);
+					if (index >= 0) {
+						final int size = mediaExtractor.readSampleData(inputBuffers[index], 0);
+						if (size < 0) {
+							inputOver = true;
+							mediaCodec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+						} else {
+							mediaCodec.queueInputBuffer(index, 0, size, 0, 0);
+							mediaExtractor.advance();
+						}
+					}
+				}
+				final int index = mediaCodec.dequeueOutputBuffer(bufferInfo, TIMEOUT_IN_US);
+				if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+					//the head must have a single format from its beginning
+					if (pcmLength > 0)
+						return null;
+					final MediaFormat f = mediaCodec.getOutputFormat();
+					channelCount = f.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+					sampleRate = f.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+				} else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+					outputBuffers = mediaCodec.getOutputBuffers();
+				} else if (index >= 0) {
+					if (channelCount != 1 && channelCount != 2) {
+						mediaCodec.releaseOutputBuffer(index, false);
+						return null;
+					}
+					if (pcm == null)
+						pcm = new byte[((sampleRate * HEAD_LENGTH_IN_MS) / 1000) * (channelCount << 1)];
+					final int size = Math.min(bufferInfo.size, pcm.length - pcmLength) & ~((channelCount << 1) - 1);
+					if (size > 0) {
+						copy(outputBuffers[index], bufferInfo.offset, size, pcm, pcmLength);
+						pcmLength += size;
+					}
+					mediaCodec.releaseOutputBuffer(index, false);
+					if (pcmLength >= pcm.length || (bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+						break;
+				}
+			}
+			if (pcmLength <= 0)
+				return null;
+			if (pcmLength < pcm.length) {
+				final byte[] tmp = new byte[pcmLength];
+				System.arraycopy(pcm, 0, tmp, 0, pcmLength);
+				pcm = tmp;
+			}
+			return new Entry(stamp, channelCount, sampleRate, pcm);
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+			return null;
+		} finally {
+			if (mediaCodec != null) {
+				try {
+					mediaCodec.stop();
+				} catch (Throwable ex) {
+					//just ignore
+				}
+				try {
+					mediaCodec.release();
+				} catch (Throwable ex) {
+					//just ignore
+				}
+			}
+			if (mediaExtractor != null) {
+				try {
+					mediaExtractor.release();
+				} catch (Throwable ex) {
+					//just ignore
+				}
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+		for (; ; ) {
+			final String path;
+			synchronized (sync) {
+				path = pending.pollFirst();
+				if (path == null) {
+					threadAlive = false;
+					return;
+				}
+			}
+			final long stamp = LoudnessIndex.stampOf(path);
+			final Entry entry = decode(path, stamp);
+			if (entry != null)
+				put(path, entry);
+		}
+	}
+}
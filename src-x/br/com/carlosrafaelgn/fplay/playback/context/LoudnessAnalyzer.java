@@ -0,0 +1,266 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.playback.context;
+
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+
+import br.com.carlosrafaelgn.fplay.playback.LoudnessIndex;
+import br.com.carlosrafaelgn.fplay.playback.MetadataExtractor;
+
+//Computes the static gain (pre-gain) of the tracks in background, so that all of them sound
+//roughly as loud as each other (EBU R128 / ReplayGain 2, normalizing to -18 LUFS), and the
+//automatic effects gain rarely has to step in when a loud track follows a quiet one.
+//
+//ReplayGain tags are used when present. Otherwise, the track is decoded by the native
+//MediaCodec (as fast as possible, on a thread with the lowest priority) and measured by
+//Loudness.h. Either way, the result is stored in LoudnessIndex, and applied by MediaContext
+//once the track starts playing.
+public final class LoudnessAnalyzer implements Runnable {
+	private static final int REFERENCE_LOUDNESS_IN_MB = -1800;
+	private static final int MAX_GAIN_IN_MB = 1500; //same as DB_RANGE in EffectsImplMacros.h
+	//each attempt to fetch an output buffer waits up to LOUDNESS_OUTPUT_TIMEOUT_IN_US (Loudness.h)
+	private static final int MAX_TIME_WITHOUT_OUTPUT_MS = 5000;
+	//returned by analyze() when the track could not be analyzed now, but could be later
+	//(nothing is stored in the index, so the track is analyzed again the next time it is played)
+	private static final int TRANSIENT_FAILURE = LoudnessIndex.UNKNOWN + 1;
+
+	private static final LoudnessAnalyzer analyzer = new LoudnessAnalyzer();
+
+	private final Object sync;
+	private final ArrayDeque<String> queue;
+	private final HashSet<String> queued;
+	private boolean threadAlive;
+	private volatile boolean alive;
+
+	//metrics
+	private volatile int analyzedCount, taggedCount, failureCount;
+
+	private LoudnessAnalyzer() {
+		sync = new Object();
+		queue = new ArrayDeque<>(16);
+		queued = new HashSet<>(16);
+		alive = true;
+	}
+
+	public static boolean isSupported() {
+		return MediaContext.externalNativeLibraryAvailable;
+	}
+
+	//Runs on ANY thread
+	//Returns the pre-gain of the given track, or 0 if it is not known yet (in which case, the
+	//track is queued for analysis)
+	public static int getPreGainInMB(String path) {
+		if (path == null || path.length() == 0)
+			return 0;
+		final int gainInMB = LoudnessIndex.getInstance().getGainInMB(path, LoudnessIndex.stampOf(path));
+		if (gainInMB != LoudnessIndex.UNKNOWN)
+			return gainInMB;
+		enqueue(path);
+		return 0;
+	}
+
+	//Runs on ANY thread
+	public static void enqueue(String path) {
+		if (path == null || path.length() == 0)
+			return;
+		analyzer.add(path);
+	}
+
+	//Runs on ANY thread
+	//Discards everything that has not been analyzed yet (the track being analyzed is abandoned)
+	public static void stop() {
+		analyzer.cancel();
+	}
+
+	public static int getAnalyzedCount() {
+		return analyzer.analyzedCount;
+	}
+
+	public static int getTaggedCount() {
+		return analyzer.taggedCount;
+	}
+
+	public static int getFailureCount() {
+		return analyzer.failureCount;
+	}
+
+	private void add(String path) {
+		synchronized (sync) {
+			if (!queued.add(path))
+				return;
+			queue.addLast(path);
+			if (!threadAlive) {
+				threadAlive = true;
+				alive = true;
+				final Thread thread = new Thread(this, "Loudness Analyzer Thread");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+	}
+
+	private void cancel() {
+		synchronized (sync) {
+			alive = false;
+			queue.clear();
+			queued.clear();
+		}
+	}
+
+	private static int clampGain(int gainInMB, float peak) {
+		//do not let the gain push the peak above full scale
+		if (peak > 0.0f) {
+			final int maxGainInMB = (int)(-2000.0 * Math.log10(peak));
+			if (gainInMB > maxGainInMB)
+				gainInMB = maxGainInMB;
+		}
+		return ((gainInMB <= -MAX_GAIN_IN_MB) ? -MAX_GAIN_IN_MB : ((gainInMB >= MAX_GAIN_IN_MB) ? MAX_GAIN_IN_MB : gainInMB));
+	}
+
+	private int analyze(String path) {
+		if (!MediaContext.externalNativeLibraryAvailable)
+			return LoudnessIndex.UNKNOWN;
+
+		ParcelFileDescriptor fileDescriptor = null;
+		long nativeObj = 0, nativeMeter = 0;
+		try {
+			fileDescriptor = ParcelFileDescriptor.open(new File(path), ParcelFileDescriptor.MODE_READ_ONLY);
+			final long[] params = new long[4];
+			if (MediaContext.mediaCodecPrepare(fileDescriptor.getFd(), fileDescriptor.getStatSize(), params) < 0)
+				return LoudnessIndex.UNKNOWN;
+			nativeObj = params[0];
+			try {
+				fileDescriptor.close();
+			} catch (Throwable ex) {
+				//just ignore
+			}
+			fileDescriptor = null;
+
+			nativeMeter = MediaContext.loudnessCreate((int)params[1], (int)params[2]);
+			long lastOutputTime = SystemClock.uptimeMillis();
+			for (; ; ) {
+				if (!alive)
+					return TRANSIENT_FAILURE;
+				final int ret = MediaContext.loudnessProcessNextOutputBuffer(nativeMeter, nativeObj);
+				if (ret < 0)
+					return LoudnessIndex.UNKNOWN;
+				if (ret == 2)
+					break;
+				if (ret == 0) {
+					//the decoder may just be slow (warming up, or busy decoding the track being played)
+					if ((SystemClock.uptimeMillis() - lastOutputTime) > MAX_TIME_WITHOUT_OUTPUT_MS)
+						return TRANSIENT_FAILURE;
+				} else {
+					lastOutputTime = SystemClock.uptimeMillis();
+				}
+			}
+
+			//{ integrated loudness in LUFS, sample peak }
+			final float[] results = new float[2];
+			MediaContext.loudnessGetResults(nativeMeter, results);
+			//pure silence (or nothing was decoded at all)
+			if (results[0] <= -70.0f)
+				return 0;
+			return clampGain(REFERENCE_LOUDNESS_IN_MB - (int)(results[0] * 100.0f), results[1]);
+		} catch (Throwable ex) {
+			//the file could be temporarily unavailable (such as an unmounted SD card)
+			ex.printStackTrace();
+			return TRANSIENT_FAILURE;
+		} finally {
+			if (nativeMeter != 0)
+				MediaContext.loudnessRelease(nativeMeter);
+			if (nativeObj != 0)
+				MediaContext.mediaCodecRelease(nativeObj);
+			if (fileDescriptor != null) {
+				try {
+					fileDescriptor.close();
+				} catch (Throwable ex) {
+					//just ignore
+				}
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+		final byte[][] tmpPtr = new byte[][] { new byte[256] };
+		final LoudnessIndex index = LoudnessIndex.getInstance();
+		for (; ; ) {
+			final String path;
+			synchronized (sync) {
+				path = queue.pollFirst();
+				if (path == null) {
+					threadAlive = false;
+					return;
+				}
+				//cancel() only abandons the track being analyzed when it is called, so every track
+				//taken from the queue afterwards (which was added after the cancellation) is wanted
+				alive = true;
+			}
+
+			final long stamp = LoudnessIndex.stampOf(path);
+			if (index.getGainInMB(path, stamp) == LoudnessIndex.UNKNOWN) {
+				final float[] replayGain = MetadataExtractor.extractReplayGain(path, tmpPtr);
+				if (replayGain != null) {
+					index.putGainInMB(path, stamp, clampGain((int)(replayGain[0] * 100.0f), Float.isNaN(replayGain[1]) ? 0.0f : replayGain[1]), LoudnessIndex.SOURCE_TAG);
+					taggedCount++;
+				} else {
+					final int gainInMB = analyze(path);
+					if (gainInMB == TRANSIENT_FAILURE) {
+						if (alive)
+							failureCount++;
+					} else if (gainInMB != LoudnessIndex.UNKNOWN) {
+						index.putGainInMB(path, stamp, gainInMB, LoudnessIndex.SOURCE_ANALYSIS);
+						analyzedCount++;
+					} else if (alive) {
+						//the track cannot be decoded at all: store a neutral gain, otherwise
+						//it would be analyzed over and over again
+						index.putGainInMB(path, stamp, 0, LoudnessIndex.SOURCE_ANALYSIS);
+						failureCount++;
+					}
+				}
+			}
+
+			synchronized (sync) {
+				queued.remove(path);
+			}
+		}
+	}
+}
@@ -75,13 +75,21 @@ final class MediaCodecPlayer extends MediaPlayerBase implements Handler.Callback
 	static final class OutputBuffer {
 		public MediaCodecPlayer player;
 		public ByteBuffer byteBuffer;
-		public int index, offsetInBytes, remainingBytes;
+		public int index, offsetInBytes, remainingBytes, needsSwap;
 		public byte[] byteArray;
-		public boolean streamOver;
+		//detached means the samples came from HeadCache or DecodeAhead, rather than directly from
+		//the player's decoder (in which case needsSwap must be used instead of the static one)
+		public boolean streamOver, detached;
 
 		public void release() {
 			remainingBytes = 0;
-			if (player != null) {
+			if (detached) {
+				detached = false;
+				byteArray = null;
+				byteBuffer = null;
+				index = MediaCodec.INFO_TRY_AGAIN_LATER;
+				player = null;
+			} else if (player != null) {
 				if (index >= 0) {
 					player.releaseOutputBuffer(index);
 					index = MediaCodec.INFO_TRY_AGAIN_LATER;
@@ -107,7 +115,7 @@ final class MediaCodecPlayer extends MediaPlayerBase implements Handler.Callback
 	private HttpStreamExtractor httpStreamExtractor;
 	private String path;
 	private ByteBuffer[] inputBuffers, outputBuffers;
-	private boolean inputOver, outputOver, outputBuffersHaveBeenUsed, nativeMediaCodec, httpStreamBufferingAfterPause;
+	private boolean inputOver, outputOver, outputBuffersHaveBeenUsed, nativeMediaCodec, httpStreamBufferingAfterPause, floatOutput;
 	private MediaCodec.BufferInfo bufferInfo;
 	private OnCompletionListener completionListener;
 	private OnErrorListener errorListener;
@@ -147,9 +155,14 @@ final class MediaCodecPlayer extends MediaPlayerBase implements Handler.Callback
 		return channelCount;
 	}
 
+	boolean isFloatOutput() {
+		//only the native decoder is asked to produce float samples (when MediaContext.useFloatPipeline is set)
+		return floatOutput;
+	}
+
 	boolean isSrcConfigValid() {
-		//only mono and stereo files for now...
-		return ((channelCount == 1 || channelCount == 2) && (srcSampleRate <= 48000));
+		//only mono and stereo files for now... (sources above 48000 Hz must be downsampled)
+		return ((channelCount == 1 || channelCount == 2) && (srcSampleRate <= 48000 || MediaContext.getDstSampleRate(srcSampleRate) != srcSampleRate));
 	}
 
 	boolean isOutputOver() {
@@ -160,6 +173,10 @@ final class MediaCodecPlayer extends MediaPlayerBase implements Handler.Callback
 		return (httpStreamReceiver != null);
 	}
 
+	String getPath() {
+		return path;
+	}
+
 	boolean isNativeMediaCodec() {
 		return nativeMediaCodec;
 	}
@@ -300,7 +317,8 @@ final class MediaCodecPlayer extends MediaPlayerBase implements Handler.Callback
 	//************************************************************************
 	//Methods fillInputBuffers(), nextOutputBuffer(), releaseOutputBuffer(),
 	//doSeek(), resetDecoderIfOutputAlreadyUsed() and startedAsNext()
-	//MUST be called from the playback thread: MediaContext.run()
+	//MUST be called from the playback thread: MediaContext.run(), or from
+	//DecodeAhead's thread, while MediaContext.run() keeps it running
 	//************************************************************************
 
 	void fillInputBuffers() throws IOException {
@@ -332,13 +350,15 @@ final class MediaCodecPlayer extends MediaPlayerBase implements Handler.Callback
 				outputBuffer.remainingBytes = 0;
 
 				if (ret < 0x7FFFFFFE) {
-					//output format changed
+					//output format changed (0x08000000 means the samples are floats)
 					final int newChannelCount = (ret >>> 28);
-					final int newSrcSampleRate = (ret & 0x0FFFFFFF);
-					if (newChannelCount != channelCount || newSrcSampleRate != srcSampleRate) {
+					final int newSrcSampleRate = (ret & 0x07FFFFFF);
+					final boolean newFloatOutput = ((ret & 0x08000000) != 0);
+					if (newChannelCount != channelCount || newSrcSampleRate != srcSampleRate || newFloatOutput != floatOutput) {
 						outputBuffer.index = MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
 						channelCount = newChannelCount;
 						srcSampleRate = newSrcSampleRate;
+						floatOutput = newFloatOutput;
 						dstSampleRate = MediaContext.getDstSampleRate(srcSampleRate);
 					}
 				} else {
@@ -610,6 +630,7 @@ final class MediaCodecPlayer extends MediaPlayerBase implements Handler.Callback
 					else if (ret < 0)
 						throw new IOException();
 					nativeObj = params[0];
+					floatOutput = false;
 					channelCount = (int)params[1];
 					srcSampleRate = (int)params[2];
 					dstSampleRate = MediaContext.getDstSampleRate(srcSampleRate);
@@ -762,6 +783,7 @@ final class MediaCodecPlayer extends MediaPlayerBase implements Handler.Callback
 		inputOver = false;
 		outputOver = false;
 		nativeMediaCodec = false;
+		floatOutput = false;
 		bufferInfo.flags = 0;
 		outputBuffersHaveBeenUsed = false;
 		srcSampleRate = 0;
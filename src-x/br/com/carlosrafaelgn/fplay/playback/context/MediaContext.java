@@ -79,6 +79,8 @@ public final class MediaContext implements Runnable, Handler.Callback {
 	private static final int ACTION_STOP_VISUALIZER = 0x000C;
 	private static final int ACTION_ENABLE_RESAMPLING = 0x000D;
 	private static final int ACTION_DISABLE_RESAMPLING = 0x000E;
+	private static final int ACTION_ENABLE_HQ_RESAMPLING = 0x000F;
+	private static final int ACTION_DISABLE_HQ_RESAMPLING = 0x0010;
 	private static final int ACTION_INITIALIZE = 0xFFFF;
 
 	private static final int MAXIMUM_BUFFER_SIZE_IN_FRAMES_FOR_PROCESSING = 1152;
@@ -100,17 +102,17 @@ public final class MediaContext implements Runnable, Handler.Callback {
 
 	private static final Object threadNotification = new Object();
 	private static final Object engineSync = new Object();
-	private static volatile boolean alive, waitToReceiveAction, requestSucceeded, initializationError, resamplingEnabled;
-	private static volatile int requestedAction, requestedSeekMS;
+	private static volatile boolean alive, waitToReceiveAction, requestSucceeded, initializationError, resamplingEnabled, highQualityResamplingEnabled;
+	private static volatile int requestedAction, requestedSeekMS, underrunCount, decodeAheadInMS;
 	private static Message effectsMessage;
-	private static int bufferConfig, nativeSampleRate, srcChannelCount, srcSampleRate;
+	private static int bufferConfig, nativeSampleRate, srcFrameShift, srcSampleRate;
 	private static float gain = 1.0f;
 	private static Handler handler;
 	private static Thread thread;
 	private static volatile MediaCodecPlayer playerRequestingAction, nextPlayerRequested, currentPlayerForReference;
 	private static MediaContext theMediaContext;
 	private static Engine engine;
-	public static boolean useOpenSLEngine;
+	public static boolean useOpenSLEngine, useFloatPipeline;
 	final static boolean externalNativeLibraryAvailable;
 	static boolean engineBlocks;
 
@@ -121,11 +123,13 @@ public final class MediaContext implements Runnable, Handler.Callback {
 
 	private static native int getProcessorFeatures();
 
-	private static native void updateSrcParams(int srcSampleRate, int srcChannelCount, int resetFiltersAndWritePosition);
+	private static native void updateSrcParams(int srcSampleRate, int srcChannelCount, int srcFloat, int resetFiltersAndWritePosition);
+	private static native void setResampleQuality(int quality);
 
 	public static native int getCurrentAutomaticEffectsGainInMB();
 	private static native void enableAutomaticEffectsGain(int enabled);
 	public static native int isAutomaticEffectsGainEnabled();
+	private static native void setPreGainInMillibels(int gainInMillibels);
 
 	private static native void enableEqualizer(int enabled);
 	static native int isEqualizerEnabled();
@@ -147,15 +151,21 @@ public final class MediaContext implements Runnable, Handler.Callback {
 	static native int mediaCodecNextOutputBuffer(long nativeObj);
 	static native long mediaCodecSeek(long nativeObj, int msec, int totalMsec);
 	static native void mediaCodecReleaseOutputBuffer(long nativeObj);
+	static native int mediaCodecCopyOutputBuffer(long nativeObj, int offsetInBytes, int sizeInBytes, ByteBuffer dstBuffer, int dstOffsetInBytes);
 	static native void mediaCodecRelease(long nativeObj);
 	static native int mediaCodecLoadExternalLibrary();
 
+	static native long loudnessCreate(int channelCount, int sampleRate);
+	static native int loudnessProcessNextOutputBuffer(long nativeMeter, long nativeObj);
+	static native void loudnessGetResults(long nativeMeter, float[] results);
+	static native void loudnessRelease(long nativeMeter);
+
 	private static native void audioTrackInitialize();
 	private static native void audioTrackCreate(int dstSampleRate);
 	private static native long audioTrackProcessNativeEffects(long nativeObj, int offsetInBytes, int sizeInFrames, ByteBuffer dstBuffer);
 	private static native long audioTrackProcessEffects(byte[] srcArray, ByteBuffer srcBuffer, int offsetInBytes, int sizeInFrames, int needsSwap, byte[] dstArray, ByteBuffer dstBuffer);
 
-	private static native int openSLInitialize();
+	private static native int openSLInitialize(int useFloatPipeline);
 	private static native int openSLCreate(int dstSampleRate, int bufferCount, int singleBufferSizeInFrames);
 	private static native int openSLPlay();
 	private static native int openSLPause();
@@ -440,7 +450,7 @@ public final class MediaContext implements Runnable, Handler.Callback {
 			//side note: even audioTrack.getPlaybackHeadPosition() increments in multiples of
 			//singleBufferSizeInFrames!!!
 			if (pendingDstFrames <= 0) {
-				int sizeInFrames = buffer.remainingBytes >> srcChannelCount;
+				int sizeInFrames = buffer.remainingBytes >> srcFrameShift;
 
 				if (sizeInFrames == 0)
 					return 0;
@@ -452,16 +462,16 @@ public final class MediaContext implements Runnable, Handler.Callback {
 				final MediaCodecPlayer player = buffer.player;
 				long dstSrcRet;
 				if ((dstSrcRet =
-						(player.isNativeMediaCodec() ?
+						((player.isNativeMediaCodec() && !buffer.detached) ?
 							audioTrackProcessNativeEffects(player.getNativeObj(), buffer.offsetInBytes, sizeInFrames, tempDstBuffer) :
-							audioTrackProcessEffects(buffer.byteArray, buffer.byteBuffer, buffer.offsetInBytes, sizeInFrames, MediaCodecPlayer.needsSwap, tempDstArray, tempDstBuffer)
+							audioTrackProcessEffects(buffer.byteArray, buffer.byteBuffer, buffer.offsetInBytes, sizeInFrames, buffer.detached ? buffer.needsSwap : MediaCodecPlayer.needsSwap, tempDstArray, tempDstBuffer)
 						)) < 0)
 					return (int)dstSrcRet;
 
 				//dstFramesUsed -> low
 				//srcFramesUsed -> high
 				pendingDstFrames = (int)dstSrcRet;
-				final int srcBytesUsed = (int)(dstSrcRet >>> 32) << srcChannelCount;
+				final int srcBytesUsed = (int)(dstSrcRet >>> 32) << srcFrameShift;
 				buffer.remainingBytes -= srcBytesUsed;
 				buffer.offsetInBytes += srcBytesUsed;
 				pendingOffsetInBytes = 0;
@@ -514,7 +524,9 @@ public final class MediaContext implements Runnable, Handler.Callback {
 		@Override
 		public int initialize() {
 			engineBlocks = false;
-			return openSLInitialize();
+			//when the float pipeline is used, the native engine falls back to 16-bit samples on its own
+			//if the device does not accept floats
+			return openSLInitialize(useFloatPipeline ? 1 : 0);
 		}
 
 		@Override
@@ -660,13 +672,13 @@ public final class MediaContext implements Runnable, Handler.Callback {
 			final MediaCodecPlayer player = buffer.player;
 			long dstSrcRet;
 			if ((dstSrcRet =
-				(player.isNativeMediaCodec() ?
-					openSLWriteNative(player.getNativeObj(), buffer.offsetInBytes, buffer.remainingBytes >> srcChannelCount) :
-					openSLWrite(buffer.byteArray, buffer.byteBuffer, buffer.offsetInBytes, buffer.remainingBytes >> srcChannelCount, MediaCodecPlayer.needsSwap)
+				((player.isNativeMediaCodec() && !buffer.detached) ?
+					openSLWriteNative(player.getNativeObj(), buffer.offsetInBytes, buffer.remainingBytes >> srcFrameShift) :
+					openSLWrite(buffer.byteArray, buffer.byteBuffer, buffer.offsetInBytes, buffer.remainingBytes >> srcFrameShift, buffer.detached ? buffer.needsSwap : MediaCodecPlayer.needsSwap)
 				)) > 0) {
 				//dstFramesUsed -> low
 				//srcFramesUsed -> high
-				final int srcBytesUsed = (int)(dstSrcRet >>> 32) << srcChannelCount;
+				final int srcBytesUsed = (int)(dstSrcRet >>> 32) << srcFrameShift;
 				buffer.remainingBytes -= srcBytesUsed;
 				buffer.offsetInBytes += srcBytesUsed;
 			}
@@ -706,25 +718,68 @@ public final class MediaContext implements Runnable, Handler.Callback {
 		if (nativeSampleRate <= 0 || srcSampleRate == nativeSampleRate || !resamplingEnabled)
 			return srcSampleRate; //no conversion (simply use srcSampleRate as dstSampleRate)
 
-		//downsampling is only performed from 48000 Hz to 44100 Hz because we are not
-		//applying any filters
+		//downsampling is only performed from 48000 Hz to 44100 Hz by the Lagrange resampler,
+		//because it does not apply any filters
 		if ((srcSampleRate == 48000 && nativeSampleRate == 44100) ||
 			(srcSampleRate >= 8000 && nativeSampleRate > srcSampleRate))
 			return nativeSampleRate;
 
+		//the windowed-sinc resampler handles all other cases (it is also the only way to
+		//play sources above 48000 Hz) - this must match resampleSincSupported() in Resampler.h
+		if ((highQualityResamplingEnabled || srcSampleRate > 48000) &&
+			srcSampleRate >= 8000 && srcSampleRate <= 96000 && srcSampleRate <= (nativeSampleRate * 3))
+			return nativeSampleRate;
+
 		return srcSampleRate; //no conversion (simply use srcSampleRate as dstSampleRate)
 	}
 
 	private static void updateNativeSrcAndReset(MediaCodecPlayer player) {
 		if (player == null)
 			return;
-		updateSrcParams(srcSampleRate = player.getSrcSampleRate(), srcChannelCount = player.getChannelCount(), 1);
+		//frames = bytes >> srcFrameShift (float samples take twice as many bytes as 16-bit ones)
+		srcFrameShift = player.getChannelCount() + (player.isFloatOutput() ? 1 : 0);
+		updateSrcParams(srcSampleRate = player.getSrcSampleRate(), player.getChannelCount(), player.isFloatOutput() ? 1 : 0, 1);
+		setPreGainInMillibels(player.getPreGainInMB());
 	}
 
 	private static void updateNativeSrc(MediaCodecPlayer player) {
 		if (player == null)
 			return;
-		updateSrcParams(srcSampleRate = player.getSrcSampleRate(), srcChannelCount = player.getChannelCount(), 0);
+		srcFrameShift = player.getChannelCount() + (player.isFloatOutput() ? 1 : 0);
+		updateSrcParams(srcSampleRate = player.getSrcSampleRate(), player.getChannelCount(), player.isFloatOutput() ? 1 : 0, 0);
+		setPreGainInMillibels(player.getPreGainInMB());
+	}
+
+	private static int getDecodeAheadInMS() {
+		switch ((bufferConfig & Player.DECODE_AHEAD_MASK)) {
+		case Player.DECODE_AHEAD_250MS:
+			return 250;
+		case Player.DECODE_AHEAD_1000MS:
+			return 1000;
+		case Player.DECODE_AHEAD_2000MS:
+			return 2000;
+		}
+		return 500;
+	}
+
+	private static int loadHeadCache(MediaCodecPlayer player, MediaCodecPlayer.OutputBuffer outputBuffer) {
+		//HeadCache only stores 16-bit samples
+		if (useFloatPipeline || player.isFloatOutput() || player.isInternetStream())
+			return 0;
+		final HeadCache.Entry entry = HeadCache.get(player.getPath());
+		if (entry == null || entry.channelCount != player.getChannelCount() || entry.sampleRate != player.getSrcSampleRate())
+			return 0;
+		outputBuffer.release();
+		outputBuffer.player = player;
+		outputBuffer.detached = true;
+		outputBuffer.needsSwap = 0;
+		outputBuffer.index = 0;
+		outputBuffer.byteArray = entry.pcm;
+		outputBuffer.byteBuffer = null;
+		outputBuffer.offsetInBytes = 0;
+		outputBuffer.remainingBytes = entry.pcm.length;
+		outputBuffer.streamOver = false;
+		return entry.getFrameCount();
 	}
 
 	private static void checkEngineResult(int result) {
@@ -785,10 +840,11 @@ public final class MediaContext implements Runnable, Handler.Callback {
 		}*/
 
 		final MediaCodecPlayer.OutputBuffer outputBuffer = new MediaCodecPlayer.OutputBuffer();
+		final DecodeAhead decodeAhead = new DecodeAhead();
 		MediaCodecPlayer currentPlayer = null, nextPlayer = null, sourcePlayer = null;
 		outputBuffer.index = -1;
 		int dstSampleRate = 0, lastHeadPositionInFrames = 0, bufferSizeInFrames = 0, fillThresholdInFrames = 0;
-		long framesWritten = 0, framesPlayed = 0, nextFramesWritten = 0;
+		long framesWritten = 0, framesPlayed = 0, nextFramesWritten = 0, headFramesToSkip = 0;
 		boolean bufferConfigChanged = false;
 
 		updateNativeSampleRate();
@@ -797,7 +853,10 @@ public final class MediaContext implements Runnable, Handler.Callback {
 			initializationError = (engine.initialize() != 0);
 		}
 
+		setResampleQuality(highQualityResamplingEnabled ? 1 : 0);
+
 		if (initializationError) {
+			decodeAhead.terminate();
 			requestedAction = ACTION_NONE;
 			synchronized (threadNotification) {
 				threadNotification.notify();
@@ -814,11 +873,15 @@ public final class MediaContext implements Runnable, Handler.Callback {
 			threadNotification.notify();
 		}
 
+		underrunCount = 0;
+
 		boolean paused = true, playPending = false;
 		int framesWrittenBeforePlaying = 0, amountOfTimesNoFramesWereWritten = 0;
 		while (alive) {
 			if (paused || waitToReceiveAction) {
 				MediaCodecPlayer seekPendingPlayer = null;
+				//the actions below are allowed to touch the players
+				decodeAhead.pause();
 				synchronized (threadNotification) {
 					if (requestedAction == ACTION_NONE) {
 						try {
@@ -847,10 +910,13 @@ public final class MediaContext implements Runnable, Handler.Callback {
 									checkEngineResult(engine.stopAndFlush());
 								}
 								outputBuffer.release();
+								decodeAhead.flush();
+								decodeAhead.setAheadInMS(decodeAheadInMS = getDecodeAheadInMS());
 								currentPlayer = playerRequestingAction;
 								currentPlayerForReference = currentPlayer;
 								nextPlayer = null;
 								sourcePlayer = currentPlayer;
+								decodeAhead.setSource(sourcePlayer);
 								currentPlayer.resetDecoderIfOutputAlreadyUsed();
 								framesWritten = currentPlayer.getCurrentPositionInFrames();
 								framesPlayed = framesWritten;
@@ -881,6 +947,10 @@ public final class MediaContext implements Runnable, Handler.Callback {
 								framesWrittenBeforePlaying = 0;
 								bufferingStart(currentPlayer);
 								updateNativeSrcAndReset(currentPlayer);
+								//if the beginning of the song has already been decoded in background, it goes
+								//straight to the engine, while the decoder warms up (the decoder's first frames
+								//are then skipped, as they have already been written)
+								headFramesToSkip = ((framesWritten == 0) ? loadHeadCache(currentPlayer, outputBuffer) : 0);
 								lastHeadPositionInFrames = engine.getHeadPositionInFrames();
 								paused = false;
 								requestSucceeded = true;
@@ -898,6 +968,7 @@ public final class MediaContext implements Runnable, Handler.Callback {
 										bufferSizeInFrames = engine.getActualBufferSizeInFrames();
 										fillThresholdInFrames = engine.getFillThresholdInFrames();
 										outputBuffer.release();
+										decodeAhead.flush();
 										framesWritten = 0;
 										framesPlayed = 0;
 										updateNativeSrcAndReset(currentPlayer);
@@ -938,11 +1009,12 @@ public final class MediaContext implements Runnable, Handler.Callback {
 								if (currentPlayer == playerRequestingAction && nextPlayer != nextPlayerRequested) {
 									//if we had already started outputting nextPlayer's audio then it is too
 									//late... just remove the nextPlayer
-									if (currentPlayer.isOutputOver()) {
+									if (sourcePlayer != currentPlayer || decodeAhead.isSourceOver()) {
 										//go back to currentPlayer
 										if (sourcePlayer == nextPlayer) {
 											outputBuffer.release();
 											sourcePlayer = currentPlayer;
+											decodeAhead.setSource(sourcePlayer);
 											updateNativeSrc(sourcePlayer);
 										}
 										nextPlayer = null;
@@ -984,6 +1056,7 @@ public final class MediaContext implements Runnable, Handler.Callback {
 									currentPlayerForReference = null;
 									nextPlayer = null;
 									sourcePlayer = null;
+									decodeAhead.setSource(null);
 									framesWritten = 0;
 									framesPlayed = 0;
 									nextFramesWritten = 0;
@@ -993,6 +1066,7 @@ public final class MediaContext implements Runnable, Handler.Callback {
 									if (sourcePlayer == nextPlayer) {
 										outputBuffer.release();
 										sourcePlayer = currentPlayer;
+										decodeAhead.setSource(sourcePlayer);
 										updateNativeSrc(sourcePlayer);
 									}
 									nextPlayer = null;
@@ -1026,6 +1100,14 @@ public final class MediaContext implements Runnable, Handler.Callback {
 							case ACTION_DISABLE_RESAMPLING:
 								resamplingEnabled = false;
 								break;
+							case ACTION_ENABLE_HQ_RESAMPLING:
+								highQualityResamplingEnabled = true;
+								setResampleQuality(1);
+								break;
+							case ACTION_DISABLE_HQ_RESAMPLING:
+								highQualityResamplingEnabled = false;
+								setResampleQuality(0);
+								break;
 							}
 						} catch (Throwable ex) {
 							synchronized (engineSync) {
@@ -1045,6 +1127,7 @@ public final class MediaContext implements Runnable, Handler.Callback {
 							currentPlayerForReference = null;
 							nextPlayer = null;
 							sourcePlayer = null;
+							decodeAhead.setSource(null);
 							framesWritten = 0;
 							framesPlayed = 0;
 							nextFramesWritten = 0;
@@ -1063,6 +1146,9 @@ public final class MediaContext implements Runnable, Handler.Callback {
 						if (seekPendingPlayer == currentPlayer)
 							sourcePlayer = currentPlayer;
 						outputBuffer.release();
+						decodeAhead.flush();
+						decodeAhead.setSource(sourcePlayer);
+						headFramesToSkip = 0;
 						updateNativeSrcAndReset(seekPendingPlayer);
 						if (sourcePlayer == seekPendingPlayer) {
 							synchronized (engineSync) {
@@ -1083,6 +1169,12 @@ public final class MediaContext implements Runnable, Handler.Callback {
 						}
 						framesWritten = seekPendingPlayer.doSeek(requestedSeekMS);
 						framesPlayed = framesWritten;
+						//restarting the song can also be served from HeadCache, just like ACTION_PLAY
+						//(only when going back to the very beginning: after seeking anywhere else the
+						//decoder restarts from a sync frame, and its output is not sample-aligned with
+						//the cached head)
+						if (framesWritten == 0 && seekPendingPlayer == currentPlayer && sourcePlayer == currentPlayer)
+							headFramesToSkip = loadHeadCache(currentPlayer, outputBuffer);
 						framesWrittenBeforePlaying = 0;
 						handler.sendMessageAtTime(Message.obtain(handler, MSG_SEEKCOMPLETE, seekPendingPlayer), SystemClock.uptimeMillis());
 					} catch (Throwable ex) {
@@ -1103,6 +1195,7 @@ public final class MediaContext implements Runnable, Handler.Callback {
 						currentPlayerForReference = null;
 						nextPlayer = null;
 						sourcePlayer = null;
+						decodeAhead.setSource(null);
 						framesWritten = 0;
 						framesPlayed = 0;
 						nextFramesWritten = 0;
@@ -1117,6 +1210,9 @@ public final class MediaContext implements Runnable, Handler.Callback {
 				if (paused)
 					continue;
 
+				//let the decoder thread run ahead, while we process the effects and write to the engine
+				decodeAhead.resume();
+
 				final int currentHeadPositionInFrames = engine.getHeadPositionInFrames();
 				framesPlayed += (currentHeadPositionInFrames - lastHeadPositionInFrames);
 				lastHeadPositionInFrames = currentHeadPositionInFrames;
@@ -1124,7 +1220,7 @@ public final class MediaContext implements Runnable, Handler.Callback {
 				currentPlayer.setCurrentPositionInFrames(framesPlayed);
 
 				if (outputBuffer.index < 0) {
-					sourcePlayer.nextOutputBuffer(outputBuffer);
+					decodeAhead.nextOutputBuffer(outputBuffer);
 					if (outputBuffer.index < 0) {
 						if (outputBuffer.index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
 							if (dstSampleRate != sourcePlayer.getDstSampleRate()) {
@@ -1132,6 +1228,7 @@ public final class MediaContext implements Runnable, Handler.Callback {
 									//go back to currentPlayer and handle everything later
 									outputBuffer.release();
 									sourcePlayer = currentPlayer;
+									decodeAhead.setSource(sourcePlayer);
 									updateNativeSrc(sourcePlayer);
 									nextPlayer = null;
 									nextFramesWritten = 0;
@@ -1144,6 +1241,8 @@ public final class MediaContext implements Runnable, Handler.Callback {
 									engine.release();
 								}
 								outputBuffer.release();
+								decodeAhead.flush();
+								headFramesToSkip = 0;
 								currentPlayer.resetDecoderIfOutputAlreadyUsed();
 								framesWritten = currentPlayer.getCurrentPositionInFrames();
 								framesPlayed = framesWritten;
@@ -1168,6 +1267,7 @@ public final class MediaContext implements Runnable, Handler.Callback {
 										//go back to currentPlayer and let the error be handled later
 										outputBuffer.release();
 										sourcePlayer = currentPlayer;
+										decodeAhead.setSource(sourcePlayer);
 										updateNativeSrc(sourcePlayer);
 										nextPlayer = null;
 										nextFramesWritten = 0;
@@ -1217,6 +1317,12 @@ public final class MediaContext implements Runnable, Handler.Callback {
 								//just ignore
 							}
 						}
+					} else if (headFramesToSkip > 0 && sourcePlayer == currentPlayer) {
+						//these frames have already been written from HeadCache
+						final long skippedFrames = Math.min(headFramesToSkip, (long)(outputBuffer.remainingBytes >> srcFrameShift));
+						headFramesToSkip -= skippedFrames;
+						outputBuffer.offsetInBytes += (int)skippedFrames << srcFrameShift;
+						outputBuffer.remainingBytes -= (int)skippedFrames << srcFrameShift;
 					}
 				}
 
@@ -1235,23 +1341,16 @@ public final class MediaContext implements Runnable, Handler.Callback {
 							checkEngineResult(engine.play());
 							bufferingEnd(sourcePlayer);
 						}
-						//the buffer was too full, let's use this time to start filling up the
-						//next input buffers before waiting some time (discount the time spent
-						//inside fillInputBuffers())
-						int actualSleepTime = (int)SystemClock.uptimeMillis();
-						//we cannot call nextOutputBuffer() here, so let's just release
+						//the buffer was too full, let's just wait some time (the decoder thread
+						//keeps filling up the input buffers and decoding ahead meanwhile)
 						if (outputBuffer.remainingBytes <= 0)
 							outputBuffer.release();
-						sourcePlayer.fillInputBuffers();
 						try {
-							actualSleepTime = 40 - ((int)SystemClock.uptimeMillis() - actualSleepTime);
-							if (actualSleepTime > 0) {
-								//wait(0) will block the thread until someone
-								//calls notify() or notifyAll()
-								synchronized (threadNotification) {
-									if (requestedAction == ACTION_NONE)
-										threadNotification.wait(actualSleepTime);
-								}
+							//wait(0) will block the thread until someone
+							//calls notify() or notifyAll()
+							synchronized (threadNotification) {
+								if (requestedAction == ACTION_NONE)
+									threadNotification.wait(40);
 							}
 						} catch (Throwable ex) {
 							//just ignore
@@ -1279,15 +1378,19 @@ public final class MediaContext implements Runnable, Handler.Callback {
 					outputBuffer.release();
 					if (outputBuffer.streamOver && sourcePlayer == currentPlayer) {
 						//from now on, we will start outputting audio from the next player (if any)
+						headFramesToSkip = 0;
 						if (nextPlayer != null) {
 							sourcePlayer = nextPlayer;
+							decodeAhead.setSource(sourcePlayer);
 							updateNativeSrc(sourcePlayer);
 						}
 					}
 				}
 
 				if (framesPlayed >= framesWritten) {
-					if (currentPlayer.isOutputOver()) {
+					//currentPlayer's output is over only after the decoder thread has reached its end, and
+					//the remaining samples have been consumed (sourcePlayer only moves to nextPlayer then)
+					if (sourcePlayer != currentPlayer || decodeAhead.isSourceOver()) {
 						//we are done with this player!
 						currentPlayer.setCurrentPositionInFrames(currentPlayer.getDurationInFrames());
 						if (nextPlayer == null) {
@@ -1314,9 +1417,11 @@ public final class MediaContext implements Runnable, Handler.Callback {
 						nextPlayer = null;
 						nextFramesWritten = 0;
 						sourcePlayer = currentPlayer;
+						decodeAhead.setSource(sourcePlayer);
 						updateNativeSrc(sourcePlayer);
 					} else if (framesWritten != 0) {
 						//underrun!!!
+						underrunCount++;
 						checkEngineResult(engine.pause());
 						playPending = true;
 						amountOfTimesNoFramesWereWritten = 0;
@@ -1355,10 +1460,12 @@ public final class MediaContext implements Runnable, Handler.Callback {
 				nextPlayer = null;
 				nextFramesWritten = 0;
 				sourcePlayer = currentPlayer;
+				decodeAhead.setSource(sourcePlayer);
 				updateNativeSrc(sourcePlayer);
 			}
 		}
 
+		decodeAhead.terminate();
 		wakeLock.release();
 		synchronized (threadNotification) {
 			currentPlayerForReference = null;
@@ -1452,6 +1559,12 @@ public final class MediaContext implements Runnable, Handler.Callback {
 		playerRequestingAction = null;
 		theMediaContext = null;
 		initializationError = false;
+		HeadCache.clear();
+	}
+
+	//The paths must be ordered by their likelihood of being played next
+	public static void prefetchHeads(String[] paths) {
+		HeadCache.prefetch(paths);
 	}
 
 	static boolean play(MediaCodecPlayer player) {
@@ -1741,6 +1854,10 @@ public final class MediaContext implements Runnable, Handler.Callback {
 		return new MediaCodecPlayer();
 	}
 
+	static int getUnderrunCount() {
+		return underrunCount;
+	}
+
 	public static int[] getCurrentPlaybackInfo() {
 		final int dstSampleRate;
 		final int nativeFramesPerBuffer = Engine.getFramesPerBuffer(nativeSampleRate);
@@ -1755,7 +1872,9 @@ public final class MediaContext implements Runnable, Handler.Callback {
 			dstSampleRate,
 			nativeFramesPerBuffer,
 			usedFramesPerBuffer,
-			(engine == null) ? 0 : ((engine instanceof AudioTrackEngine) ? 1 : 2)
+			(engine == null) ? 0 : ((engine instanceof AudioTrackEngine) ? 1 : 2),
+			underrunCount,
+			decodeAheadInMS
 		};
 	}
 
@@ -1832,4 +1951,28 @@ public final class MediaContext implements Runnable, Handler.Callback {
 			}
 		}
 	}
+
+	public static boolean isHighQualityResamplingEnabled() {
+		return highQualityResamplingEnabled;
+	}
+
+	public static void _enableHighQualityResampling(boolean enabled) {
+		if (!alive) {
+			highQualityResamplingEnabled = enabled;
+			return;
+		}
+
+		waitToReceiveAction = true;
+		synchronized (threadNotification) {
+			requestedAction = (enabled ? ACTION_ENABLE_HQ_RESAMPLING : ACTION_DISABLE_HQ_RESAMPLING);
+			threadNotification.notify();
+			if (requestedAction == ACTION_ENABLE_HQ_RESAMPLING || requestedAction == ACTION_DISABLE_HQ_RESAMPLING) {
+				try {
+					threadNotification.wait(PLAYER_TIMEOUT);
+				} catch (Throwable ex) {
+					//just ignore
+				}
+			}
+		}
+	}
 }
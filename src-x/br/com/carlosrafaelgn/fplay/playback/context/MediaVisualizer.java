@@ -36,6 +36,7 @@ import br.com.carlosrafaelgn.fplay.activity.MainHandler;
 import br.com.carlosrafaelgn.fplay.playback.Player;
 import br.com.carlosrafaelgn.fplay.util.Timer;
 import br.com.carlosrafaelgn.fplay.visualizer.Visualizer;
+import br.com.carlosrafaelgn.fplay.visualizer.VisualizerQualityGovernor;
 
 public final class MediaVisualizer implements Runnable, Timer.TimerHandler {
 	public interface Handler {
@@ -47,6 +48,7 @@ public final class MediaVisualizer implements Runnable, Timer.TimerHandler {
 	private volatile boolean alive, reset, created, playing, failed, visualizerReady;
 	private byte[] waveform;
 	private Timer timer;
+	private final VisualizerQualityGovernor governor;
 
 	public MediaVisualizer(Visualizer visualizer, Handler handler) {
 		this.visualizer = visualizer;
@@ -55,8 +57,13 @@ public final class MediaVisualizer implements Runnable, Timer.TimerHandler {
 		reset = true;
 		playing = Player.localPlaying;
 		waveform = new byte[Visualizer.CAPTURE_SIZE];
+		governor = new VisualizerQualityGovernor(visualizer);
 		timer = new Timer(this, "Visualizer Thread", false, false, true);
-		timer.start(16);
+		timer.start(VisualizerQualityGovernor.getFrameInterval(VisualizerQualityGovernor.QUALITY_FULL));
+	}
+
+	public VisualizerQualityGovernor getQualityGovernor() {
+		return governor;
 	}
 
 	public void playingChanged() {
@@ -129,7 +136,11 @@ public final class MediaVisualizer implements Runnable, Timer.TimerHandler {
 			if (visualizer != null) {
 				if (playing)
 					MediaContext.getVisualizerWaveform(waveform);
+				final long start = System.nanoTime();
 				visualizer.processFrame(playing, waveform);
+				final int interval = governor.frameFinished((int)((System.nanoTime() - start) / 1000L), MediaContext.getUnderrunCount());
+				if (interval != 0)
+					timer.setInterval(interval);
 			}
 		}
 		if (!alive) {
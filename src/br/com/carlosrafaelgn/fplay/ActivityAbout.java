@@ -40,14 +40,18 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import br.com.carlosrafaelgn.fplay.activity.ClientActivity;
+import br.com.carlosrafaelgn.fplay.activity.MainHandler;
 import br.com.carlosrafaelgn.fplay.playback.Player;
+import br.com.carlosrafaelgn.fplay.playback.StartupTrace;
 import br.com.carlosrafaelgn.fplay.ui.BgButton;
 import br.com.carlosrafaelgn.fplay.ui.ObservableScrollView;
+import br.com.carlosrafaelgn.fplay.ui.ScrollAudit;
 import br.com.carlosrafaelgn.fplay.ui.UI;
 import br.com.carlosrafaelgn.fplay.ui.drawable.ColorDrawable;
+import br.com.carlosrafaelgn.fplay.util.BitmapLruCache;
 import br.com.carlosrafaelgn.fplay.util.SafeURLSpan;
 
-public final class ActivityAbout extends ClientActivity implements View.OnClickListener {
+public final class ActivityAbout extends ClientActivity implements View.OnClickListener, View.OnLongClickListener {
 	private ObservableScrollView list;
 	private LinearLayout panelSecondary;
 	private BgButton btnGoBack;
@@ -174,7 +178,33 @@ public final class ActivityAbout extends ClientActivity implements View.OnClickL
 			}
 			if (playbackInfo[5] > 0)
 				sb.append((playbackInfo[5] == 1) ? "\nAudioTrack engine" : "\nOpenSL ES engine");
+			if (playbackInfo.length >= 8) {
+				sb.append("\nDecode Ahead");
+				sb.append(UI.collon());
+				sb.append(playbackInfo[7]);
+				sb.append(" ms");
+
+				sb.append("\nUnderruns");
+				sb.append(UI.collon());
+				sb.append(playbackInfo[6]);
+			}
+		}
+		final String startupReport = StartupTrace.getReport();
+		if (startupReport.length() > 0) {
+			sb.append("\n\n");
+			sb.append(startupReport);
 		}
+		sb.append("\n\n");
+		sb.append(MainHandler.getBatchReport());
+		sb.append("\n\n");
+		sb.append(BitmapLruCache.getReport());
+		if (ScrollAudit.enabled) {
+			sb.append("\n\n");
+			sb.append(ScrollAudit.getReport());
+		}
+		//the scroll audit is a debugging aid, and it is not available in release builds
+		if (BuildConfig.DEBUG)
+			lblDbg.setOnLongClickListener(this);
 		lblDbg.setTypeface(UI.defaultTypeface);
 		lblDbg.setTextColor(UI.colorState_text_listitem_secondary_static);
 		lblDbg.setTextSize(TypedValue.COMPLEX_UNIT_PX, UI._14sp);
@@ -214,4 +244,11 @@ public final class ActivityAbout extends ClientActivity implements View.OnClickL
 		if (view == btnGoBack)
 			finish(0, view, true);
 	}
+
+	@Override
+	public boolean onLongClick(View view) {
+		ScrollAudit.setEnabled(!ScrollAudit.enabled, null);
+		UI.toast(ScrollAudit.enabled ? "Scroll Audit: ON" : "Scroll Audit: OFF");
+		return true;
+	}
 }
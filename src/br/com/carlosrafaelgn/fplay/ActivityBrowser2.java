@@ -42,6 +42,7 @@ import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
@@ -70,7 +71,7 @@ import br.com.carlosrafaelgn.fplay.ui.drawable.ColorDrawable;
 import br.com.carlosrafaelgn.fplay.ui.drawable.TextIconDrawable;
 import br.com.carlosrafaelgn.fplay.util.TypedRawArrayList;
 
-public final class ActivityBrowser2 extends ClientActivity implements View.OnClickListener, DialogInterface.OnClickListener, DialogInterface.OnCancelListener, FileList.ItemClickListener, FileList.ActionListener, BgListView.OnBgListViewKeyDownObserver, FastAnimator.Observer {
+public final class ActivityBrowser2 extends ClientActivity implements View.OnClickListener, DialogInterface.OnClickListener, DialogInterface.OnCancelListener, FileList.ItemClickListener, FileList.ActionListener, BgListView.OnBgListViewKeyDownObserver, AbsListView.OnScrollListener, FastAnimator.Observer {
 	private static final int MNU_REMOVEFAVORITE = 100;
 	private FileSt lastClickedFavorite;
 	private TextView lblPath, sep, sep2, lblLoading;
@@ -619,6 +620,17 @@ public final class ActivityBrowser2 extends ClientActivity implements View.OnCli
 		}
 		return false;
 	}
+
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollState) {
+	}
+
+	@Override
+	public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+		//let the album arts of the visible items be fetched first
+		if (fileList != null && fileList.albumArtFetcher != null)
+			fileList.albumArtFetcher.setVisibleRange(firstVisibleItem, visibleItemCount);
+	}
 	
 	@Override
 	public void onClick(View view) {
@@ -773,7 +785,7 @@ public final class ActivityBrowser2 extends ClientActivity implements View.OnCli
 			Player.originalPath = "";
 		isAtHome = (Player.path.length() == 0);
 		fileList = new FileList();
-		fileList.albumArtFetcher = new AlbumArtFetcher();
+		fileList.albumArtFetcher = new AlbumArtFetcher(3);
 		fileList.setItemClickListener(this);
 		fileList.setActionListener(this);
 		//We cannot use getDrawable() here, as sometimes the bitmap used by the drawable
@@ -798,6 +810,7 @@ public final class ActivityBrowser2 extends ClientActivity implements View.OnCli
 		msgLoading = getText(R.string.loading);
 		list = (BgListView)findViewById(R.id.list);
 		list.setOnKeyDownObserver(this);
+		list.setOnScrollListener(this);
 		if (UI.animationEnabled) {
 			if (firstCreation)
 				list.setVisibility(View.GONE);
@@ -106,7 +106,7 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 		optTransition, optPopupTransition, optAnimations, optNotFullscreen, optFadeInFocus, optFadeInPause,
 		optFadeInOther, optBtMessage, optBtConnect, optBtStart, optBtFramesToSkip, optBtSize, optBtVUMeter,
 		optBtSpeed, optAnnounceCurrentSong, optFollowCurrentSong, optBytesBeforeDecoding, optMSBeforePlayback,
-		optBufferSize, optFillThreshold, optPlaybackEngine, optResampling, optPreviousResetsAfterTheBeginning,
+		optBufferSize, optDecodeAhead, optFillThreshold, optPlaybackEngine, optResampling, optHQResampling, optFloatPipeline, optLoudnessNormalization, optPreviousResetsAfterTheBeginning,
 		optLargeTextIs22sp, optDisplaySongNumberAndCount, lastMenuView;
 	private SettingView[] colorViews;
 	private int lastColorView, currentHeader, btMessageText, btErrorMessage, btConnectText, btStartText;
@@ -306,10 +306,9 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 			lastMenuView = (SettingView)view;
 			UI.prepare(menu);
 			final int d = ((view == optScrollBarSongList) ? UI.songListScrollBarType : UI.browserScrollBarType);
-			if (view == optScrollBarBrowser)
-				menu.add(0, BgListView.SCROLLBAR_INDEXED, 0, R.string.indexed_if_possible)
-					.setOnMenuItemClickListener(this)
-					.setIcon(new TextIconDrawable((d == BgListView.SCROLLBAR_INDEXED) ? UI.ICON_RADIOCHK24 : UI.ICON_RADIOUNCHK24));
+			menu.add(0, BgListView.SCROLLBAR_INDEXED, 0, R.string.indexed_if_possible)
+				.setOnMenuItemClickListener(this)
+				.setIcon(new TextIconDrawable((d == BgListView.SCROLLBAR_INDEXED) ? UI.ICON_RADIOCHK24 : UI.ICON_RADIOUNCHK24));
 			menu.add(0, BgListView.SCROLLBAR_LARGE, 1, R.string.large)
 				.setOnMenuItemClickListener(this)
 				.setIcon(new TextIconDrawable((d == BgListView.SCROLLBAR_LARGE) ? UI.ICON_RADIOCHK24 : UI.ICON_RADIOUNCHK24));
@@ -419,6 +418,22 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 			menu.add(0, Player.BUFFER_SIZE_2500MS, 4, getBufferSizeString(Player.BUFFER_SIZE_2500MS))
 				.setOnMenuItemClickListener(this)
 				.setIcon(new TextIconDrawable((bufferSizeIndex == Player.BUFFER_SIZE_2500MS) ? UI.ICON_RADIOCHK24 : UI.ICON_RADIOUNCHK24));
+		} else if (view == optDecodeAhead) {
+			lastMenuView = optDecodeAhead;
+			UI.prepare(menu);
+			final int decodeAheadIndex = (Player.getBufferConfig() & Player.DECODE_AHEAD_MASK);
+			menu.add(0, Player.DECODE_AHEAD_250MS, 0, getDecodeAheadString(Player.DECODE_AHEAD_250MS))
+				.setOnMenuItemClickListener(this)
+				.setIcon(new TextIconDrawable((decodeAheadIndex == Player.DECODE_AHEAD_250MS) ? UI.ICON_RADIOCHK24 : UI.ICON_RADIOUNCHK24));
+			menu.add(0, Player.DECODE_AHEAD_500MS, 1, getDecodeAheadString(Player.DECODE_AHEAD_500MS))
+				.setOnMenuItemClickListener(this)
+				.setIcon(new TextIconDrawable((decodeAheadIndex == Player.DECODE_AHEAD_500MS) ? UI.ICON_RADIOCHK24 : UI.ICON_RADIOUNCHK24));
+			menu.add(0, Player.DECODE_AHEAD_1000MS, 2, getDecodeAheadString(Player.DECODE_AHEAD_1000MS))
+				.setOnMenuItemClickListener(this)
+				.setIcon(new TextIconDrawable((decodeAheadIndex == Player.DECODE_AHEAD_1000MS) ? UI.ICON_RADIOCHK24 : UI.ICON_RADIOUNCHK24));
+			menu.add(0, Player.DECODE_AHEAD_2000MS, 3, getDecodeAheadString(Player.DECODE_AHEAD_2000MS))
+				.setOnMenuItemClickListener(this)
+				.setIcon(new TextIconDrawable((decodeAheadIndex == Player.DECODE_AHEAD_2000MS) ? UI.ICON_RADIOCHK24 : UI.ICON_RADIOUNCHK24));
 		} else if (view == optFillThreshold) {
 			lastMenuView = optFillThreshold;
 			UI.prepare(menu);
@@ -553,6 +568,9 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 		} else if (lastMenuView == optBufferSize) {
 			Player.setBufferConfig((Player.getBufferConfig() & ~Player.BUFFER_SIZE_MASK) | item.getItemId());
 			optBufferSize.setSecondaryText(getBufferSizeString(item.getItemId()));
+		} else if (lastMenuView == optDecodeAhead) {
+			Player.setBufferConfig((Player.getBufferConfig() & ~Player.DECODE_AHEAD_MASK) | item.getItemId());
+			optDecodeAhead.setSecondaryText(getDecodeAheadString(item.getItemId()));
 		} else if (lastMenuView == optFillThreshold) {
 			Player.setBufferConfig((Player.getBufferConfig() & ~Player.FILL_THRESHOLD_MASK) | item.getItemId());
 			optFillThreshold.setSecondaryText(getFillThresholdString(item.getItemId()));
@@ -689,6 +707,28 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 		return (recommended ? (fmt + " (" + getText(R.string.recommended) + ")") : fmt);
 	}
 
+	private String getDecodeAheadString(int bufferConfig) {
+		final int ms;
+		boolean recommended = false;
+		switch ((bufferConfig & Player.DECODE_AHEAD_MASK)) {
+		case Player.DECODE_AHEAD_250MS:
+			ms = 250;
+			break;
+		case Player.DECODE_AHEAD_1000MS:
+			ms = 1000;
+			break;
+		case Player.DECODE_AHEAD_2000MS:
+			ms = 2000;
+			break;
+		default:
+			recommended = true;
+			ms = 500;
+			break;
+		}
+		final String fmt = (((ms % 100) == 0) ? UI.formatIntAsFloat(ms / 100, false, true) : UI.formatIntAsFloat(ms / 10, true, true)) + " " + ((ms == 1000) ? getText(R.string.second) : getText(R.string.seconds));
+		return (recommended ? (fmt + " (" + getText(R.string.recommended) + ")") : fmt);
+	}
+
 	private String getFillThresholdString(int bufferConfig) {
 		switch ((bufferConfig & Player.FILL_THRESHOLD_MASK)) {
 		case Player.FILL_THRESHOLD_25:
@@ -1132,9 +1172,13 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 				optMSBeforePlayback = new SettingView(ctx, UI.ICON_RADIO, getText(R.string.seconds_before_playback).toString(), getSecondsBeforePlaybackString(Player.getMSBeforePlaybackIndex()), false, false, false);
 			} else {
 				optBufferSize = new SettingView(ctx, UI.ICON_PLAY, getText(R.string.playback_buffer_length).toString(), getBufferSizeString(Player.getBufferConfig()), false, false, false);
+				optDecodeAhead = new SettingView(ctx, UI.ICON_PLAY, getText(R.string.decode_ahead).toString(), getDecodeAheadString(Player.getBufferConfig()), false, false, false);
 				optFillThreshold = createOptFillThreshold();
 				optPlaybackEngine = new SettingView(ctx, UI.ICON_FPLAY, getText(R.string.playback_engine).toString(), getPlaybackEngineString(MediaContext.useOpenSLEngine), false, false, false);
 				optResampling = new SettingView(ctx, UI.ICON_SETTINGS, getText(R.string.resample_track_to_native).toString(), null, true, Player.isResamplingEnabled(), false);
+				optHQResampling = new SettingView(ctx, UI.ICON_SETTINGS, getText(R.string.hq_resampling).toString(), null, true, Player.isHighQualityResamplingEnabled(), false);
+				optFloatPipeline = new SettingView(ctx, UI.ICON_SETTINGS, getText(R.string.float_pipeline).toString(), null, true, MediaContext.useFloatPipeline, false);
+				optLoudnessNormalization = new SettingView(ctx, UI.ICON_SETTINGS, getText(R.string.loudness_normalization).toString(), null, true, Player.loudnessNormalization, false);
 			}
 
 			int hIdx = 0;
@@ -1147,10 +1191,14 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 				addHeader(ctx, R.string.performance, optAutoTurnOffPlaylist, hIdx++);
 				addOption(optPlaybackEngine);
 				addOption(optBufferSize);
+				addOption(optDecodeAhead);
 				if (MediaContext.useOpenSLEngine)
 					addOption(optFillThreshold);
 				addOption(optResampling);
-				addHeader(ctx, R.string.hdr_display, optResampling, hIdx++);
+				addOption(optHQResampling);
+				addOption(optFloatPipeline);
+				addOption(optLoudnessNormalization);
+				addHeader(ctx, R.string.hdr_display, optLoudnessNormalization, hIdx++);
 			} else {
 				addHeader(ctx, R.string.hdr_display, optAutoTurnOffPlaylist, hIdx++);
 			}
@@ -1337,9 +1385,13 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 		optBytesBeforeDecoding = null;
 		optMSBeforePlayback = null;
 		optBufferSize = null;
+		optDecodeAhead = null;
 		optFillThreshold = null;
 		optPlaybackEngine = null;
 		optResampling = null;
+		optHQResampling = null;
+		optFloatPipeline = null;
+		optLoudnessNormalization = null;
 		optPreviousResetsAfterTheBeginning = null;
 		lastMenuView = null;
 		if (colorViews != null) {
@@ -1567,6 +1619,12 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 			Player.followCurrentSong = optFollowCurrentSong.isChecked();
 		} else if (view == optResampling) {
 			Player.enableResampling(optResampling.isChecked());
+		} else if (view == optHQResampling) {
+			Player.enableHighQualityResampling(optHQResampling.isChecked());
+		} else if (view == optFloatPipeline) {
+			MediaContext.useFloatPipeline = optFloatPipeline.isChecked();
+		} else if (view == optLoudnessNormalization) {
+			Player.loudnessNormalization = optLoudnessNormalization.isChecked();
 		} else if (view == optPreviousResetsAfterTheBeginning) {
 			Player.previousResetsAfterTheBeginning = optPreviousResetsAfterTheBeginning.isChecked();
 		} else if (view == optDisplaySongNumberAndCount) {
@@ -1577,7 +1635,7 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 			view == optFadeInFocus || view == optFadeInPause || view == optFadeInOther ||
 			view == optScrollBarSongList || view == optScrollBarBrowser || view == optHeadsetHook1 ||
 			view == optHeadsetHook2 || view == optHeadsetHook3 || view == optBytesBeforeDecoding ||
-			view == optMSBeforePlayback || view == optBufferSize || view == optFillThreshold ||
+			view == optMSBeforePlayback || view == optBufferSize || view == optDecodeAhead || view == optFillThreshold ||
 			view == optPlaybackEngine) {
 			lastMenuView = null;
 			CustomContextMenu.openContextMenu(view, this);
@@ -47,6 +47,7 @@ import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.view.animation.AlphaAnimation;
 import android.view.animation.Animation;
@@ -61,6 +62,7 @@ import java.lang.reflect.Proxy;
 
 import br.com.carlosrafaelgn.fplay.ActivityMain;
 import br.com.carlosrafaelgn.fplay.playback.Player;
+import br.com.carlosrafaelgn.fplay.playback.StartupTrace;
 import br.com.carlosrafaelgn.fplay.ui.BackgroundActivityMonitor;
 import br.com.carlosrafaelgn.fplay.ui.CustomContextMenu;
 import br.com.carlosrafaelgn.fplay.ui.FastAnimator;
@@ -726,6 +728,17 @@ public final class ActivityHost extends Activity implements Player.PlayerDestroy
 		//title when the player finishes loading)
 		setTitle(Player.state == Player.STATE_ALIVE ? top.getTitle() : "\u00A0");
 		getWindow().setBackgroundDrawable(new NullDrawable());
+		if (!StartupTrace.isFirstFrameRecorded()) {
+			final View decorView = getWindow().getDecorView();
+			decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+				@Override
+				public boolean onPreDraw() {
+					decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+					StartupTrace.firstFrame();
+					return true;
+				}
+			});
+		}
 		top.paused = true;
 		top.onCreate();
 		if (top != null && !top.finished) {
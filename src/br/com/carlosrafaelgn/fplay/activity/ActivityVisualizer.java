@@ -58,6 +58,7 @@ import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
+import br.com.carlosrafaelgn.fplay.BuildConfig;
 import br.com.carlosrafaelgn.fplay.R;
 import br.com.carlosrafaelgn.fplay.list.Song;
 import br.com.carlosrafaelgn.fplay.playback.Player;
@@ -71,8 +72,9 @@ import br.com.carlosrafaelgn.fplay.ui.drawable.ColorDrawable;
 import br.com.carlosrafaelgn.fplay.ui.drawable.TextIconDrawable;
 import br.com.carlosrafaelgn.fplay.util.Timer;
 import br.com.carlosrafaelgn.fplay.visualizer.Visualizer;
+import br.com.carlosrafaelgn.fplay.visualizer.VisualizerQualityGovernor;
 
-public final class ActivityVisualizer extends Activity implements MediaVisualizer.Handler, MainHandler.Callback, Player.PlayerObserver, Player.PlayerDestroyedObserver, View.OnClickListener, MenuItem.OnMenuItemClickListener, OnCreateContextMenuListener, View.OnTouchListener, Timer.TimerHandler {
+public final class ActivityVisualizer extends Activity implements MediaVisualizer.Handler, MainHandler.Callback, Player.PlayerObserver, Player.PlayerDestroyedObserver, View.OnClickListener, MenuItem.OnMenuItemClickListener, OnCreateContextMenuListener, View.OnTouchListener, Timer.TimerHandler, VisualizerQualityGovernor.Observer {
 	@SuppressLint("InlinedApi")
 	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
 	private static final class SystemUIObserver implements View.OnSystemUiVisibilityChangeListener {
@@ -150,7 +152,7 @@ public final class ActivityVisualizer extends Activity implements MediaVisualize
 	
 	private static final int MSG_HIDE = 0x0400;
 	private static final int MSG_SYSTEM_UI_CHANGED = 0x0401;
-	private static final int MNU_ORIENTATION = 100;
+	private static final int MNU_ORIENTATION = 100, MNU_QUALITY_LOG = 101;
 	private Visualizer visualizer;
 	private MediaVisualizer mediaVisualizer;
 	private UI.DisplayInfo info;
@@ -158,7 +160,7 @@ public final class ActivityVisualizer extends Activity implements MediaVisualize
 	private RelativeLayout panelTop;
 	private LinearLayout panelSecondary;
 	private BgButton btnGoBack, btnPrev, btnPlay, btnNext, btnMenu;
-	private TextView lblTitle;
+	private TextView lblTitle, lblQualityLog;
 	private boolean visualizerViewFullscreen, visualizerRequiresHiddenControls, isWindowFocused, panelTopWasVisibleOk, visualizerPaused;
 	private float panelTopAlpha;
 	private int version, panelTopLastTime, panelTopHiding, requiredOrientation;
@@ -553,6 +555,7 @@ public final class ActivityVisualizer extends Activity implements MediaVisualize
 	private void finalCleanup() {
 		Player.removeDestroyedObserver(this);
 		if (mediaVisualizer != null) {
+			mediaVisualizer.getQualityGovernor().setObserver(null);
 			mediaVisualizer.destroy();
 			mediaVisualizer = null;
 		} else if (visualizer != null) {
@@ -574,6 +577,7 @@ public final class ActivityVisualizer extends Activity implements MediaVisualize
 		btnNext = null;
 		btnMenu = null;
 		lblTitle = null;
+		lblQualityLog = null;
 		uiAnimTimer = null;
 		buttonColor = null;
 		lblColor = null;
@@ -675,6 +679,11 @@ public final class ActivityVisualizer extends Activity implements MediaVisualize
 			menu.add(0, MNU_ORIENTATION, 0, UI.visualizerPortrait ? R.string.landscape : R.string.portrait)
 				.setOnMenuItemClickListener(this)
 				.setIcon(new TextIconDrawable(UI.ICON_ORIENTATION));
+		//the quality log is a debugging aid, and it is not available in release builds
+		if (BuildConfig.DEBUG && mediaVisualizer != null)
+			menu.add(0, MNU_QUALITY_LOG, 0, "Quality log")
+				.setOnMenuItemClickListener(this)
+				.setIcon(new TextIconDrawable((lblQualityLog != null) ? UI.ICON_OPTCHK24 : UI.ICON_OPTUNCHK24));
 		final Visualizer v = visualizer;
 		if (v != null)
 			v.onCreateContextMenu(menu);
@@ -689,10 +698,45 @@ public final class ActivityVisualizer extends Activity implements MediaVisualize
 			UI.visualizerPortrait = !UI.visualizerPortrait;
 			setRequestedOrientation(UI.visualizerPortrait ? ActivityInfo.SCREEN_ORIENTATION_PORTRAIT : ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
 			break;
+		case MNU_QUALITY_LOG:
+			toggleQualityLog();
+			break;
 		}
 		return true;
 	}
 	
+	private void toggleQualityLog() {
+		if (mediaVisualizer == null || panelControls == null)
+			return;
+		final VisualizerQualityGovernor governor = mediaVisualizer.getQualityGovernor();
+		if (lblQualityLog != null) {
+			governor.setObserver(null);
+			panelControls.removeView(lblQualityLog);
+			lblQualityLog = null;
+			return;
+		}
+		lblQualityLog = new TextView(this);
+		UI.smallText(lblQualityLog);
+		lblQualityLog.setTextColor(0xffffffff);
+		lblQualityLog.setBackgroundColor(0x80000000);
+		lblQualityLog.setPadding(UI.controlSmallMargin, UI.controlSmallMargin, UI.controlSmallMargin, UI.controlSmallMargin);
+		final InterceptableLayout.LayoutParams p = new InterceptableLayout.LayoutParams(InterceptableLayout.LayoutParams.WRAP_CONTENT, InterceptableLayout.LayoutParams.WRAP_CONTENT);
+		p.addRule(InterceptableLayout.ALIGN_PARENT_LEFT, InterceptableLayout.TRUE);
+		p.addRule(InterceptableLayout.ALIGN_PARENT_BOTTOM, InterceptableLayout.TRUE);
+		lblQualityLog.setLayoutParams(p);
+		final String log = governor.getLog();
+		lblQualityLog.setText((log == null) ? ("q" + governor.getQuality()) : log);
+		panelControls.addView(lblQualityLog);
+		lblQualityLog.bringToFront();
+		governor.setObserver(this);
+	}
+
+	@Override
+	public void onQualityLogChanged(VisualizerQualityGovernor governor, String log) {
+		if (lblQualityLog != null)
+			lblQualityLog.setText(log);
+	}
+
 	@Override
 	public void onClick(View view) {
 		if (view == btnGoBack) {
@@ -38,14 +38,35 @@ import android.os.Message;
 import android.os.SystemClock;
 import android.support.annotation.NonNull;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import br.com.carlosrafaelgn.fplay.playback.Player;
 import br.com.carlosrafaelgn.fplay.ui.UI;
 
 public final class MainHandler extends Handler {
 	public static final int MSG_HANDLER_TOAST = 0x0500;
-	
-	private static MainHandler theHandler;
+	private static final int MSG_HANDLER_BATCH = 0x0501;
+
+	//maximum time a batch may keep the main thread busy before the remaining
+	//messages are left for the next frame
+	private static final long BATCH_BUDGET_NS = 8000000L;
+
+	private static MainHandler theHandler, thePriorityHandler;
 	private static Thread mainThread;
+
+	//Coalesced messages are not sent to the looper one by one: they wait in the arrays
+	//below (FIFO), where a newer message with the same callback and what replaces the
+	//pending one in place (keeping its position), and they are all dispatched by a single
+	//MSG_HANDLER_BATCH, within BATCH_BUDGET_NS
+	private static final Object batchSync = new Object();
+	private static MainHandler.Callback[] batchCallback = new MainHandler.Callback[16];
+	private static int[] batchWhat = new int[16], batchArg1 = new int[16], batchArg2 = new int[16];
+	private static long[] batchTime = new long[16];
+	private static int batchHead, batchCount, batchMaxDepth, batchCoalesced, batchSpills, batchDispatched;
+	private static long batchLatencySumNS, batchMaxLatencyNS;
+	private static boolean batchScheduled;
+	private static final AtomicInteger priorityPending = new AtomicInteger();
 	
 	private MainHandler() {
 		super(Looper.getMainLooper());
@@ -54,6 +75,7 @@ public final class MainHandler extends Handler {
 	public static MainHandler initialize() {
 		if (theHandler == null) {
 			theHandler = new MainHandler();
+			thePriorityHandler = new MainHandler();
 			mainThread = Looper.getMainLooper().getThread();
 		}
 		return theHandler;
@@ -98,6 +120,113 @@ public final class MainHandler extends Handler {
 	public static void removeMessages(MainHandler.Callback callback, int what) {
 		theHandler.removeMessages(what, callback);
 	}
+
+	//Runs on ANY thread
+	//For playback-critical messages: they are never coalesced, and any batch being
+	//dispatched yields the main thread as soon as one of them is waiting
+	public static void sendPriorityMessage(MainHandler.Callback callback, int what, int arg1, int arg2) {
+		priorityPending.incrementAndGet();
+		thePriorityHandler.sendMessageAtTime(Message.obtain(thePriorityHandler, what, arg1, arg2, callback), SystemClock.uptimeMillis());
+	}
+
+	//Runs on ANY thread
+	//For messages whose latest arg1/arg2 supersede the previous ones (such as progress
+	//updates): if a message with the same callback and what is still pending, it is
+	//updated, instead of having a new message sent
+	public static void sendCoalescedMessage(MainHandler.Callback callback, int what, int arg1, int arg2) {
+		synchronized (batchSync) {
+			for (int i = batchHead; i < batchCount; i++) {
+				if (batchCallback[i] == callback && batchWhat[i] == what) {
+					batchArg1[i] = arg1;
+					batchArg2[i] = arg2;
+					batchCoalesced++;
+					return;
+				}
+			}
+			if (batchCount >= batchCallback.length) {
+				if (batchHead > 0) {
+					batchCount -= batchHead;
+					System.arraycopy(batchCallback, batchHead, batchCallback, 0, batchCount);
+					System.arraycopy(batchWhat, batchHead, batchWhat, 0, batchCount);
+					System.arraycopy(batchArg1, batchHead, batchArg1, 0, batchCount);
+					System.arraycopy(batchArg2, batchHead, batchArg2, 0, batchCount);
+					System.arraycopy(batchTime, batchHead, batchTime, 0, batchCount);
+					Arrays.fill(batchCallback, batchCount, batchCount + batchHead, null);
+					batchHead = 0;
+				} else {
+					final int length = batchCallback.length << 1;
+					batchCallback = Arrays.copyOf(batchCallback, length);
+					batchWhat = Arrays.copyOf(batchWhat, length);
+					batchArg1 = Arrays.copyOf(batchArg1, length);
+					batchArg2 = Arrays.copyOf(batchArg2, length);
+					batchTime = Arrays.copyOf(batchTime, length);
+				}
+			}
+			batchCallback[batchCount] = callback;
+			batchWhat[batchCount] = what;
+			batchArg1[batchCount] = arg1;
+			batchArg2[batchCount] = arg2;
+			batchTime[batchCount] = System.nanoTime();
+			batchCount++;
+			if (batchMaxDepth < (batchCount - batchHead))
+				batchMaxDepth = batchCount - batchHead;
+			if (!batchScheduled) {
+				batchScheduled = true;
+				theHandler.sendMessageAtTime(Message.obtain(theHandler, MSG_HANDLER_BATCH), SystemClock.uptimeMillis());
+			}
+		}
+	}
+
+	public static String getBatchReport() {
+		synchronized (batchSync) {
+			return "Main Handler Batches" +
+				"\nQueue Depth: " + (batchCount - batchHead) + " (max " + batchMaxDepth + ")" +
+				"\nLatency: " + ((batchDispatched == 0) ? 0 : ((batchLatencySumNS / batchDispatched) / 1000L)) + " \u00b5s (max " + (batchMaxLatencyNS / 1000L) + " \u00b5s)" +
+				"\nDispatched: " + batchDispatched +
+				"\nCoalesced: " + batchCoalesced +
+				"\nSpilled: " + batchSpills;
+		}
+	}
+
+	//Runs on the MAIN thread
+	private void dispatchBatch() {
+		final long start = System.nanoTime();
+		for (; ; ) {
+			final MainHandler.Callback callback;
+			final int what, arg1, arg2;
+			synchronized (batchSync) {
+				if (batchHead >= batchCount) {
+					Arrays.fill(batchCallback, 0, batchCount, null);
+					batchHead = 0;
+					batchCount = 0;
+					batchScheduled = false;
+					return;
+				}
+				final long now = System.nanoTime();
+				if (priorityPending.get() > 0 || (now - start) >= BATCH_BUDGET_NS) {
+					//since the message goes to the end of the queue, any pending frame
+					//(and any priority message) will be handled before the next batch
+					batchSpills++;
+					sendMessageAtTime(Message.obtain(this, MSG_HANDLER_BATCH), SystemClock.uptimeMillis());
+					return;
+				}
+				callback = batchCallback[batchHead];
+				what = batchWhat[batchHead];
+				arg1 = batchArg1[batchHead];
+				arg2 = batchArg2[batchHead];
+				final long latency = now - batchTime[batchHead];
+				batchCallback[batchHead] = null;
+				batchHead++;
+				batchDispatched++;
+				batchLatencySumNS += latency;
+				if (batchMaxLatencyNS < latency)
+					batchMaxLatencyNS = latency;
+			}
+			final Message msg = Message.obtain(this, what, arg1, arg2);
+			callback.handleMessage(msg);
+			msg.recycle();
+		}
+	}
 	
 	@Override
 	public void dispatchMessage(@NonNull Message msg) {
@@ -118,7 +247,12 @@ public final class MainHandler extends Handler {
 				ex.printStackTrace();
 			}
 			return;
+		case MSG_HANDLER_BATCH:
+			dispatchBatch();
+			return;
 		}
+		if (this == thePriorityHandler)
+			priorityPending.decrementAndGet();
 		final Runnable r = msg.getCallback();
 		if (r != null) {
 			r.run();
@@ -0,0 +1,323 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.list;
+
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+import br.com.carlosrafaelgn.fplay.playback.Player;
+
+//Second tier of the album art cache: already scaled RGB_565 bitmaps are kept in a single
+//append-only pack file, so the next time the same art is requested with the same size, it
+//takes one positional read (no BitmapFactory decoding, no scaling) to have it back.
+//The results of the MediaStore lookups (file path -> album art path) are kept there too.
+//
+//Pack format: MAGIC, followed by records, appended in order (later records override earlier ones)
+//  int RECORD_MAGIC, byte type, byte 0, short key length, int payload length,
+//  short width, short height, long stamp, key (UTF-8), payload
+//A torn record at the end of the file (and everything after it) is discarded when the file is
+//opened. Once the pack grows beyond MAX_PACK_LENGTH, it is simply started over.
+//
+//The index lives in memory only, and is rebuilt by walking the record headers. The same
+//instance is shared by all AlbumArtFetchers, and all of its methods are thread-safe.
+final class AlbumArtDiskCache {
+	private static final int MAGIC = 0x01414146; //"FAA\1"
+	private static final int RECORD_MAGIC = 0x52414146; //"FAAR"
+
+	private static final int TYPE_BITMAP = 0;
+	private static final int TYPE_URI = 1;
+
+	private static final int HEADER_LENGTH = 4 + 1 + 1 + 2 + 4 + 2 + 2 + 8;
+	private static final int MAX_KEY_LENGTH = 4096;
+	private static final int MAX_PAYLOAD_LENGTH = 4 * 1024 * 1024;
+	private static final long MAX_PACK_LENGTH = 24 * 1024 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final class Entry {
+		public final long offset, stamp;
+		public final int length, width, height;
+
+		public Entry(long offset, int length, int width, int height, long stamp) {
+			this.offset = offset;
+			this.length = length;
+			this.width = width;
+			this.height = height;
+			this.stamp = stamp;
+		}
+	}
+
+	private static AlbumArtDiskCache instance;
+
+	private final File file;
+	private final HashMap<String, Entry> bitmaps;
+	private final HashMap<String, String> uris;
+	private final HashMap<String, Long> uriStamps;
+	private final ByteBuffer header;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private ByteBuffer pixels;
+	private long packLength;
+	private int hits, misses;
+
+	private AlbumArtDiskCache(File file) {
+		this.file = file;
+		bitmaps = new HashMap<>(128);
+		uris = new HashMap<>(256);
+		uriStamps = new HashMap<>(256);
+		header = ByteBuffer.allocate(HEADER_LENGTH);
+	}
+
+	public static synchronized AlbumArtDiskCache getInstance() {
+		if (instance == null) {
+			instance = new AlbumArtDiskCache(new File(Player.theApplication.getCacheDir(), "AlbumArt.pack"));
+			instance.open();
+		}
+		return instance;
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	private static String bitmapKey(String uri, int size) {
+		return uri + "\n" + size;
+	}
+
+	private void open() {
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			channel = raf.getChannel();
+			final long length = channel.size();
+			if (length < 4 || readInt(0) != MAGIC) {
+				reset();
+				return;
+			}
+			long position = 4;
+			byte[] key = new byte[256];
+			while (position + HEADER_LENGTH <= length) {
+				header.clear();
+				if (!readFully(header, position) || header.getInt(0) != RECORD_MAGIC)
+					break;
+				final int type = header.get(4);
+				final int keyLength = header.getShort(6) & 0xFFFF;
+				final int payloadLength = header.getInt(8);
+				final long next = position + HEADER_LENGTH + keyLength + payloadLength;
+				if (keyLength == 0 || keyLength > MAX_KEY_LENGTH || payloadLength < 0 || payloadLength > MAX_PAYLOAD_LENGTH || next > length)
+					break;
+				if (key.length < keyLength)
+					key = new byte[keyLength];
+				if (!readFully(ByteBuffer.wrap(key, 0, keyLength), position + HEADER_LENGTH))
+					break;
+				final String k = new String(key, 0, keyLength, UTF8);
+				final long stamp = header.getLong(16);
+				if (type == TYPE_BITMAP) {
+					bitmaps.put(k, new Entry(position + HEADER_LENGTH + keyLength, payloadLength, header.getShort(12) & 0xFFFF, header.getShort(14) & 0xFFFF, stamp));
+				} else if (type == TYPE_URI) {
+					final ByteBuffer value = ByteBuffer.allocate(payloadLength);
+					if (!readFully(value, position + HEADER_LENGTH + keyLength))
+						break;
+					uris.put(k, new String(value.array(), 0, payloadLength, UTF8));
+					uriStamps.put(k, stamp);
+				}
+				position = next;
+			}
+			packLength = position;
+			if (position != length)
+				channel.truncate(position);
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+			close();
+		}
+	}
+
+	private void close() {
+		bitmaps.clear();
+		uris.clear();
+		uriStamps.clear();
+		pixels = null;
+		try {
+			if (raf != null)
+				raf.close();
+		} catch (Throwable ex) {
+			//just ignore
+		}
+		raf = null;
+		channel = null;
+	}
+
+	private void reset() throws Exception {
+		bitmaps.clear();
+		uris.clear();
+		uriStamps.clear();
+		channel.truncate(0);
+		header.clear();
+		header.putInt(MAGIC);
+		header.flip();
+		channel.write(header, 0);
+		packLength = 4;
+	}
+
+	private int readInt(long position) throws Exception {
+		header.clear();
+		header.limit(4);
+		return (readFully(header, position) ? header.getInt(0) : 0);
+	}
+
+	private boolean readFully(ByteBuffer buffer, long position) throws Exception {
+		while (buffer.hasRemaining()) {
+			final int r = channel.read(buffer, position);
+			if (r < 0)
+				return false;
+			position += r;
+		}
+		return true;
+	}
+
+	private void append(int type, String key, int width, int height, long stamp, ByteBuffer payload) throws Exception {
+		final byte[] k = key.getBytes(UTF8);
+		final int payloadLength = payload.remaining();
+		if (k.length == 0 || k.length > MAX_KEY_LENGTH || payloadLength > MAX_PAYLOAD_LENGTH)
+			return;
+		if (packLength + HEADER_LENGTH + k.length + payloadLength > MAX_PACK_LENGTH)
+			reset();
+		final long position = packLength;
+		header.clear();
+		header.putInt(RECORD_MAGIC);
+		header.put((byte)type);
+		header.put((byte)0);
+		header.putShort((short)k.length);
+		header.putInt(payloadLength);
+		header.putShort((short)width);
+		header.putShort((short)height);
+		header.putLong(stamp);
+		header.flip();
+		channel.position(position);
+		final ByteBuffer[] buffers = new ByteBuffer[] { header, ByteBuffer.wrap(k), payload };
+		long remaining = HEADER_LENGTH + k.length + payloadLength;
+		while (remaining > 0)
+			remaining -= channel.write(buffers);
+		packLength = position + HEADER_LENGTH + k.length + payloadLength;
+		if (type == TYPE_BITMAP)
+			bitmaps.put(key, new Entry(position + HEADER_LENGTH + k.length, payloadLength, width, height, stamp));
+	}
+
+	//Returns null if the path is unknown (or if the file has changed since it was looked up),
+	//or "" if the file is known not to have an album art
+	public synchronized String getAlbumArtUri(String path, long stamp) {
+		final Long s = uriStamps.get(path);
+		return ((s == null || s != stamp) ? null : uris.get(path));
+	}
+
+	public synchronized void putAlbumArtUri(String path, long stamp, String uri) {
+		if (uri == null)
+			uri = "";
+		uris.put(path, uri);
+		uriStamps.put(path, stamp);
+		//negative results are not persisted, as the album art could be added later
+		if (channel == null || uri.length() == 0)
+			return;
+		try {
+			append(TYPE_URI, path, 0, 0, stamp, ByteBuffer.wrap(uri.getBytes(UTF8)));
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+			close();
+		}
+	}
+
+	public synchronized Bitmap getBitmap(String uri, int size, long stamp) {
+		final Entry entry;
+		if (channel == null || (entry = bitmaps.get(bitmapKey(uri, size))) == null || entry.stamp != stamp) {
+			misses++;
+			return null;
+		}
+		Bitmap bitmap = null;
+		try {
+			if (pixels == null || pixels.capacity() < entry.length)
+				pixels = ByteBuffer.allocateDirect(entry.length);
+			pixels.clear();
+			pixels.limit(entry.length);
+			if (!readFully(pixels, entry.offset)) {
+				misses++;
+				return null;
+			}
+			pixels.flip();
+			bitmap = Bitmap.createBitmap(entry.width, entry.height, Bitmap.Config.RGB_565);
+			if (bitmap.getRowBytes() * entry.height != entry.length) {
+				bitmap.recycle();
+				misses++;
+				return null;
+			}
+			bitmap.copyPixelsFromBuffer(pixels);
+			hits++;
+			return bitmap;
+		} catch (Throwable ex) {
+			if (bitmap != null)
+				bitmap.recycle();
+			ex.printStackTrace();
+			misses++;
+			return null;
+		}
+	}
+
+	public synchronized void putBitmap(String uri, int size, long stamp, Bitmap bitmap) {
+		if (channel == null || bitmap == null || bitmap.getConfig() != Bitmap.Config.RGB_565)
+			return;
+		final int width = bitmap.getWidth(), height = bitmap.getHeight();
+		final int length = bitmap.getRowBytes() * height;
+		if (width > 0xFFFF || height > 0xFFFF || length > MAX_PAYLOAD_LENGTH)
+			return;
+		try {
+			if (pixels == null || pixels.capacity() < length)
+				pixels = ByteBuffer.allocateDirect(length);
+			pixels.clear();
+			pixels.limit(length);
+			bitmap.copyPixelsToBuffer(pixels);
+			pixels.flip();
+			append(TYPE_BITMAP, bitmapKey(uri, size), width, height, stamp, pixels);
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+			close();
+		}
+	}
+}
@@ -32,19 +32,21 @@
 //
 package br.com.carlosrafaelgn.fplay.list;
 
+import android.app.ActivityManager;
 import android.content.ContentResolver;
+import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Message;
-import android.os.SystemClock;
 import android.provider.MediaStore;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
 import br.com.carlosrafaelgn.fplay.playback.Player;
 import br.com.carlosrafaelgn.fplay.ui.UI;
 import br.com.carlosrafaelgn.fplay.util.BitmapLruCache;
@@ -54,7 +56,7 @@ import br.com.carlosrafaelgn.fplay.util.ReleasableBitmapWrapper;
 //http://developer.android.com/training/displaying-bitmaps/manage-memory.html
 //http://developer.android.com/training/displaying-bitmaps/cache-bitmap.html
 //http://developer.android.com/reference/android/util/LruCache.html
-public final class AlbumArtFetcher implements Runnable, Handler.Callback {
+public final class AlbumArtFetcher {
 	public interface AlbumArtFetcherListener {
 		//Runs on a SECONDARY thread
 		void albumArtFetched(ReleasableBitmapWrapper bitmap, int requestId);
@@ -62,284 +64,478 @@ public final class AlbumArtFetcher implements Runnable, Handler.Callback {
 		//Runs on a SECONDARY thread
 		FileSt fileForRequestId(int requestId);
 	}
-	
-	private final Object sync;
-	private final BitmapFactory.Options opts;
-	private final ContentResolver contentResolver;
-	private final String audioDataSelection, albumIdSelection;
-	private final String[] albumArtProjection, audioAlbumIdProjection, tempSelection;
-	private volatile BitmapLruCache cache;
-	private byte[] tempStorage;
-	private Canvas canvas;
-	private Paint paint;
-	private Rect srcR, dstR;
-	private Handler handler;
-	private Looper looper;
 
-	/**
-	 * Setup LRU cache, canvas for bitmap
-	 * set maximum memory limit for cache to 8 MB
-	 * and start a new thread to fetch bitmap.
-	 */
-	public AlbumArtFetcher() {
-		sync = new Object();
-		opts = new BitmapFactory.Options();
-		contentResolver = Player.theApplication.getContentResolver();
-		audioDataSelection = MediaStore.Audio.AudioColumns.DATA + "=?";
-		albumIdSelection = MediaStore.Audio.Albums._ID + "=?";
-		albumArtProjection = new String[] { MediaStore.Audio.Albums.ALBUM_ART };
-		audioAlbumIdProjection = new String[] { MediaStore.Audio.AudioColumns.ALBUM_ID };
-		tempSelection = new String[1];
-		long max = Runtime.getRuntime().maxMemory();
-		max >>= 4; //1/16
-		//do not eat up more than 8 MiB
-		if (max > (8 * 1024 * 1024))
-			max = 8 * 1024 * 1024;
-		cache = new BitmapLruCache((int)max);
-		tempStorage = new byte[16384];
-		canvas = new Canvas();
-		paint = new Paint();
-		paint.setAntiAlias(false);
-		paint.setFilterBitmap(true);
-		paint.setDither(false);
-		srcR = new Rect();
-		dstR = new Rect();
-		(new Thread(this, "Album Art Fetcher Thread")).start();
-	}
-	
-	//Runs on a SECONDARY thread
-	@Override
-	public void run() {
-		Looper.prepare();
-		looper = Looper.myLooper();
-		handler = new Handler(looper, this);
-		Looper.loop();
+	private static final class Request {
+		public final AlbumArtFetcherListener listener;
+		public final int requestId, desiredSize, position;
+		public boolean cancelled;
+		//the worker currently fetching this request (null while queued or while
+		//waiting for another request to decode the same album art)
+		public Worker worker;
+		//requests waiting for this one to decode their album art
+		public ArrayList<Request> waiters;
+
+		public Request(AlbumArtFetcherListener listener, int requestId, int desiredSize, int position) {
+			this.listener = listener;
+			this.requestId = requestId;
+			this.desiredSize = desiredSize;
+			this.position = position;
+		}
 	}
-	
-	//Runs on a SECONDARY thread
 
-	/**
-	 * Get the URI for a file's album art and fetch it into
-	 * a bitmap, add item to cache.
-	 * @param msg AlbumArtFetcherListener as a Message object
-	 */
-	@Override
-	public boolean handleMessage(Message msg) {
-		final AlbumArtFetcherListener listener = (AlbumArtFetcherListener)msg.obj;
-		final Canvas c = canvas;
-		final Paint p = paint;
-		msg.obj = null;
-		String uri = null;
-		Bitmap b = null, b2 = null;
-		ReleasableBitmapWrapper w;
-		FileSt file;
-		if (c == null || p == null || listener == null || (file = listener.fileForRequestId(msg.what)) == null)
-			return true;
-
-		try {
-			if (file.specialType == 0) {
-				//we are fetching the album art for a file
-				tempSelection[0] = file.path;
-				Cursor cursor = contentResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, audioAlbumIdProjection, audioDataSelection, tempSelection, null);
-				long albumId = Long.MIN_VALUE;
-				if (cursor != null) {
-					if (cursor.moveToNext())
-						albumId = cursor.getLong(0);
-					cursor.close();
+	private final class Worker extends Thread {
+		public final BitmapFactory.Options opts;
+		private final String[] tempSelection;
+		private final byte[] tempStorage;
+		private final Canvas canvas;
+		private final Paint paint;
+		private final Rect srcR, dstR;
+
+		public Worker(int index) {
+			super("Album Art Fetcher Thread " + index);
+			opts = new BitmapFactory.Options();
+			tempSelection = new String[1];
+			tempStorage = new byte[16384];
+			canvas = new Canvas();
+			paint = new Paint();
+			paint.setAntiAlias(false);
+			paint.setFilterBitmap(true);
+			paint.setDither(false);
+			srcR = new Rect();
+			dstR = new Rect();
+		}
+
+		//Runs on a SECONDARY thread
+		@Override
+		public void run() {
+			for (; ; ) {
+				final Request request;
+				synchronized (sync) {
+					while (alive && pending.isEmpty()) {
+						try {
+							sync.wait();
+						} catch (InterruptedException ex) {
+							ex.printStackTrace();
+						}
+					}
+					if (!alive)
+						break;
+					request = takeNextRequest();
+					request.worker = this;
+					running.add(request);
+					opts.mCancel = false;
 				}
-				if (albumId != Long.MIN_VALUE) {
-					if (opts.mCancel)
-						return true;
+				final boolean waiting = fetch(request);
+				synchronized (sync) {
+					//a waiting request could have been handed to another worker already
+					if (request.worker == this)
+						request.worker = null;
+					opts.mCancel = false;
+					if (!waiting)
+						running.remove(request);
+				}
+			}
+		}
 
-					tempSelection[0] = Long.toString(albumId);
-					cursor = contentResolver.query(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, albumArtProjection, albumIdSelection, tempSelection, null);
-					if (cursor != null) {
-						if (cursor.moveToNext())
-							uri = cursor.getString(0);
-						cursor.close();
+		//Runs on a SECONDARY thread
 
-						if (opts.mCancel)
-							return true;
-
-						if (uri != null) {
-							synchronized (sync) {
-								if (cache != null && (w = cache.get(uri)) != null) {
-									listener.albumArtFetched(w, msg.what);
-									return true;
-								}
+		/**
+		 * Get the URI for a file's album art and fetch it into
+		 * a bitmap, add item to cache.
+		 * @param request The request being fetched
+		 * @return true if the request is now waiting for another one
+		 * to decode the same album art
+		 */
+		private boolean fetch(Request request) {
+			final AlbumArtFetcherListener listener = request.listener;
+			final int desiredSize = request.desiredSize;
+			String uri = null;
+			Bitmap b = null, b2 = null;
+			ReleasableBitmapWrapper w = null;
+			FileSt file;
+			if ((file = listener.fileForRequestId(request.requestId)) == null)
+				return false;
+
+			try {
+				if (file.specialType == 0) {
+					//we are fetching the album art for a file (the result of the lookup is cached,
+					//so scrolling through the same files over and over does not query MediaStore)
+					final long pathStamp = (new File(file.path)).lastModified();
+					uri = diskCache.getAlbumArtUri(file.path, pathStamp);
+					if (uri == null) {
+						tempSelection[0] = file.path;
+						Cursor cursor = contentResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, audioAlbumIdProjection, audioDataSelection, tempSelection, null);
+						long albumId = Long.MIN_VALUE;
+						if (cursor != null) {
+							if (cursor.moveToNext())
+								albumId = cursor.getLong(0);
+							cursor.close();
+						}
+						if (albumId != Long.MIN_VALUE) {
+							if (opts.mCancel)
+								return false;
+
+							tempSelection[0] = Long.toString(albumId);
+							cursor = contentResolver.query(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, albumArtProjection, albumIdSelection, tempSelection, null);
+							if (cursor != null) {
+								if (cursor.moveToNext())
+									uri = cursor.getString(0);
+								cursor.close();
+
+								if (opts.mCancel)
+									return false;
 							}
 						}
+						diskCache.putAlbumArtUri(file.path, pathStamp, uri);
+					} else if (uri.length() == 0) {
+						return false;
 					}
+					if (uri != null && deliverCached(uri, request))
+						return false;
+				} else {
+					uri = file.albumArt;
 				}
-			} else {
-				uri = file.albumArt;
-			}
 
-			if (uri == null) {
-				if (contentResolver == null) {
+				if (uri == null) {
+					if (contentResolver == null) {
+						file.artistIdForAlbumArt = 0;
+						return false;
+					}
+					//try to fetch the first album for this artist
+					final Cursor cursor = contentResolver.query(MediaStore.Audio.Artists.Albums.getContentUri("external", file.artistIdForAlbumArt), albumArtProjection, null, null, null);
+					if (cursor != null) {
+						while (uri == null && !opts.mCancel && cursor.moveToNext())
+							uri = cursor.getString(0);
+						cursor.close();
+					}
 					file.artistIdForAlbumArt = 0;
-					return true;
+					if (uri == null)
+						return false;
+					file.albumArt = uri;
+					if (deliverCached(uri, request))
+						return false;
 				}
-				//try to fetch the first album for this artist
-				final Cursor cursor = contentResolver.query(MediaStore.Audio.Artists.Albums.getContentUri("external", file.artistIdForAlbumArt), albumArtProjection, null, null, null);
-				if (cursor != null) {
-					while (uri == null && !opts.mCancel && cursor.moveToNext())
-						uri = cursor.getString(0);
-					cursor.close();
-				}
-				file.artistIdForAlbumArt = 0;
-				if (uri == null)
-					return true;
-				file.albumArt = uri;
+
+				if (opts.mCancel)
+					return false;
+
+				//if another worker is already decoding this very album art (for another
+				//view/size), just wait for it, instead of decoding it twice
 				synchronized (sync) {
-					if (cache != null && (w = cache.get(uri)) != null) {
-						listener.albumArtFetched(w, msg.what);
+					final Request leader = decoding.get(uri);
+					if (leader != null && leader.desiredSize == desiredSize) {
+						if (leader.waiters == null)
+							leader.waiters = new ArrayList<>(4);
+						leader.waiters.add(request);
 						return true;
 					}
+					if (leader == null)
+						decoding.put(uri, request);
 				}
-			}
 
-			if (opts.mCancel)
-				return true;
-
-			opts.inJustDecodeBounds = true;
-			opts.inTempStorage = tempStorage;
-			BitmapFactory.decodeFile(uri, opts);
-			int ss = 0;
-			if (msg.arg1 > 0) {
-				int s = ((opts.outWidth >= opts.outHeight) ? opts.outWidth : opts.outHeight);
-				do {
-					ss++;
-					s >>= 1;
-				} while (s > msg.arg1);
-			} else {
-				ss = 1;
-			}
-			//opts.inInputShareable = false;
-			opts.inPreferQualityOverSpeed = false;
-			opts.inJustDecodeBounds = false;
-			opts.inScaled = false;
-			opts.inDensity = 0;
-			opts.inTargetDensity = 0;
-			opts.inPreferredConfig = Bitmap.Config.RGB_565;
-			opts.inSampleSize = 1 << (ss - 1);
-			if (opts.mCancel)
-				return true;
-			b = BitmapFactory.decodeFile(uri, opts);
-			//I decided to do all this work here, because Bitmap.createScaledBitmap()
-			//creates a lot of temporary objects every time it is called, including
-			//a Canvas and a Paint
-			if (msg.arg1 <= 0 || (opts.outWidth == msg.arg1 && opts.outHeight == msg.arg1)) {
-				w = new ReleasableBitmapWrapper(b);
-			} else {
-				srcR.right = opts.outWidth;
-				srcR.bottom = opts.outHeight;
-				if (srcR.right >= srcR.bottom) {
-					dstR.right = msg.arg1;
-					dstR.bottom = (srcR.bottom * msg.arg1) / srcR.right;
-					//if we are missing the size by a handful of pixels, let's just
-					//stretch the image a little bit... ;)
-					if ((msg.arg1 - dstR.bottom) <= UI._4dp)
-						dstR.bottom = msg.arg1;
-				} else {
-					dstR.bottom = msg.arg1;
-					dstR.right = (srcR.right * msg.arg1) / srcR.bottom;
-					//if we are missing the size by a handful of pixels, let's just
-					//stretch the image a little bit... ;)
-					if ((msg.arg1 - dstR.right) <= UI._4dp)
-						dstR.right = msg.arg1;
-				}
-				b2 = Bitmap.createBitmap(dstR.right, dstR.bottom, Bitmap.Config.RGB_565);
-				c.setBitmap(b2);
-				c.drawBitmap(b, srcR, dstR, p);
-				b.recycle();
-				w = new ReleasableBitmapWrapper(b2);
-			}
+				try {
+					//the disk tier holds the bitmap already scaled to the desired size
+					final long artStamp = (new File(uri)).lastModified();
+					if (artStamp == 0 || (b = diskCache.getBitmap(uri, desiredSize, artStamp)) == null) {
+						opts.inJustDecodeBounds = true;
+						opts.inTempStorage = tempStorage;
+						BitmapFactory.decodeFile(uri, opts);
+						int ss = 0;
+						if (desiredSize > 0) {
+							int s = ((opts.outWidth >= opts.outHeight) ? opts.outWidth : opts.outHeight);
+							do {
+								ss++;
+								s >>= 1;
+							} while (s > desiredSize);
+						} else {
+							ss = 1;
+						}
+						//opts.inInputShareable = false;
+						opts.inPreferQualityOverSpeed = false;
+						opts.inJustDecodeBounds = false;
+						opts.inScaled = false;
+						opts.inDensity = 0;
+						opts.inTargetDensity = 0;
+						opts.inPreferredConfig = Bitmap.Config.RGB_565;
+						opts.inSampleSize = 1 << (ss - 1);
+						if (opts.mCancel)
+							return false;
+						b = BitmapFactory.decodeFile(uri, opts);
+						//I decided to do all this work here, because Bitmap.createScaledBitmap()
+						//creates a lot of temporary objects every time it is called, including
+						//a Canvas and a Paint
+						if (desiredSize > 0 && (opts.outWidth != desiredSize || opts.outHeight != desiredSize)) {
+							srcR.right = opts.outWidth;
+							srcR.bottom = opts.outHeight;
+							if (srcR.right >= srcR.bottom) {
+								dstR.right = desiredSize;
+								dstR.bottom = (srcR.bottom * desiredSize) / srcR.right;
+								//if we are missing the size by a handful of pixels, let's just
+								//stretch the image a little bit... ;)
+								if ((desiredSize - dstR.bottom) <= UI._4dp)
+									dstR.bottom = desiredSize;
+							} else {
+								dstR.bottom = desiredSize;
+								dstR.right = (srcR.right * desiredSize) / srcR.bottom;
+								//if we are missing the size by a handful of pixels, let's just
+								//stretch the image a little bit... ;)
+								if ((desiredSize - dstR.right) <= UI._4dp)
+									dstR.right = desiredSize;
+							}
+							b2 = Bitmap.createBitmap(dstR.right, dstR.bottom, Bitmap.Config.RGB_565);
+							canvas.setBitmap(b2);
+							canvas.drawBitmap(b, srcR, dstR, paint);
+							b.recycle();
+							b = b2;
+							b2 = null;
+						}
+						if (artStamp != 0)
+							diskCache.putBitmap(uri, desiredSize, artStamp, b);
+					}
+					w = new ReleasableBitmapWrapper(b);
+					b = null;
 
-			synchronized (sync) {
-				if (cache != null) {
-					cache.put(uri, w);
-					listener.albumArtFetched(w, msg.what);
+					//keep our own reference while the listeners are called, as the cache is
+					//free to evict (and recycle) the bitmap as soon as it has been added
+					final BitmapLruCache cache = AlbumArtFetcher.this.cache;
+					if (cache != null) {
+						w.addRef();
+						cache.put(uri, w);
+					}
+				} finally {
+					finishDecoding(uri, request, w);
 				}
+			} catch (Throwable ex) {
+				try {
+					if (b != null)
+						b.recycle();
+				} catch (Throwable ex2) {
+					ex2.printStackTrace();
+				}
+				try {
+					if (b2 != null)
+						b2.recycle();
+				} catch (Throwable ex2) {
+					ex2.printStackTrace();
+				}
+				listener.albumArtFetched(null, request.requestId);
+				ex.printStackTrace();
 			}
-		} catch (Throwable ex) {
-			try {
-				if (b != null)
-					b.recycle();
-			} catch (Throwable ex2) {
-				ex2.printStackTrace();
-			}
-			try {
-				if (b2 != null)
-					b2.recycle();
-			} catch (Throwable ex2) {
-				ex2.printStackTrace();
+
+			return false;
+		}
+	}
+
+	private final Object sync;
+	private final ContentResolver contentResolver;
+	private final AlbumArtDiskCache diskCache;
+	private final String audioDataSelection, albumIdSelection;
+	private final String[] albumArtProjection, audioAlbumIdProjection;
+	private final ArrayList<Request> pending, running;
+	private final HashMap<String, Request> decoding;
+	private final Worker[] workers;
+	private volatile BitmapLruCache cache;
+	private volatile int visibleFirst, visibleLast;
+	private boolean alive;
+
+	public AlbumArtFetcher() {
+		this(1);
+	}
+
+	/**
+	 * Setup LRU cache, set maximum memory limit for cache based on
+	 * the device's memory class and start the threads to fetch bitmaps.
+	 * @param workerCount Maximum amount of threads fetching bitmaps
+	 * at the same time (limited by the number of available processors)
+	 */
+	public AlbumArtFetcher(int workerCount) {
+		sync = new Object();
+		contentResolver = Player.theApplication.getContentResolver();
+		diskCache = AlbumArtDiskCache.getInstance();
+		audioDataSelection = MediaStore.Audio.AudioColumns.DATA + "=?";
+		albumIdSelection = MediaStore.Audio.Albums._ID + "=?";
+		albumArtProjection = new String[] { MediaStore.Audio.Albums.ALBUM_ART };
+		audioAlbumIdProjection = new String[] { MediaStore.Audio.AudioColumns.ALBUM_ID };
+		//use 1/16 of the memory class (the heap limit, in MiB, of a regular app),
+		//but not less than 2 MiB, nor more than 16 MiB
+		final ActivityManager activityManager = (ActivityManager)Player.theApplication.getSystemService(Context.ACTIVITY_SERVICE);
+		final int memoryClass = ((activityManager != null) ? activityManager.getMemoryClass() : (int)(Runtime.getRuntime().maxMemory() >> 20));
+		int max = (memoryClass << 20) >> 4;
+		if (max < (2 * 1024 * 1024))
+			max = 2 * 1024 * 1024;
+		else if (max > (16 * 1024 * 1024))
+			max = 16 * 1024 * 1024;
+		cache = new BitmapLruCache(max);
+		pending = new ArrayList<>(32);
+		running = new ArrayList<>(8);
+		decoding = new HashMap<>(8);
+		visibleFirst = 0;
+		visibleLast = Integer.MAX_VALUE;
+		alive = true;
+		final int processors = Runtime.getRuntime().availableProcessors();
+		if (workerCount > processors)
+			workerCount = processors;
+		if (workerCount < 1)
+			workerCount = 1;
+		workers = new Worker[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			workers[i] = new Worker(i);
+			workers[i].start();
+		}
+	}
+
+	//Must be called holding sync
+	private Request takeNextRequest() {
+		//visible rows first, then the others, ordered by their distance to the
+		//visible rows (among requests with the same distance, the oldest one wins)
+		final int first = visibleFirst, last = visibleLast;
+		int best = 0, bestDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < pending.size(); i++) {
+			final int position = pending.get(i).position;
+			final int distance = ((position < 0 || (position >= first && position <= last)) ? 0 : ((position < first) ? (first - position) : (position - last)));
+			if (distance < bestDistance) {
+				best = i;
+				bestDistance = distance;
+				if (distance == 0)
+					break;
 			}
-			listener.albumArtFetched(null, msg.what);
-			ex.printStackTrace();
-			return true;
 		}
+		return pending.remove(best);
+	}
 
+	//Runs on a SECONDARY thread
+	private boolean deliverCached(String uri, Request request) {
+		final BitmapLruCache cache = this.cache;
+		final ReleasableBitmapWrapper w;
+		if (cache == null || (w = cache.get(uri)) == null)
+			return false;
+		request.listener.albumArtFetched(w, request.requestId);
+		w.release();
 		return true;
 	}
-	
-	//Runs on the MAIN thread
-	public ReleasableBitmapWrapper getAlbumArt(FileSt file, int desiredSize, int requestId, AlbumArtFetcherListener listener) {
+
+	//Runs on a SECONDARY thread (releases the reference to w held by the caller)
+	private void finishDecoding(String uri, Request request, ReleasableBitmapWrapper w) {
+		final ArrayList<Request> waiters;
+		final boolean deliver;
 		synchronized (sync) {
-			if (cache == null || file == null)
-				return null;
-			if (file.albumArt != null) {
-				final ReleasableBitmapWrapper bitmap = cache.get(file.albumArt);
-				if (bitmap != null) {
-					bitmap.addRef();
-					return bitmap;
+			if (decoding.get(uri) == request)
+				decoding.remove(uri);
+			waiters = request.waiters;
+			request.waiters = null;
+			if (waiters != null) {
+				for (int i = waiters.size() - 1; i >= 0; i--) {
+					final Request waiter = waiters.get(i);
+					running.remove(waiter);
+					if (waiter.cancelled) {
+						waiters.remove(i);
+					} else if (w == null && alive) {
+						//the decoding did not finish (it was cancelled or it failed),
+						//so let the waiter try again by itself
+						waiters.remove(i);
+						pending.add(waiter);
+						sync.notify();
+					}
 				}
 			}
+			deliver = alive;
 		}
-		if (handler != null) {
-			//wait before actually trying to fetch the albumart, as this request could
-			//soon be cancelled, for example, in a ListView being scrolled fast
-			handler.sendMessageAtTime(Message.obtain(handler, requestId, desiredSize, 0, listener), SystemClock.uptimeMillis());
+		if (w == null)
+			return;
+		if (deliver) {
+			if (!request.cancelled)
+				request.listener.albumArtFetched(w, request.requestId);
+			if (waiters != null) {
+				for (int i = waiters.size() - 1; i >= 0; i--)
+					waiters.get(i).listener.albumArtFetched(w, waiters.get(i).requestId);
+			}
+		}
+		w.release();
+	}
+
+	private void enqueue(AlbumArtFetcherListener listener, int requestId, int desiredSize, int position) {
+		synchronized (sync) {
+			if (!alive)
+				return;
+			pending.add(new Request(listener, requestId, desiredSize, position));
+			sync.notify();
+		}
+	}
+
+	//Runs on the MAIN thread
+
+	/**
+	 * Tells which rows are visible, so their album arts are fetched first.
+	 * @param firstVisibleItem Position of the first visible row
+	 * @param visibleItemCount Amount of visible rows
+	 */
+	public void setVisibleRange(int firstVisibleItem, int visibleItemCount) {
+		visibleFirst = firstVisibleItem;
+		visibleLast = firstVisibleItem + visibleItemCount - 1;
+	}
+
+	//Runs on the MAIN thread
+	public ReleasableBitmapWrapper getAlbumArt(FileSt file, int desiredSize, int requestId, int position, AlbumArtFetcherListener listener) {
+		final BitmapLruCache cache = this.cache;
+		if (cache == null || file == null)
+			return null;
+		if (file.albumArt != null) {
+			//the cache has already added a reference on our behalf
+			final ReleasableBitmapWrapper bitmap = cache.get(file.albumArt);
+			if (bitmap != null)
+				return bitmap;
 		}
+		enqueue(listener, requestId, desiredSize, position);
 		return null;
 	}
 
 	//Runs on the MAIN thread
 	public void getAlbumArtForFile(int desiredSize, int requestId, AlbumArtFetcherListener listener) {
-		if (handler != null) {
-			//wait before actually trying to fetch the albumart, as this request could
-			//soon be cancelled, for example, in a ListView being scrolled fast
-			handler.sendMessageAtTime(Message.obtain(handler, requestId, desiredSize, 0, listener), SystemClock.uptimeMillis());
-		}
+		//position -1 means the request is always treated as visible
+		enqueue(listener, requestId, desiredSize, -1);
 	}
 
 	//Runs on the MAIN thread
 	public void cancelRequest(int requestId, AlbumArtFetcherListener listener) {
-		if (handler != null)
-			handler.removeMessages(requestId, listener);
+		synchronized (sync) {
+			for (int i = pending.size() - 1; i >= 0; i--) {
+				final Request request = pending.get(i);
+				if (request.requestId == requestId && request.listener == listener)
+					pending.remove(i);
+			}
+			//stale requests already being fetched are abandoned as soon as possible
+			for (int i = running.size() - 1; i >= 0; i--) {
+				final Request request = running.get(i);
+				if (request.requestId == requestId && request.listener == listener) {
+					request.cancelled = true;
+					//do not abort a decoding other requests are waiting for
+					if (request.worker != null && request.waiters == null)
+						request.worker.opts.requestCancelDecode();
+				}
+			}
+		}
 	}
 	
 	//Runs on the MAIN thread
 
 	/**
-	 * Clean the cache and clear the memory allocated
-	 * to the canvas.
+	 * Clean the cache and stop all the threads.
 	 */
 	public void stopAndCleanup() {
+		final BitmapLruCache cache = this.cache;
+		this.cache = null;
 		synchronized (sync) {
-			handler = null;
-			if (cache != null) {
-				cache.evictAll();
-				cache = null;
+			alive = false;
+			pending.clear();
+			for (int i = running.size() - 1; i >= 0; i--) {
+				final Request request = running.get(i);
+				request.cancelled = true;
+				if (request.worker != null)
+					request.worker.opts.requestCancelDecode();
 			}
+			sync.notifyAll();
 		}
-		opts.mCancel = true;
-		tempStorage = null;
-		canvas = null;
-		paint = null;
-		if (looper != null) {
-			looper.quit();
-			looper = null;
-		}
+		if (cache != null)
+			cache.evictAll();
 	}
 }
@@ -100,6 +100,9 @@ public abstract class BaseList<E extends BaseItem> extends BaseAdapter {
 
 	protected void clearingItems() { }
 
+	//the count items that were at from are now at to (the items in between have been shifted)
+	protected void movingItems(int from, int count, int to) { }
+
 	protected void setCapacity(int capacity) {
 		if (capacity >= count && (capacity > items.length || capacity <= (items.length - (2 * LIST_DELTA))))
 			items = Arrays.copyOf(items, capacity + LIST_DELTA);
@@ -134,6 +137,8 @@ public abstract class BaseList<E extends BaseItem> extends BaseAdapter {
 			addingItems(position, 1);
 		//}
 		
+		if (listObserver != null)
+			listObserver.onItemsInserted(position, 1);
 		notifyDataSetChanged(-1, CONTENT_ADDED);
 	}
 
@@ -168,6 +173,8 @@ public abstract class BaseList<E extends BaseItem> extends BaseAdapter {
 			addingItems(position, count);
 		//}
 		
+		if (listObserver != null)
+			listObserver.onItemsInserted(position, count);
 		notifyDataSetChanged(-1, CONTENT_ADDED);
 	}
 
@@ -248,6 +255,8 @@ public abstract class BaseList<E extends BaseItem> extends BaseAdapter {
 			setCapacity(this.count);
 		//}
 
+		if (listObserver != null)
+			listObserver.onItemsRemoved(position, count);
 		notifyDataSetChanged(originalSel, CONTENT_REMOVED);
 
 		if (listener != null && previousOriginalSel != originalSel)
@@ -299,7 +308,10 @@ public abstract class BaseList<E extends BaseItem> extends BaseAdapter {
 			firstSel += delta;
 			lastSel += delta;
 			originalSel = to;
+			movingItems(from, count, from + delta);
 		//}
+		if (listObserver != null)
+			listObserver.onItemsMoved(from, count, from + delta);
 		notifyDataSetChanged(-1, CONTENT_MOVED);
 	}
 
@@ -466,8 +478,12 @@ public abstract class BaseList<E extends BaseItem> extends BaseAdapter {
 	protected void notifyDataSetChanged(int gotoPosition, int whatHappened) {
 		if (observer != null)
 			observer.onChanged();
-		if (listObserver != null && gotoPosition >= 0)
-			listObserver.centerItem(gotoPosition);
+		if (listObserver != null) {
+			if (gotoPosition >= 0)
+				listObserver.centerItem(gotoPosition);
+			else
+				listObserver.restoreAnchor();
+		}
 	}
 
 	public void notifyCheckedChanged() {
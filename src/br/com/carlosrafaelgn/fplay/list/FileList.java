@@ -38,6 +38,8 @@ import android.view.ViewGroup;
 import java.io.File;
 
 import br.com.carlosrafaelgn.fplay.ui.FileView;
+import br.com.carlosrafaelgn.fplay.ui.ScrollAudit;
+import br.com.carlosrafaelgn.fplay.ui.TextLayoutCache;
 import br.com.carlosrafaelgn.fplay.ui.UI;
 
 //
@@ -172,8 +174,15 @@ public final class FileList extends BaseList<FileSt> implements FileFetcher.List
 	
 	@Override
 	public View getView(int position, View convertView, ViewGroup parent) {
+		final long auditStart = ScrollAudit.bindStarted();
 		final FileView view = (FileView)((convertView != null) ? convertView : getActionListener().onCreateView());
 		view.setItemState(items[position], position, getItemState(position), this, albumArtFetcher);
+		//whatever the direction of the scroll, one of these rows is about to become visible
+		if (position >= TextLayoutCache.PREFETCH_DISTANCE)
+			view.prefetchLayout(items[position - TextLayoutCache.PREFETCH_DISTANCE]);
+		if (position + TextLayoutCache.PREFETCH_DISTANCE < count)
+			view.prefetchLayout(items[position + TextLayoutCache.PREFETCH_DISTANCE]);
+		ScrollAudit.bindFinished(auditStart, position);
 		return view;
 	}
 	
@@ -50,6 +50,7 @@ import br.com.carlosrafaelgn.fplay.R;
 import br.com.carlosrafaelgn.fplay.activity.MainHandler;
 import br.com.carlosrafaelgn.fplay.playback.Player;
 import br.com.carlosrafaelgn.fplay.ui.RadioStationView;
+import br.com.carlosrafaelgn.fplay.ui.ScrollAudit;
 import br.com.carlosrafaelgn.fplay.ui.UI;
 import br.com.carlosrafaelgn.fplay.util.ArraySorter;
 import br.com.carlosrafaelgn.fplay.util.Serializer;
@@ -280,14 +281,14 @@ public abstract class RadioStationList extends BaseList<RadioStation> implements
 							if (myVersion == version) {
 								final int count = Math.min(stations.length, MAX_COUNT);
 								System.arraycopy(stations, 0, items, 0, count);
-								MainHandler.sendMessage(this, MSG_MORE_RESULTS, myVersion, count);
+								MainHandler.sendCoalescedMessage(this, MSG_MORE_RESULTS, myVersion, count);
 							}
 						}
 					} catch (Throwable ex) {
 						err = -2;
 					} finally {
 						if (myVersion == version && err < 0)
-							MainHandler.sendMessage(this, MSG_ERROR, myVersion, err);
+							MainHandler.sendCoalescedMessage(this, MSG_ERROR, myVersion, err);
 					}
 				}
 			}
@@ -317,12 +318,12 @@ public abstract class RadioStationList extends BaseList<RadioStation> implements
 
 	protected final void fetchStationsInternalResultsFound(int myVersion, int currentStationIndex, boolean moreResults) {
 		if (myVersion == version)
-			MainHandler.sendMessage(this, MSG_MORE_RESULTS, moreResults ? myVersion : -myVersion, currentStationIndex);
+			MainHandler.sendCoalescedMessage(this, MSG_MORE_RESULTS, moreResults ? myVersion : -myVersion, currentStationIndex);
 	}
 
 	protected final void fetchStationsInternalError(int myVersion, int err) {
 		if (myVersion == version)
-			MainHandler.sendMessage(this, MSG_ERROR, myVersion, err);
+			MainHandler.sendCoalescedMessage(this, MSG_ERROR, myVersion, err);
 	}
 
 	protected abstract void fetchStationsInternal(int myVersion, RadioStationGenre genre, String searchTerm, boolean reset, boolean sendMessages);
@@ -483,8 +484,10 @@ public abstract class RadioStationList extends BaseList<RadioStation> implements
 
 	@Override
 	public final View getView(int position, View convertView, ViewGroup parent) {
+		final long auditStart = ScrollAudit.bindStarted();
 		final RadioStationView view = ((convertView != null) ? (RadioStationView)convertView : new RadioStationView(Player.theApplication));
 		view.setItemState(items[position], position, getItemState(position), this);
+		ScrollAudit.bindFinished(auditStart, position);
 		return view;
 	}
 
@@ -49,21 +49,26 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.text.Collator;
+import java.text.Normalizer;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.Random;
 
 import br.com.carlosrafaelgn.fplay.R;
 import br.com.carlosrafaelgn.fplay.activity.MainHandler;
 import br.com.carlosrafaelgn.fplay.playback.Player;
+import br.com.carlosrafaelgn.fplay.ui.ScrollAudit;
 import br.com.carlosrafaelgn.fplay.ui.SongView;
+import br.com.carlosrafaelgn.fplay.ui.TextLayoutCache;
 import br.com.carlosrafaelgn.fplay.util.ArraySorter;
 import br.com.carlosrafaelgn.fplay.util.ArraySorter.Comparer;
 import br.com.carlosrafaelgn.fplay.util.Serializer;
 import br.com.carlosrafaelgn.fplay.util.TypedRawArrayList;
 
 //All methods of this class MUST BE called from the main thread, except those otherwise noted!!!
-public final class SongList extends BaseList<Song> implements Comparer<Song> {
+public final class SongList extends BaseList<Song> implements Comparer<Song>, BaseList.BaseSectionIndexer {
 	public static final int SORT_BY_TITLE = 0;
 	public static final int SORT_BY_ARTIST = 1;
 	public static final int SORT_BY_ALBUM = 2;
@@ -76,6 +81,8 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 	public static final int REPEAT_NONE = 2;
 
 	private static final int MAX_COUNT = 2048;
+	//the same limit used by FileFetcher
+	private static final int MAX_SECTIONS = 28;
 
 	private static final int MSG_ADD_SONGS = 0x0700;
 	private static final int MSG_FINISHED_ADDING = 0x0701;
@@ -84,6 +91,15 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 	private int currentShuffledItemIndex, shuffledItemsAlreadyPlayed, indexOfPreviouslyDeletedCurrentShuffledItem, sortMode, repeatMode;
 	public boolean selecting, moving, okToTurnOffAfterReachingTheEnd;
 	private Song[] shuffledList;
+	//sectionKeys holds the index letter (code point) of each item, according to sortMode,
+	//and is kept up to date as items are added/removed/moved, so that the sections are
+	//obtained with a simple scan, without ever touching the strings again
+	private int[] sectionKeys, sectionRunStart, sectionRunKey, sectionRunLength;
+	private boolean sectionsDirty;
+	private String[] sections;
+	private int[] sectionPositions;
+	private Collator sectionCollator;
+	private Locale sectionCollatorLocale;
 	public Song possibleNextSong;
 	private static final SongList theSongList = new SongList();
 	
@@ -91,6 +107,7 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 		super(Song.class, MAX_COUNT);
 		this.adding = 0;
 		this.indexOfPreviouslyDeletedCurrentShuffledItem = -1;
+		this.sectionKeys = new int[LIST_DELTA];
 	}
 	
 	public static SongList getInstance() {
@@ -472,7 +489,7 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 							if ((f & 3) == 1) {
 								if (Player.state >= Player.STATE_TERMINATING || SongList.this.count >= MAX_COUNT)
 									break;
-								MainHandler.sendMessage(c, MSG_ADD_SONGS, f, 0);
+								MainHandler.sendCoalescedMessage(c, MSG_ADD_SONGS, f, 0);
 							}
 						}
 					}
@@ -485,7 +502,7 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 							if ((f & 3) == 1) {
 								if (Player.state >= Player.STATE_TERMINATING || SongList.this.count >= MAX_COUNT)
 									break;
-								MainHandler.sendMessage(c, MSG_ADD_SONGS, f, 0);
+								MainHandler.sendCoalescedMessage(c, MSG_ADD_SONGS, f, 0);
 							}
 						}
 					}
@@ -500,7 +517,7 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 							if ((f & 3) == 1) {
 								if (Player.state >= Player.STATE_TERMINATING || SongList.this.count >= MAX_COUNT)
 									break;
-								MainHandler.sendMessage(c, MSG_ADD_SONGS, f, 0);
+								MainHandler.sendCoalescedMessage(c, MSG_ADD_SONGS, f, 0);
 							}
 						}
 					}
@@ -513,14 +530,14 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 							if ((f & 3) == 1) {
 								if (Player.state >= Player.STATE_TERMINATING || SongList.this.count >= MAX_COUNT)
 									break;
-								MainHandler.sendMessage(c, MSG_ADD_SONGS, f, 0);
+								MainHandler.sendCoalescedMessage(c, MSG_ADD_SONGS, f, 0);
 							}
 						}
 					}
 				}
 			}
 			if (Player.state < Player.STATE_TERMINATING)
-				MainHandler.sendMessage(c, MSG_FINISHED_ADDING, f, 0);
+				MainHandler.sendCoalescedMessage(c, MSG_FINISHED_ADDING, f, 0);
 		}
 	}
 
@@ -557,36 +574,70 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 		modificationVersion++;
 	}
 
-	public boolean serialize() {
-		try {
-			if (modificationVersion <= 1) {
-				RandomAccessFile rf = null;
-				try {
-					final File f = Player.theApplication.getFileStreamPath("_List");
+	public static final class Snapshot {
+		private final Song[] songs;
+		private final int count, current;
+
+		private Snapshot(Song[] songs, int count, int current) {
+			this.songs = songs;
+			this.count = count;
+			this.current = current;
+		}
+
+		//Returns a snapshot that writes everything the older one would have written, plus this one
+		public Snapshot mergeWithOlder(Snapshot older) {
+			return ((songs != null || older == null || older.songs == null) ? this : new Snapshot(older.songs, older.count, current));
+		}
+	}
+
+	//Runs on the MAIN thread
+	//Copy-on-write: only the references to the songs are copied here
+	public Snapshot takeSnapshot() {
+		final Snapshot snapshot;
+		if (modificationVersion <= 1) {
+			//only the current song has changed
+			snapshot = new Snapshot(null, 0, current);
+		} else {
+			final Song[] songs = new Song[count];
+			System.arraycopy(items, 0, songs, 0, count);
+			snapshot = new Snapshot(songs, count, current);
+		}
+		modificationVersion = 1;
+		return snapshot;
+	}
+
+	//Runs on ANY thread (but never on more than one thread at a time)
+	//Returns the amount of bytes written
+	public static long writeSnapshot(Snapshot snapshot) throws IOException {
+		if (snapshot.songs == null) {
+			RandomAccessFile rf = null;
+			try {
+				final File f = Player.theApplication.getFileStreamPath("_List");
+				if (f.exists()) {
 					rf = new RandomAccessFile(f, "rw");
 					rf.seek(0);
 					final byte[] buf = new byte[4];
-					Serializer.serializeInt(buf, 0, current);
+					Serializer.serializeInt(buf, 0, snapshot.current);
 					rf.write(buf);
-					modificationVersion = 1;
-					return true;
+					return 4;
+				}
+			} finally {
+				try {
+					if (rf != null)
+						rf.close();
 				} catch (Throwable ex) {
 					ex.printStackTrace();
-				} finally {
-					try {
-						if (rf != null)
-							rf.close();
-					} catch (Throwable ex) {
-						ex.printStackTrace();
-					}
 				}
 			}
-			serialize(current, items, count, "_List");
-			modificationVersion = 1;
-			return true;
-		} catch (Throwable ex) {
-			return false;
+			return 0;
 		}
+		//write the whole list to a temporary file first, so a crash never leaves half a list behind
+		serialize(snapshot.current, snapshot.songs, snapshot.count, "_List.tmp");
+		final File tmp = Player.theApplication.getFileStreamPath("_List.tmp");
+		final long length = tmp.length();
+		if (!tmp.renameTo(Player.theApplication.getFileStreamPath("_List")))
+			throw new IOException("rename failed");
+		return length;
 	}
 
 	private void deserializationEnded(Song[] songs, int current, boolean entireListBeingLoaded, boolean append, boolean play, Throwable ex) {
@@ -747,6 +798,32 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 		return s;
 	}
 
+	//Fills paths with the local songs most likely to be played after the current one (the next
+	//ones, in order, followed by the previous one), and returns how many were found
+	//(in random mode, only the songs that are not chosen randomly are known)
+	public int getNextCandidatePaths(String[] paths) {
+		int found = 0;
+		if (count <= 1 || current < 0 || current >= count)
+			return 0;
+		if (shuffledList != null) {
+			if (possibleNextSong != null && !possibleNextSong.isHttp)
+				paths[found++] = possibleNextSong.path;
+			return found;
+		}
+		for (int i = 1; i < paths.length && i < count && found < paths.length - 1; i++) {
+			final int index = current + i;
+			if (index >= count && repeatMode == REPEAT_NONE)
+				break;
+			final Song s = items[index % count];
+			if (!s.isHttp)
+				paths[found++] = s.path;
+		}
+		final Song s = items[(current == 0) ? (count - 1) : (current - 1)];
+		if (!s.isHttp && found < paths.length)
+			paths[found++] = s.path;
+		return found;
+	}
+
 	public int getRepeatMode() {
 		return repeatMode;
 	}
@@ -841,6 +918,7 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 				}
 			}
 			//don't mess up with suffling as it is not affected by this sorting
+			computeSectionKeys(0, count);
 		//}
 		notifyDataSetChanged(current, CONTENT_MOVED);
 	}
@@ -872,8 +950,129 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 		return r;
 	}
 	
+	private int sectionKeyOf(Song song) {
+		final String text = ((sortMode == SORT_BY_ARTIST) ? song.artist : ((sortMode == SORT_BY_ALBUM) ? song.album : song.title));
+		if (text == null || text.length() == 0)
+			return '#';
+		int c = text.codePointAt(0);
+		if (!Character.isLetter(c))
+			return '#';
+		if (c >= 0x80) {
+			//fold accented letters into their base letters (É -> E), but only when the current
+			//locale also considers them the same letter (Ñ is a letter of its own in Spanish)
+			final String letter = new String(Character.toChars(c));
+			final int base = Normalizer.normalize(letter, Normalizer.Form.NFD).codePointAt(0);
+			if (base != c && Character.isLetter(base)) {
+				final Locale locale = Locale.getDefault();
+				if (sectionCollator == null || !locale.equals(sectionCollatorLocale)) {
+					sectionCollator = Collator.getInstance(locale);
+					sectionCollator.setStrength(Collator.PRIMARY);
+					sectionCollatorLocale = locale;
+				}
+				if (sectionCollator.compare(letter, new String(Character.toChars(base))) == 0)
+					c = base;
+			}
+		}
+		return Character.toUpperCase(c);
+	}
+
+	private void computeSectionKeys(int position, int count) {
+		count += position;
+		for (int i = position; i < count; i++)
+			sectionKeys[i] = sectionKeyOf(items[i]);
+		sectionsDirty = true;
+	}
+
+	private void computeSections() {
+		sectionsDirty = false;
+		if (count == 0) {
+			sections = null;
+			sectionPositions = null;
+			return;
+		}
+		if (sectionRunStart == null || sectionRunStart.length < count) {
+			sectionRunStart = new int[items.length];
+			sectionRunKey = new int[items.length];
+			sectionRunLength = new int[items.length];
+		}
+		final int[] runStart = sectionRunStart, runKey = sectionRunKey, runLength = sectionRunLength;
+		int runCount = 0, last = -1;
+		for (int i = 0; i < count; i++) {
+			if (sectionKeys[i] != last) {
+				last = sectionKeys[i];
+				runStart[runCount] = i;
+				runKey[runCount] = last;
+				runLength[runCount] = 1;
+				runCount++;
+			} else {
+				runLength[runCount - 1]++;
+			}
+		}
+		if (runCount > MAX_SECTIONS) {
+			//keep the first run, plus the longest ones (the list may not even be sorted), in the
+			//same order they appear in the list
+			for (int i = 1; i < MAX_SECTIONS; i++) {
+				int longest = i;
+				for (int j = i + 1; j < runCount; j++) {
+					if (runLength[j] > runLength[longest])
+						longest = j;
+				}
+				if (longest != i) {
+					int t = runStart[i];
+					runStart[i] = runStart[longest];
+					runStart[longest] = t;
+					t = runKey[i];
+					runKey[i] = runKey[longest];
+					runKey[longest] = t;
+					t = runLength[i];
+					runLength[i] = runLength[longest];
+					runLength[longest] = t;
+				}
+			}
+			runCount = MAX_SECTIONS;
+			for (int i = 2; i < runCount; i++) {
+				final int p = runStart[i], k = runKey[i];
+				int j = i - 1;
+				while (j > 0 && p < runStart[j]) {
+					runStart[j + 1] = runStart[j];
+					runKey[j + 1] = runKey[j];
+					j--;
+				}
+				runStart[j + 1] = p;
+				runKey[j + 1] = k;
+			}
+		}
+		if (sections == null || sections.length != runCount) {
+			sections = new String[runCount];
+			sectionPositions = new int[runCount];
+		}
+		for (int i = runCount - 1; i >= 0; i--) {
+			sections[i] = new String(Character.toChars(runKey[i]));
+			sectionPositions[i] = runStart[i];
+		}
+	}
+
+	@Override
+	public String[] getSectionStrings() {
+		if (sectionsDirty)
+			computeSections();
+		return sections;
+	}
+
+	@Override
+	public int[] getSectionPositions() {
+		if (sectionsDirty)
+			computeSections();
+		return sectionPositions;
+	}
+
 	@Override
 	protected void addingItems(int position, int count) {
+		if (sectionKeys.length < this.count)
+			sectionKeys = Arrays.copyOf(sectionKeys, items.length);
+		if (position < (this.count - count))
+			System.arraycopy(sectionKeys, position, sectionKeys, position + count, this.count - count - position);
+		computeSectionKeys(position, count);
 		if (shuffledList == null)
 			return;
 		setShuffledCapacity(this.count);
@@ -891,6 +1090,8 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 	
 	@Override
 	protected void removingItems(int position, int count) {
+		System.arraycopy(sectionKeys, position + count, sectionKeys, position, this.count - position - count);
+		sectionsDirty = true;
 		if (shuffledList == null)
 			return;
 		int shuffledCount = this.count;
@@ -927,8 +1128,21 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 		}
 	}
 	
+	@Override
+	protected void movingItems(int from, int count, int to) {
+		final int[] tmp = new int[count];
+		System.arraycopy(sectionKeys, from, tmp, 0, count);
+		if (to < from)
+			System.arraycopy(sectionKeys, to, sectionKeys, to + count, from - to);
+		else
+			System.arraycopy(sectionKeys, from + count, sectionKeys, from, to - from);
+		System.arraycopy(tmp, 0, sectionKeys, to, count);
+		sectionsDirty = true;
+	}
+
 	@Override
 	protected void clearingItems() {
+		sectionsDirty = true;
 		if (shuffledList == null)
 			return;
 		for (int i = count - 1; i >= 0; i--)
@@ -954,8 +1168,15 @@ public final class SongList extends BaseList<Song> implements Comparer<Song> {
 	
 	@Override
 	public View getView(int position, View convertView, ViewGroup parent) {
+		final long auditStart = ScrollAudit.bindStarted();
 		final SongView view = ((convertView != null) ? (SongView)convertView : new SongView(Player.theApplication));
 		view.setItemState(items[position], position, getItemState(position), this);
+		//whatever the direction of the scroll, one of these rows is about to become visible
+		if (position >= TextLayoutCache.PREFETCH_DISTANCE)
+			view.prefetchLayout(items[position - TextLayoutCache.PREFETCH_DISTANCE]);
+		if (position + TextLayoutCache.PREFETCH_DISTANCE < count)
+			view.prefetchLayout(items[position + TextLayoutCache.PREFETCH_DISTANCE]);
+		ScrollAudit.bindFinished(auditStart, position);
 		return view;
 	}
 	
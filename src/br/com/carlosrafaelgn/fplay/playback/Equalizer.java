@@ -35,6 +35,7 @@ package br.com.carlosrafaelgn.fplay.playback;
 import java.util.Arrays;
 
 import br.com.carlosrafaelgn.fplay.util.SerializableMap;
+import br.com.carlosrafaelgn.fplay.util.SettingsStore;
 
 public final class Equalizer {
 	private static int minBandLevel, maxBandLevel;
@@ -118,7 +119,7 @@ public final class Equalizer {
 		}
 	}
 
-	static void loadConfig(SerializableMap opts) {
+	static void loadConfig(SettingsStore opts) {
 		enabled = opts.getBit(Player.OPTBIT_EQUALIZER_ENABLED);
 		//use the regular enabled flag as the default for the new presets
 		enabled_wire = opts.getBit(Player.OPTBIT_EQUALIZER_ENABLED_WIRE, enabled);
@@ -146,7 +147,7 @@ public final class Equalizer {
 		}
 	}
 
-	static void saveConfig(SerializableMap opts) {
+	static void saveConfig(SettingsStore opts) {
 		opts.putBit(Player.OPTBIT_EQUALIZER_ENABLED, enabled);
 		opts.putBit(Player.OPTBIT_EQUALIZER_ENABLED_WIRE, enabled_wire);
 		opts.putBit(Player.OPTBIT_EQUALIZER_ENABLED_WIRE_MIC, enabled_wire_mic);
@@ -37,17 +37,17 @@ import android.content.Intent;
 import android.media.audiofx.AudioEffect;
 
 import br.com.carlosrafaelgn.fplay.BuildConfig;
-import br.com.carlosrafaelgn.fplay.util.SerializableMap;
+import br.com.carlosrafaelgn.fplay.util.SettingsStore;
 
 public final class ExternalFx {
 	private static boolean enabled, applied, supported;
 
 	@SuppressWarnings({ "PointlessBooleanExpression", "ConstantConditions" })
-	static void loadConfig(SerializableMap opts) {
+	static void loadConfig(SettingsStore opts) {
 		enabled = (!BuildConfig.X && opts.getBit(Player.OPTBIT_EXTERNALFX_ENABLED));
 	}
 
-	static void saveConfig(SerializableMap opts) {
+	static void saveConfig(SettingsStore opts) {
 		opts.putBit(Player.OPTBIT_EXTERNALFX_ENABLED, enabled);
 	}
 
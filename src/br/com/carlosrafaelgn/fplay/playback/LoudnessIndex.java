@@ -0,0 +1,263 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.playback;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+//Persistent index of the static gain (pre-gain) of every track analyzed so far, either read
+//from its ReplayGain tags, or measured by LoudnessAnalyzer.
+//
+//Index format: MAGIC, followed by records, appended in order (later records override earlier ones)
+//  int RECORD_MAGIC, short key length, byte source, byte 0, int gain in millibels, long stamp, key (UTF-8)
+//A torn record at the end of the file (and everything after it) is discarded when the file is
+//opened. Once the file grows beyond MAX_INDEX_LENGTH, and also beyond twice the length of the
+//latest record of each track, those records are written to a temporary file, which then
+//replaces the index.
+//
+//All of its methods are thread-safe.
+public final class LoudnessIndex {
+	private static final int MAGIC = 0x01494C46; //"FLI\1"
+	private static final int RECORD_MAGIC = 0x52494C46; //"FLIR"
+
+	public static final int SOURCE_TAG = 0;
+	public static final int SOURCE_ANALYSIS = 1;
+
+	//returned by getGainInMB() when the track has not been analyzed yet
+	public static final int UNKNOWN = Integer.MIN_VALUE;
+
+	private static final int HEADER_LENGTH = 4 + 2 + 1 + 1 + 4 + 8;
+	private static final int MAX_KEY_LENGTH = 4096;
+	private static final long MAX_INDEX_LENGTH = 1024 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final class Entry {
+		public final long stamp;
+		public final int gainInMB, source;
+
+		public Entry(long stamp, int gainInMB, int source) {
+			this.stamp = stamp;
+			this.gainInMB = gainInMB;
+			this.source = source;
+		}
+	}
+
+	private static LoudnessIndex instance;
+
+	private final File file;
+	private final HashMap<String, Entry> entries;
+	private final ByteBuffer header;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private long indexLength;
+	//length of the latest record of each track (what a compacted file would contain)
+	private long liveLength;
+
+	private LoudnessIndex(File file) {
+		this.file = file;
+		entries = new HashMap<>(256);
+		header = ByteBuffer.allocate(HEADER_LENGTH);
+	}
+
+	public static synchronized LoudnessIndex getInstance() {
+		if (instance == null) {
+			instance = new LoudnessIndex(new File(Player.theApplication.getFilesDir(), "Loudness.idx"));
+			instance.open();
+		}
+		return instance;
+	}
+
+	//The stamp is used to tell whether the file has changed since it was analyzed
+	public static long stampOf(String path) {
+		final File f = new File(path);
+		return (f.lastModified() ^ (f.length() << 20));
+	}
+
+	private void open() {
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			channel = raf.getChannel();
+			final long length = channel.size();
+			if (length < 4 || readInt(0) != MAGIC) {
+				reset();
+				return;
+			}
+			long position = 4;
+			byte[] key = new byte[256];
+			while (position + HEADER_LENGTH <= length) {
+				header.clear();
+				if (!readFully(header, position) || header.getInt(0) != RECORD_MAGIC)
+					break;
+				final int keyLength = header.getShort(4) & 0xFFFF;
+				final long next = position + HEADER_LENGTH + keyLength;
+				if (keyLength == 0 || keyLength > MAX_KEY_LENGTH || next > length)
+					break;
+				if (key.length < keyLength)
+					key = new byte[keyLength];
+				if (!readFully(ByteBuffer.wrap(key, 0, keyLength), position + HEADER_LENGTH))
+					break;
+				if (entries.put(new String(key, 0, keyLength, UTF8), new Entry(header.getLong(12), header.getInt(8), header.get(6))) == null)
+					liveLength += HEADER_LENGTH + keyLength;
+				position = next;
+			}
+			indexLength = position;
+			if (position != length)
+				channel.truncate(position);
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+			close();
+		}
+	}
+
+	private void close() {
+		try {
+			if (raf != null)
+				raf.close();
+		} catch (Throwable ex) {
+			//just ignore
+		}
+		raf = null;
+		channel = null;
+	}
+
+	private void reset() throws Exception {
+		channel.truncate(0);
+		header.clear();
+		header.putInt(MAGIC);
+		header.flip();
+		channel.write(header, 0);
+		indexLength = 4;
+	}
+
+	private int readInt(long position) throws Exception {
+		header.clear();
+		header.limit(4);
+		return (readFully(header, position) ? header.getInt(0) : 0);
+	}
+
+	private boolean readFully(ByteBuffer buffer, long position) throws Exception {
+		while (buffer.hasRemaining()) {
+			final int r = channel.read(buffer, position);
+			if (r < 0)
+				return false;
+			position += r;
+		}
+		return true;
+	}
+
+	private void append(String key, Entry entry) throws Exception {
+		final byte[] k = key.getBytes(UTF8);
+		if (k.length == 0 || k.length > MAX_KEY_LENGTH)
+			return;
+		header.clear();
+		header.putInt(RECORD_MAGIC);
+		header.putShort((short)k.length);
+		header.put((byte)entry.source);
+		header.put((byte)0);
+		header.putInt(entry.gainInMB);
+		header.putLong(entry.stamp);
+		header.flip();
+		channel.position(indexLength);
+		final ByteBuffer[] buffers = new ByteBuffer[] { header, ByteBuffer.wrap(k) };
+		long remaining = HEADER_LENGTH + k.length;
+		while (remaining > 0)
+			remaining -= channel.write(buffers);
+		indexLength += HEADER_LENGTH + k.length;
+	}
+
+	private void compact() throws Exception {
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		final RandomAccessFile oldRaf = raf;
+		final long oldLength = indexLength;
+		raf = new RandomAccessFile(tmpFile, "rw");
+		channel = raf.getChannel();
+		try {
+			reset();
+			for (Map.Entry<String, Entry> e : entries.entrySet())
+				append(e.getKey(), e.getValue());
+			channel.force(false);
+			//rename() is atomic: either the old or the new index will be there, never half of each
+			if (!tmpFile.renameTo(file))
+				throw new IOException("rename failed");
+		} catch (Exception ex) {
+			//go back to the old index (the caller decides what to do next)
+			close();
+			raf = oldRaf;
+			channel = oldRaf.getChannel();
+			indexLength = oldLength;
+			tmpFile.delete();
+			throw ex;
+		}
+		try {
+			oldRaf.close();
+		} catch (Throwable ex) {
+			//just ignore
+		}
+	}
+
+	public synchronized int getCount() {
+		return entries.size();
+	}
+
+	//Returns UNKNOWN if the track has not been analyzed yet (or if it has changed since then)
+	public synchronized int getGainInMB(String path, long stamp) {
+		final Entry entry = entries.get(path);
+		return ((entry == null || entry.stamp != stamp) ? UNKNOWN : entry.gainInMB);
+	}
+
+	public synchronized void putGainInMB(String path, long stamp, int gainInMB, int source) {
+		final Entry entry = new Entry(stamp, gainInMB, source);
+		if (entries.put(path, entry) == null)
+			liveLength += HEADER_LENGTH + path.getBytes(UTF8).length;
+		if (channel == null)
+			return;
+		try {
+			//compacting only when at least half of the file is garbage keeps the total cost of
+			//the rewrites proportional to the amount of records appended
+			if (indexLength > MAX_INDEX_LENGTH && indexLength > ((4 + liveLength) << 1))
+				compact();
+			else
+				append(path, entry);
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+			close();
+		}
+	}
+}
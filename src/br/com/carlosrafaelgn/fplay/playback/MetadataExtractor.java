@@ -309,6 +309,103 @@ public final class MetadataExtractor {
 		return null;
 	}
 	
+	private static float parseReplayGainValue(String value) {
+		//"-6.48 dB", "+1.20 dB", "0.988553"... (UTF-16 values may also start with their own BOM)
+		int start = 0;
+		while (start < value.length()) {
+			final char c = value.charAt(start);
+			if ((c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+')
+				break;
+			start++;
+		}
+		int end = start;
+		while (end < value.length()) {
+			final char c = value.charAt(end);
+			if ((c < '0' || c > '9') && c != '.' && c != '-' && c != '+')
+				break;
+			end++;
+		}
+		try {
+			return ((end == start) ? Float.NaN : Float.parseFloat(value.substring(start, end)));
+		} catch (Throwable ex) {
+			return Float.NaN;
+		}
+	}
+
+	@SuppressWarnings("ResultOfMethodCallIgnored")
+	private static float[] extractID3v2ReplayGain(BufferedInputStream f, byte[][] tmpPtr) throws IOException {
+		final int hdr = (f.read() << 16) | (f.read() << 8) | f.read();
+		if (hdr != 0x00494433) //ID3
+			return null;
+		final int version = f.read();
+		final int hdrRev = f.read();
+		final int flags = f.read();
+		final int sizeBytes0 = f.read();
+		final int sizeBytes1 = f.read();
+		final int sizeBytes2 = f.read();
+		final int sizeBytes3 = f.read();
+		int size = (
+			(sizeBytes3 & 0x7f) |
+			((sizeBytes2 & 0x7f) << 7) |
+			((sizeBytes1 & 0x7f) << 14) |
+			((sizeBytes0 & 0x7f) << 21)
+		);
+		if (version < 3 || hdrRev != 0 || (flags & 0x40) != 0) //only rev 3 or greater, without extended header, supported
+			return null;
+		float gain = Float.NaN, peak = Float.NaN;
+		while (size > 0) {
+			final int frameId = (f.read() << 24) | (f.read() << 16) | (f.read() << 8) | f.read();
+			final int b0 = f.read(), b1 = f.read(), b2 = f.read(), b3 = f.read();
+			//ID3v2.4 frame sizes are synchsafe integers, ID3v2.3 ones are not
+			final int frameSize = ((version >= 4) ?
+				((b3 & 0x7f) | ((b2 & 0x7f) << 7) | ((b1 & 0x7f) << 14) | ((b0 & 0x7f) << 21)) :
+				((b0 << 24) | (b1 << 16) | (b2 << 8) | b3));
+			f.skip(2);
+			if (frameId == 0 || frameSize <= 0 || frameSize > size)
+				break;
+			if (frameId == 0x54585858) { //user defined text - TXXX
+				//description and value are separated by a null character
+				final String txxx = readV2Frame(f, frameSize, tmpPtr);
+				final int separator;
+				if (txxx != null && (separator = txxx.indexOf('\u0000')) > 0) {
+					final String description = txxx.substring(0, separator);
+					if (description.equalsIgnoreCase("REPLAYGAIN_TRACK_GAIN"))
+						gain = parseReplayGainValue(txxx.substring(separator + 1));
+					else if (description.equalsIgnoreCase("REPLAYGAIN_TRACK_PEAK"))
+						peak = parseReplayGainValue(txxx.substring(separator + 1));
+				}
+			} else {
+				f.skip(frameSize);
+			}
+			size -= (10 + frameSize);
+		}
+		return (Float.isNaN(gain) ? null : new float[] { gain, peak });
+	}
+
+	//Returns { track gain in dB, track peak (NaN if absent) }, or null if the file has no
+	//ReplayGain tags (only ID3v2 TXXX frames are supported for now, just like extract())
+	public static float[] extractReplayGain(String path, byte[][] tmpPtr) {
+		if (!path.regionMatches(true, path.length() - 4, ".mp3", 0, 4) &&
+			!path.regionMatches(true, path.length() - 4, ".aac", 0, 4))
+			return null;
+		BufferedInputStream bufferedInputStream = null;
+		try {
+			bufferedInputStream = new BufferedInputStream(new FileInputStream(path), 32768);
+			return extractID3v2ReplayGain(bufferedInputStream, tmpPtr);
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+		} finally {
+			if (bufferedInputStream != null) {
+				try {
+					bufferedInputStream.close();
+				} catch (Throwable ex) {
+					ex.printStackTrace();
+				}
+			}
+		}
+		return null;
+	}
+
 	public static String[] extract(FileSt file, byte[][] tmpPtr) {
 		//the only two formats supported for now... I hope to add ogg soon ;)
 		if (!file.path.regionMatches(true, file.path.length() - 4, ".mp3", 0, 4) &&
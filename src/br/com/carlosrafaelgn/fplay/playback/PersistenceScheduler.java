@@ -0,0 +1,279 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.playback;
+
+import android.os.Message;
+import android.os.SystemClock;
+
+import br.com.carlosrafaelgn.fplay.activity.MainHandler;
+import br.com.carlosrafaelgn.fplay.list.SongList;
+import br.com.carlosrafaelgn.fplay.util.SettingsStore;
+
+//Keeps disk I/O off the main thread: save requests are debounced and coalesced on the main
+//thread, where the snapshots are taken (cheap, as only references and primitives are copied),
+//and the snapshots are then written by the "Persistence Thread"
+public final class PersistenceScheduler implements MainHandler.Callback, Runnable {
+	public static final int SAVE_SETTINGS = 0x01;
+	public static final int SAVE_SONG_LIST = 0x02;
+
+	private static final int MSG_SAVE = 0x0A00;
+
+	//wait for things to calm down for this long...
+	private static final int DEBOUNCE_MS = 1500;
+	//...but never for longer than this
+	private static final int MAX_DELAY_MS = 10000;
+
+	private static final PersistenceScheduler scheduler = new PersistenceScheduler();
+
+	private final Object sync;
+	private int pendingRequests;
+	private boolean messageSent, threadAlive, writing;
+	private long firstRequestTime, lastRequestTime;
+	//jobs waiting to be written by the thread
+	private SettingsStore pendingSettings;
+	private SongList.Snapshot pendingSongList;
+	//a list that could not be written (its snapshot reset the list's modification version,
+	//so it must be written again, along with the next snapshot, at the next save point)
+	private SongList.Snapshot failedSongList;
+
+	//metrics
+	private volatile int writeCount, failureCount, requestCount, lastLatencyMS, maxLatencyMS;
+	private volatile long bytesWritten, totalLatencyMS;
+
+	private PersistenceScheduler() {
+		sync = new Object();
+	}
+
+	//Runs on ANY thread
+	public static void requestSave(int what) {
+		scheduler.request(what);
+	}
+
+	//Runs on the MAIN thread
+	//Writes everything that has been requested so far, and waits for it to be written
+	public static void flush() {
+		scheduler.flushNow();
+	}
+
+	public static int getWriteCount() {
+		return scheduler.writeCount;
+	}
+
+	public static int getFailureCount() {
+		return scheduler.failureCount;
+	}
+
+	//How many requests were received (the difference between this and getWriteCount() is what coalescing saved)
+	public static int getRequestCount() {
+		return scheduler.requestCount;
+	}
+
+	public static long getBytesWritten() {
+		return scheduler.bytesWritten;
+	}
+
+	public static int getLastLatencyMS() {
+		return scheduler.lastLatencyMS;
+	}
+
+	public static int getMaxLatencyMS() {
+		return scheduler.maxLatencyMS;
+	}
+
+	public static int getAverageLatencyMS() {
+		final int count = scheduler.writeCount;
+		return ((count <= 0) ? 0 : (int)(scheduler.totalLatencyMS / count));
+	}
+
+	private void request(int what) {
+		synchronized (sync) {
+			requestCount++;
+			final long now = SystemClock.uptimeMillis();
+			if (pendingRequests == 0)
+				firstRequestTime = now;
+			lastRequestTime = now;
+			pendingRequests |= what;
+			if (messageSent)
+				return;
+			messageSent = true;
+		}
+		MainHandler.sendMessageAtTime(this, MSG_SAVE, 0, 0, SystemClock.uptimeMillis() + DEBOUNCE_MS);
+	}
+
+	//Runs on the MAIN thread
+	private void takeSnapshots(int what) {
+		if ((what & SAVE_SETTINGS) != 0) {
+			final SettingsStore config = Player.getConfig();
+			if (config != null) {
+				synchronized (sync) {
+					//a pending snapshot has not been written yet, so it is still consistent with the file
+					if (pendingSettings == null)
+						pendingSettings = config;
+				}
+			}
+		}
+		final SongList.Snapshot snapshot = (((what & SAVE_SONG_LIST) != 0) ? Player.songs.takeSnapshot() : null);
+		synchronized (sync) {
+			SongList.Snapshot older = failedSongList;
+			failedSongList = null;
+			if (pendingSongList != null)
+				older = pendingSongList.mergeWithOlder(older);
+			pendingSongList = ((snapshot != null) ? snapshot.mergeWithOlder(older) : older);
+		}
+		synchronized (sync) {
+			if (!threadAlive && (pendingSettings != null || pendingSongList != null)) {
+				threadAlive = true;
+				(new Thread(this, "Persistence Thread")).start();
+			}
+			sync.notifyAll();
+		}
+	}
+
+	private void flushNow() {
+		final int what;
+		synchronized (sync) {
+			what = pendingRequests;
+			pendingRequests = 0;
+			messageSent = false;
+		}
+		MainHandler.removeMessages(this, MSG_SAVE);
+		takeSnapshots(what);
+		synchronized (sync) {
+			while (threadAlive) {
+				try {
+					sync.wait(100);
+				} catch (InterruptedException ex) {
+					//ignore the interruptions
+				}
+			}
+		}
+		//just in case the thread died before writing everything, write what is left ourselves
+		run();
+	}
+
+	@Override
+	public boolean handleMessage(Message msg) {
+		if (msg.what != MSG_SAVE)
+			return true;
+		final int what;
+		synchronized (sync) {
+			final long now = SystemClock.uptimeMillis();
+			final long deadline = Math.min(lastRequestTime + DEBOUNCE_MS, firstRequestTime + MAX_DELAY_MS);
+			if (deadline > now) {
+				//more requests arrived in the meantime
+				MainHandler.sendMessageAtTime(this, MSG_SAVE, 0, 0, deadline);
+				return true;
+			}
+			what = pendingRequests;
+			pendingRequests = 0;
+			messageSent = false;
+		}
+		//after the service has been stopped, flush() has already written everything there was to be written
+		if (Player.state == Player.STATE_ALIVE)
+			takeSnapshots(what);
+		return true;
+	}
+
+	@Override
+	public void run() {
+		for (; ; ) {
+			final SettingsStore settings;
+			final SongList.Snapshot songList;
+			synchronized (sync) {
+				settings = pendingSettings;
+				songList = pendingSongList;
+				pendingSettings = null;
+				pendingSongList = null;
+				if (settings == null && songList == null) {
+					threadAlive = false;
+					sync.notifyAll();
+					return;
+				}
+				if (writing) {
+					//flushNow() and the thread must not write at the same time
+					pendingSettings = settings;
+					pendingSongList = songList;
+					try {
+						sync.wait(10);
+					} catch (InterruptedException ex) {
+						//ignore the interruptions
+					}
+					continue;
+				}
+				writing = true;
+			}
+			try {
+				final long start = SystemClock.uptimeMillis();
+				long bytes = 0;
+				boolean success = true;
+				if (settings != null) {
+					//the snapshot is taken here (not on the main thread) because the main thread
+					//may keep changing the store while the previous snapshot is being written
+					final SettingsStore snapshot = settings.takeSnapshot();
+					final boolean ok = snapshot.commit();
+					settings.snapshotCommitted(snapshot, ok);
+					if (ok)
+						bytes += snapshot.getLastCommitLength();
+					success = ok;
+				}
+				if (songList != null) {
+					try {
+						bytes += SongList.writeSnapshot(songList);
+					} catch (Throwable ex) {
+						ex.printStackTrace();
+						success = false;
+						synchronized (sync) {
+							failedSongList = songList.mergeWithOlder(failedSongList);
+						}
+					}
+				}
+				final int latency = (int)(SystemClock.uptimeMillis() - start);
+				if (success) {
+					writeCount++;
+					bytesWritten += bytes;
+					lastLatencyMS = latency;
+					if (maxLatencyMS < latency)
+						maxLatencyMS = latency;
+					totalLatencyMS += latency;
+				} else {
+					failureCount++;
+				}
+			} finally {
+				synchronized (sync) {
+					writing = false;
+					sync.notifyAll();
+				}
+			}
+		}
+	}
+}
@@ -83,12 +83,12 @@ import br.com.carlosrafaelgn.fplay.activity.MainHandler;
 import br.com.carlosrafaelgn.fplay.list.FileSt;
 import br.com.carlosrafaelgn.fplay.list.Song;
 import br.com.carlosrafaelgn.fplay.list.SongList;
+import br.com.carlosrafaelgn.fplay.playback.context.LoudnessAnalyzer;
 import br.com.carlosrafaelgn.fplay.playback.context.MediaContext;
 import br.com.carlosrafaelgn.fplay.playback.context.MediaPlayerBase;
-import br.com.carlosrafaelgn.fplay.ui.BgListView;
 import br.com.carlosrafaelgn.fplay.ui.UI;
 import br.com.carlosrafaelgn.fplay.util.ArraySorter;
-import br.com.carlosrafaelgn.fplay.util.SerializableMap;
+import br.com.carlosrafaelgn.fplay.util.SettingsStore;
 import br.com.carlosrafaelgn.fplay.util.TypedRawArrayList;
 import br.com.carlosrafaelgn.fplay.visualizer.BluetoothVisualizerControllerJni;
 
@@ -188,6 +188,7 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 	private static final int MSG_SET_BUFFER_CONFIG = 0x0120;
 	private static final int MSG_ENABLE_AUTOMATIC_EFFECTS_GAIN = 0x0121;
 	private static final int MSG_ENABLE_RESAMPLING = 0x0122;
+	private static final int MSG_ENABLE_HQ_RESAMPLING = 0x0123;
 
 	public static final int STATE_NEW = 0;
 	public static final int STATE_INITIALIZING = 1;
@@ -402,6 +403,9 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 			case MSG_ENABLE_RESAMPLING:
 				MediaContext._enableResampling(msg.arg1 != 0);
 				break;
+			case MSG_ENABLE_HQ_RESAMPLING:
+				MediaContext._enableHighQualityResampling(msg.arg1 != 0);
+				break;
 			}
 		}
 	}
@@ -433,6 +437,7 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 					break;
 				case STATE_INITIALIZING_STEP2:
 					state = STATE_ALIVE;
+					StartupTrace.alive();
 					handler.sendMessageAtTime(Message.obtain(handler, MSG_SONG_LIST_DESERIALIZED, localSong), SystemClock.uptimeMillis());
 					handler.sendMessageAtTime(Message.obtain(handler, MSG_OVERRIDE_VOLUME_MULTIPLIER, (volumeControlType != VOLUME_CONTROL_DB && volumeControlType != VOLUME_CONTROL_PERCENT) ? 1 : 0, 0), SystemClock.uptimeMillis());
 					setTurnOffTimer(turnOffTimerSelectedMinutes);
@@ -524,6 +529,7 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 	public static boolean startService() {
 		final boolean stateNew = (state == STATE_NEW);
 		if (stateNew) {
+			StartupTrace.started();
 			MainHandler.initialize();
 			positionToCenter = -1;
 			state = STATE_INITIALIZING;
@@ -536,6 +542,7 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 			destroyedObservers = new TypedRawArrayList<>(PlayerDestroyedObserver.class, 4);
 			stickyBroadcast = new Intent();
 			loadConfig();
+			StartupTrace.configLoaded();
 		}
 		//when the player starts from the widget, startService is not called twice, it is
 		//called only once, from within onCreate, when thePlayer is already != null
@@ -577,6 +584,11 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 					Looper.prepare();
 					looper = Looper.myLooper();
 					handler = new CoreHandler();
+					//the main thread is released as soon as handler is set, so the settings of
+					//the effects are loaded here, while the main thread creates the first activity
+					//(nothing outside this thread touches them before STATE_ALIVE)
+					_loadEffectsConfig();
+					StartupTrace.effectsLoaded();
 					_initializePlayers();
 					Equalizer._checkSupport();
 					BassBoost._checkSupport();
@@ -620,6 +632,8 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 
 		looper.quit();
 
+		LoudnessAnalyzer.stop();
+
 		try {
 			thread.join();
 		} catch (Throwable ex) {
@@ -645,6 +659,8 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 				thePlayer.getApplicationContext().unregisterReceiver(externalReceiver);
 			saveConfig(true);
 		}
+		//this is the last chance we have to write everything
+		PersistenceScheduler.flush();
 
 		updateState(~0x27, new Object[] { null, null, null });
 
@@ -696,6 +712,19 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 			return false;
 		localSong = songs.getSongAndSetCurrent(how);
 		final Song[] songArray = new Song[] { localSong, songs.possibleNextSong };
+		if (BuildConfig.X) {
+			final String[] paths = new String[4];
+			final int count = songs.getNextCandidatePaths(paths);
+			if (count > 0) {
+				MediaContext.prefetchHeads(paths);
+				//analyze the songs most likely to be played next, so that they are already
+				//normalized the first time they are played
+				if (loudnessNormalization && LoudnessAnalyzer.isSupported()) {
+					for (int i = 0; i < count; i++)
+						LoudnessAnalyzer.enqueue(paths[i]);
+				}
+			}
+		}
 		songs.possibleNextSong = null;
 		postPlayPending = true;
 		handler.sendMessageAtTime(Message.obtain(handler, MSG_POST_PLAY, how, 0, songArray), SystemClock.uptimeMillis());
@@ -1106,12 +1135,18 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 			storedSongTime = player.getCurrentPosition();
 	}
 
+	private static int _getPreGainInMB(Song song) {
+		//the pre-gain is only applied to local files, by the native MediaContext
+		return ((loudnessNormalization && !song.isHttp && LoudnessAnalyzer.isSupported()) ? LoudnessAnalyzer.getPreGainInMB(song.path) : 0);
+	}
+
 	private static void _prepareNextPlayer(Song song) {
 		try {
 			if (song == nextSongScheduledForPreparation && nextPlayer != null) {
 				//Even though it happens very rarely, a few devices will freeze and produce an ANR
 				//when calling setDataSource from the main thread :(
 				nextPlayer.setDataSource(nextSongScheduledForPreparation.path);
+				nextPlayer.setPreGainInMB(_getPreGainInMB(nextSongScheduledForPreparation));
 				//I decided to stop calling prepareAsync for files
 				nextPlayerState = PLAYER_STATE_PREPARING;
 				nextPlayer.setOnPreparedListener(null);
@@ -1261,6 +1296,10 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 				//Even though it happens very rarely, a few devices will freeze and produce an ANR
 				//when calling setDataSource from the main thread :(
 				player.setDataSource(song.path);
+				player.setPreGainInMB(_getPreGainInMB(song));
+				//give the analyzer a head start on the next song
+				if (nextSong != null)
+					_getPreGainInMB(nextSong);
 				if (song.isHttp) {
 					//http songs are handled by the player in X mode
 					player.setOnPreparedListener(thePlayer);
@@ -1813,6 +1852,12 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 	public static final int FILL_THRESHOLD_100 = 0x00;
 	public static final int FILL_THRESHOLD_MASK = 0xF0;
 
+	public static final int DECODE_AHEAD_250MS = 0x100;
+	public static final int DECODE_AHEAD_500MS = 0x000;
+	public static final int DECODE_AHEAD_1000MS = 0x200;
+	public static final int DECODE_AHEAD_2000MS = 0x300;
+	public static final int DECODE_AHEAD_MASK = 0xF00;
+
 	public static final int FEATURE_PROCESSOR_ARM = 0x0001;
 	public static final int FEATURE_PROCESSOR_NEON = 0x0002;
 	public static final int FEATURE_PROCESSOR_X86 = 0x0004;
@@ -1864,6 +1909,16 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 		handler.sendMessageAtTime(Message.obtain(handler, MSG_ENABLE_RESAMPLING, enabled ? 1 : 0, 0), SystemClock.uptimeMillis());
 	}
 
+	public static boolean isHighQualityResamplingEnabled() {
+		return MediaContext.isHighQualityResamplingEnabled();
+	}
+
+	public static void enableHighQualityResampling(boolean enabled) {
+		if (state != STATE_ALIVE)
+			return;
+		handler.sendMessageAtTime(Message.obtain(handler, MSG_ENABLE_HQ_RESAMPLING, enabled ? 1 : 0, 0), SystemClock.uptimeMillis());
+	}
+
 	private static int httpStreamReceiverVersion, httpOptions;
 	private static HttpStreamReceiver httpStreamReceiver;
 
@@ -2261,6 +2316,9 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 	static final int OPTBIT_BASSBOOST_ENABLED_WIRE_MIC = 61;
 	static final int OPTBIT_VIRTUALIZER_ENABLED_WIRE_MIC = 62;
 	private static final int OPTBIT_DISPLAY_SONG_NUMBER_AND_COUNT = 63;
+	private static final int OPTBIT_FLOAT_PIPELINE = 64;
+	private static final int OPTBIT_HQ_RESAMPLING = 65;
+	private static final int OPTBIT_LOUDNESS_NORMALIZATION = 66;
 
 	private static final int OPT_FAVORITEFOLDER0 = 0x10000;
 
@@ -2272,18 +2330,25 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 	private static PendingIntent intentActivityHost, intentPrevious, intentPlayPause, intentNext, intentExit;
 	private static int headsetHookActions, headsetHookPressCount, telephonyFeatureState;
 	public static String path, originalPath, radioSearchTerm;
-	public static boolean lastRadioSearchWasByGenre, nextPreparationEnabled, doNotAttenuateVolume, clearListWhenPlayingFolders, controlMode, bassBoostMode, handleCallKey, playWhenHeadsetPlugged, goBackWhenPlayingFolders, turnOffWhenPlaylistEnds, followCurrentSong, announceCurrentSong;
+	public static boolean lastRadioSearchWasByGenre, nextPreparationEnabled, doNotAttenuateVolume, clearListWhenPlayingFolders, controlMode, bassBoostMode, handleCallKey, playWhenHeadsetPlugged, goBackWhenPlayingFolders, turnOffWhenPlaylistEnds, followCurrentSong, announceCurrentSong, loudnessNormalization;
 	public static int radioLastGenre, radioLastGenreShoutcast, fadeInIncrementOnFocus, fadeInIncrementOnPause, fadeInIncrementOnOther, turnOffTimerCustomMinutes, turnOffTimerSelectedMinutes, idleTurnOffTimerCustomMinutes, idleTurnOffTimerSelectedMinutes;
 	public static Object radioStationCache, radioStationCacheShoutcast;
 
-	public static SerializableMap loadConfigFromFile() {
-		final SerializableMap opts = SerializableMap.deserialize("_Player");
-		return ((opts == null) ? new SerializableMap() : opts);
+	private static SettingsStore config;
+	private static int savedFavoriteFolderCount;
+
+	static SettingsStore getConfig() {
+		return config;
+	}
+
+	public static SettingsStore loadConfigFromFile() {
+		return SettingsStore.load("_Player");
 	}
 
 	@SuppressWarnings({ "PointlessBooleanExpression", "ConstantConditions" })
 	private static void loadConfig() {
-		final SerializableMap opts = loadConfigFromFile();
+		final SettingsStore opts = loadConfigFromFile();
+		config = opts;
 		UI.lastVersionCode = opts.getInt(OPT_LASTVERSIONCODE, 0);
 		volumeDB = opts.getInt(OPT_VOLUME);
 		if (volumeDB < VOLUME_MIN_DB)
@@ -2380,8 +2445,6 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 		doNotAttenuateVolume = opts.getBit(OPTBIT_DO_NOT_ATTENUATE_VOLUME);
 		UI.scrollBarToTheLeft = opts.getBit(OPTBIT_SCROLLBAR_TO_THE_LEFT);
 		UI.songListScrollBarType = (opts.getBitI(OPTBIT_SCROLLBAR_SONGLIST1, 0) << 1) | opts.getBitI(OPTBIT_SCROLLBAR_SONGLIST0, UI.isTV ? 0 : 1);
-		if (UI.songListScrollBarType == BgListView.SCROLLBAR_INDEXED)
-			UI.songListScrollBarType = BgListView.SCROLLBAR_LARGE;
 		UI.browserScrollBarType = (opts.getBitI(OPTBIT_SCROLLBAR_BROWSER1, UI.isTV ? 0 : 1) << 1) | opts.getBitI(OPTBIT_SCROLLBAR_BROWSER0, 0);
 		lastRadioSearchWasByGenre = opts.getBit(OPTBIT_LASTRADIOSEARCHWASBYGENRE, true);
 		UI.expandSeekBar = ((UI.lastVersionCode >= 87) && opts.getBit(OPTBIT_EXPANDSEEKBAR));
@@ -2397,13 +2460,17 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 		UI.playWithLongPress = opts.getBit(OPTBIT_PLAY_WITH_LONG_PRESS, true);
 		MediaContext._enableAutomaticEffectsGain(opts.getBitI(OPTBIT_AUTOMATIC_EFFECTS_GAIN, 1));
 		MediaContext.useOpenSLEngine = opts.getBit(OPTBIT_USE_OPENSL_ENGINE);
+		MediaContext.useFloatPipeline = opts.getBit(OPTBIT_FLOAT_PIPELINE);
 		MediaContext._enableResampling(opts.getBit(OPTBIT_RESAMPLING_ENABLED));
+		MediaContext._enableHighQualityResampling(opts.getBit(OPTBIT_HQ_RESAMPLING));
+		loudnessNormalization = opts.getBit(OPTBIT_LOUDNESS_NORMALIZATION);
 		previousResetsAfterTheBeginning = opts.getBit(OPTBIT_PREVIOUS_RESETS_AFTER_THE_BEGINNING);
 		UI.largeTextIs22sp = opts.getBit(OPTBIT_LARGE_TEXT_IS_22SP, UI.isLargeScreen && (UI.scaledDensity > UI.density));
 		UI.setUsingAlternateTypefaceAndForcedLocale(opts.getBit(OPTBIT_USEALTERNATETYPEFACE), opts.getInt(OPT_FORCEDLOCALE, UI.LOCALE_NONE));
 		UI.displaySongNumberAndCount = opts.getBit(OPTBIT_DISPLAY_SONG_NUMBER_AND_COUNT, UI.lastVersionCode < 92);
 
 		int count = opts.getInt(OPT_FAVORITEFOLDERCOUNT);
+		savedFavoriteFolderCount = count;
 		if (count > 0) {
 			if (count > 128)
 				count = 128;
@@ -2418,6 +2485,11 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 				favoriteFolders.clear();
 			favoriteFolders = null;
 		}
+	}
+
+	@SuppressWarnings({ "PointlessBooleanExpression", "ConstantConditions" })
+	private static void _loadEffectsConfig() {
+		final SettingsStore opts = config;
 		Equalizer.loadConfig(opts);
 		BassBoost.loadConfig(opts);
 		Virtualizer.loadConfig(opts);
@@ -2426,8 +2498,13 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 	}
 
 	@SuppressWarnings({ "PointlessBooleanExpression", "ConstantConditions" })
+	//The values are only stored in memory here: PersistenceScheduler writes them in background
+	//(use PersistenceScheduler.flush() to make sure everything has been written)
 	public static void saveConfig(boolean saveSongs) {
-		final SerializableMap opts = new SerializableMap(96);
+		//only the values that have actually changed since the last time are written
+		if (config == null)
+			config = loadConfigFromFile();
+		final SettingsStore opts = config;
 		opts.put(OPT_LASTVERSIONCODE, UI.VERSION_CODE);
 		opts.put(OPT_VOLUME, volumeDB);
 		opts.put(OPT_PATH, path);
@@ -2504,13 +2581,18 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 		opts.putBit(OPTBIT_PLAY_WITH_LONG_PRESS, UI.playWithLongPress);
 		opts.putBit(OPTBIT_AUTOMATIC_EFFECTS_GAIN, MediaContext.isAutomaticEffectsGainEnabled() != 0);
 		opts.putBit(OPTBIT_USE_OPENSL_ENGINE, MediaContext.useOpenSLEngine);
+		opts.putBit(OPTBIT_FLOAT_PIPELINE, MediaContext.useFloatPipeline);
 		opts.putBit(OPTBIT_RESAMPLING_ENABLED, MediaContext.isResamplingEnabled());
+		opts.putBit(OPTBIT_HQ_RESAMPLING, MediaContext.isHighQualityResamplingEnabled());
+		opts.putBit(OPTBIT_LOUDNESS_NORMALIZATION, loudnessNormalization);
 		opts.putBit(OPTBIT_PREVIOUS_RESETS_AFTER_THE_BEGINNING, previousResetsAfterTheBeginning);
 		opts.putBit(OPTBIT_CHROMEBOOK, UI.isChromebook);
 		opts.putBit(OPTBIT_LARGE_TEXT_IS_22SP, UI.largeTextIs22sp);
 		opts.putBit(OPTBIT_DISPLAY_SONG_NUMBER_AND_COUNT, UI.displaySongNumberAndCount);
+		int favoriteFolderCount = 0;
 		if (favoriteFolders != null && favoriteFolders.size() > 0) {
-			opts.put(OPT_FAVORITEFOLDERCOUNT, favoriteFolders.size());
+			favoriteFolderCount = favoriteFolders.size();
+			opts.put(OPT_FAVORITEFOLDERCOUNT, favoriteFolderCount);
 			int i = 0;
 			for (String f : favoriteFolders) {
 				opts.put(OPT_FAVORITEFOLDER0 + i, f);
@@ -2519,14 +2601,16 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 		} else {
 			opts.put(OPT_FAVORITEFOLDERCOUNT, 0);
 		}
+		//the store is not rebuilt from scratch anymore, so the folders that were removed must be removed explicitly
+		for (int i = favoriteFolderCount; i < savedFavoriteFolderCount; i++)
+			opts.remove(OPT_FAVORITEFOLDER0 + i);
+		savedFavoriteFolderCount = favoriteFolderCount;
 		Equalizer.saveConfig(opts);
 		BassBoost.saveConfig(opts);
 		Virtualizer.saveConfig(opts);
 		if (!BuildConfig.X)
 			ExternalFx.saveConfig(opts);
-		opts.serialize("_Player");
-		if (saveSongs)
-			songs.serialize();
+		PersistenceScheduler.requestSave(saveSongs ? (PersistenceScheduler.SAVE_SETTINGS | PersistenceScheduler.SAVE_SONG_LIST) : PersistenceScheduler.SAVE_SETTINGS);
 	}
 
 	private static void createIntents() {
@@ -3568,7 +3652,13 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 	}
 
 	private static void updateState(int arg1, Object[] objs) {
+		final boolean wasPlaying = localPlaying;
 		localPlaying = ((arg1 & 0x04) != 0);
+		if (localPlaying)
+			StartupTrace.firstAudio();
+		//save everything whenever the playback is paused (the actual writing is done in background)
+		if (wasPlaying && !localPlaying && state == STATE_ALIVE)
+			saveConfig(true);
 		localPlayerState = (arg1 & 0x03);
 		localSong = (Song)objs[0];
 		objs[0] = null;
@@ -0,0 +1,126 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.playback;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+
+//Records how long each stage of a cold start took, counting from the moment the
+//player started being created (and, on Android N and later, also from the moment
+//the process was started):
+//- config: the main settings have been loaded (synchronously, on the main thread)
+//- effects: the settings of the effects have been loaded (on the core thread)
+//- first frame: ActivityHost is about to draw its first frame
+//- alive: the core thread and the song list are ready (Player.STATE_ALIVE)
+//- first audio: the playback has actually started for the first time
+//
+//Only the first occurrence of each stage is recorded.
+public final class StartupTrace {
+	private static volatile long startTime, configTime, effectsTime, firstFrameTime, aliveTime, firstAudioTime;
+
+	private StartupTrace() {
+	}
+
+	//Runs on the MAIN thread
+	static void started() {
+		if (startTime == 0)
+			startTime = SystemClock.elapsedRealtime();
+	}
+
+	//Runs on the MAIN thread
+	static void configLoaded() {
+		if (configTime == 0)
+			configTime = SystemClock.elapsedRealtime();
+	}
+
+	//Runs on a SECONDARY thread
+	static void effectsLoaded() {
+		if (effectsTime == 0)
+			effectsTime = SystemClock.elapsedRealtime();
+	}
+
+	//Runs on the MAIN thread
+	public static boolean isFirstFrameRecorded() {
+		return (firstFrameTime != 0);
+	}
+
+	//Runs on the MAIN thread
+	public static void firstFrame() {
+		if (firstFrameTime == 0)
+			firstFrameTime = SystemClock.elapsedRealtime();
+	}
+
+	//Runs on the MAIN thread
+	static void alive() {
+		if (aliveTime == 0)
+			aliveTime = SystemClock.elapsedRealtime();
+	}
+
+	//Runs on the MAIN thread
+	static void firstAudio() {
+		if (firstAudioTime == 0)
+			firstAudioTime = SystemClock.elapsedRealtime();
+	}
+
+	private static void appendStage(StringBuilder sb, String name, long time, long processStartTime) {
+		sb.append('\n');
+		sb.append(name);
+		sb.append(": ");
+		if (time == 0) {
+			sb.append('-');
+			return;
+		}
+		sb.append(time - startTime);
+		sb.append(" ms");
+		if (processStartTime != 0) {
+			sb.append(" (");
+			sb.append(time - processStartTime);
+			sb.append(" ms)");
+		}
+	}
+
+	public static String getReport() {
+		if (startTime == 0)
+			return "";
+		final long processStartTime = ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) ? Process.getStartElapsedRealtime() : 0);
+		final StringBuilder sb = new StringBuilder(256);
+		sb.append((processStartTime != 0) ? "Startup (since player / process start)" : "Startup (since player start)");
+		appendStage(sb, "Config", configTime, processStartTime);
+		appendStage(sb, "Effects", effectsTime, processStartTime);
+		appendStage(sb, "First Frame", firstFrameTime, processStartTime);
+		appendStage(sb, "Alive", aliveTime, processStartTime);
+		appendStage(sb, "First Audio", firstAudioTime, processStartTime);
+		return sb.toString();
+	}
+}
@@ -33,6 +33,7 @@
 package br.com.carlosrafaelgn.fplay.playback;
 
 import br.com.carlosrafaelgn.fplay.util.SerializableMap;
+import br.com.carlosrafaelgn.fplay.util.SettingsStore;
 
 public final class Virtualizer {
 	private static int strength, strength_wire, strength_wire_mic, strength_bt;
@@ -83,7 +84,7 @@ public final class Virtualizer {
 		}
 	}
 
-	static void loadConfig(SerializableMap opts) {
+	static void loadConfig(SettingsStore opts) {
 		enabled = opts.getBit(Player.OPTBIT_VIRTUALIZER_ENABLED);
 		//use the regular enabled flag as the default for the new presets
 		enabled_wire = opts.getBit(Player.OPTBIT_VIRTUALIZER_ENABLED_WIRE, enabled);
@@ -96,7 +97,7 @@ public final class Virtualizer {
 		strength_bt = opts.getInt(Player.OPT_VIRTUALIZER_STRENGTH_BT, strength);
 	}
 
-	static void saveConfig(SerializableMap opts) {
+	static void saveConfig(SettingsStore opts) {
 		opts.putBit(Player.OPTBIT_VIRTUALIZER_ENABLED, enabled);
 		opts.putBit(Player.OPTBIT_VIRTUALIZER_ENABLED_WIRE, enabled_wire);
 		opts.putBit(Player.OPTBIT_VIRTUALIZER_ENABLED_WIRE_MIC, enabled_wire_mic);
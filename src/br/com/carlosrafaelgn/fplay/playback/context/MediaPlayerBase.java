@@ -96,6 +96,17 @@ public abstract class MediaPlayerBase {
 		boolean onError(MediaPlayerBase mp, int what, int extra);
 	}
 
+	private volatile int preGainInMB;
+
+	//Static gain applied to the entire track (only honored by the native MediaContext)
+	public final int getPreGainInMB() {
+		return preGainInMB;
+	}
+
+	public final void setPreGainInMB(int preGainInMB) {
+		this.preGainInMB = preGainInMB;
+	}
+
 	public abstract int getSrcSampleRate();
 
 	public abstract int getChannelCount();
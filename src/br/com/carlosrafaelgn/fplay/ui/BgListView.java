@@ -81,11 +81,12 @@ public final class BgListView extends ListView implements ListView.OnScrollListe
 	private OnScrollListener scrollListener;
 	private StaticLayout emptyLayout;
 	private BaseList<? extends BaseItem> adapter;
-	private boolean notified, attached, measured, sized, ignoreTouchMode, ignorePadding, tracking, touching;
+	private boolean notified, attached, measured, sized, ignoreTouchMode, ignorePadding, tracking, touching, auditScrolled;
 	private int backgroundColor, leftPadding, topPadding, rightPadding, bottomPadding, scrollBarType, scrollBarWidth, scrollBarThumbTop, scrollBarThumbHeight,
 		scrollBarTop, scrollBarLeft, scrollBarBottom, viewWidth, viewHeight, contentsHeight, itemHeight, itemCount, scrollBarThumbOffset, scrollState, dividerHeight;
 	private String[] sections;
 	private int[] sectionPositions;
+	private int anchorPosition, anchorTop;
 	public boolean skipUpDownTranslation;
 	public static int extraState;
 
@@ -113,8 +114,12 @@ public final class BgListView extends ListView implements ListView.OnScrollListe
 	private void init(boolean force2D) {
 		//to make the first execution of setScrollBarType() always run
 		scrollBarType = SCROLLBAR_INVALID;
+		anchorPosition = -1;
 		extraState = 0;
 		super.setSelector(new NullDrawable());
+		//this view is always its own OnScrollListener (scrollListener is called from onScroll()
+		//and onScrollStateChanged()), so scrollState and ScrollAudit work for every scrollbar type
+		super.setOnScrollListener(this);
 		if ((!force2D && UI.is3D) || !UI.isDividerVisible) {
 			backgroundColor = UI.color_list_bg;
 			dividerHeight = 0;
@@ -306,9 +311,69 @@ public final class BgListView extends ListView implements ListView.OnScrollListe
 		int y = ((viewHeight - bottomPadding - topPadding) - itemHeight) >> 1;
 		if (y < 0)
 			y = 0;
+		anchorPosition = -1;
 		setSelectionFromTop(position, y);
 	}
 
+	//The methods below are called by BaseList right before notifying ListView about a change.
+	//ListView only remembers the first visible position (not the item), so, whenever items
+	//are inserted/removed/moved above it, the visible contents would jump. Instead, the first
+	//visible item is tracked across the changes, and restoreAnchor() puts it back where it was.
+	//Since BaseList has stable ids, the rows that were visible before the change are handed
+	//back to the same items by ListView's recycler, and only the affected rows are rebound.
+	private boolean prepareAnchor() {
+		if (anchorPosition >= 0)
+			return true;
+		final View firstChild = getChildAt(0);
+		if (firstChild == null)
+			return false;
+		anchorPosition = getFirstVisiblePosition();
+		anchorTop = firstChild.getTop() - getPaddingTop();
+		return true;
+	}
+
+	public void onItemsInserted(int position, int count) {
+		if (!prepareAnchor())
+			return;
+		//when the list is at the very top, let the new items appear
+		if (position < anchorPosition || (position == anchorPosition && (anchorPosition > 0 || anchorTop < 0)))
+			anchorPosition += count;
+	}
+
+	public void onItemsRemoved(int position, int count) {
+		if (!prepareAnchor())
+			return;
+		if ((position + count) <= anchorPosition)
+			anchorPosition -= count;
+		else if (position <= anchorPosition)
+			anchorPosition = position;
+	}
+
+	public void onItemsMoved(int from, int count, int to) {
+		if (!prepareAnchor())
+			return;
+		if (anchorPosition >= from && anchorPosition < (from + count))
+			//the first visible item is being moved (do not follow it)
+			return;
+		if (to < from) {
+			if (anchorPosition >= to && anchorPosition < from)
+				anchorPosition += count;
+		} else if (anchorPosition >= (from + count) && anchorPosition < (to + count)) {
+			anchorPosition -= count;
+		}
+	}
+
+	public void restoreAnchor() {
+		final int position = anchorPosition;
+		if (position < 0)
+			return;
+		anchorPosition = -1;
+		//do not change to itemCount!
+		if (adapter == null || position >= adapter.getCount() || (position == getFirstVisiblePosition() && getChildCount() > 0 && anchorTop == (getChildAt(0).getTop() - getPaddingTop())))
+			return;
+		setSelectionFromTop(position, anchorTop);
+	}
+
 	public View getViewForPosition(int position) {
 		position -= getFirstVisiblePosition();
 		if (position < 0 || position >= getChildCount())
@@ -675,7 +740,6 @@ public final class BgListView extends ListView implements ListView.OnScrollListe
 			sectionPositions = null;
 			ignorePadding = true;
 			super.setVerticalScrollBarEnabled(false);
-			super.setOnScrollListener(this);
 			ignorePadding = false;
 			this.scrollBarType = SCROLLBAR_LARGE;
 			scrollBarTop = topPadding + UI.controlSmallMargin;
@@ -688,7 +752,6 @@ public final class BgListView extends ListView implements ListView.OnScrollListe
 				return;
 			ignorePadding = true;
 			super.setVerticalScrollBarEnabled(false);
-			super.setOnScrollListener(this);
 			ignorePadding = false;
 			this.scrollBarType = SCROLLBAR_INDEXED;
 			scrollBarTop = topPadding;
@@ -702,7 +765,6 @@ public final class BgListView extends ListView implements ListView.OnScrollListe
 			sections = null;
 			sectionPositions = null;
 			ignorePadding = true;
-			super.setOnScrollListener(scrollListener);
 			super.setVerticalScrollBarEnabled(false);
 			ignorePadding = false;
 			this.scrollBarType = SCROLLBAR_NONE;
@@ -714,7 +776,6 @@ public final class BgListView extends ListView implements ListView.OnScrollListe
 			sections = null;
 			sectionPositions = null;
 			ignorePadding = true;
-			super.setOnScrollListener(scrollListener);
 			super.setVerticalScrollBarEnabled(true);
 			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
 				setVerticalScrollBarPosition();
@@ -739,8 +800,6 @@ public final class BgListView extends ListView implements ListView.OnScrollListe
 	@Override
 	public void setOnScrollListener(OnScrollListener l) {
 		scrollListener = l;
-		if (scrollBarType == SCROLLBAR_NONE || scrollBarType == SCROLLBAR_SYSTEM)
-			super.setOnScrollListener(l);
 	}
 
 	@Override
@@ -854,6 +913,7 @@ public final class BgListView extends ListView implements ListView.OnScrollListe
 	@Override
 	public void setAdapter(ListAdapter adapter) {
 		this.adapter = (BaseList<? extends BaseItem>)adapter;
+		anchorPosition = -1;
 		itemHeight = ((adapter == null) ? UI.defaultControlSize : this.adapter.getViewHeight());
 		cancelTracking();
 		itemCount = ((adapter == null) ? 0 : adapter.getCount());
@@ -887,6 +947,8 @@ public final class BgListView extends ListView implements ListView.OnScrollListe
 	
 	@Override
 	public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+		if (ScrollAudit.enabled)
+			auditScrolled = true;
 		if (scrollListener != null)
 			scrollListener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
 		if (tracking)
@@ -910,6 +972,7 @@ public final class BgListView extends ListView implements ListView.OnScrollListe
 
 	@Override
 	protected void dispatchDraw(@NonNull Canvas canvas) {
+		final long auditStart = ScrollAudit.frameStarted();
 		super.dispatchDraw(canvas);
 		if (itemCount == 0) {
 			if (emptyLayout != null) {
@@ -981,6 +1044,11 @@ public final class BgListView extends ListView implements ListView.OnScrollListe
 				break;
 			}
 		}
+		if (auditStart != 0) {
+			//smooth scrolls do not change scrollState, but they do call onScroll()
+			ScrollAudit.frameFinished(auditStart, auditScrolled || tracking || scrollState != SCROLL_STATE_IDLE);
+			auditScrolled = false;
+		}
 	}
 	
 	@Override
@@ -42,6 +42,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.text.TextPaint;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewDebug.ExportedProperty;
@@ -70,6 +71,32 @@ public final class FileView extends LinearLayout implements View.OnClickListener
 	private static boolean scrollBarCurrentlyIndexed;
 	private static int height, usableHeight, iconY, nameYNoSecondary, nameY, secondaryY, extraLeftMargin, extraRightMargin, leftMargin, topMargin, rightMargin, rightMarginForDrawing, bottomMargin;
 
+	private static final TextLayoutCache.Prefetcher prefetcher = new TextLayoutCache.Prefetcher() {
+		@Override
+		public void prefetchLayout(TextPaint paint, Object item, int width, int flags) {
+			//the same computations performed by setItemState() and processEllipsis()
+			final FileSt file = (FileSt)item;
+			final int specialType = file.specialType;
+			final boolean showCheckbox = ((flags != 0) && ((specialType == 0) || (specialType == FileSt.TYPE_ALBUM) || (specialType == FileSt.TYPE_ALBUM_ITEM) || (specialType == FileSt.TYPE_ARTIST)));
+			TextLayoutCache.ellipsize(paint, file.name, UI._Largesp, width - leftPaddingFor(file) - (showCheckbox ? UI.defaultControlSize : 0) - UI.controlMargin - rightMargin, true);
+		}
+	};
+
+	private static int leftPaddingFor(FileSt file) {
+		if (!file.isDirectory)
+			return leftMargin + UI.controlMargin;
+		switch (file.specialType) {
+		case FileSt.TYPE_ARTIST:
+		case FileSt.TYPE_ALBUM:
+		case FileSt.TYPE_ALBUM_ITEM:
+			//album arts are only loaded when UI.albumArt is true
+			if (UI.albumArt)
+				return leftMargin + (usableHeight + UI.controlMargin);
+		default:
+			return leftMargin + UI.defaultControlSize;
+		}
+	}
+
 	public static void updateExtraMargins(boolean isScrollBarIndexed, boolean force2D) {
 		if (isScrollBarIndexed) {
 			if (UI.scrollBarToTheLeft) {
@@ -168,7 +195,13 @@ public final class FileView extends LinearLayout implements View.OnClickListener
 	}
 
 	private void processEllipsis() {
-		ellipsizedName = UI.ellipsizeText(file.name, UI._Largesp, width - leftPadding - (checkBoxVisible ? UI.defaultControlSize : 0) - UI.controlMargin - rightMargin, true);
+		ellipsizedName = TextLayoutCache.ellipsize(UI.textPaint, file.name, UI._Largesp, width - leftPadding - (checkBoxVisible ? UI.defaultControlSize : 0) - UI.controlMargin - rightMargin, true);
+	}
+
+	//Prepares the layout of another file, which is about to be displayed by a view of the same width
+	public void prefetchLayout(FileSt file) {
+		if (width > 0 && file != null)
+			TextLayoutCache.prefetch(prefetcher, file, width, hasCheckbox ? 1 : 0);
 	}
 
 	public void refreshItem() {
@@ -277,12 +310,12 @@ public final class FileView extends LinearLayout implements View.OnClickListener
 				albumCount = file.albums;
 				trackCount = file.tracks;
 				if (albumCount >= 1 && trackCount >= 1)
-					secondaryTextWidth = UI.defaultControlSize + UI.controlSmallMargin + UI.measureText((secondaryText = ((albumCount == 1) ? albumStr : (Integer.toString(albumCount) + albumsStr)) + " / " + ((trackCount == 1) ? trackStr : (Integer.toString(trackCount) + tracksStr))), UI._14sp);
+					secondaryTextWidth = UI.defaultControlSize + UI.controlSmallMargin + TextLayoutCache.measure(UI.textPaint, (secondaryText = ((albumCount == 1) ? albumStr : (Integer.toString(albumCount) + albumsStr)) + " / " + ((trackCount == 1) ? trackStr : (Integer.toString(trackCount) + tracksStr))), UI._14sp);
 				icon = UI.ICON_MIC;
 				newAlbumArt = null;
 				if (UI.albumArt && albumArtFetcher != null) {
 					if (file.albumArt != null || file.artistIdForAlbumArt != 0) {
-						newAlbumArt = albumArtFetcher.getAlbumArt(file, usableHeight, requestId, this);
+						newAlbumArt = albumArtFetcher.getAlbumArt(file, usableHeight, requestId, position, this);
 						pendingAlbumArtRequest = (newAlbumArt == null);
 					}
 				}
@@ -294,12 +327,12 @@ public final class FileView extends LinearLayout implements View.OnClickListener
 			case FileSt.TYPE_ALBUM:
 				trackCount = file.tracks;
 				if (trackCount >= 1)
-					secondaryTextWidth = UI.defaultControlSize + UI.controlSmallMargin + UI.measureText((secondaryText = ((trackCount == 1) ? trackStr : (Integer.toString(trackCount) + tracksStr))), UI._14sp);
+					secondaryTextWidth = UI.defaultControlSize + UI.controlSmallMargin + TextLayoutCache.measure(UI.textPaint, (secondaryText = ((trackCount == 1) ? trackStr : (Integer.toString(trackCount) + tracksStr))), UI._14sp);
 			case FileSt.TYPE_ALBUM_ITEM:
 				icon = UI.ICON_ALBUMART;
 				newAlbumArt = null;
 				if (UI.albumArt && albumArtFetcher != null && file.albumArt != null) {
-					newAlbumArt = albumArtFetcher.getAlbumArt(file, usableHeight, requestId, this);
+					newAlbumArt = albumArtFetcher.getAlbumArt(file, usableHeight, requestId, position, this);
 					pendingAlbumArtRequest = (newAlbumArt == null);
 				}
 				albumArt = newAlbumArt;
@@ -307,12 +340,12 @@ public final class FileView extends LinearLayout implements View.OnClickListener
 			case FileSt.TYPE_ICECAST:
 				icon = UI.ICON_ICECAST;
 				if (getContext() != null)
-					secondaryTextWidth = UI.controlSmallMargin + UI.measureText(secondaryText = getContext().getText(R.string.radio_directory).toString(), UI._14sp);
+					secondaryTextWidth = UI.controlSmallMargin + TextLayoutCache.measure(UI.textPaint, secondaryText = getContext().getText(R.string.radio_directory).toString(), UI._14sp);
 				break;
 			case FileSt.TYPE_SHOUTCAST:
 				icon = UI.ICON_SHOUTCAST;
 				if (getContext() != null)
-					secondaryTextWidth = UI.controlSmallMargin + UI.measureText(secondaryText = getContext().getText(R.string.radio_directory).toString(), UI._14sp);
+					secondaryTextWidth = UI.controlSmallMargin + TextLayoutCache.measure(UI.textPaint, secondaryText = getContext().getText(R.string.radio_directory).toString(), UI._14sp);
 				break;
 			case FileSt.TYPE_INTERNAL_STORAGE:
 				icon = UI.ICON_SCREEN;
@@ -0,0 +1,237 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.ui;
+
+import android.os.Debug;
+
+//Debug instrumentation for the lists: while enabled, every frame drawn by a scrolling BgListView
+//has its draw time recorded into a histogram, the allocations performed by the main thread
+//between two consecutive frames are counted (through a pluggable AllocationTracker), and the
+//binds (BaseList.getView()) taking longer than the frame budget are recorded, along with their
+//positions. getReport() summarizes everything collected since the last reset().
+//
+//When disabled (the default) the hooks cost a single static field read.
+@SuppressWarnings("deprecation")
+public final class ScrollAudit {
+	public interface AllocationTracker {
+		//Runs on the MAIN thread
+		void start();
+
+		//Runs on the MAIN thread (must return the total amount of objects allocated by the main thread since start())
+		long getAllocationCount();
+
+		//Runs on the MAIN thread
+		void stop();
+	}
+
+	//Debug's counters are deprecated, but still work on the main thread of a debuggable app
+	public static final class DebugAllocationTracker implements AllocationTracker {
+		@Override
+		public void start() {
+			Debug.resetThreadAllocCount();
+			Debug.startAllocCounting();
+		}
+
+		@Override
+		public long getAllocationCount() {
+			return Debug.getThreadAllocCount();
+		}
+
+		@Override
+		public void stop() {
+			Debug.stopAllocCounting();
+		}
+	}
+
+	private static final long FRAME_BUDGET_NS = 16666667L;
+	//upper limits of each bucket of the histogram, in ms (the last one has no limit)
+	private static final int[] BUCKET_LIMIT_MS = { 2, 4, 8, 12, 16, 24, 33, 50 };
+	private static final int SLOW_BIND_COUNT = 16;
+
+	public static boolean enabled;
+
+	private static AllocationTracker tracker;
+	private static final int[] histogram = new int[BUCKET_LIMIT_MS.length + 1];
+	private static final int[] slowBindPosition = new int[SLOW_BIND_COUNT], slowBindTimeUS = new int[SLOW_BIND_COUNT];
+	private static int frameCount, jankCount, maxDrawTimeUS, framesWithAllocations, maxAllocationsPerFrame, bindCount, slowBindCount, slowBindHead;
+	private static long totalDrawTimeNS, totalAllocations, lastAllocationCount, lastFrameEnd;
+
+	private ScrollAudit() {
+	}
+
+	//Runs on the MAIN thread
+	public static void setEnabled(boolean enabled, AllocationTracker tracker) {
+		if (ScrollAudit.tracker != null) {
+			ScrollAudit.tracker.stop();
+			ScrollAudit.tracker = null;
+		}
+		ScrollAudit.enabled = enabled;
+		if (enabled) {
+			ScrollAudit.tracker = ((tracker == null) ? new DebugAllocationTracker() : tracker);
+			ScrollAudit.tracker.start();
+		}
+		reset();
+	}
+
+	//Runs on the MAIN thread
+	public static void reset() {
+		for (int i = histogram.length - 1; i >= 0; i--)
+			histogram[i] = 0;
+		frameCount = 0;
+		jankCount = 0;
+		maxDrawTimeUS = 0;
+		framesWithAllocations = 0;
+		maxAllocationsPerFrame = 0;
+		bindCount = 0;
+		slowBindCount = 0;
+		slowBindHead = 0;
+		totalDrawTimeNS = 0;
+		totalAllocations = 0;
+		lastAllocationCount = ((tracker == null) ? 0 : tracker.getAllocationCount());
+		lastFrameEnd = 0;
+	}
+
+	//Runs on the MAIN thread (returns 0 if disabled)
+	public static long bindStarted() {
+		return (enabled ? System.nanoTime() : 0);
+	}
+
+	//Runs on the MAIN thread
+	public static void bindFinished(long start, int position) {
+		if (start == 0 || !enabled)
+			return;
+		final long time = System.nanoTime() - start;
+		bindCount++;
+		if (time > FRAME_BUDGET_NS) {
+			slowBindPosition[slowBindHead] = position;
+			slowBindTimeUS[slowBindHead] = (int)(time / 1000L);
+			slowBindHead = (slowBindHead + 1) % SLOW_BIND_COUNT;
+			slowBindCount++;
+		}
+	}
+
+	//Runs on the MAIN thread (returns 0 if disabled)
+	public static long frameStarted() {
+		return (enabled ? System.nanoTime() : 0);
+	}
+
+	//Runs on the MAIN thread (scrolling must be false when the list is idle, in which
+	//case the frame is not accounted for, but the allocations are still consumed)
+	public static void frameFinished(long start, boolean scrolling) {
+		if (start == 0 || !enabled)
+			return;
+		final long now = System.nanoTime();
+		final long allocationCount = ((tracker == null) ? 0 : tracker.getAllocationCount());
+		final int allocations = (int)(allocationCount - lastAllocationCount);
+		lastAllocationCount = allocationCount;
+		if (!scrolling) {
+			lastFrameEnd = 0;
+			return;
+		}
+
+		final long drawTime = now - start;
+		final int drawTimeUS = (int)(drawTime / 1000L), drawTimeMS = drawTimeUS / 1000;
+		int i = 0;
+		while (i < BUCKET_LIMIT_MS.length && drawTimeMS >= BUCKET_LIMIT_MS[i])
+			i++;
+		histogram[i]++;
+		frameCount++;
+		totalDrawTimeNS += drawTime;
+		if (maxDrawTimeUS < drawTimeUS)
+			maxDrawTimeUS = drawTimeUS;
+		//more than one frame and a half between two consecutive frames means at least one frame was dropped
+		if (lastFrameEnd != 0 && (now - lastFrameEnd) > (FRAME_BUDGET_NS + (FRAME_BUDGET_NS >> 1)))
+			jankCount++;
+		lastFrameEnd = now;
+
+		if (allocations > 0) {
+			framesWithAllocations++;
+			totalAllocations += allocations;
+			if (maxAllocationsPerFrame < allocations)
+				maxAllocationsPerFrame = allocations;
+		}
+	}
+
+	//Runs on the MAIN thread
+	public static String getReport() {
+		final StringBuilder sb = new StringBuilder(512);
+		sb.append("Scroll Audit");
+		sb.append("\nFrames: ");
+		sb.append(frameCount);
+		sb.append(" (janky: ");
+		sb.append(jankCount);
+		sb.append(')');
+		if (frameCount > 0) {
+			sb.append("\nDraw Time (avg/max): ");
+			sb.append(UI.formatIntAsFloat((int)(totalDrawTimeNS / (frameCount * 10000L)), true, false));
+			sb.append(" / ");
+			sb.append(UI.formatIntAsFloat(maxDrawTimeUS / 10, true, false));
+			sb.append(" ms");
+			int lower = 0;
+			for (int i = 0; i < histogram.length; i++) {
+				sb.append('\n');
+				sb.append(lower);
+				if (i < BUCKET_LIMIT_MS.length) {
+					sb.append('-');
+					sb.append(lower = BUCKET_LIMIT_MS[i]);
+				} else {
+					sb.append('+');
+				}
+				sb.append(" ms: ");
+				sb.append(histogram[i]);
+			}
+		}
+		sb.append("\nAllocations: ");
+		sb.append(totalAllocations);
+		sb.append(" in ");
+		sb.append(framesWithAllocations);
+		sb.append(" frames (max/frame: ");
+		sb.append(maxAllocationsPerFrame);
+		sb.append(')');
+		sb.append("\nBinds: ");
+		sb.append(bindCount);
+		sb.append(" (slow: ");
+		sb.append(slowBindCount);
+		sb.append(')');
+		final int count = Math.min(slowBindCount, SLOW_BIND_COUNT);
+		for (int i = 0; i < count; i++) {
+			final int j = (slowBindHead - count + i + SLOW_BIND_COUNT) % SLOW_BIND_COUNT;
+			sb.append("\n#");
+			sb.append(slowBindPosition[j]);
+			sb.append(": ");
+			sb.append(UI.formatIntAsFloat(slowBindTimeUS[j] / 10, true, false));
+			sb.append(" ms");
+		}
+		return sb.toString();
+	}
+}
@@ -37,6 +37,7 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.text.TextPaint;
 import android.view.View;
 import android.view.ViewDebug.ExportedProperty;
 import android.view.accessibility.AccessibilityEvent;
@@ -55,10 +56,27 @@ public final class SongView extends View implements View.OnClickListener, View.O
 	private static int height, textX, titleY, extraY, currentX, currentY, leftMargin, topMargin,
 		rightMargin, rightMarginForDrawing, numberAndCountColor, numberAndCountColorSelected;
 
+	private static final TextLayoutCache.Prefetcher prefetcher = new TextLayoutCache.Prefetcher() {
+		@Override
+		public void prefetchLayout(TextPaint paint, Object item, int width, int flags) {
+			//the same computations performed by setItemState() and processEllipsis()
+			final Song song = (Song)item;
+			final int lengthX = width - (song.isHttp ? UI._14spBox : TextLayoutCache.measure(paint, song.length, UI._14sp)) - UI.controlMargin - rightMargin;
+			final int w = lengthX - textX - UI.controlMargin;
+			TextLayoutCache.ellipsize(paint, song.title, UI._Headingsp, w, false);
+			//when displaying the number and count, the width of extraInfo depends on the position
+			if (flags == 0)
+				TextLayoutCache.ellipsize(paint, song.extraInfo, UI._14sp, w, false);
+		}
+	};
+
 	public static int getViewHeight() {
 		final int bottomMargin;
 		if (UI.is3D) {
+			//the same extra margins FileView.updateExtraMargins() uses for the indexed scrollbar
+			final int extraLeftMargin, extraRightMargin;
 			switch (UI.songListScrollBarType) {
+			case BgListView.SCROLLBAR_INDEXED:
 			case BgListView.SCROLLBAR_LARGE:
 				if (UI.scrollBarToTheLeft) {
 					leftMargin = 0;
@@ -73,7 +91,21 @@ public final class SongView extends View implements View.OnClickListener, View.O
 				rightMarginForDrawing = UI.controlSmallMargin;
 				break;
 			}
+			if (UI.songListScrollBarType == BgListView.SCROLLBAR_INDEXED) {
+				if (UI.scrollBarToTheLeft) {
+					extraLeftMargin = UI.controlSmallMargin;
+					extraRightMargin = 0;
+				} else {
+					extraLeftMargin = 0;
+					extraRightMargin = UI.controlSmallMargin;
+				}
+			} else {
+				extraLeftMargin = 0;
+				extraRightMargin = 0;
+			}
+			leftMargin += extraLeftMargin;
 			topMargin = UI.controlSmallMargin;
+			rightMarginForDrawing += extraRightMargin;
 			rightMargin = rightMarginForDrawing + UI.strokeSize;
 			bottomMargin = UI.strokeSize;
 		} else {
@@ -105,8 +137,14 @@ public final class SongView extends View implements View.OnClickListener, View.O
 
 	private void processEllipsis() {
 		final int w = lengthX - textX - UI.controlMargin;
-		ellipsizedTitle = UI.ellipsizeText(song.title, UI._Headingsp, w, false);
-		ellipsizedExtraInfo = UI.ellipsizeText(song.extraInfo, UI._14sp, (numberAndCount == null) ? w : (numberAndCountX - textX - UI.controlMargin), false);
+		ellipsizedTitle = TextLayoutCache.ellipsize(UI.textPaint, song.title, UI._Headingsp, w, false);
+		ellipsizedExtraInfo = TextLayoutCache.ellipsize(UI.textPaint, song.extraInfo, UI._14sp, (numberAndCount == null) ? w : (numberAndCountX - textX - UI.controlMargin), false);
+	}
+
+	//Prepares the layout of another song, which is about to be displayed by a view of the same width
+	public void prefetchLayout(Song song) {
+		if (width > 0 && song != null)
+			TextLayoutCache.prefetch(prefetcher, song, width, UI.displaySongNumberAndCount ? 1 : 0);
 	}
 
 	public void updateIfCurrent() {
@@ -137,13 +175,13 @@ public final class SongView extends View implements View.OnClickListener, View.O
 		if (this.song == song && !UI.displaySongNumberAndCount)
 			return;
 		this.song = song;
-		lengthWidth = (song.isHttp ? UI._14spBox : UI.measureText(song.length, UI._14sp));
+		lengthWidth = (song.isHttp ? UI._14spBox : TextLayoutCache.measure(UI.textPaint, song.length, UI._14sp));
 		lengthX = width - lengthWidth - UI.controlMargin - rightMargin;
 		if (!UI.displaySongNumberAndCount || ((state & UI.STATE_CURRENT) != 0)) {
 			numberAndCount = null;
 		} else {
 			numberAndCount = (position + 1) + " / " + baseList.getCount();
-			numberAndCountWidth = UI.measureText(numberAndCount, UI._14sp);
+			numberAndCountWidth = TextLayoutCache.measure(UI.textPaint, numberAndCount, UI._14sp);
 			numberAndCountX = width - numberAndCountWidth - UI.controlMargin - rightMargin;
 		}
 		processEllipsis();
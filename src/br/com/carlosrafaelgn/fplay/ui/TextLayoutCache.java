@@ -0,0 +1,236 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.ui;
+
+import android.graphics.Paint;
+import android.os.Process;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+//Caches the results of UI.measureText() and UI.ellipsizeText() for the rows of the lists,
+//keyed by (text, text size, available width, typeface), so that binding a row during a fling
+//does not need to measure/ellipsize anything most of the times.
+//
+//The entries are stored in a direct-mapped table of immutable objects (a colliding entry simply
+//replaces the older one), which makes lookups lock-free and allocation-free. The rows near the
+//viewport are prepared in advance by the "Text Layout Thread", with a low priority, using its
+//own TextPaint (UI.textPaint must only be used by the main thread), through a Prefetcher
+//provided by each kind of view. The typeface is represented by a generation counter, which is
+//incremented by invalidate() (every entry created before that is discarded). The width is part
+//of the key, so resizing the views does not invalidate anything: entries for the old width are
+//simply replaced as they collide with the new ones.
+public final class TextLayoutCache implements Runnable {
+	public interface Prefetcher {
+		//Runs on the layout thread (paint must be passed to ellipsize() and measure())
+		void prefetchLayout(TextPaint paint, Object item, int width, int flags);
+	}
+
+	//how far from the position being bound the adapters look for rows to prefetch
+	public static final int PREFETCH_DISTANCE = 8;
+
+	//must be a power of 2
+	private static final int CAPACITY = 512;
+	//must be a power of 2
+	private static final int MAX_PENDING = 32;
+	private static final int MEASURE_ONLY = -1;
+
+	private static final class Entry {
+		public final String text, result;
+		public final int size, width, generation, measuredWidth;
+		public final boolean truncateAtMiddle;
+
+		public Entry(String text, int size, int width, boolean truncateAtMiddle, int generation, String result, int measuredWidth) {
+			this.text = text;
+			this.size = size;
+			this.width = width;
+			this.truncateAtMiddle = truncateAtMiddle;
+			this.generation = generation;
+			this.result = result;
+			this.measuredWidth = measuredWidth;
+		}
+	}
+
+	private static final TextLayoutCache cache = new TextLayoutCache();
+	private static volatile int generation;
+
+	private final Object sync;
+	private final Entry[] entries;
+	private final Prefetcher[] pendingPrefetcher;
+	private final Object[] pendingItem;
+	private final int[] pendingWidth, pendingFlags;
+	private int pendingHead, pendingCount;
+	private boolean threadAlive;
+	private TextPaint paint;
+	//the generation observed before the typeface of paint was set
+	private int paintGeneration;
+
+	private TextLayoutCache() {
+		sync = new Object();
+		entries = new Entry[CAPACITY];
+		pendingPrefetcher = new Prefetcher[MAX_PENDING];
+		pendingItem = new Object[MAX_PENDING];
+		pendingWidth = new int[MAX_PENDING];
+		pendingFlags = new int[MAX_PENDING];
+	}
+
+	private static int generationFor(TextPaint paint) {
+		return ((paint == cache.paint) ? cache.paintGeneration : generation);
+	}
+
+	private static int indexOf(String text, int size, int width) {
+		int h = text.hashCode() ^ (size * 31) ^ (width * 1021);
+		h ^= (h >>> 16);
+		return (h & (CAPACITY - 1));
+	}
+
+	//Runs on ANY thread (paint must be UI.textPaint when called on the main thread)
+	public static String ellipsize(TextPaint paint, String text, int size, int width, boolean truncateAtMiddle) {
+		if (text == null)
+			return "";
+		if (width <= 1)
+			return text;
+		final int g = generationFor(paint);
+		final int i = indexOf(text, size, width);
+		final Entry[] entries = cache.entries;
+		final Entry e = entries[i];
+		if (e != null && e.generation == g && e.size == size && e.width == width && e.truncateAtMiddle == truncateAtMiddle && (e.text == text || e.text.equals(text)))
+			return e.result;
+		paint.setTextSize(size);
+		final String result = TextUtils.ellipsize(text, paint, width, truncateAtMiddle ? TextUtils.TruncateAt.MIDDLE : TextUtils.TruncateAt.END).toString();
+		entries[i] = new Entry(text, size, width, truncateAtMiddle, g, result, 0);
+		return result;
+	}
+
+	//Runs on ANY thread (paint must be UI.textPaint when called on the main thread)
+	public static int measure(TextPaint paint, String text, int size) {
+		if (text == null)
+			return 0;
+		final int g = generationFor(paint);
+		final int i = indexOf(text, size, MEASURE_ONLY);
+		final Entry[] entries = cache.entries;
+		final Entry e = entries[i];
+		if (e != null && e.generation == g && e.size == size && e.width == MEASURE_ONLY && (e.text == text || e.text.equals(text)))
+			return e.measuredWidth;
+		paint.setTextSize(size);
+		final int measuredWidth = (int)(paint.measureText(text) + 0.5f);
+		entries[i] = new Entry(text, size, MEASURE_ONLY, false, g, null, measuredWidth);
+		return measuredWidth;
+	}
+
+	//Runs on the MAIN thread (must be called whenever the typeface changes)
+	public static void invalidate() {
+		generation++;
+		synchronized (cache.sync) {
+			cache.clearPending();
+		}
+	}
+
+	//Runs on the MAIN thread (the most recent requests are the most relevant ones, so the
+	//oldest pending request is dropped when there is no room left)
+	public static void prefetch(Prefetcher prefetcher, Object item, int width, int flags) {
+		if (prefetcher == null || item == null || width <= 0)
+			return;
+		cache.enqueue(prefetcher, item, width, flags);
+	}
+
+	private void clearPending() {
+		for (int i = 0; i < MAX_PENDING; i++) {
+			pendingPrefetcher[i] = null;
+			pendingItem[i] = null;
+		}
+		pendingHead = 0;
+		pendingCount = 0;
+	}
+
+	private void enqueue(Prefetcher prefetcher, Object item, int width, int flags) {
+		synchronized (sync) {
+			if (pendingCount == MAX_PENDING) {
+				pendingHead = (pendingHead + 1) & (MAX_PENDING - 1);
+				pendingCount--;
+			}
+			final int i = (pendingHead + pendingCount) & (MAX_PENDING - 1);
+			pendingPrefetcher[i] = prefetcher;
+			pendingItem[i] = item;
+			pendingWidth[i] = width;
+			pendingFlags[i] = flags;
+			pendingCount++;
+			if (!threadAlive) {
+				threadAlive = true;
+				final Thread thread = new Thread(this, "Text Layout Thread");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+		if (paint == null) {
+			paint = new TextPaint();
+			paint.setDither(false);
+			paint.setAntiAlias(true);
+			paint.setStyle(Paint.Style.FILL);
+			paint.setTextAlign(Paint.Align.LEFT);
+		}
+		for (; ; ) {
+			final Prefetcher prefetcher;
+			final Object item;
+			final int width, flags;
+			synchronized (sync) {
+				if (pendingCount == 0) {
+					threadAlive = false;
+					return;
+				}
+				final int i = pendingHead;
+				prefetcher = pendingPrefetcher[i];
+				item = pendingItem[i];
+				width = pendingWidth[i];
+				flags = pendingFlags[i];
+				pendingPrefetcher[i] = null;
+				pendingItem[i] = null;
+				pendingHead = (i + 1) & (MAX_PENDING - 1);
+				pendingCount--;
+			}
+			//the typeface may have changed since the last item (generation must be read first:
+			//entries created with an outdated typeface are then simply discarded)
+			paintGeneration = generation;
+			paint.setTypeface(UI.defaultTypeface);
+			try {
+				prefetcher.prefetchLayout(paint, item, width, flags);
+			} catch (Throwable ex) {
+				//just ignore (the item may have been changed by the main thread)
+			}
+		}
+	}
+}
@@ -91,9 +91,10 @@ import br.com.carlosrafaelgn.fplay.playback.Player;
 import br.com.carlosrafaelgn.fplay.ui.drawable.BgShadowDrawable;
 import br.com.carlosrafaelgn.fplay.ui.drawable.BorderDrawable;
 import br.com.carlosrafaelgn.fplay.ui.drawable.ColorDrawable;
+import br.com.carlosrafaelgn.fplay.ui.drawable.GlyphAtlas;
 import br.com.carlosrafaelgn.fplay.ui.drawable.ScrollBarThumbDrawable;
 import br.com.carlosrafaelgn.fplay.util.ColorUtils;
-import br.com.carlosrafaelgn.fplay.util.SerializableMap;
+import br.com.carlosrafaelgn.fplay.util.SettingsStore;
 
 //
 //Unit conversions are based on:
@@ -558,6 +559,7 @@ public final class UI implements Animation.AnimationListener, Interpolator {
 			defaultTypeface = Typeface.DEFAULT;
 		}
 		textPaint.setTypeface(defaultTypeface);
+		TextLayoutCache.invalidate();
 		//Font Metrics in Java OR How, the hell, Should I Position This Font?!
 		//http://blog.evendanan.net/2011/12/Font-Metrics-in-Java-OR-How-the-hell-Should-I-Position-This-Font
 		//* although the proper way would be using bottom and top, regular characters are visually better
@@ -751,7 +753,7 @@ public final class UI implements Animation.AnimationListener, Interpolator {
 			return;
 		//sometimes the first thing called is this method
 		Player.theApplication = context.getApplicationContext();
-		final SerializableMap opts = Player.loadConfigFromFile();
+		final SettingsStore opts = Player.loadConfigFromFile();
 		//I know, this is ugly... I'll fix it one day...
 		setForcedLocale(null, opts.getInt(0x001E, LOCALE_NONE));
 		//widgetTransparentBg = opts.getBoolean(0x0022, false);
@@ -856,27 +858,11 @@ public final class UI implements Animation.AnimationListener, Interpolator {
 			return;
 		if (iconsTypeface == null)
 			initialize(null, 0, 0);
-		final Canvas c = new Canvas();
-		textPaint.setTypeface(iconsTypeface);
-		textPaint.setColor(widgetIconColor);
-		textPaint.setTextSize(defaultControlContentsSize);
-		icPrev = Bitmap.createBitmap(defaultControlContentsSize, defaultControlContentsSize, Bitmap.Config.ARGB_8888);
-		c.setBitmap(icPrev);
-		c.drawText(ICON_PREV, 0, defaultControlContentsSize, textPaint);
-		icPlay = Bitmap.createBitmap(defaultControlContentsSize, defaultControlContentsSize, Bitmap.Config.ARGB_8888);
-		c.setBitmap(icPlay);
-		c.drawText(ICON_PLAY, 0, defaultControlContentsSize, textPaint);
-		icPause = Bitmap.createBitmap(defaultControlContentsSize, defaultControlContentsSize, Bitmap.Config.ARGB_8888);
-		c.setBitmap(icPause);
-		c.drawText(ICON_PAUSE, 0, defaultControlContentsSize, textPaint);
-		icNext = Bitmap.createBitmap(defaultControlContentsSize, defaultControlContentsSize, Bitmap.Config.ARGB_8888);
-		c.setBitmap(icNext);
-		c.drawText(ICON_NEXT, 0, defaultControlContentsSize, textPaint);
+		icPrev = GlyphAtlas.createBitmap(ICON_PREV, defaultControlContentsSize, widgetIconColor);
+		icPlay = GlyphAtlas.createBitmap(ICON_PLAY, defaultControlContentsSize, widgetIconColor);
+		icPause = GlyphAtlas.createBitmap(ICON_PAUSE, defaultControlContentsSize, widgetIconColor);
+		icNext = GlyphAtlas.createBitmap(ICON_NEXT, defaultControlContentsSize, widgetIconColor);
 		createdWidgetIconColor = widgetIconColor;
-		//reset to the original state
-		textPaint.setTypeface(defaultTypeface);
-		textPaint.setColor(color_text);
-		textPaint.measureText("FPlay");
 	}
 	
 	public static void prepareNotificationPlaybackIcons() {
@@ -884,8 +870,6 @@ public final class UI implements Animation.AnimationListener, Interpolator {
 			return;
 		if (iconsTypeface == null)
 			initialize(null, 0, 0);
-		final Canvas c = new Canvas();
-		textPaint.setTypeface(iconsTypeface);
 		//instead of guessing the color, try to fetch the actual one first
 		int color = 0;
 		try {
@@ -898,27 +882,11 @@ public final class UI implements Animation.AnimationListener, Interpolator {
 		}
 		if ((color & 0xff000000) == 0)
 			color = ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) ? 0xff999999 : 0xffffffff);
-		textPaint.setColor(color);
-		textPaint.setTextSize(defaultControlContentsSize);
-		icPrevNotif = Bitmap.createBitmap(defaultControlContentsSize, defaultControlContentsSize, Bitmap.Config.ARGB_8888);
-		c.setBitmap(icPrevNotif);
-		c.drawText(ICON_PREV, 0, defaultControlContentsSize, textPaint);
-		icPlayNotif = Bitmap.createBitmap(defaultControlContentsSize, defaultControlContentsSize, Bitmap.Config.ARGB_8888);
-		c.setBitmap(icPlayNotif);
-		c.drawText(ICON_PLAY, 0, defaultControlContentsSize, textPaint);
-		icPauseNotif = Bitmap.createBitmap(defaultControlContentsSize, defaultControlContentsSize, Bitmap.Config.ARGB_8888);
-		c.setBitmap(icPauseNotif);
-		c.drawText(ICON_PAUSE, 0, defaultControlContentsSize, textPaint);
-		icNextNotif = Bitmap.createBitmap(defaultControlContentsSize, defaultControlContentsSize, Bitmap.Config.ARGB_8888);
-		c.setBitmap(icNextNotif);
-		c.drawText(ICON_NEXT, 0, defaultControlContentsSize, textPaint);
-		icExitNotif = Bitmap.createBitmap(defaultControlContentsSize, defaultControlContentsSize, Bitmap.Config.ARGB_8888);
-		c.setBitmap(icExitNotif);
-		c.drawText(ICON_EXIT, 0, defaultControlContentsSize, textPaint);
-		//reset to the original state
-		textPaint.setTypeface(defaultTypeface);
-		textPaint.setColor(color_text);
-		textPaint.measureText("FPlay");
+		icPrevNotif = GlyphAtlas.createBitmap(ICON_PREV, defaultControlContentsSize, color);
+		icPlayNotif = GlyphAtlas.createBitmap(ICON_PLAY, defaultControlContentsSize, color);
+		icPauseNotif = GlyphAtlas.createBitmap(ICON_PAUSE, defaultControlContentsSize, color);
+		icNextNotif = GlyphAtlas.createBitmap(ICON_NEXT, defaultControlContentsSize, color);
+		icExitNotif = GlyphAtlas.createBitmap(ICON_EXIT, defaultControlContentsSize, color);
 	}
 	
 	public static float pxToDp(float px) {
@@ -1150,6 +1118,8 @@ public final class UI implements Animation.AnimationListener, Interpolator {
 		//choose the color with a nice contrast against the list background to be the glow color
 		//the color is treated as SRC, and the bitmap is treated as DST
 		glowFilter = ((Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) ? new PorterDuffColorFilter(color_glow, PorterDuff.Mode.SRC_IN) : null);
+
+		GlyphAtlas.clear();
 	}
 	
 	public static boolean loadCustomTheme() {
@@ -0,0 +1,252 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.ui.drawable;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.text.TextPaint;
+
+import java.util.Arrays;
+
+import br.com.carlosrafaelgn.fplay.ui.UI;
+
+//Caches every (icon, size, color) drawn with the icon font as a cell inside a
+//single shared bitmap, so drawing an icon becomes a drawBitmap() with a source
+//rect instead of a drawText() (which goes through the font cache and the glyph
+//rasterizer every time).
+//
+//Cells are packed in shelves (one shelf per glyph height), and when the atlas is
+//full the least recently used cell with the same height is recycled. Colors are
+//stored opaque, and the alpha is applied while drawing, so fading an icon in or
+//out does not create a new cell per alpha value.
+//
+//All methods must be called from the MAIN thread.
+public final class GlyphAtlas {
+	private static final int MAX_ENTRIES = 128, TABLE_SIZE = 256, MAX_SHELVES = 32, MIN_SIDE = 256, MAX_SIDE = 1024;
+
+	private static final TextPaint textPaint;
+	private static final Paint bitmapPaint;
+	private static final Rect srcRect = new Rect(), dstRect = new Rect();
+	private static final long[] entryKey = new long[MAX_ENTRIES];
+	private static final int[] entryLeft = new int[MAX_ENTRIES], entryTop = new int[MAX_ENTRIES], entryWidth = new int[MAX_ENTRIES], entryHeight = new int[MAX_ENTRIES], entryCellWidth = new int[MAX_ENTRIES], entryStamp = new int[MAX_ENTRIES];
+	private static final int[] table = new int[TABLE_SIZE];
+	private static final int[] shelfTop = new int[MAX_SHELVES], shelfHeight = new int[MAX_SHELVES], shelfUsed = new int[MAX_SHELVES];
+	private static Bitmap atlas;
+	private static Canvas atlasCanvas;
+	private static int side, entryCount, shelfCount, shelvesBottom, stamp;
+	private static boolean atlasFailed;
+
+	static {
+		textPaint = new TextPaint();
+		textPaint.setDither(false);
+		textPaint.setAntiAlias(true);
+		textPaint.setStyle(Paint.Style.FILL);
+		textPaint.setTextAlign(Paint.Align.LEFT);
+		bitmapPaint = new Paint();
+		bitmapPaint.setDither(false);
+		bitmapPaint.setAntiAlias(false);
+		bitmapPaint.setFilterBitmap(false);
+	}
+
+	private GlyphAtlas() {
+	}
+
+	private static int hash(long key) {
+		int h = (int)(key ^ (key >>> 29)) * 0x9E3779B1;
+		return (h ^ (h >>> 16)) & (TABLE_SIZE - 1);
+	}
+
+	private static int find(long key) {
+		int h = hash(key), i;
+		while ((i = table[h]) != 0) {
+			if (entryKey[i - 1] == key)
+				return i - 1;
+			h = (h + 1) & (TABLE_SIZE - 1);
+		}
+		return -1;
+	}
+
+	private static void insert(int index) {
+		int h = hash(entryKey[index]);
+		while (table[h] != 0)
+			h = (h + 1) & (TABLE_SIZE - 1);
+		table[h] = index + 1;
+	}
+
+	private static void rebuildTable() {
+		Arrays.fill(table, 0);
+		for (int i = entryCount - 1; i >= 0; i--) {
+			if (entryKey[i] != 0)
+				insert(i);
+		}
+	}
+
+	private static boolean createAtlas() {
+		if (atlas != null)
+			return true;
+		if (atlasFailed || UI.iconsTypeface == null)
+			return false;
+		//8 x 8 cells of the most common icon size
+		int s = MIN_SIDE;
+		while (s < (UI.defaultControlContentsSize << 3) && s < MAX_SIDE)
+			s <<= 1;
+		try {
+			atlas = Bitmap.createBitmap(s, s, Bitmap.Config.ARGB_8888);
+			atlasCanvas = new Canvas(atlas);
+		} catch (Throwable ex) {
+			//if we are short on memory, just go on using drawText()
+			atlas = null;
+			atlasCanvas = null;
+			atlasFailed = true;
+			return false;
+		}
+		side = s;
+		textPaint.setTypeface(UI.iconsTypeface);
+		return true;
+	}
+
+	private static int allocate(int width, int height) {
+		if (entryCount < MAX_ENTRIES) {
+			for (int i = 0; i < shelfCount; i++) {
+				if (shelfHeight[i] == height && (side - shelfUsed[i]) >= width) {
+					final int e = entryCount++;
+					entryLeft[e] = shelfUsed[i];
+					entryTop[e] = shelfTop[i];
+					entryCellWidth[e] = width;
+					shelfUsed[i] += width;
+					return e;
+				}
+			}
+			if (shelfCount < MAX_SHELVES && (shelvesBottom + height) <= side) {
+				final int i = shelfCount++;
+				shelfTop[i] = shelvesBottom;
+				shelfHeight[i] = height;
+				shelfUsed[i] = width;
+				shelvesBottom += height;
+				final int e = entryCount++;
+				entryLeft[e] = 0;
+				entryTop[e] = shelfTop[i];
+				entryCellWidth[e] = width;
+				return e;
+			}
+		}
+		//no room left: recycle the least recently used cell that can hold the new glyph
+		int e = -1;
+		for (int i = entryCount - 1; i >= 0; i--) {
+			if (entryHeight[i] == height && entryCellWidth[i] >= width && (e < 0 || (entryStamp[i] - entryStamp[e]) < 0))
+				e = i;
+		}
+		if (e >= 0) {
+			entryKey[e] = 0;
+			rebuildTable();
+		}
+		return e;
+	}
+
+	private static int add(long key, String icon, int size, int color) {
+		textPaint.setTextSize(size);
+		final int width = (int)Math.ceil(textPaint.measureText(icon));
+		if (width <= 0 || width > side)
+			return -1;
+		int e = allocate(width, size);
+		if (e < 0) {
+			//the atlas is filled with cells of other sizes (this only happens after
+			//a lot of different sizes have been used), so start over
+			clear();
+			if (!createAtlas() || (e = allocate(width, size)) < 0)
+				return -1;
+		}
+		final int left = entryLeft[e], top = entryTop[e];
+		entryKey[e] = key;
+		entryWidth[e] = width;
+		entryHeight[e] = size;
+		atlasCanvas.save();
+		atlasCanvas.clipRect(left, top, left + entryCellWidth[e], top + size);
+		atlasCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+		textPaint.setColor(0xff000000 | color);
+		atlasCanvas.drawText(icon, left, top + size, textPaint);
+		atlasCanvas.restore();
+		insert(e);
+		return e;
+	}
+
+	//Draws the icon with its top-left corner at (x, y), exactly where
+	//drawText(icon, x, y + size) would have drawn it. Returns false if the icon
+	//cannot be served from the atlas, in which case nothing is drawn.
+	public static boolean draw(Canvas canvas, String icon, int x, int y, int size, int color) {
+		if (icon.length() != 1 || size <= 0 || !createAtlas() || size > (side >> 2))
+			return false;
+		final long key = ((long)icon.charAt(0) << 48) | ((long)size << 32) | (long)(color & 0x00ffffff);
+		int e = find(key);
+		if (e < 0 && (e = add(key, icon, size, color)) < 0)
+			return false;
+		entryStamp[e] = ++stamp;
+		final int left = entryLeft[e], top = entryTop[e], width = entryWidth[e];
+		srcRect.set(left, top, left + width, top + size);
+		dstRect.set(x, y, x + width, y + size);
+		bitmapPaint.setAlpha(color >>> 24);
+		canvas.drawBitmap(atlas, srcRect, dstRect, bitmapPaint);
+		return true;
+	}
+
+	//Creates a standalone size x size bitmap (used where the icon must leave the
+	//process, such as in widgets and notifications)
+	public static Bitmap createBitmap(String icon, int size, int color) {
+		final Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+		final Canvas canvas = new Canvas(bitmap);
+		if (!draw(canvas, icon, 0, 0, size, color)) {
+			textPaint.setTypeface(UI.iconsTypeface);
+			textPaint.setColor(color);
+			textPaint.setTextSize(size);
+			canvas.drawText(icon, 0, size, textPaint);
+		}
+		return bitmap;
+	}
+
+	//Discards all cells (called when the theme changes, since the colors of
+	//the previous theme will probably never be used again)
+	public static void clear() {
+		Arrays.fill(entryKey, 0);
+		Arrays.fill(table, 0);
+		entryCount = 0;
+		shelfCount = 0;
+		shelvesBottom = 0;
+		//the old bitmap is not erased nor recycled, because it could still be
+		//referenced by a display list recorded during the current frame
+		atlas = null;
+		atlasCanvas = null;
+	}
+}
@@ -61,6 +61,8 @@ public final class TextIconDrawable extends Drawable {
 	}
 
 	public static void drawIcon(Canvas canvas, String icon, int x, int y, int size, int color) {
+		if (GlyphAtlas.draw(canvas, icon, x, y, size, color))
+			return;
 		paint.setColor(color);
 		paint.setTextSize(size);
 		canvas.drawText(icon, x, y + size, paint);
@@ -143,9 +145,7 @@ public final class TextIconDrawable extends Drawable {
 	@Override
 	public void draw(Canvas canvas) {
 		final Rect rect = getBounds();
-		paint.setColor(currentColor);
-		paint.setTextSize(textSize);
-		canvas.drawText(icon, rect.left, rect.top + ((rect.bottom - rect.top + height) >> 1), paint);
+		drawIcon(canvas, icon, rect.left, rect.top + ((rect.bottom - rect.top + height) >> 1) - textSize, textSize, currentColor);
 	}
 
 	@Override
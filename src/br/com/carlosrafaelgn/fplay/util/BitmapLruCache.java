@@ -54,78 +54,160 @@
 
 package br.com.carlosrafaelgn.fplay.util;
 
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+//All methods are thread-safe: the keys are spread among a few shards, each one
+//with its own lock and its own share of the byte budget, so the main thread and
+//the fetcher threads seldom wait for each other.
+//
+//The cache owns one reference of every wrapper it holds. When a wrapper is evicted
+//while someone else (such as a visible list item) still references it, it is moved
+//to a weak second tier, and a later get() resurrects it, instead of decoding it again.
 public final class BitmapLruCache {
-	private volatile int size;
-	private final int maxSize;
-	private final LinkedHashMap<String, ReleasableBitmapWrapper> map;
-	
+	private static final int SHARD_COUNT = 4;
+	private static final AtomicInteger hits = new AtomicInteger(), weakHits = new AtomicInteger(), misses = new AtomicInteger(), evictions = new AtomicInteger();
+
+	private static final class Shard {
+		public final int maxSize;
+		public int size;
+		public final LinkedHashMap<String, ReleasableBitmapWrapper> map;
+		public final HashMap<String, WeakReference<ReleasableBitmapWrapper>> evicted;
+
+		public Shard(int maxSize) {
+			this.maxSize = maxSize;
+			this.map = new LinkedHashMap<>(0, 0.75f, true);
+			this.evicted = new HashMap<>();
+		}
+	}
+
+	private final Shard[] shards;
+
 	public BitmapLruCache(int maxSize) {
-		this.maxSize = maxSize;
-		this.map = new LinkedHashMap<>(0, 0.75f, true);
+		shards = new Shard[SHARD_COUNT];
+		for (int i = 0; i < SHARD_COUNT; i++)
+			shards[i] = new Shard(maxSize / SHARD_COUNT);
+	}
+
+	private Shard shardFor(String key) {
+		final int h = key.hashCode();
+		return shards[(h ^ (h >>> 16)) & (SHARD_COUNT - 1)];
 	}
-	
+
+	//The returned wrapper has already been addRef'ed on behalf of the caller,
+	//who must call release() when done with it
 	public ReleasableBitmapWrapper get(String key) {
-		return map.get(key);
+		final Shard shard = shardFor(key);
+		synchronized (shard) {
+			ReleasableBitmapWrapper value = shard.map.get(key);
+			if (value != null) {
+				value.addRef();
+				hits.incrementAndGet();
+				return value;
+			}
+			final WeakReference<ReleasableBitmapWrapper> ref = shard.evicted.remove(key);
+			if (ref != null && (value = ref.get()) != null && value.addRef()) {
+				//one reference for the caller and another one for the cache
+				value.addRef();
+				weakHits.incrementAndGet();
+				putInShard(shard, key, value);
+				return value;
+			}
+			misses.incrementAndGet();
+			return null;
+		}
 	}
-	
-	public ReleasableBitmapWrapper put(String key, ReleasableBitmapWrapper value) {
-		ReleasableBitmapWrapper previous;
-		
-		size += value.size;
-		
-		previous = map.put(key, value);
+
+	public void put(String key, ReleasableBitmapWrapper value) {
+		final Shard shard = shardFor(key);
+		synchronized (shard) {
+			shard.evicted.remove(key);
+			putInShard(shard, key, value);
+		}
+	}
+
+	private static void putInShard(Shard shard, String key, ReleasableBitmapWrapper value) {
+		shard.size += value.size;
+		final ReleasableBitmapWrapper previous = shard.map.put(key, value);
 		if (previous != null) {
-			size -= previous.size;
+			shard.size -= previous.size;
 			if (previous != value)
 				previous.release();
 		}
-		
-		trimToSize(maxSize);
-		
-		return previous;
+		trimShard(shard, shard.maxSize);
 	}
-	
-	public void trimToSize(int maxSize) {
-		while (size > maxSize && size > 0 && !map.isEmpty()) {
-			//Map.Entry<String, Bitmap> toEvict = map.eldest();
-			
-			//According to this source file: http://grepcode.com/file/repository.grepcode.com/java/root/jdk/openjdk/6-b27/java/util/LinkedHashMap.java
-			//the eldest entry is header.after
-			//therefore, in order not to have to import all the classes needed by LinkedHashMap
-			//just to create a new method (eldest()), we will believe all LinkedHashMap
-			//implementations out there actually follow the proposed source code.
-			//If they do so, then the eldest entry (header.after) is the first entry returned by
-			//LinkedHashIterator.nextEntry() (which, in turn, is the value returned by EntryIterator.next())
-			
-			Map.Entry<String, ReleasableBitmapWrapper> toEvict = map.entrySet().iterator().next();
-			
-			if (toEvict == null)
-				break;
-			
-			final String key = toEvict.getKey();
+
+	private static void trimShard(Shard shard, int maxSize) {
+		if (shard.size <= maxSize || shard.size <= 0)
+			return;
+		//the eldest entry is the first one returned by the iterator of an access-ordered map
+		final Iterator<Map.Entry<String, ReleasableBitmapWrapper>> it = shard.map.entrySet().iterator();
+		while (shard.size > maxSize && it.hasNext()) {
+			final Map.Entry<String, ReleasableBitmapWrapper> toEvict = it.next();
 			final ReleasableBitmapWrapper value = toEvict.getValue();
-			map.remove(key);
+			it.remove();
+			evictions.incrementAndGet();
 			if (value != null) {
-				size -= value.size;
-				value.release();
+				shard.size -= value.size;
+				//if release() did not recycle the bitmap, someone is still using it
+				if (!value.release())
+					shard.evicted.put(toEvict.getKey(), new WeakReference<>(value));
 			}
 		}
+		if (shard.size < 0)
+			shard.size = 0;
+		//drop the weak entries whose wrappers have been released by everyone else
+		final Iterator<WeakReference<ReleasableBitmapWrapper>> weak = shard.evicted.values().iterator();
+		while (weak.hasNext()) {
+			final ReleasableBitmapWrapper value = weak.next().get();
+			if (value == null || value.bitmap == null)
+				weak.remove();
+		}
 	}
-	
-	public ReleasableBitmapWrapper remove(String key) {
-		ReleasableBitmapWrapper previous;
-		previous = map.remove(key);
-		if (previous != null) {
-			size -= previous.size;
-			previous.release();
+
+	public void trimToSize(int maxSize) {
+		final int shardMaxSize = ((maxSize < 0) ? -1 : (maxSize / SHARD_COUNT));
+		for (int i = 0; i < SHARD_COUNT; i++) {
+			final Shard shard = shards[i];
+			synchronized (shard) {
+				trimShard(shard, shardMaxSize);
+			}
 		}
-		return previous;
 	}
-	
+
+	public void remove(String key) {
+		final Shard shard = shardFor(key);
+		synchronized (shard) {
+			shard.evicted.remove(key);
+			final ReleasableBitmapWrapper previous = shard.map.remove(key);
+			if (previous != null) {
+				shard.size -= previous.size;
+				previous.release();
+			}
+		}
+	}
+
 	public void evictAll() {
-		trimToSize(-1); // -1 will evict 0-sized elements
+		for (int i = 0; i < SHARD_COUNT; i++) {
+			final Shard shard = shards[i];
+			synchronized (shard) {
+				for (ReleasableBitmapWrapper value : shard.map.values())
+					value.release();
+				shard.map.clear();
+				shard.evicted.clear();
+				shard.size = 0;
+			}
+		}
+	}
+
+	public static String getReport() {
+		return "Album Art Cache" +
+			"\nHits: " + hits.get() + " (weak " + weakHits.get() + ")" +
+			"\nMisses: " + misses.get() +
+			"\nEvictions: " + evictions.get();
 	}
 }
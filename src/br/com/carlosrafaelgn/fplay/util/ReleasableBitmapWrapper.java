@@ -64,25 +64,29 @@ public final class ReleasableBitmapWrapper {
 		return bitmap.getByteCount();
 	}
 	
-	public void addRef() {
+	//Returns false if the bitmap has already been recycled
+	public boolean addRef() {
 		synchronized (this) {
 			if (ref <= 0 || bitmap == null)
-				return;
+				return false;
 			ref++;
+			return true;
 		}
 	}
 	
-	public void release() {
+	//Returns true if this was the last reference, and the bitmap has been recycled
+	public boolean release() {
 		synchronized (this) {
 			if (ref > 1) {
 				ref--;
-			} else {
-				ref = 0;
-				if (bitmap != null) {
-					bitmap.recycle();
-					bitmap = null;
-				}
+				return false;
 			}
+			ref = 0;
+			if (bitmap != null) {
+				bitmap.recycle();
+				bitmap = null;
+			}
+			return true;
 		}
 	}
 }
@@ -0,0 +1,710 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import br.com.carlosrafaelgn.fplay.playback.Player;
+
+//Key/value store used to persist the settings, with the same keys and semantics as
+//SerializableMap, but without boxing the values, and writing only what has changed.
+//
+//File format: MAGIC followed by records, appended in order (later records override earlier ones)
+//  int key, byte type, int payload length, payload, int CRC32 (of everything before it)
+//A torn/corrupted record, and everything after it, is ignored. From time to time the whole
+//store is rewritten into a temporary file, which is then renamed over the original one.
+//Files written by SerializableMap are also accepted (and converted on the next commit).
+//
+//All methods, but commit(), are thread-safe and never touch the disk. commit() must be
+//called on a snapshot (see takeSnapshot()), so the store can be modified while it runs.
+public final class SettingsStore {
+	private static final int MAGIC = 0x01535046; //"FPS\1"
+
+	private static final int TYPE_INT = 0;
+	private static final int TYPE_LONG = 1;
+	private static final int TYPE_FLOAT = 2;
+	private static final int TYPE_DOUBLE = 3;
+	private static final int TYPE_STRING = 4;
+	private static final int TYPE_BUFFER = 5;
+	private static final int TYPE_BITS = 6;
+	private static final int TYPE_REMOVED = 7;
+
+	private static final int RECORD_OVERHEAD = 4 + 1 + 4 + 4;
+	private static final int MIN_LOG_LENGTH_BEFORE_COMPACTION = 4096;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final String fileName;
+	private int[] keys;
+	private byte[] types;
+	private long[] values;
+	private Object[] objects;
+	private boolean[] dirty;
+	private int count, dirtyCount;
+	private byte[] bitStorage;
+	private int bitCount;
+	private boolean bitsDirty, needsCompaction;
+	private long compactedLength, fileLength, lastCommitLength;
+
+	private SettingsStore(String fileName, int initialCapacity) {
+		this.fileName = fileName;
+		keys = new int[initialCapacity];
+		types = new byte[initialCapacity];
+		values = new long[initialCapacity];
+		objects = new Object[initialCapacity];
+		dirty = new boolean[initialCapacity];
+	}
+
+	public static SettingsStore load(String fileName) {
+		final SettingsStore store = new SettingsStore(fileName, 128);
+		final File file = Player.theApplication.getFileStreamPath(fileName);
+		if (!file.exists()) {
+			//first run (nothing to compact into, but also nothing to lose)
+			store.needsCompaction = true;
+			return store;
+		}
+		BufferedInputStream bs = null;
+		try {
+			bs = new BufferedInputStream(new FileInputStream(file), 4096);
+			final byte[] buf = new byte[16];
+			if (readFully(bs, buf, 4) && Serializer.deserializeInt(buf, 0) == MAGIC) {
+				store.fileLength = 4 + store.readRecords(bs);
+				store.compactedLength = store.fileLength;
+				//if the file was not completely valid, make sure the garbage is not kept around
+				store.needsCompaction = (store.fileLength != file.length());
+			} else {
+				//settings written by SerializableMap: the next commit will rewrite everything
+				store.readLegacy(bs, buf);
+				store.needsCompaction = true;
+			}
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+			store.needsCompaction = true;
+		} finally {
+			try {
+				if (bs != null)
+					bs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+		}
+		//nothing read from the file is dirty
+		for (int i = store.count - 1; i >= 0; i--)
+			store.dirty[i] = false;
+		store.dirtyCount = 0;
+		store.bitsDirty = false;
+		return store;
+	}
+
+	private static boolean readFully(InputStream is, byte[] buf, int length) throws IOException {
+		int offset = 0;
+		while (offset < length) {
+			final int r = is.read(buf, offset, length - offset);
+			if (r < 0)
+				return false;
+			offset += r;
+		}
+		return true;
+	}
+
+	private long readRecords(InputStream is) throws IOException {
+		final CRC32 crc = new CRC32();
+		byte[] buf = new byte[256];
+		long validLength = 0;
+		while (readFully(is, buf, 9)) {
+			final int key = Serializer.deserializeInt(buf, 0);
+			final int type = buf[4];
+			final int length = Serializer.deserializeInt(buf, 5);
+			if (type < TYPE_INT || type > TYPE_REMOVED || length < 0 || length > (16 * 1024 * 1024))
+				break;
+			if (buf.length < (9 + length + 4)) {
+				final byte[] tmp = new byte[9 + length + 4];
+				System.arraycopy(buf, 0, tmp, 0, 9);
+				buf = tmp;
+			}
+			if (!readRemaining(is, buf, 9, length + 4))
+				break;
+			crc.reset();
+			crc.update(buf, 0, 9 + length);
+			if ((int)crc.getValue() != Serializer.deserializeInt(buf, 9 + length))
+				break;
+			applyRecord(key, type, buf, 9, length);
+			validLength += RECORD_OVERHEAD + length;
+		}
+		return validLength;
+	}
+
+	private static boolean readRemaining(InputStream is, byte[] buf, int offset, int length) throws IOException {
+		while (length > 0) {
+			final int r = is.read(buf, offset, length);
+			if (r < 0)
+				return false;
+			offset += r;
+			length -= r;
+		}
+		return true;
+	}
+
+	private void applyRecord(int key, int type, byte[] buf, int offset, int length) {
+		switch (type) {
+		case TYPE_INT:
+		case TYPE_FLOAT:
+			if (length == 4)
+				putPrimitive(key, type, Serializer.deserializeInt(buf, offset));
+			break;
+		case TYPE_LONG:
+		case TYPE_DOUBLE:
+			if (length == 8)
+				putPrimitive(key, type, Serializer.deserializeLong(buf, offset));
+			break;
+		case TYPE_STRING:
+			putObject(key, TYPE_STRING, new String(buf, offset, length, UTF8));
+			break;
+		case TYPE_BUFFER:
+			final byte[] b = new byte[length];
+			System.arraycopy(buf, offset, b, 0, length);
+			putObject(key, TYPE_BUFFER, b);
+			break;
+		case TYPE_BITS:
+			if (length >= 4) {
+				bitCount = Serializer.deserializeInt(buf, offset);
+				final int byteCount = ((bitCount + 7) >>> 3);
+				if (bitCount < 0 || byteCount > (length - 4)) {
+					bitCount = 0;
+					break;
+				}
+				bitStorage = new byte[byteCount + 8];
+				System.arraycopy(buf, offset + 4, bitStorage, 0, byteCount);
+			}
+			break;
+		case TYPE_REMOVED:
+			remove(key);
+			break;
+		}
+	}
+
+	//Mirrors SerializableMap.deserialize()
+	private void readLegacy(InputStream is, byte[] buf) throws IOException {
+		if (!readRemaining(is, buf, 4, 5))
+			return;
+		do {
+			final int key = Serializer.deserializeInt(buf, 0);
+			int tmp;
+			switch ((int)buf[4]) {
+			case TYPE_INT:
+				putPrimitive(key, TYPE_INT, Serializer.deserializeInt(buf, 5));
+				break;
+			case TYPE_LONG:
+				if (!readRemaining(is, buf, 9, 4)) return;
+				putPrimitive(key, TYPE_LONG, Serializer.deserializeLong(buf, 5));
+				break;
+			case TYPE_FLOAT:
+				putPrimitive(key, TYPE_FLOAT, Serializer.deserializeInt(buf, 5));
+				break;
+			case TYPE_DOUBLE:
+				if (!readRemaining(is, buf, 9, 4)) return;
+				putPrimitive(key, TYPE_DOUBLE, Serializer.deserializeLong(buf, 5));
+				break;
+			case TYPE_STRING:
+				tmp = Serializer.deserializeInt(buf, 5);
+				if (tmp <= 0) {
+					putObject(key, TYPE_STRING, "");
+				} else {
+					final byte[] tmpB = new byte[tmp];
+					if (!readFully(is, tmpB, tmp)) return;
+					//SerializableMap used the platform's default charset
+					putObject(key, TYPE_STRING, new String(tmpB, 0, tmp));
+				}
+				break;
+			case TYPE_BUFFER:
+				tmp = Serializer.deserializeInt(buf, 5);
+				final byte[] tmpB = new byte[(tmp <= 0) ? 0 : tmp];
+				if (tmp > 0 && !readFully(is, tmpB, tmp)) return;
+				putObject(key, TYPE_BUFFER, tmpB);
+				break;
+			case TYPE_BITS:
+				bitCount = Serializer.deserializeInt(buf, 5);
+				if (bitCount > 0) {
+					bitStorage = new byte[((bitCount + 7) >>> 3) + 8];
+					if (!readFully(is, bitStorage, (bitCount + 7) >>> 3)) {
+						bitCount = 0;
+						return;
+					}
+				}
+				break;
+			default:
+				return;
+			}
+		} while (readFully(is, buf, 9));
+	}
+
+	private int indexOfKey(int key) {
+		int lo = 0, hi = count - 1;
+		while (lo <= hi) {
+			final int mid = (lo + hi) >>> 1;
+			final int k = keys[mid];
+			if (k < key)
+				lo = mid + 1;
+			else if (k > key)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return ~lo;
+	}
+
+	private int insertKey(int key) {
+		int i = indexOfKey(key);
+		if (i >= 0)
+			return i;
+		i = ~i;
+		if (count == keys.length) {
+			final int capacity = count + (count >> 1) + 8;
+			final int[] newKeys = new int[capacity];
+			final byte[] newTypes = new byte[capacity];
+			final long[] newValues = new long[capacity];
+			final Object[] newObjects = new Object[capacity];
+			final boolean[] newDirty = new boolean[capacity];
+			System.arraycopy(keys, 0, newKeys, 0, count);
+			System.arraycopy(types, 0, newTypes, 0, count);
+			System.arraycopy(values, 0, newValues, 0, count);
+			System.arraycopy(objects, 0, newObjects, 0, count);
+			System.arraycopy(dirty, 0, newDirty, 0, count);
+			keys = newKeys;
+			types = newTypes;
+			values = newValues;
+			objects = newObjects;
+			dirty = newDirty;
+		}
+		final int move = count - i;
+		if (move > 0) {
+			System.arraycopy(keys, i, keys, i + 1, move);
+			System.arraycopy(types, i, types, i + 1, move);
+			System.arraycopy(values, i, values, i + 1, move);
+			System.arraycopy(objects, i, objects, i + 1, move);
+			System.arraycopy(dirty, i, dirty, i + 1, move);
+		}
+		keys[i] = key;
+		types[i] = TYPE_REMOVED;
+		values[i] = 0;
+		objects[i] = null;
+		dirty[i] = false;
+		count++;
+		return i;
+	}
+
+	private void markDirty(int i) {
+		if (!dirty[i]) {
+			dirty[i] = true;
+			dirtyCount++;
+		}
+	}
+
+	private void putPrimitive(int key, int type, long value) {
+		final int i = insertKey(key);
+		if (types[i] != type || values[i] != value) {
+			types[i] = (byte)type;
+			values[i] = value;
+			objects[i] = null;
+			markDirty(i);
+		}
+	}
+
+	private void putObject(int key, int type, Object value) {
+		final int i = insertKey(key);
+		if (types[i] != type || !equals(objects[i], value)) {
+			types[i] = (byte)type;
+			values[i] = 0;
+			objects[i] = value;
+			markDirty(i);
+		}
+	}
+
+	private static boolean equals(Object a, Object b) {
+		if (a == b)
+			return true;
+		if (a == null || b == null)
+			return false;
+		if (a instanceof byte[] && b instanceof byte[]) {
+			final byte[] x = (byte[])a, y = (byte[])b;
+			if (x.length != y.length)
+				return false;
+			for (int i = x.length - 1; i >= 0; i--) {
+				if (x[i] != y[i])
+					return false;
+			}
+			return true;
+		}
+		return a.equals(b);
+	}
+
+	public synchronized boolean isDirty() {
+		return (dirtyCount != 0 || bitsDirty);
+	}
+
+	public synchronized void putBit(int bitIndex, boolean value) {
+		if (bitIndex >= bitCount) {
+			bitCount = bitIndex + 1;
+			final int i = ((bitCount + 7) >>> 3);
+			if (bitStorage == null) {
+				bitStorage = new byte[i + 8];
+			} else if (bitStorage.length < i) {
+				final byte[] tmp = new byte[i + 8];
+				System.arraycopy(bitStorage, 0, tmp, 0, bitStorage.length);
+				bitStorage = tmp;
+			}
+			bitsDirty = true;
+		}
+		final int i = (bitIndex >>> 3);
+		final int mask = 1 << (bitIndex & 7);
+		final int old = bitStorage[i];
+		if (value)
+			bitStorage[i] |= mask;
+		else
+			bitStorage[i] &= ~mask;
+		if (old != bitStorage[i])
+			bitsDirty = true;
+	}
+
+	public synchronized boolean getBit(int bitIndex) {
+		return (bitIndex < bitCount) && ((bitStorage[bitIndex >>> 3] & (1 << (bitIndex & 7))) != 0);
+	}
+
+	public synchronized boolean getBit(int bitIndex, boolean defaultValue) {
+		if (bitIndex >= bitCount)
+			return defaultValue;
+		return ((bitStorage[bitIndex >>> 3] & (1 << (bitIndex & 7))) != 0);
+	}
+
+	public synchronized int getBitI(int bitIndex, int defaultValue) {
+		if (bitIndex >= bitCount)
+			return defaultValue;
+		return ((bitStorage[bitIndex >>> 3] >> (bitIndex & 7)) & 1);
+	}
+
+	public synchronized void remove(int key) {
+		final int i = indexOfKey(key);
+		if (i >= 0 && types[i] != TYPE_REMOVED) {
+			//keep the slot around, so the removal can be written to the log
+			types[i] = TYPE_REMOVED;
+			values[i] = 0;
+			objects[i] = null;
+			markDirty(i);
+		}
+	}
+
+	public synchronized void put(int key, int value) {
+		putPrimitive(key, TYPE_INT, value);
+	}
+
+	public synchronized void put(int key, long value) {
+		putPrimitive(key, TYPE_LONG, value);
+	}
+
+	public synchronized void put(int key, float value) {
+		putPrimitive(key, TYPE_FLOAT, Float.floatToRawIntBits(value));
+	}
+
+	public synchronized void put(int key, double value) {
+		putPrimitive(key, TYPE_DOUBLE, Double.doubleToRawLongBits(value));
+	}
+
+	public synchronized void put(int key, String value) {
+		if (value == null)
+			remove(key);
+		else
+			putObject(key, TYPE_STRING, value);
+	}
+
+	public synchronized void put(int key, byte[] value) {
+		if (value == null)
+			remove(key);
+		else
+			putObject(key, TYPE_BUFFER, value.clone());
+	}
+
+	public synchronized int getInt(int key) {
+		return getInt(key, 0);
+	}
+
+	public synchronized int getInt(int key, int defaultValue) {
+		final int i = indexOfKey(key);
+		return ((i < 0 || types[i] != TYPE_INT) ? defaultValue : (int)values[i]);
+	}
+
+	public synchronized long getLong(int key, long defaultValue) {
+		final int i = indexOfKey(key);
+		return ((i < 0 || types[i] != TYPE_LONG) ? defaultValue : values[i]);
+	}
+
+	public synchronized float getFloat(int key, float defaultValue) {
+		final int i = indexOfKey(key);
+		return ((i < 0 || types[i] != TYPE_FLOAT) ? defaultValue : Float.intBitsToFloat((int)values[i]));
+	}
+
+	public synchronized double getDouble(int key, double defaultValue) {
+		final int i = indexOfKey(key);
+		return ((i < 0 || types[i] != TYPE_DOUBLE) ? defaultValue : Double.longBitsToDouble(values[i]));
+	}
+
+	public synchronized String getString(int key) {
+		final int i = indexOfKey(key);
+		return ((i < 0 || types[i] != TYPE_STRING) ? null : (String)objects[i]);
+	}
+
+	public synchronized byte[] getBuffer(int key) {
+		final int i = indexOfKey(key);
+		return ((i < 0 || types[i] != TYPE_BUFFER) ? null : (byte[])objects[i]);
+	}
+
+	private int writeRecord(BufferedOutputStream bs, CRC32 crc, byte[] buf, int key, int type, long value, Object object) throws IOException {
+		byte[] payload = null;
+		int length;
+		switch (type) {
+		case TYPE_INT:
+		case TYPE_FLOAT:
+			Serializer.serializeInt(buf, 9, (int)value);
+			length = 4;
+			break;
+		case TYPE_LONG:
+		case TYPE_DOUBLE:
+			Serializer.serializeLong(buf, 9, value);
+			length = 8;
+			break;
+		case TYPE_STRING:
+			payload = ((String)object).getBytes(UTF8);
+			length = payload.length;
+			break;
+		case TYPE_BUFFER:
+			payload = (byte[])object;
+			length = payload.length;
+			break;
+		case TYPE_BITS:
+			final int byteCount = ((bitCount + 7) >>> 3);
+			Serializer.serializeInt(buf, 9, bitCount);
+			payload = bitStorage;
+			length = 4 + byteCount;
+			break;
+		default:
+			length = 0;
+			break;
+		}
+		Serializer.serializeInt(buf, 0, key);
+		buf[4] = (byte)type;
+		Serializer.serializeInt(buf, 5, length);
+		crc.reset();
+		if (type == TYPE_BITS) {
+			crc.update(buf, 0, 13);
+			bs.write(buf, 0, 13);
+			if (length > 4) {
+				crc.update(payload, 0, length - 4);
+				bs.write(payload, 0, length - 4);
+			}
+		} else if (payload != null) {
+			crc.update(buf, 0, 9);
+			bs.write(buf, 0, 9);
+			crc.update(payload, 0, length);
+			bs.write(payload, 0, length);
+		} else {
+			crc.update(buf, 0, 9 + length);
+			bs.write(buf, 0, 9 + length);
+		}
+		Serializer.serializeInt(buf, 0, (int)crc.getValue());
+		bs.write(buf, 0, 4);
+		return RECORD_OVERHEAD + length;
+	}
+
+	private boolean compact(File file) {
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		FileOutputStream fs = null;
+		BufferedOutputStream bs = null;
+		try {
+			fs = new FileOutputStream(tmpFile, false);
+			bs = new BufferedOutputStream(fs, 4096);
+			final CRC32 crc = new CRC32();
+			final byte[] buf = new byte[32];
+			Serializer.serializeInt(buf, 0, MAGIC);
+			bs.write(buf, 0, 4);
+			long length = 4 + writeRecord(bs, crc, buf, 0, TYPE_BITS, 0, null);
+			//the compacted entries go to new arrays, which only replace the current ones once
+			//the new file is in place (otherwise, a failure would leave them half compacted)
+			final int capacity = keys.length;
+			final int[] newKeys = new int[capacity];
+			final byte[] newTypes = new byte[capacity];
+			final long[] newValues = new long[capacity];
+			final Object[] newObjects = new Object[capacity];
+			int newCount = 0;
+			for (int i = 0; i < count; i++) {
+				final int type = types[i];
+				if (type == TYPE_REMOVED)
+					continue; //removed entries do not need to survive a compaction
+				length += writeRecord(bs, crc, buf, keys[i], type, values[i], objects[i]);
+				newKeys[newCount] = keys[i];
+				newTypes[newCount] = types[i];
+				newValues[newCount] = values[i];
+				newObjects[newCount] = objects[i];
+				newCount++;
+			}
+			bs.flush();
+			fs.getFD().sync();
+			bs.close();
+			bs = null;
+			fs = null;
+			//rename() is atomic: either the old or the new file will be there, never half of each
+			if (!tmpFile.renameTo(file))
+				return false;
+			keys = newKeys;
+			types = newTypes;
+			values = newValues;
+			objects = newObjects;
+			dirty = new boolean[capacity];
+			count = newCount;
+			dirtyCount = 0;
+			bitsDirty = false;
+			needsCompaction = false;
+			compactedLength = length;
+			fileLength = length;
+			lastCommitLength = length;
+			return true;
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+		} finally {
+			try {
+				if (bs != null)
+					bs.close();
+				else if (fs != null)
+					fs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+		}
+		return false;
+	}
+
+	//Copies everything (the String and byte[] values are never modified, so they are shared)
+	//and marks this store as clean: from now on, only new changes are considered dirty
+	public synchronized SettingsStore takeSnapshot() {
+		final SettingsStore snapshot = new SettingsStore(fileName, count + 1);
+		System.arraycopy(keys, 0, snapshot.keys, 0, count);
+		System.arraycopy(types, 0, snapshot.types, 0, count);
+		System.arraycopy(values, 0, snapshot.values, 0, count);
+		System.arraycopy(objects, 0, snapshot.objects, 0, count);
+		System.arraycopy(dirty, 0, snapshot.dirty, 0, count);
+		snapshot.count = count;
+		snapshot.dirtyCount = dirtyCount;
+		if (bitStorage != null)
+			snapshot.bitStorage = bitStorage.clone();
+		snapshot.bitCount = bitCount;
+		snapshot.bitsDirty = bitsDirty;
+		snapshot.needsCompaction = needsCompaction;
+		snapshot.compactedLength = compactedLength;
+		snapshot.fileLength = fileLength;
+		for (int i = count - 1; i >= 0; i--)
+			dirty[i] = false;
+		dirtyCount = 0;
+		bitsDirty = false;
+		needsCompaction = false;
+		return snapshot;
+	}
+
+	//Must be called after committing a snapshot taken from this store
+	public synchronized void snapshotCommitted(SettingsStore snapshot, boolean success) {
+		compactedLength = snapshot.compactedLength;
+		fileLength = snapshot.fileLength;
+		//when something goes wrong, we no longer know which changes have been written
+		//so everything will be written again on the next commit
+		if (!success || snapshot.needsCompaction)
+			needsCompaction = true;
+	}
+
+	//Amount of bytes written by the last successful commit()
+	public long getLastCommitLength() {
+		return lastCommitLength;
+	}
+
+	public boolean commit() {
+		lastCommitLength = 0;
+		if (!needsCompaction && dirtyCount == 0 && !bitsDirty)
+			return true;
+		final File file = Player.theApplication.getFileStreamPath(fileName);
+		if (needsCompaction || !file.exists() || file.length() != fileLength ||
+			(fileLength - compactedLength) > Math.max(MIN_LOG_LENGTH_BEFORE_COMPACTION, compactedLength))
+			return compact(file);
+		FileOutputStream fs = null;
+		BufferedOutputStream bs = null;
+		try {
+			fs = new FileOutputStream(file, true);
+			bs = new BufferedOutputStream(fs, 1024);
+			final CRC32 crc = new CRC32();
+			final byte[] buf = new byte[32];
+			long length = 0;
+			if (bitsDirty)
+				length += writeRecord(bs, crc, buf, 0, TYPE_BITS, 0, null);
+			for (int i = 0; i < count; i++) {
+				if (dirty[i])
+					length += writeRecord(bs, crc, buf, keys[i], types[i], values[i], objects[i]);
+			}
+			bs.flush();
+			fs.getFD().sync();
+			for (int i = 0; i < count; i++)
+				dirty[i] = false;
+			dirtyCount = 0;
+			bitsDirty = false;
+			fileLength += length;
+			lastCommitLength = length;
+			return true;
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+			//whatever has been partially appended will be discarded by the CRC
+			needsCompaction = true;
+		} finally {
+			try {
+				if (bs != null)
+					bs.close();
+				else if (fs != null)
+					fs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+		}
+		return false;
+	}
+}
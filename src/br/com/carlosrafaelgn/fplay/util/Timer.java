@@ -45,100 +45,33 @@ public final class Timer implements MainHandler.Callback {
 	private static final int MSG_ONESHOT = 0x0200;
 	private static final int MSG_INTERVAL = 0x0201;
 	private final Object sync;
-	private final String name;
 	private final boolean oneShot, handledOnMain, compensatingForDelays;
+	private final TimerScheduler scheduler;
 	private volatile TimerHandler timerHandler;
 	private volatile int interval, version;
-	private volatile TimerThread thread;
 	private volatile boolean alive, paused;
 	private volatile Object param;
 	private long nextTime;
-	
-	private class TimerThread extends Thread {
-		private final int myVersion;
-		
-		public TimerThread(int myVersion, String name) {
-			super((name == null) ? "Timer Thread" : name);
-			this.myVersion = myVersion;
-		}
-		
-		@Override
-		public void run() {
-			long lastTime = SystemClock.uptimeMillis();
-			while (version == myVersion) {
-				if (paused) {
-					synchronized (sync) {
-						try {
-							sync.wait();
-						} catch (InterruptedException ex) {
-							ex.printStackTrace();
-						}
-					}
-					if (version != myVersion)
-						break;
-				}
-				if (compensatingForDelays) {
-					final long now = SystemClock.uptimeMillis();
-					final int actualInterval = interval - ((int)now - (int)lastTime);
-					lastTime = now;
-					if (actualInterval > 0) {
-						synchronized (sync) {
-							try {
-								sync.wait(actualInterval);
-							} catch (InterruptedException ex) {
-								ex.printStackTrace();
-							}
-						}
-					} else {
-						synchronized (sync) {
-							try {
-								sync.wait(1); //just not to hog the CPU!
-							} catch (InterruptedException ex) {
-								ex.printStackTrace();
-							}
-						}
-					}
-				} else {
-					synchronized (sync) {
-						try {
-							sync.wait(interval);
-						} catch (InterruptedException ex) {
-							ex.printStackTrace();
-						}
-					}
-				}
-				if (paused)
-					continue;
-				try {
-					if (version == myVersion) {
-						if (timerHandler != null)
-							timerHandler.handleTimer(Timer.this, param);
-					}
-				} catch (Throwable ex) {
-					ex.printStackTrace();
-					break;
-				}
-				if (oneShot)
-					break;
-			}
-			if (version == myVersion) {
-				synchronized (sync) {
-					if (version == myVersion) {
-						thread = null;
-						alive = false;
-					}
-				}
-			}
-		}
-	}
+	//guarded by the scheduler's lock
+	long schedulerDeadline;
+	int schedulerIndex;
 
 	public Timer(TimerHandler timerHandler, String name, boolean oneShot, boolean handledOnMain, boolean compensatingForDelays) {
+		this(timerHandler, name, oneShot, handledOnMain, compensatingForDelays, false);
+	}
+
+	//Timers not handled on the main thread no longer own a thread: they share the
+	//thread of their lane (name is kept only for compatibility). audioPriority
+	//selects a separate lane, running at audio priority, so those timers are not
+	//delayed by slower handlers (such as the visualizer's)
+	public Timer(TimerHandler timerHandler, String name, boolean oneShot, boolean handledOnMain, boolean compensatingForDelays, boolean audioPriority) {
 		this.sync = new Object();
 		this.timerHandler = timerHandler;
-		this.name = name;
 		this.oneShot = oneShot;
 		this.handledOnMain = handledOnMain;
 		this.compensatingForDelays = compensatingForDelays;
+		this.scheduler = (handledOnMain ? null : TimerScheduler.getLane(audioPriority));
+		this.schedulerIndex = -1;
 	}
 	
 	public void start(int interval) {
@@ -147,7 +80,6 @@ public final class Timer implements MainHandler.Callback {
 			this.interval = interval;
 			param = null;
 			alive = true;
-			thread = null;
 			if (oneShot) {
 				MainHandler.sendMessageAtTime(this, MSG_ONESHOT, version, 0, SystemClock.uptimeMillis() + interval);
 			} else {
@@ -161,8 +93,11 @@ public final class Timer implements MainHandler.Callback {
 				this.interval = interval;
 				param = null;
 				alive = true;
-				thread = new TimerThread(version, name);
-				thread.start();
+				//a paused timer is only scheduled again by resume()
+				if (paused)
+					scheduler.unschedule(this);
+				else
+					scheduler.schedule(this, System.nanoTime() + (interval * 1000000L));
 			}
 		}
 	}
@@ -174,7 +109,6 @@ public final class Timer implements MainHandler.Callback {
 			this.param = param;
 			alive = true;
 			paused = false;
-			thread = null;
 			if (oneShot) {
 				MainHandler.sendMessageAtTime(this, MSG_ONESHOT, version, 0, SystemClock.uptimeMillis() + interval);
 			} else {
@@ -185,28 +119,36 @@ public final class Timer implements MainHandler.Callback {
 		} else {
 			synchronized (sync) {
 				version++;
-				if (paused && thread != null)
-					sync.notifyAll();
 				this.interval = interval;
 				this.param = param;
 				alive = true;
 				paused = false;
-				thread = new TimerThread(version, name);
-				thread.start();
+				scheduler.schedule(this, System.nanoTime() + (interval * 1000000L));
 			}
 		}
 	}
 	
+	//Takes effect on the next tick (can be called from within handleTimer())
+	public void setInterval(int interval) {
+		this.interval = interval;
+	}
+
 	public void pause() {
-		if (alive && !handledOnMain)
-			paused = true;
+		if (alive && !handledOnMain) {
+			synchronized (sync) {
+				paused = true;
+				scheduler.unschedule(this);
+			}
+		}
 	}
 	
 	public void resume() {
 		if (alive && !handledOnMain && paused) {
-			paused = false;
 			synchronized (sync) {
-				sync.notifyAll();
+				if (!alive || !paused)
+					return;
+				paused = false;
+				scheduler.schedule(this, System.nanoTime() + (compensatingForDelays ? 0 : (interval * 1000000L)));
 			}
 		}
 	}
@@ -219,10 +161,7 @@ public final class Timer implements MainHandler.Callback {
 			} else {
 				synchronized (sync) {
 					version++;
-					if (thread != null) {
-						sync.notifyAll();
-						thread = null;
-					}
+					scheduler.unschedule(this);
 				}
 			}
 			alive = false;
@@ -235,6 +174,47 @@ public final class Timer implements MainHandler.Callback {
 		param = null;
 	}
 	
+	//Runs on the scheduler's thread (deadline is the time this tick was due)
+	void tick(long deadline) {
+		final int myVersion = version;
+		if (!alive || paused)
+			return;
+		try {
+			final TimerHandler timerHandler = this.timerHandler;
+			if (timerHandler != null)
+				timerHandler.handleTimer(this, param);
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+			finish(myVersion);
+			return;
+		}
+		if (oneShot) {
+			finish(myVersion);
+			return;
+		}
+		synchronized (sync) {
+			if (version != myVersion || !alive || paused)
+				return;
+			final long now = System.nanoTime();
+			long next;
+			if (compensatingForDelays) {
+				next = deadline + (interval * 1000000L);
+				if (next - now <= 0)
+					next = now + 1000000L; //just not to hog the CPU!
+			} else {
+				next = now + (interval * 1000000L);
+			}
+			scheduler.schedule(this, next);
+		}
+	}
+
+	private void finish(int myVersion) {
+		synchronized (sync) {
+			if (version == myVersion)
+				alive = false;
+		}
+	}
+
 	@Override
 	public boolean handleMessage(Message msg) {
 		if (msg.arg1 == version) {
@@ -0,0 +1,154 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import android.os.Process;
+
+//Single thread shared by all timers of a lane that are not handled on the main
+//thread: instead of one sleeping thread per timer, the lane keeps the pending
+//deadlines and sleeps only until the earliest one
+final class TimerScheduler implements Runnable {
+	private static final int IDLE_TIMEOUT_MS = 5000;
+	private static TimerScheduler defaultLane, audioLane;
+
+	private final String name;
+	private final int priority;
+	private Timer[] timers;
+	private int count;
+	private boolean threadAlive;
+
+	private TimerScheduler(String name, int priority) {
+		this.name = name;
+		this.priority = priority;
+		this.timers = new Timer[4];
+	}
+
+	public static synchronized TimerScheduler getLane(boolean audioPriority) {
+		if (audioPriority) {
+			if (audioLane == null)
+				audioLane = new TimerScheduler("Audio Timer Thread", Process.THREAD_PRIORITY_AUDIO);
+			return audioLane;
+		}
+		if (defaultLane == null)
+			defaultLane = new TimerScheduler("Timer Thread", Process.THREAD_PRIORITY_DEFAULT);
+		return defaultLane;
+	}
+
+	//deadline is expressed in System.nanoTime() units (monotonic)
+	public synchronized void schedule(Timer timer, long deadline) {
+		timer.schedulerDeadline = deadline;
+		if (timer.schedulerIndex < 0) {
+			if (count == timers.length) {
+				final Timer[] tmp = new Timer[count << 1];
+				System.arraycopy(timers, 0, tmp, 0, count);
+				timers = tmp;
+			}
+			timers[count] = timer;
+			timer.schedulerIndex = count;
+			count++;
+		}
+		if (threadAlive) {
+			notify();
+		} else {
+			threadAlive = true;
+			(new Thread(this, name)).start();
+		}
+	}
+
+	public synchronized void unschedule(Timer timer) {
+		if (timer.schedulerIndex >= 0) {
+			removeAt(timer.schedulerIndex);
+			notify();
+		}
+	}
+
+	private void removeAt(int index) {
+		timers[index].schedulerIndex = -1;
+		count--;
+		if (index != count) {
+			timers[index] = timers[count];
+			timers[index].schedulerIndex = index;
+		}
+		timers[count] = null;
+	}
+
+	@Override
+	public void run() {
+		Process.setThreadPriority(priority);
+		boolean idle = false;
+		for (; ; ) {
+			final Timer timer;
+			final long deadline;
+			synchronized (this) {
+				for (; ; ) {
+					if (count == 0) {
+						//linger for a while before going away, so pausing and
+						//resuming a timer does not keep creating new threads
+						if (idle) {
+							threadAlive = false;
+							return;
+						}
+						idle = true;
+						try {
+							wait(IDLE_TIMEOUT_MS);
+						} catch (InterruptedException ex) {
+							ex.printStackTrace();
+						}
+						continue;
+					}
+					idle = false;
+					int earliest = 0;
+					for (int i = count - 1; i > 0; i--) {
+						if (timers[i].schedulerDeadline - timers[earliest].schedulerDeadline < 0)
+							earliest = i;
+					}
+					final long delay = timers[earliest].schedulerDeadline - System.nanoTime();
+					if (delay <= 0) {
+						timer = timers[earliest];
+						deadline = timer.schedulerDeadline;
+						removeAt(earliest);
+						break;
+					}
+					try {
+						wait(delay / 1000000L, (int)(delay % 1000000L));
+					} catch (InterruptedException ex) {
+						ex.printStackTrace();
+					}
+				}
+			}
+			//the handler runs outside the lock, so it is free to call
+			//setInterval(), pause(), stop() or release() on its own timer
+			timer.tick(deadline);
+		}
+	}
+}
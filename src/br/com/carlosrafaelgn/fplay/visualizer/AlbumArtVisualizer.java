@@ -214,6 +214,11 @@ public final class AlbumArtVisualizer extends View implements Visualizer, MainHa
 	@Override
 	public void processFrame(boolean playing, byte[] waveform) {
 	}
+
+	//Runs on a SECONDARY thread
+	@Override
+	public void qualityChanged(int quality) {
+	}
 	
 	//Runs on a SECONDARY thread
 	@Override
@@ -53,7 +53,7 @@ import br.com.carlosrafaelgn.fplay.ui.BackgroundActivityMonitor;
 import br.com.carlosrafaelgn.fplay.util.BluetoothConnectionManager;
 import br.com.carlosrafaelgn.fplay.util.SlimLock;
 
-public final class BluetoothVisualizerControllerJni implements Visualizer, BluetoothConnectionManager.BluetoothObserver, MainHandler.Callback, Runnable, MediaVisualizer.Handler {
+public final class BluetoothVisualizerControllerJni implements Visualizer, BluetoothConnectionManager.BluetoothObserver, MainHandler.Callback, Runnable, MediaVisualizer.Handler, BluetoothVisualizerTransmitter.Observer {
 	private static final int MSG_PLAYER_COMMAND = 0x0600;
 	private static final int MSG_BLUETOOTH_RXTX_ERROR = 0x0601;
 
@@ -71,6 +71,7 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 	private static final int MessageBins64 = 0x24;
 	private static final int MessageBins128 = 0x25;
 	private static final int MessageBins256 = 0x26;
+	private static final int MessageBinsDelta = BluetoothVisualizerDeltaEncoder.MessageBinsDelta;
 	private static final int MessageStartBinTransmission = 0x30;
 	private static final int PayloadBins4 = MessageBins4;
 	private static final int PayloadBins8 = MessageBins8;
@@ -93,14 +94,24 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 	private static final int MessagePlayerState = 0x33;
 	private static final int PayloadPlayerStateFlagPlaying = 0x01;
 	private static final int PayloadPlayerStateFlagLoading = 0x02;
+	//Receivers that understand MessageBinsDelta send MessageStartBinTransmission with a
+	//second payload byte holding the capabilities they support, and we reply with a
+	//MessageCapabilities message holding the capabilities that will actually be used
+	//(old receivers only send one byte, and never receive anything but MessageBinsX)
+	private static final int MessageCapabilities = 0x34;
+	private static final int CapabilityDeltaBins = 0x02; //0x01 cannot be used (StartOfHeading)
+	private static final int SupportedCapabilities = CapabilityDeltaBins;
 
 	private MediaVisualizer mediaVisualizer;
 	private byte[] waveform;
 	private final SlimLock lock;
 	private final AtomicInteger state;
 	private BluetoothConnectionManager bt;
-	private volatile int size, packetsSent, version, framesToSkip, framesToSkipOriginal, stateVolume, stateSongPosition, stateSongLength, dataType;
-	private volatile boolean connected, transmitting;
+	private BluetoothVisualizerTransmitter transmitter;
+	private final BluetoothVisualizerDeltaEncoder deltaEncoder;
+	private volatile int size, version, framesToSkip, framesToSkipOriginal, stateVolume, stateSongPosition, stateSongLength, dataType;
+	private volatile int capabilities;
+	private volatile boolean connected, transmitting, capabilitiesPending, keyframeRequested;
 	private boolean jniCalled, startTransmissionOnConnection;
 	private int lastPlayerCommandTime, ignoreInput;
 
@@ -108,6 +119,7 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 		waveform = new byte[Visualizer.CAPTURE_SIZE];
 		lock = new SlimLock();
 		state = new AtomicInteger();
+		deltaEncoder = new BluetoothVisualizerDeltaEncoder();
 		this.startTransmissionOnConnection = startTransmissionOnConnection;
 		lastPlayerCommandTime = (int)SystemClock.uptimeMillis();
 		ignoreInput = 0;
@@ -122,7 +134,8 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 	}
 
 	public int getPacketsSent() {
-		return packetsSent;
+		final BluetoothVisualizerTransmitter transmitter = this.transmitter;
+		return ((transmitter == null) ? 0 : transmitter.getPacketsSent());
 	}
 
 	public void syncSize() {
@@ -197,6 +210,10 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 			lock.lockHighPriority();
 			try {
 				waveform = null;
+				if (transmitter != null) {
+					transmitter.destroy();
+					transmitter = null;
+				}
 				if (bt != null) {
 					bt.destroy();
 					bt = null;
@@ -298,21 +315,45 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 		if (!lock.lockLowPriority())
 			return;
 		try {
+			if (transmitter == null)
+				return;
 			if (transmitting) {
 				//We use ignoreInput because taking 1024 samples, 60 times a seconds,
 				//is useless, as there are only 44100 or 48000 samples in one second
 				if (ignoreInput == 0 && !playing)
 					Arrays.fill(waveform, (byte)0x80);
+				//the transmitter only reduces the amount of bins and/or the frame rate
+				//when the link cannot keep up with what has been requested
+				transmitter.frameOffered();
 				if (framesToSkip <= 0) {
-					framesToSkip = framesToSkipOriginal;
-					bt.getOutputStream().write(waveform, 0, SimpleVisualizerJni.commonProcess(waveform, size | ignoreInput | dataType));
-					packetsSent++;
+					framesToSkip = transmitter.getAdaptedFramesToSkip(framesToSkipOriginal);
+					final int len = SimpleVisualizerJni.commonProcess(waveform, transmitter.getAdaptedSize(size) | ignoreInput | dataType);
+					if ((capabilities & CapabilityDeltaBins) != 0) {
+						if (transmitter.consumeResyncRequest() | keyframeRequested) {
+							keyframeRequested = false;
+							deltaEncoder.reset();
+						}
+						final int deltaLen = deltaEncoder.encode(waveform, len);
+						transmitter.queueFrame(waveform, deltaLen, waveform[1] != (byte)MessageBinsDelta);
+					} else {
+						transmitter.queueFrame(waveform, len, true);
+					}
 				} else {
 					SimpleVisualizerJni.commonProcess(waveform, ignoreInput | dataType);
 					framesToSkip--;
 				}
 				ignoreInput ^= IGNORE_INPUT;
 			}
+			if (capabilitiesPending) {
+				capabilitiesPending = false;
+				waveform[0] = StartOfHeading;
+				waveform[1] = (byte)MessageCapabilities;
+				waveform[3] = 0;
+				final int len = writeByte(waveform, 0, capabilities);
+				waveform[2] = (byte)(len << 1);
+				waveform[4 + len] = EndOfTransmission;
+				transmitter.queueCoalesced(BluetoothVisualizerTransmitter.SLOT_CONTROL, waveform, len + 5);
+			}
 			int stateI = state.getAndSet(0);
 			if (stateI != 0) {
 				//Build and send a Player state message
@@ -334,13 +375,8 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 				len = writeByte(waveform, len, stateI >> 24);
 				waveform[2] = (byte)(len << 1);
 				waveform[4 + len] = EndOfTransmission;
-				bt.getOutputStream().write(waveform, 0, len + 5);
-				packetsSent++;
+				transmitter.queueCoalesced(BluetoothVisualizerTransmitter.SLOT_STATE, waveform, len + 5);
 			}
-		} catch (IOException ex) {
-			//Bluetooth error
-			if (connected)
-				MainHandler.sendMessage(this, MSG_BLUETOOTH_RXTX_ERROR);
 		} catch (Throwable ex) {
 			ex.printStackTrace();
 		} finally {
@@ -348,6 +384,13 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 		}
 	}
 
+	//Runs on a SECONDARY thread
+	@Override
+	public void qualityChanged(int quality) {
+		//the frame rate is lowered by MediaVisualizer itself, and the amount of bins is
+		//already adapted by the transmitter according to the link
+	}
+
 	//Runs on a SECONDARY thread
 	@Override
 	public void release() {
@@ -374,8 +417,15 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 	@Override
 	public void onBluetoothConnected(BluetoothConnectionManager manager) {
 		if (mediaVisualizer == null && bt != null && Player.state == Player.STATE_ALIVE) {
-			packetsSent = 0;
 			version++;
+			lock.lockHighPriority();
+			try {
+				if (transmitter != null)
+					transmitter.destroy();
+				transmitter = new BluetoothVisualizerTransmitter(bt.getOutputStream(), this);
+			} finally {
+				lock.releaseHighPriority();
+			}
 			connected = true;
 			transmitting = false;
 			Player.bluetoothVisualizerState = Player.BLUETOOTH_VISUALIZER_STATE_CONNECTED;
@@ -475,12 +525,12 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 							// Skip two states as this message has no payload
 							state += 2;
 						} else {
-							if (payloadLength != 1) {
-								if (currentMessage != MessagePlayerCommand || payloadLength != 2) {
-									//Take the state machine to its error state
-									state |= FlagState;
-									continue;
-								}
+							//MessageStartBinTransmission and MessagePlayerCommand carry
+							//either one or two bytes
+							if (payloadLength != 1 && payloadLength != 2) {
+								//Take the state machine to its error state
+								state |= FlagState;
+								continue;
 							}
 							//Take the state machine to its next state
 							state++;
@@ -500,7 +550,7 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 						continue;
 					}
 
-					if (currentMessage == MessagePlayerCommand) {
+					if (currentMessage == MessagePlayerCommand || currentMessage == MessageStartBinTransmission) {
 						payload = (payload << 8) | data;
 						payloadLength--;
 
@@ -511,7 +561,12 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 						payload = data;
 					}
 
-					//For now, the only payload received is 1 byte long
+					if (currentMessage == MessageStartBinTransmission && payload > 0xff) {
+						//Keep the size in the lower byte (as if the message had only
+						//one byte) and move the capabilities to the upper byte
+						payload = (payload >> 8) | ((payload & 0xff) << 8);
+					}
+
 					state++;
 					continue;
 				case 4:
@@ -521,7 +576,7 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 					//Sanity check: data should be EoT
 					if (data == EndOfTransmission)
 						//Message correctly received
-						MainHandler.sendMessage(this, MSG_PLAYER_COMMAND, currentMessage, payload);
+						MainHandler.sendPriorityMessage(this, MSG_PLAYER_COMMAND, currentMessage, payload);
 				}
 			}
 		} catch (IOException ex) {
@@ -540,7 +595,7 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 			if (connected && Player.state == Player.STATE_ALIVE) {
 				switch (message.arg1) {
 				case MessageStartBinTransmission:
-					switch (message.arg2) {
+					switch (message.arg2 & 0xff) {
 					case PayloadBins4:
 					case PayloadBins8:
 					case PayloadBins16:
@@ -548,7 +603,15 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 					case PayloadBins64:
 					case PayloadBins128:
 					case PayloadBins256:
-						size = message.arg2;
+						size = message.arg2 & 0xff;
+						if (message.arg2 > 0xff) {
+							//the receiver will start decoding from a keyframe
+							keyframeRequested = true;
+							capabilities = ((message.arg2 >> 8) & SupportedCapabilities);
+							capabilitiesPending = true;
+						} else {
+							capabilities = 0;
+						}
 						startTransmission();
 						break;
 					}
@@ -621,6 +684,14 @@ public final class BluetoothVisualizerControllerJni implements Visualizer, Bluet
 		return payloadIndex + 1;
 	}
 
+	//Runs on the TX thread
+	@Override
+	public void onTransmissionError(BluetoothVisualizerTransmitter transmitter, IOException ex) {
+		//Bluetooth error
+		if (connected)
+			MainHandler.sendMessage(this, MSG_BLUETOOTH_RXTX_ERROR);
+	}
+
 	@Override
 	public void onFailure() {
 		Player.bluetoothVisualizerLastErrorMessage = R.string.visualizer_not_supported;
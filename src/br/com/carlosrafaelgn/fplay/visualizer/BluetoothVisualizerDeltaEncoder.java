@@ -0,0 +1,176 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.visualizer;
+
+//Converts the MessageBins4 ... MessageBins256 packets produced by commonProcess() into
+//MessageBinsDelta packets, which carry quantised deltas against the previous frame.
+//
+//MessageBinsDelta payload (before byte stuffing):
+//  byte 0: the corresponding MessageBinsX value (tells how many bins follow)
+//  bytes 1 ... n-1: a sequence of tokens, decoded in order, one or more bins per token
+//    1rrrrrrr: r + 1 bins (1 ... 128) did not change
+//    01dddddd: the next bin changed by 2 * d (d is a 6-bit signed value, -32 ... 31)
+//    00aaabbb: the next two bins changed by 2 * a and 2 * b (3-bit signed values, -4 ... 3)
+//  (the reconstructed values must be clamped to 0 ... 255)
+//
+//Full MessageBinsX packets are still sent from time to time (keyframes), whenever the
+//amount of bins changes, or whenever the deltas would not save any bytes.
+final class BluetoothVisualizerDeltaEncoder {
+	public static final int MessageBinsDelta = 0x27;
+
+	private static final int StartOfHeading = 0x01;
+	private static final int Escape = 0x1b;
+	private static final int EndOfTransmission = 0x04;
+	private static final int MessageBins4 = 0x20;
+	private static final int MessageBins256 = 0x26;
+
+	private static final int KEYFRAME_INTERVAL = 32;
+
+	//what the receiver has, and what it will have if the current frame is sent as deltas
+	private final int[] reference, next, bins;
+	private final byte[] tokens;
+	private int referenceType, framesSinceKeyframe;
+
+	public BluetoothVisualizerDeltaEncoder() {
+		reference = new int[256];
+		next = new int[256];
+		bins = new int[256];
+		tokens = new byte[256];
+	}
+
+	public void reset() {
+		referenceType = 0;
+	}
+
+	private static int quantise(int delta) {
+		//a dead zone of +-1 filters out most of the noise
+		return ((delta >= 0) ? (delta >> 1) : -((-delta) >> 1));
+	}
+
+	private static int clamp(int value) {
+		return ((value <= 0) ? 0 : ((value >= 255) ? 255 : value));
+	}
+
+	//Returns the length of the packet stored in packet (either the same full packet, which
+	//becomes the new keyframe, or a MessageBinsDelta packet)
+	public int encode(byte[] packet, int length) {
+		final int type = packet[1] & 0xff;
+		if (length < 5 || type < MessageBins4 || type > MessageBins256)
+			return length;
+		final int count = 4 << (type - MessageBins4);
+
+		//undo the byte stuffing
+		int binCount = 0;
+		for (int i = 4; i < length - 1 && binCount < count; i++) {
+			int b = packet[i] & 0xff;
+			if (b == Escape)
+				b = (packet[++i] & 0xff) ^ 1;
+			bins[binCount++] = b;
+		}
+		if (binCount != count)
+			return length;
+
+		framesSinceKeyframe++;
+		if (type == referenceType && framesSinceKeyframe < KEYFRAME_INTERVAL) {
+			final int[] reference = this.reference, next = this.next, bins = this.bins;
+			final byte[] tokens = this.tokens;
+			int tokenCount = 0;
+			for (int i = 0; i < count; ) {
+				int q = quantise(bins[i] - reference[i]);
+				if (q == 0) {
+					int run = 1;
+					next[i] = reference[i];
+					while ((i + run) < count && run < 128 && quantise(bins[i + run] - reference[i + run]) == 0) {
+						next[i + run] = reference[i + run];
+						run++;
+					}
+					tokens[tokenCount++] = (byte)(0x80 | (run - 1));
+					i += run;
+				} else if (q >= -4 && q <= 3 && (i + 1) < count) {
+					final int q2 = quantise(bins[i + 1] - reference[i + 1]);
+					if (q2 >= -4 && q2 <= 3) {
+						next[i] = clamp(reference[i] + (q << 1));
+						next[i + 1] = clamp(reference[i + 1] + (q2 << 1));
+						tokens[tokenCount++] = (byte)(((q & 7) << 3) | (q2 & 7));
+						i += 2;
+						continue;
+					}
+					next[i] = clamp(reference[i] + (q << 1));
+					tokens[tokenCount++] = (byte)(0x40 | (q & 0x3f));
+					i++;
+				} else {
+					if (q < -32)
+						q = -32;
+					else if (q > 31)
+						q = 31;
+					next[i] = clamp(reference[i] + (q << 1));
+					tokens[tokenCount++] = (byte)(0x40 | (q & 0x3f));
+					i++;
+				}
+			}
+
+			//only use the deltas if they actually save something (payload length + type byte)
+			int len = 0;
+			for (int i = 0; i < tokenCount; i++) {
+				final int b = tokens[i] & 0xff;
+				len += ((b == StartOfHeading || b == Escape) ? 2 : 1);
+			}
+			if ((len + 1) < (length - 5)) {
+				packet[1] = (byte)MessageBinsDelta;
+				len = 0;
+				packet[4 + len++] = (byte)type;
+				for (int i = 0; i < tokenCount; i++) {
+					final int b = tokens[i] & 0xff;
+					if (b == StartOfHeading || b == Escape) {
+						packet[4 + len++] = Escape;
+						packet[4 + len++] = (byte)(b ^ 1);
+					} else {
+						packet[4 + len++] = (byte)b;
+					}
+				}
+				//fill in the payload length (just like commonProcess() does)
+				packet[2] = (byte)((len & 0x7F) << 1);
+				packet[3] = (byte)((len >> 6) & 0xFE);
+				packet[4 + len] = EndOfTransmission;
+				System.arraycopy(next, 0, reference, 0, count);
+				return len + 5;
+			}
+		}
+
+		//keyframe
+		referenceType = type;
+		framesSinceKeyframe = 0;
+		System.arraycopy(bins, 0, reference, 0, count);
+		return length;
+	}
+}
@@ -0,0 +1,323 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.visualizer;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Decouples the visualizer thread from the (possibly stalled) RFCOMM link: the visualizer
+//only copies the packets into a small ring, and a dedicated thread performs the actual
+//writes, measuring how long they take in order to find out the available bandwidth.
+//The OutputStream does not need to be a Bluetooth one (the output stream of a loopback
+//socket, or a PipedOutputStream, can be used in its place).
+final class BluetoothVisualizerTransmitter implements Runnable {
+	public interface Observer {
+		//Runs on the TX thread
+		void onTransmissionError(BluetoothVisualizerTransmitter transmitter, IOException ex);
+	}
+
+	//PayloadBins4 ... PayloadBins256 (the same values used by BluetoothVisualizerControllerJni)
+	public static final int SIZE_MIN = 0x20;
+	public static final int SIZE_MAX = 0x26;
+	//worst case: SOH + type + 2 bytes for length + (256 escaped bins) + EOT
+	public static final int MAX_PACKET_LENGTH = 4 + (256 * 2) + 1;
+	//packets queued into the same slot are coalesced (only the latest one is sent)
+	public static final int SLOT_STATE = 0;
+	public static final int SLOT_CONTROL = 1;
+	private static final int SLOT_COUNT = 2;
+
+	//must be a power of 2
+	private static final int RING_LENGTH = 4;
+	//how long it takes to reevaluate the bandwidth, and the link parameters
+	private static final int MEASUREMENT_WINDOW_MS = 1000;
+	//the link will be considered full when the packets demand more than 75% of the bandwidth
+	private static final int BANDWIDTH_USAGE_PERCENT = 75;
+	//we will rather use fewer bins than go below this frame rate
+	private static final int MIN_FRAMES_PER_SECOND = 10;
+	//Player.getBluetoothVisualizerFramesToSkip() never returns more than this
+	private static final int MAX_FRAMES_TO_SKIP = 59;
+	//a write taking longer than this means the link has stalled
+	private static final int STALL_MS = 500;
+
+	private final Object sync;
+	private final OutputStream outputStream;
+	private final byte[][] ring;
+	private final int[] ringLength;
+	private final byte[][] slotPacket;
+	private final int[] slotLength;
+	//incremented by the visualizer thread, and read/reset by the TX thread
+	private final AtomicInteger framesOffered;
+	private byte[] txPacket;
+	private int ringHead, ringCount, slotsPending;
+	private boolean resyncRequested;
+	private Observer observer;
+	private volatile boolean alive;
+	//each of these has a single writer (packetsDropped is only written while holding sync,
+	//and packetsSent only by the TX thread), so ++ does not lose any counts
+	private volatile int packetsSent, packetsDropped, bytesPerSecond, maxSize, minFramesToSkip, writeStartTime;
+
+	public BluetoothVisualizerTransmitter(OutputStream outputStream, Observer observer) {
+		sync = new Object();
+		this.outputStream = outputStream;
+		this.observer = observer;
+		ring = new byte[RING_LENGTH][MAX_PACKET_LENGTH];
+		ringLength = new int[RING_LENGTH];
+		slotPacket = new byte[SLOT_COUNT][MAX_PACKET_LENGTH];
+		slotLength = new int[SLOT_COUNT];
+		framesOffered = new AtomicInteger();
+		txPacket = new byte[MAX_PACKET_LENGTH];
+		maxSize = SIZE_MAX;
+		alive = true;
+		(new Thread(this, "Bluetooth TX Thread")).start();
+	}
+
+	public int getPacketsSent() {
+		return packetsSent;
+	}
+
+	public int getPacketsDropped() {
+		return packetsDropped;
+	}
+
+	//Measured bandwidth (0 while unknown)
+	public int getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	//Returns the largest size, not greater than requestedSize, which fits the link
+	public int getAdaptedSize(int requestedSize) {
+		final int max = maxSize;
+		return ((requestedSize > max) ? max : requestedSize);
+	}
+
+	//Returns the smallest amount of frames to skip, not smaller than requestedFramesToSkip, which fits the link
+	public int getAdaptedFramesToSkip(int requestedFramesToSkip) {
+		final int min = minFramesToSkip;
+		return ((requestedFramesToSkip < min) ? min : requestedFramesToSkip);
+	}
+
+	//Runs on the visualizer thread (must be called once per frame, skipped or not)
+	public void frameOffered() {
+		framesOffered.incrementAndGet();
+		final int start = writeStartTime;
+		if (start != 0 && ((int)SystemClock.uptimeMillis() - start) >= STALL_MS) {
+			//there is no point in waiting for the write to complete before reacting:
+			//fall back to the lightest possible traffic until a new measurement is taken
+			maxSize = SIZE_MIN;
+			minFramesToSkip = MAX_FRAMES_TO_SKIP;
+		}
+	}
+
+	//Runs on the visualizer thread
+	//A frame that is not independent (not a keyframe) depends on all the frames queued
+	//before it, so, when the ring overflows, all queued frames are dropped, along with the
+	//new one (unless it is a keyframe) and a resync is requested (see consumeResyncRequest())
+	public void queueFrame(byte[] packet, int length, boolean keyframe) {
+		if (length <= 0 || length > MAX_PACKET_LENGTH)
+			return;
+		synchronized (sync) {
+			if (!alive)
+				return;
+			if (ringCount == RING_LENGTH) {
+				//the link is not keeping up: newer data is more relevant than the old one
+				packetsDropped += ringCount;
+				ringCount = 0;
+				if (!keyframe) {
+					packetsDropped++;
+					resyncRequested = true;
+					return;
+				}
+			}
+			final int i = (ringHead + ringCount) & (RING_LENGTH - 1);
+			System.arraycopy(packet, 0, ring[i], 0, length);
+			ringLength[i] = length;
+			ringCount++;
+			sync.notify();
+		}
+	}
+
+	//Runs on the visualizer thread
+	//Returns true if frames have been dropped since the last call, meaning the next frame
+	//must be a keyframe
+	public boolean consumeResyncRequest() {
+		synchronized (sync) {
+			final boolean r = resyncRequested;
+			resyncRequested = false;
+			return r;
+		}
+	}
+
+	//Runs on the visualizer thread
+	public void queueCoalesced(int slot, byte[] packet, int length) {
+		if (length <= 0 || length > MAX_PACKET_LENGTH)
+			return;
+		synchronized (sync) {
+			if (!alive)
+				return;
+			//only the latest packet matters, so a pending packet in the same slot is simply overwritten
+			System.arraycopy(packet, 0, slotPacket[slot], 0, length);
+			slotLength[slot] = length;
+			slotsPending |= (1 << slot);
+			sync.notify();
+		}
+	}
+
+	public void destroy() {
+		synchronized (sync) {
+			alive = false;
+			observer = null;
+			ringCount = 0;
+			slotsPending = 0;
+			sync.notify();
+		}
+	}
+
+	private void adapt(int bytes, int writeMS, int dropped, int elapsedMS) {
+		final int framesPerSecond = (int)(((long)framesOffered.getAndSet(0) * 1000L) / elapsedMS);
+
+		//while the link is keeping up with us, the writes complete almost instantly, and the
+		//only thing we can say is that it supports, at least, what has been sent so far
+		final boolean saturated = (dropped != 0 || writeMS >= (elapsedMS >> 2));
+		int bandwidth = bytesPerSecond;
+		if (saturated) {
+			final int measured = (int)(((long)bytes * 1000L) / elapsedMS);
+			bandwidth = ((bandwidth <= 0 || measured < bandwidth) ? measured : ((bandwidth + bandwidth + bandwidth + measured) >> 2));
+		} else if (bandwidth > 0) {
+			//probe for more bandwidth, slowly
+			bandwidth += (bandwidth >> 3);
+		}
+		bytesPerSecond = bandwidth;
+		if (bandwidth <= 0 || framesPerSecond <= 0)
+			return;
+
+		final long budget = ((long)bandwidth * BANDWIDTH_USAGE_PERCENT) / 100L;
+		final int maxFramesToSkip = ((framesPerSecond <= MIN_FRAMES_PER_SECOND) ? 0 : ((framesPerSecond / MIN_FRAMES_PER_SECOND) - 1));
+		int size, skip = 0;
+		for (size = SIZE_MAX; size >= SIZE_MIN; size--) {
+			//SOH + type + 2 bytes for length + bins + EOT (escaped bins are rare)
+			final long packetLength = 5 + (4 << (size - SIZE_MIN));
+			skip = (int)(((packetLength * framesPerSecond) + budget - 1) / ((budget <= 0) ? 1 : budget)) - 1;
+			if (skip < 0)
+				skip = 0;
+			if (skip <= maxFramesToSkip || size == SIZE_MIN)
+				break;
+		}
+		if (skip > MAX_FRAMES_TO_SKIP)
+			skip = MAX_FRAMES_TO_SKIP;
+
+		if (saturated) {
+			//reduce the traffic right away
+			if (maxSize > size)
+				maxSize = size;
+			if (minFramesToSkip < skip)
+				minFramesToSkip = skip;
+		} else {
+			//hysteresis: increase the traffic one step at a time
+			final int currentSize = maxSize;
+			if (currentSize < size)
+				maxSize = currentSize + 1;
+			else if (currentSize > size)
+				maxSize = size;
+			final int currentSkip = minFramesToSkip;
+			if (currentSkip > skip)
+				minFramesToSkip = ((skip > (currentSkip >> 1)) ? skip : (currentSkip >> 1));
+		}
+	}
+
+	@Override
+	public void run() {
+		int windowStart = (int)SystemClock.uptimeMillis(), windowBytes = 0, windowWriteMS = 0, windowDropped = packetsDropped;
+		try {
+			for (; ; ) {
+				final int length;
+				synchronized (sync) {
+					while (alive && slotsPending == 0 && ringCount == 0) {
+						try {
+							sync.wait(MEASUREMENT_WINDOW_MS);
+						} catch (InterruptedException ex) {
+							//ignore the interruptions
+						}
+						if (((int)SystemClock.uptimeMillis() - windowStart) >= MEASUREMENT_WINDOW_MS)
+							break;
+					}
+					if (!alive)
+						break;
+					if (slotsPending != 0) {
+						//coalesced packets go first, as they are tiny and are what the user sees changing
+						final int slot = ((slotsPending & (1 << SLOT_CONTROL)) != 0) ? SLOT_CONTROL : SLOT_STATE;
+						slotsPending &= ~(1 << slot);
+						length = slotLength[slot];
+						System.arraycopy(slotPacket[slot], 0, txPacket, 0, length);
+					} else if (ringCount != 0) {
+						//swap the arrays instead of copying them
+						final byte[] packet = ring[ringHead];
+						ring[ringHead] = txPacket;
+						txPacket = packet;
+						length = ringLength[ringHead];
+						ringHead = (ringHead + 1) & (RING_LENGTH - 1);
+						ringCount--;
+					} else {
+						length = 0;
+					}
+				}
+				if (length > 0) {
+					final int start = (int)SystemClock.uptimeMillis();
+					writeStartTime = (start | 1);
+					outputStream.write(txPacket, 0, length);
+					writeStartTime = 0;
+					windowWriteMS += (int)SystemClock.uptimeMillis() - start;
+					windowBytes += length;
+					packetsSent++;
+				}
+				final int elapsed = (int)SystemClock.uptimeMillis() - windowStart;
+				if (elapsed >= MEASUREMENT_WINDOW_MS) {
+					final int dropped = packetsDropped;
+					adapt(windowBytes, windowWriteMS, dropped - windowDropped, elapsed);
+					windowDropped = dropped;
+					windowStart += elapsed;
+					windowBytes = 0;
+					windowWriteMS = 0;
+				}
+			}
+		} catch (IOException ex) {
+			final Observer observer = this.observer;
+			if (alive && observer != null)
+				observer.onTransmissionError(this, ex);
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+		}
+	}
+}
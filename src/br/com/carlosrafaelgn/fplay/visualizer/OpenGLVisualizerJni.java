@@ -84,10 +84,11 @@ import br.com.carlosrafaelgn.fplay.ui.drawable.TextIconDrawable;
 import br.com.carlosrafaelgn.fplay.util.ArraySorter;
 
 public final class OpenGLVisualizerJni extends GLSurfaceView implements GLSurfaceView.Renderer, GLSurfaceView.EGLContextFactory, GLSurfaceView.EGLWindowSurfaceFactory, Visualizer, MenuItem.OnMenuItemClickListener, MainHandler.Callback {
-	private static final int MNU_COLOR = MNU_VISUALIZER + 1, MNU_SPEED0 = MNU_VISUALIZER + 2, MNU_SPEED1 = MNU_VISUALIZER + 3, MNU_SPEED2 = MNU_VISUALIZER + 4, MNU_CHOOSE_IMAGE = MNU_VISUALIZER + 5, MNU_DIFFUSION0 = MNU_VISUALIZER + 6, MNU_DIFFUSION1 = MNU_VISUALIZER + 7, MNU_DIFFUSION2 = MNU_VISUALIZER + 8, MNU_DIFFUSION3 = MNU_VISUALIZER + 9, MNU_RISESPEED0 = MNU_VISUALIZER + 10, MNU_RISESPEED1 = MNU_VISUALIZER + 11, MNU_RISESPEED2 = MNU_VISUALIZER + 12, MNU_RISESPEED3 = MNU_VISUALIZER + 13;
+	private static final int MNU_COLOR = MNU_VISUALIZER + 1, MNU_SPEED0 = MNU_VISUALIZER + 2, MNU_SPEED1 = MNU_VISUALIZER + 3, MNU_SPEED2 = MNU_VISUALIZER + 4, MNU_CHOOSE_IMAGE = MNU_VISUALIZER + 5, MNU_DIFFUSION0 = MNU_VISUALIZER + 6, MNU_DIFFUSION1 = MNU_VISUALIZER + 7, MNU_DIFFUSION2 = MNU_VISUALIZER + 8, MNU_DIFFUSION3 = MNU_VISUALIZER + 9, MNU_RISESPEED0 = MNU_VISUALIZER + 10, MNU_RISESPEED1 = MNU_VISUALIZER + 11, MNU_RISESPEED2 = MNU_VISUALIZER + 12, MNU_RISESPEED3 = MNU_VISUALIZER + 13, MNU_FFT0 = MNU_VISUALIZER + 14, MNU_FFT3 = MNU_VISUALIZER + 17;
 
 	private static final int MSG_OPENGL_ERROR = 0x0600;
 	private static final int MSG_CHOOSE_IMAGE = 0x0601;
+	private static final int MSG_QUALITY_CHANGED = 0x0602;
 
 	private static int GLVersion = -1;
 
@@ -104,10 +105,11 @@ public final class OpenGLVisualizerJni extends GLSurfaceView implements GLSurfac
 
 	private final int type;
 	private volatile boolean supported, alerted, okToRender;
+	private volatile int spectrumDataType, quality;
 	private volatile int error;
 	private volatile Uri selectedUri;
 	private boolean browsing;
-	private int colorIndex, speed, viewWidth, viewHeight, diffusion, riseSpeed, ignoreInput;
+	private int colorIndex, speed, viewWidth, viewHeight, diffusion, riseSpeed, ignoreInput, fftType, resolutionPercent;
 	private EGLConfig config;
 	private Activity activity;
 	private WindowManager windowManager;
@@ -416,6 +418,9 @@ public final class OpenGLVisualizerJni extends GLSurfaceView implements GLSurfac
 		if (type == TYPE_SPECTRUM)
 			SimpleVisualizerJni.commonSetColorIndex(colorIndex);
 		SimpleVisualizerJni.commonSetSpeed(speed);
+		//the particle count is a static shared by the whole process, so it could still
+		//reflect the quality of a previous visualizer
+		SimpleVisualizerJni.glSetParticlesByColumn(VisualizerQualityGovernor.getParticlesByColumn(quality));
 		if (GLVersion == -1) {
 			supported = true;
 			try {
@@ -532,7 +537,7 @@ public final class OpenGLVisualizerJni extends GLSurfaceView implements GLSurfac
 				}
 			}
 		}
-		if ((error = SimpleVisualizerJni.glOnSurfaceCreated(UI.color_visualizer, type, UI.screenWidth, UI.screenHeight, (UI._1dp < 2) ? 1 : 0, (sensorManager != null && sensorManager.hasGyro) ? 1 : 0)) != 0) {
+		if ((error = SimpleVisualizerJni.glOnSurfaceCreated(UI.color_visualizer, type, UI.screenWidth, UI.screenHeight, (UI._1dp < 2) ? 1 : 0, (sensorManager != null && sensorManager.hasGyro) ? 1 : 0, GLVersion)) != 0) {
 			supported = false;
 			MainHandler.sendMessage(this, MSG_OPENGL_ERROR);
 		} else if (type == TYPE_IMMERSIVE_PARTICLE_VR && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -554,6 +559,8 @@ public final class OpenGLVisualizerJni extends GLSurfaceView implements GLSurfac
 				}
 			}
 		}
+		//when the spectrum's bars are mapped and smoothed by the shaders, commonProcess() only computes the FFT
+		spectrumDataType = (supported ? SimpleVisualizerJni.glGetSpectrumDataType() : 0);
 	}
 	
 	//Runs on a SECONDARY thread (A)
@@ -798,9 +805,33 @@ public final class OpenGLVisualizerJni extends GLSurfaceView implements GLSurfac
 		case MSG_CHOOSE_IMAGE:
 			chooseImage();
 			break;
+		case MSG_QUALITY_CHANGED:
+			resolutionPercent = VisualizerQualityGovernor.getResolutionPercent(msg.arg1);
+			applyResolution();
+			break;
 		}
 		return true;
 	}
+
+	private void applyResolution() {
+		//a smaller surface is scaled up by the compositor, reducing the amount of
+		//fragments the GPU has to process in every frame
+		final SurfaceHolder holder = getHolder();
+		final int w = getWidth(), h = getHeight();
+		if (holder == null)
+			return;
+		if (resolutionPercent <= 0 || resolutionPercent >= 100 || w <= 0 || h <= 0)
+			holder.setSizeFromLayout();
+		else
+			holder.setFixedSize((w * resolutionPercent) / 100, (h * resolutionPercent) / 100);
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		if (resolutionPercent > 0 && resolutionPercent < 100)
+			applyResolution();
+	}
 	
 	@Override
 	@ExportedProperty(category = "drawing")
@@ -851,6 +882,10 @@ public final class OpenGLVisualizerJni extends GLSurfaceView implements GLSurfac
 		case MNU_CHOOSE_IMAGE:
 			chooseImage();
 			break;
+		default:
+			if (id >= MNU_FFT0 && id <= MNU_FFT3)
+				fftType = (id - MNU_FFT0) << 16;
+			break;
 		}
 		return true;
 	}
@@ -944,6 +979,8 @@ public final class OpenGLVisualizerJni extends GLSurfaceView implements GLSurfac
 		menu.add(2, MNU_SPEED2, 3, Player.theApplication.getText(R.string.sustain) + " 1")
 			.setOnMenuItemClickListener(this)
 			.setIcon(new TextIconDrawable((speed == 2) ? UI.ICON_RADIOCHK24 : UI.ICON_RADIOUNCHK24));
+		UI.separator(menu, 3, 0);
+		SimpleVisualizerJni.prepareFftMenu(menu, 3, 1, MNU_FFT0, fftType, this);
 	}
 	
 	//Runs on the MAIN thread
@@ -1014,12 +1051,20 @@ public final class OpenGLVisualizerJni extends GLSurfaceView implements GLSurfac
 			//is useless, as there are only 44100 or 48000 samples in one second
 			if (ignoreInput == 0 && !playing)
 				Arrays.fill(waveform, (byte)0x80);
-			SimpleVisualizerJni.commonProcess(waveform, ignoreInput | DATA_FFT);
+			SimpleVisualizerJni.commonProcess(waveform, ignoreInput | VisualizerQualityGovernor.limitFftType(fftType, quality) | spectrumDataType | DATA_FFT);
 			ignoreInput ^= IGNORE_INPUT;
 			//requestRender();
 		}
 	}
 	
+	//Runs on a SECONDARY thread (B)
+	@Override
+	public void qualityChanged(int quality) {
+		this.quality = quality;
+		SimpleVisualizerJni.glSetParticlesByColumn(VisualizerQualityGovernor.getParticlesByColumn(quality));
+		MainHandler.sendMessage(this, MSG_QUALITY_CHANGED, quality, 0);
+	}
+
 	//Runs on a SECONDARY thread (B)
 	@Override
 	public void release() {
@@ -38,6 +38,7 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.view.ContextMenu;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.view.Surface;
 import android.view.SurfaceHolder;
@@ -53,7 +54,7 @@ import br.com.carlosrafaelgn.fplay.ui.drawable.TextIconDrawable;
 import br.com.carlosrafaelgn.fplay.util.SlimLock;
 
 public final class SimpleVisualizerJni extends SurfaceView implements SurfaceHolder.Callback, Visualizer, MenuItem.OnMenuItemClickListener {
-	private static final int MNU_COLOR = MNU_VISUALIZER + 1, MNU_LORES = MNU_VISUALIZER + 2, MNU_HIRES = MNU_VISUALIZER + 3, MNU_VOICEPRINT = MNU_VISUALIZER + 4;
+	private static final int MNU_COLOR = MNU_VISUALIZER + 1, MNU_LORES = MNU_VISUALIZER + 2, MNU_HIRES = MNU_VISUALIZER + 3, MNU_VOICEPRINT = MNU_VISUALIZER + 4, MNU_FFT0 = MNU_VISUALIZER + 5, MNU_FFT3 = MNU_VISUALIZER + 8;
 	
 	static {
 		System.loadLibrary("SimpleVisualizerJni");
@@ -64,6 +65,19 @@ public final class SimpleVisualizerJni extends SurfaceView implements SurfaceHol
 	static native void commonUpdateMultiplier(boolean isVoice, boolean hq);
 	static native int commonProcess(byte[] waveform, int opt);
 
+	//fftType is either 0 (the original 1024-point fixed-point FFT) or one of the
+	//DATA_FFT_FLOAT_xxx values, and firstId + n selects fftType n << 16
+	static void prepareFftMenu(Menu menu, int groupId, int order, int firstId, int fftType, MenuItem.OnMenuItemClickListener listener) {
+		final Menu s = menu.addSubMenu(groupId, 0, order, "FFT\u2026")
+			.setIcon(new TextIconDrawable(UI.ICON_SETTINGS));
+		UI.prepare(s);
+		fftType >>>= 16;
+		for (int i = 0; i <= (DATA_FFT_FLOAT_1024 >>> 16); i++)
+			s.add(0, firstId + i, i, (i == 0) ? "Fixed 1024" : ("Float " + (128 << i)))
+				.setOnMenuItemClickListener(listener)
+				.setIcon(new TextIconDrawable((fftType == i) ? UI.ICON_RADIOCHK24 : UI.ICON_RADIOUNCHK24));
+	}
+
 	private static native void setLerp(boolean lerp);
 	private static native void init(int bgColor);
 	private static native void terminate();
@@ -72,19 +86,23 @@ public final class SimpleVisualizerJni extends SurfaceView implements SurfaceHol
 	private static native void processVoice(byte[] waveform, Surface surface, int opt);
 
 	static native int glGetOESTexture();
-	static native int glOnSurfaceCreated(int bgColor, int type, int estimatedWidth, int estimatedHeight, int dp1OrLess, int hasGyro);
+	static native int glGetSpectrumDataType();
+	static native int glOnSurfaceCreated(int bgColor, int type, int estimatedWidth, int estimatedHeight, int dp1OrLess, int hasGyro, int glVersion);
 	static native void glOnSurfaceChanged(int width, int height, int rotation, int cameraPreviewW, int cameraPreviewH, int dp1OrLess);
 	static native int glLoadBitmapFromJava(Bitmap bitmap);
 	static native void glDrawFrame();
+	static native int glGetFrameTime();
 	static native void glOnSensorReset();
 	static native void glOnSensorData(long sensorTimestamp, int sensorType, float[] values);
 	static native void glSetImmersiveCfg(int diffusion, int riseSpeed);
+	static native void glSetParticlesByColumn(int particlesByColumn);
 	static native void glReleaseView();
 
 	private final SlimLock lock;
 	private Point point;
 	private SurfaceHolder surfaceHolder;
-	private int state, colorIndex, ignoreInput;
+	private int state, colorIndex, ignoreInput, fftType;
+	private volatile int quality;
 	private boolean lerp, voice;
 	private Surface surface;
 
@@ -140,6 +158,10 @@ public final class SimpleVisualizerJni extends SurfaceView implements SurfaceHol
 			voice = true;
 			state = 2;
 			break;
+		default:
+			if (item.getItemId() >= MNU_FFT0 && item.getItemId() <= MNU_FFT3)
+				fftType = (item.getItemId() - MNU_FFT0) << 16;
+			return true;
 		}
 		if (item.getItemId() != MNU_COLOR)
 			commonUpdateMultiplier(voice, false);
@@ -179,6 +201,8 @@ public final class SimpleVisualizerJni extends SurfaceView implements SurfaceHol
 		menu.add(2, MNU_VOICEPRINT, 2, "VoicePrint")
 			.setOnMenuItemClickListener(this)
 			.setIcon(new TextIconDrawable(voice ? UI.ICON_RADIOCHK24 : UI.ICON_RADIOUNCHK24));
+		UI.separator(menu, 3, 0);
+		prepareFftMenu(menu, 3, 1, MNU_FFT0, fftType, this);
 	}
 	
 	//Runs on the MAIN thread
@@ -282,10 +306,11 @@ public final class SimpleVisualizerJni extends SurfaceView implements SurfaceHol
 				//is useless, as there are only 44100 or 48000 samples in one second
 				if (ignoreInput == 0 && !playing)
 					Arrays.fill(waveform, (byte)0x80);
+				final int fft = VisualizerQualityGovernor.limitFftType(fftType, quality);
 				if (!voice)
-					process(waveform, surface, ignoreInput | DATA_FFT);
+					process(waveform, surface, ignoreInput | fft | DATA_FFT);
 				else
-					processVoice(waveform, surface, ignoreInput | DATA_FFT);
+					processVoice(waveform, surface, ignoreInput | fft | DATA_FFT);
 				ignoreInput ^= IGNORE_INPUT;
 			}
 		} finally {
@@ -293,6 +318,12 @@ public final class SimpleVisualizerJni extends SurfaceView implements SurfaceHol
 		}
 	}
 	
+	//Runs on a SECONDARY thread
+	@Override
+	public void qualityChanged(int quality) {
+		this.quality = quality;
+	}
+
 	//Runs on a SECONDARY thread
 	@Override
 	public void release() {
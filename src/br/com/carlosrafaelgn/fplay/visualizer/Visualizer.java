@@ -59,6 +59,12 @@ public interface Visualizer {
 	int BEAT_DETECTION_7 = 0x7000;
 	int BEAT_DETECTION = 0xF000;
 
+	int DATA_FFT_FLOAT_256 = 0x10000;
+	int DATA_FFT_FLOAT_512 = 0x20000;
+	int DATA_FFT_FLOAT_1024 = 0x30000;
+	int DATA_FFT_FLOAT = 0x70000;
+	int DATA_FFT_GPU = 0x80000;
+
 	int ORIENTATION_NONE = 0;
 	int ORIENTATION_LANDSCAPE = 1;
 	int ORIENTATION_PORTRAIT = 2;
@@ -110,6 +116,9 @@ public interface Visualizer {
 	
 	//Runs on a SECONDARY thread
 	void processFrame(boolean playing, byte[] waveform);
+
+	//Runs on a SECONDARY thread (quality is one of the VisualizerQualityGovernor.QUALITY_xxx values)
+	void qualityChanged(int quality);
 	
 	//Runs on a SECONDARY thread
 	void release();
@@ -0,0 +1,271 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.visualizer;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Message;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import br.com.carlosrafaelgn.fplay.activity.MainHandler;
+import br.com.carlosrafaelgn.fplay.playback.Player;
+
+//Watches how long the visualizer takes to produce its frames (and to render them, when
+//the rendering takes place on another thread), the playback underruns, and the battery
+//state, lowering the quality of the visualizer when any of them is under pressure, and
+//raising it back only after a long enough calm period (so the quality does not keep
+//bouncing between two levels). Everything, except for the observer, runs on the
+//visualizer thread.
+public final class VisualizerQualityGovernor implements MainHandler.Callback {
+	public interface Observer {
+		//Runs on the MAIN thread
+		void onQualityLogChanged(VisualizerQualityGovernor governor, String log);
+	}
+
+	public static final int QUALITY_FULL = 0;
+	public static final int QUALITY_REDUCED = 1;
+	public static final int QUALITY_LOW = 2;
+	public static final int QUALITY_MINIMUM = 3;
+
+	private static final int MSG_LOG_CHANGED = 0x0800;
+	//how many frames are averaged before the quality is reevaluated
+	private static final int WINDOW_FRAMES = 32;
+	//a window is under pressure when the frames take more than 75% of their budget,
+	//and it is calm when they take less than 35% of it
+	private static final int PRESSURE_PERCENT = 75;
+	private static final int CALM_PERCENT = 35;
+	private static final int PRESSURE_WINDOWS = 2;
+	private static final int CALM_WINDOWS = 8;
+	//the render thread is bound to the display's refresh rate, not to our frame interval
+	private static final int RENDER_BUDGET_US = 16667;
+	private static final int BATTERY_CHECK_INTERVAL_MS = 10000;
+	//in tenths of a degree Celsius (just like BatteryManager.EXTRA_TEMPERATURE)
+	private static final int WARM_TEMPERATURE = 420;
+	private static final int HOT_TEMPERATURE = 450;
+	private static final int COOL_TEMPERATURE = 400;
+	private static final int LOW_BATTERY_PERCENT = 15;
+	private static final int LOG_LINES = 6;
+
+	private static final int[] FRAME_INTERVAL_MS = { 16, 22, 33, 50 };
+	private static final int[] MAX_FFT_SIZE = { 1024, 1024, 512, 256 };
+	private static final int[] PARTICLES_BY_COLUMN = { 16, 12, 8, 4 };
+	private static final int[] RESOLUTION_PERCENT = { 100, 100, 75, 50 };
+
+	private final Visualizer visualizer;
+	private final boolean reportsRenderTime;
+	private final String[] log;
+	private volatile Observer observer;
+	private volatile String logText;
+	private int quality, thermalFloor, batteryFloor, frames, costSum, pressureWindows, calmWindows, lastUnderrunCount, lastBatteryCheck, temperature, logHead;
+	private boolean firstBatteryCheck;
+
+	public VisualizerQualityGovernor(Visualizer visualizer) {
+		this.visualizer = visualizer;
+		//OpenGL visualizers only upload the data during processFrame(), the actual
+		//rendering is measured by the native code, on the GL thread
+		reportsRenderTime = (visualizer instanceof OpenGLVisualizerJni);
+		log = new String[LOG_LINES];
+		lastUnderrunCount = -1;
+		firstBatteryCheck = true;
+	}
+
+	public static int getFrameInterval(int quality) {
+		return FRAME_INTERVAL_MS[quality];
+	}
+
+	public static int getParticlesByColumn(int quality) {
+		return PARTICLES_BY_COLUMN[quality];
+	}
+
+	public static int getResolutionPercent(int quality) {
+		return RESOLUTION_PERCENT[quality];
+	}
+
+	//fftType is either 0 (the original 1024-point fixed-point FFT) or one of the
+	//DATA_FFT_FLOAT_xxx values, and the returned value is the same fftType, or a
+	//float FFT small enough for the given quality
+	public static int limitFftType(int fftType, int quality) {
+		final int size = ((fftType == 0) ? 1024 : (128 << (fftType >>> 16)));
+		final int max = MAX_FFT_SIZE[quality];
+		if (size <= max)
+			return fftType;
+		return ((max == 256) ? Visualizer.DATA_FFT_FLOAT_256 : ((max == 512) ? Visualizer.DATA_FFT_FLOAT_512 : Visualizer.DATA_FFT_FLOAT_1024));
+	}
+
+	public int getQuality() {
+		return quality;
+	}
+
+	public String getLog() {
+		return logText;
+	}
+
+	public void setObserver(Observer observer) {
+		this.observer = observer;
+		if (observer != null && logText != null)
+			MainHandler.sendMessage(this, MSG_LOG_CHANGED);
+	}
+
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private static boolean isPowerSaveMode() {
+		try {
+			final PowerManager powerManager = (PowerManager)Player.theApplication.getSystemService(Context.POWER_SERVICE);
+			return (powerManager != null && powerManager.isPowerSaveMode());
+		} catch (Throwable ex) {
+			return false;
+		}
+	}
+
+	private void checkBattery() {
+		final Intent intent;
+		try {
+			//registering a null receiver just returns the current sticky intent
+			intent = Player.theApplication.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		} catch (Throwable ex) {
+			return;
+		}
+		if (intent == null)
+			return;
+
+		//there is no public thermal API for our target SDK, so the battery temperature
+		//is the closest hint we have of how hot the device is
+		final int t = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+		temperature = t;
+		if (t >= HOT_TEMPERATURE)
+			thermalFloor = QUALITY_LOW;
+		else if (t >= WARM_TEMPERATURE)
+			thermalFloor = ((thermalFloor == QUALITY_LOW && t >= ((WARM_TEMPERATURE + HOT_TEMPERATURE) >> 1)) ? QUALITY_LOW : QUALITY_REDUCED);
+		else if (t < COOL_TEMPERATURE)
+			thermalFloor = QUALITY_FULL;
+		else if (thermalFloor == QUALITY_LOW)
+			thermalFloor = QUALITY_REDUCED;
+
+		final int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1), scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+		final boolean plugged = (intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0);
+		batteryFloor = (((Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && isPowerSaveMode()) ||
+			(!plugged && level >= 0 && scale > 0 && ((level * 100) / scale) <= LOW_BATTERY_PERCENT)) ? QUALITY_REDUCED : QUALITY_FULL);
+	}
+
+	private void changeQuality(int newQuality, String reason) {
+		quality = newQuality;
+		pressureWindows = 0;
+		calmWindows = 0;
+		if (visualizer != null)
+			visualizer.qualityChanged(newQuality);
+
+		log[logHead] = "q" + newQuality + " " + FRAME_INTERVAL_MS[newQuality] + "ms " + PARTICLES_BY_COLUMN[newQuality] + "p " + RESOLUTION_PERCENT[newQuality] + "% \u2190 " + reason;
+		logHead = (logHead + 1) % LOG_LINES;
+		final StringBuilder sb = new StringBuilder(256);
+		for (int i = 0; i < LOG_LINES; i++) {
+			final String line = log[(logHead + i) % LOG_LINES];
+			if (line != null) {
+				if (sb.length() != 0)
+					sb.append('\n');
+				sb.append(line);
+			}
+		}
+		logText = sb.toString();
+		if (observer != null)
+			MainHandler.sendMessage(this, MSG_LOG_CHANGED);
+	}
+
+	//Must be called after every processFrame(), with the time it took, in microseconds, and the
+	//current amount of playback underruns (or 0 if unknown). Returns the new frame interval, in
+	//milliseconds, if the quality has changed, or 0 otherwise.
+	public int frameFinished(int processTimeUS, int underrunCount) {
+		costSum += processTimeUS;
+		if (++frames < WINDOW_FRAMES)
+			return 0;
+
+		final int now = (int)SystemClock.uptimeMillis();
+		if (firstBatteryCheck || (now - lastBatteryCheck) >= BATTERY_CHECK_INTERVAL_MS) {
+			firstBatteryCheck = false;
+			lastBatteryCheck = now;
+			checkBattery();
+		}
+
+		final int processTime = costSum / frames;
+		final int renderTime = (reportsRenderTime ? SimpleVisualizerJni.glGetFrameTime() : 0);
+		frames = 0;
+		costSum = 0;
+
+		final int budget = FRAME_INTERVAL_MS[quality] * 1000;
+		final int processPercent = (processTime * 100) / budget;
+		//we are only calm if the frames would fit the budget of the next higher quality
+		final int calmPercent = (processTime * 100) / (FRAME_INTERVAL_MS[(quality > QUALITY_FULL) ? (quality - 1) : QUALITY_FULL] * 1000);
+		final int renderPercent = (renderTime * 100) / RENDER_BUDGET_US;
+		final boolean underrun = (lastUnderrunCount >= 0 && underrunCount > lastUnderrunCount);
+		//the underrun count is zeroed out every time the playback engine is recreated
+		lastUnderrunCount = underrunCount;
+
+		final int floor = Math.max(thermalFloor, batteryFloor);
+		final int oldQuality = quality;
+		final String stats = (processTime / 1000) + "." + ((processTime / 100) % 10) + "/" + (renderTime / 1000) + "." + ((renderTime / 100) % 10) + "ms " + (temperature / 10) + "\u00b0C";
+
+		if (quality < floor) {
+			changeQuality(floor, ((floor == thermalFloor) ? "thermal " : "battery ") + stats);
+		} else if (underrun) {
+			//the playback always has precedence over the visualizer
+			if (quality < QUALITY_MINIMUM)
+				changeQuality(quality + 1, "underrun " + stats);
+		} else if (processPercent > PRESSURE_PERCENT || renderPercent > PRESSURE_PERCENT) {
+			calmWindows = 0;
+			if (++pressureWindows >= PRESSURE_WINDOWS && quality < QUALITY_MINIMUM)
+				changeQuality(quality + 1, "slow " + stats);
+		} else if (calmPercent < CALM_PERCENT && renderPercent < CALM_PERCENT) {
+			pressureWindows = 0;
+			if (++calmWindows >= CALM_WINDOWS && quality > floor)
+				changeQuality(quality - 1, "calm " + stats);
+		} else {
+			pressureWindows = 0;
+			calmWindows = 0;
+		}
+
+		return ((oldQuality != quality) ? FRAME_INTERVAL_MS[quality] : 0);
+	}
+
+	@Override
+	public boolean handleMessage(Message msg) {
+		if (msg.what == MSG_LOG_CHANGED) {
+			final Observer observer = this.observer;
+			if (observer != null)
+				observer.onQualityLogChanged(this, logText);
+		}
+		return true;
+	}
+}